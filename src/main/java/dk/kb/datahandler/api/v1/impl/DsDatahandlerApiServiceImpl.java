@@ -3,6 +3,7 @@ package dk.kb.datahandler.api.v1.impl;
 import dk.kb.datahandler.api.v1.DsDatahandlerApi;
 import dk.kb.datahandler.config.ServiceConfig;
 import dk.kb.datahandler.facade.DsDatahandlerFacade;
+import dk.kb.datahandler.model.v1.JobDto;
 import dk.kb.datahandler.model.v1.TypeDto;
 import dk.kb.datahandler.model.v1.OaiTargetDto;
 import dk.kb.datahandler.webservice.KBAuthorizationInterceptor;
@@ -25,10 +26,12 @@ import javax.validation.constraints.NotNull;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.SecurityContext;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.Providers;
 import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -82,22 +85,28 @@ public class DsDatahandlerApiServiceImpl extends ImplBase implements DsDatahandl
 
 
     @Override
-    public Integer oaiIngestFull(String oaiTarget) {
-        log.debug("oaiIngestFull(oaiTarget='{}') called with call details: {}", oaiTarget, getCallDetails());
+    public Response oaiIngestFull(String oaiTarget, Boolean async) {
+        log.debug("oaiIngestFull(oaiTarget='{}', async={}) called with call details: {}", oaiTarget, async, getCallDetails());
         try {
+            if (Boolean.TRUE.equals(async)) {
+                return accepted(DsDatahandlerFacade.oaiIngestFullAsync(oaiTarget, getCurrentUsername()));
+            }
             int numberIngested = DsDatahandlerFacade.oaiIngestFull(oaiTarget, getCurrentUsername());
-            return numberIngested;
+            return Response.ok(numberIngested).build();
         } catch (Exception e){
             throw handleException(e);
         }
     }
     
     @Override
-    public Integer oaiIngestDelta(String oaiTarget) {
-        log.debug("oaiIngestDelta(oaiTarget='{}') called with call details: {}", oaiTarget, getCallDetails());
+    public Response oaiIngestDelta(String oaiTarget, Boolean async) {
+        log.debug("oaiIngestDelta(oaiTarget='{}', async={}) called with call details: {}", oaiTarget, async, getCallDetails());
         try {
+            if (Boolean.TRUE.equals(async)) {
+                return accepted(DsDatahandlerFacade.oaiIngestDeltaAsync(oaiTarget, getCurrentUsername()));
+            }
             int numberIngested = DsDatahandlerFacade.oaiIngestDelta(oaiTarget, getCurrentUsername());
-            return numberIngested;
+            return Response.ok(numberIngested).build();
         } catch (Exception e){
             throw handleException(e);
         }
@@ -131,17 +140,22 @@ public class DsDatahandlerApiServiceImpl extends ImplBase implements DsDatahandl
     }
 
     @Override
-    public String indexSolr(@NotNull String origin, TypeDto typeDto) {
-        log.debug("indexSolr(origin='{}', ...) called with call details: {}", origin, getCallDetails());
+    public Response indexSolr(@NotNull String origin, TypeDto typeDto, Boolean async) {
+        log.debug("indexSolr(origin='{}', async={}, ...) called with call details: {}", origin, async, getCallDetails());
         try {
+            boolean background = Boolean.TRUE.equals(async);
             switch (typeDto){
                 case FULL:                                      
-                    return DsDatahandlerFacade.indexSolrFull(origin, getCurrentUsername());
+                    return background ?
+                            accepted(DsDatahandlerFacade.indexSolrFullAsync(origin, getCurrentUsername())) :
+                            Response.ok(DsDatahandlerFacade.indexSolrFull(origin, getCurrentUsername())).build();
                 case DELTA:
-                    return DsDatahandlerFacade.indexSolrDelta(origin, getCurrentUsername());
+                    return background ?
+                            accepted(DsDatahandlerFacade.indexSolrDeltaAsync(origin, getCurrentUsername())) :
+                            Response.ok(DsDatahandlerFacade.indexSolrDelta(origin, getCurrentUsername())).build();
                 default:
                     log.error("No indexing type has been selected. Indexing cannot continue without knowing which records to index.");
-                    return "No indexing type has been selected. Indexing cannot continue without knowing which records to index.";
+                    return Response.ok("No indexing type has been selected. Indexing cannot continue without knowing which records to index.").build();
             }
         }  catch (Exception e){
             throw handleException(e);
@@ -150,9 +164,13 @@ public class DsDatahandlerApiServiceImpl extends ImplBase implements DsDatahandl
   
 
     @Override
-    public void kalturaDeltaUpload() {    
+    public Response kalturaDeltaUpload(Boolean async) {    
         try {
+           if (Boolean.TRUE.equals(async)) {
+               return accepted(DsDatahandlerFacade.kalturaDeltaUploadAsync(getCurrentUsername()));
+           }
            DsDatahandlerFacade.kalturaDeltaUpload(getCurrentUsername());
+           return Response.noContent().build();
         }
         catch(Exception e) {
             throw handleException(e);
@@ -161,15 +179,28 @@ public class DsDatahandlerApiServiceImpl extends ImplBase implements DsDatahandl
 
     
     @Override
-    public void transcriptionsLoad() {
+    public Response transcriptionsLoad(Boolean async) {
 
         try {
+            if (Boolean.TRUE.equals(async)) {
+                return accepted(DsDatahandlerFacade.transcriptionsLoadAsync(getCurrentUsername()));
+            }
             DsDatahandlerFacade.transcriptionsLoad(getCurrentUsername());
+            return Response.noContent().build();
          }
          catch(Exception e) {
              throw handleException(e);
          }                       
      }
+
+    /**
+     * Response for a job started in the background: HTTP 202 with the job as entity and the location of the job
+     * under /monitor/jobs, where its progress can be followed.
+     */
+    private Response accepted(JobDto jobDto) {
+        URI location = uriInfo.getBaseUriBuilder().path("monitor/jobs/{id}").build(jobDto.getId());
+        return Response.accepted(jobDto).location(location).build();
+    }
     
     /**
      * Gets the name of the current user from the OAuth token.
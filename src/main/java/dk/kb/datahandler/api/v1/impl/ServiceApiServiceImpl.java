@@ -3,6 +3,7 @@ package dk.kb.datahandler.api.v1.impl;
 import dk.kb.datahandler.api.v1.ServiceApi;
 import dk.kb.datahandler.facade.DsDatahandlerFacade;
 import dk.kb.datahandler.model.v1.*;
+import dk.kb.datahandler.util.Metrics;
 import dk.kb.datahandler.webservice.KBAuthorizationInterceptor;
 import dk.kb.util.BuildInfoManager;
 import dk.kb.util.webservice.ImplBase;
@@ -19,6 +20,7 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * Meta endpoints.
@@ -82,19 +84,38 @@ public class ServiceApiServiceImpl extends ImplBase implements ServiceApi {
         }
     }
 
+    /**
+     * Metrics for harvest, index and upload in the Prometheus text format
+     *
+     * @return the metrics, see {@link Metrics#toPrometheus()}
+     */
+    @Override
+    public String metrics() {
+        log.debug("metrics() called with call details: {}", getCallDetails());
+        try {
+            return Metrics.toPrometheus();
+        } catch (Exception e) {
+            throw handleException(e);
+        }
+    }
+
     /**
      * Return the list of jobs
      *
      * @param category filter on job category
      * @param jobStatus filter on job status
+     * @param pageSize the max number of jobs to return
+     * @param after only return jobs after the job with this id
      * @return
      */
     @Override
-    public List<JobDto> jobs(CategoryDto category, JobStatusDto jobStatus) {
+    public List<JobDto> jobs(CategoryDto category, JobStatusDto jobStatus, Integer pageSize, UUID after) {
         List<JobDto> jobs;
 
         try {
-            jobs = DsDatahandlerFacade.getJobs(category, jobStatus);
+            jobs = DsDatahandlerFacade.getJobs(category, jobStatus, after, pageSize);
+        } catch (ServiceException e) {
+            throw e;
         } catch (Exception e) {
             log.warn("status(): Unable to get jobs", e);
             throw new InternalServiceException("Unable to load jobs",e);
@@ -102,6 +123,22 @@ public class ServiceApiServiceImpl extends ImplBase implements ServiceApi {
 
         return jobs;        
     }
+
+    /**
+     * Return a single job with progress if it is running
+     *
+     * @param id the id of the job
+     * @return the job
+     */
+    @Override
+    public JobDto job(UUID id) {
+        log.debug("job(id='{}') called with call details: {}", id, getCallDetails());
+        try {
+            return DsDatahandlerFacade.getJob(id);
+        } catch (Exception e) {
+            throw handleException(e);
+        }
+    }
     
     
     /**
@@ -2,6 +2,7 @@ package dk.kb.datahandler.config;
 
 import dk.kb.datahandler.model.v1.OaiTargetDto;
 import dk.kb.datahandler.model.v1.OaiTargetDto.DateStampFormatEnum;
+import dk.kb.datahandler.solr.SolrCommitPolicy;
 import dk.kb.util.yaml.YAML;
 import org.apache.http.client.utils.URIBuilder;
 import org.slf4j.Logger;
@@ -34,8 +35,20 @@ public class ServiceConfig {
     private static final Logger log = LoggerFactory.getLogger(ServiceConfig.class);
     
     private static final HashMap<String, OaiTargetDto> oaiTargets = new HashMap<String, OaiTargetDto>();
+    private static final HashMap<String, String> oaiTargetSchedules = new HashMap<String, String>();
+    private static final HashMap<String, Integer> oaiTargetMaxRequestsPerMinute = new HashMap<String, Integer>();
+    private static boolean oaiSchedulerEnabled = false;
+    private static int oaiSchedulerThreads = 2;
+    private static int jobThreads = 2;
+    private static int jobsRetentionDays = 0;
+    private static int httpClientsConnectTimeoutSeconds = 30;
+    private static int httpClientsRequestTimeoutSeconds = 0;
+    private static boolean httpClientsHttp2 = true;
     private static String oaiTimestampFolder=null;
     private static String dsStorageUrl = null;
+    private static int storageBatchRecords = 100;
+    private static int storageBatchMB = 20;
+    private static int storageBatchThreads = 4;
     /**
      * Url to solr write collection with updateHandler added as URL path. Most likely the url has "/update" appened.
      * To get the URL for the write collection without the updateHanler appended use this: {@link #solrWriteCollectionUrl}.
@@ -48,6 +61,13 @@ public class ServiceConfig {
     private static String solrQueryUrl = null;
     private static String dsPresentUrl = null;
     private static int solrBatchSize=100;
+    private static int solrFullIndexPartitions = 1;
+    private static int solrPrefetchBatches = 1;
+    private static boolean solrSpoolToFile = false;
+    private static SolrCommitPolicy.Strategy solrCommitStrategy = SolrCommitPolicy.Strategy.FINAL;
+    private static int solrCommitWithinMs = 0;
+    private static int solrCommitEveryDocuments = 0;
+    private static int solrCommitEverySeconds = 0;
     private static String preservicaUrl = null;
     private static String preservicaUser = null;
     private static String preservicaPassword = null;
@@ -58,6 +78,11 @@ public class ServiceConfig {
     private static int preservicaKeepAliveSeconds = 600;
     private static int oaiRetryTimes = 5;
     private static int oaiRetrySeconds = 600;
+    private static boolean oaiStreaming = false;
+    private static int oaiPrefetchPages = 2;
+    private static int oaiAnalysisThreads = 1;
+    private static int oaiSplitRecords = 0;
+    private static int oaiSplitThreads = 2;
 
     private static String kalturaUrl = null;
     private static Integer kalturaPartnerId = null;
@@ -71,6 +96,13 @@ public class ServiceConfig {
     private static int conversionProfileIdAudio = 0;
     private static int conversionQueueThreshold = 0;
     private static int conversionQueueDelaySeconds = 0;
+    private static int kalturaUploadThreads = 1;
+    private static int kalturaLookupCacheSeconds = 600;
+    private static boolean kalturaChunkedUploadEnabled = false;
+    private static int kalturaChunkedUploadMinimumMB = 500;
+    private static int kalturaChunkedUploadChunkMB = 50;
+    private static int kalturaChunkedUploadRetries = 3;
+    private static String kalturaChunkedUploadStateFolder = "/tmp/ds-datahandler/kaltura.uploads/";
 
 
     private static String streamPathDomsRadioTv = null;
@@ -79,6 +111,12 @@ public class ServiceConfig {
 
     private static String transcriptionsDropFolder;
     private static String transcriptionsCompletedFolder;
+    private static int transcriptionsThreads = 1;
+    private static boolean transcriptionsWatchEnabled = false;
+    private static int transcriptionsWatchDebounceSeconds = 5;
+    private static int fragmentsThreads = 1;
+    private static int fragmentsCacheMaxEntries = 10000;
+    private static int fragmentsCacheSeconds = 3600;
     
     /**
      * Besides parsing of YAML files using SnakeYAML, the YAML helper class provides convenience
@@ -99,10 +137,20 @@ public class ServiceConfig {
         
         oaiTimestampFolder= serviceConfig.getString("timestamps.folder");
         dsStorageUrl = serviceConfig.getString("storage.url");
+        storageBatchRecords = serviceConfig.getInteger("storage.batch.records", 100);
+        storageBatchMB = serviceConfig.getInteger("storage.batch.maxMB", 20);
+        storageBatchThreads = serviceConfig.getInteger("storage.batch.threads", 4);
         solrUpdateUrl = createSolrUpdateUrl();
         solrWriteCollectionUrl = serviceConfig.getString("solr.update.url");
         solrQueryUrl = serviceConfig.getString("solr.queryUrl");
         solrBatchSize=  serviceConfig.getInteger("solr.batchSize");
+        solrFullIndexPartitions = serviceConfig.getInteger("solr.fullIndexPartitions", 1);
+        solrPrefetchBatches = serviceConfig.getInteger("solr.prefetchBatches", 1);
+        solrSpoolToFile = serviceConfig.getBoolean("solr.spoolToFile", false);
+        solrCommitStrategy = SolrCommitPolicy.parseStrategy(serviceConfig.getString("solr.commit.strategy", "final"));
+        solrCommitWithinMs = serviceConfig.getInteger("solr.commit.commitWithinMs", 0);
+        solrCommitEveryDocuments = serviceConfig.getInteger("solr.commit.everyDocuments", 0);
+        solrCommitEverySeconds = serviceConfig.getInteger("solr.commit.everySeconds", 0);
         dsPresentUrl = serviceConfig.getString("present.url");
 
         preservicaUrl = serviceConfig.getString("preservica.baseUrl");
@@ -129,6 +177,14 @@ public class ServiceConfig {
         conversionProfileIdAudio = ServiceConfig.getConfig().getInteger("kaltura.conversionProfileIdAudio");
         conversionQueueThreshold = ServiceConfig.getConfig().getInteger("kaltura.conversionQueueThreshold");
         conversionQueueDelaySeconds = ServiceConfig.getConfig().getInteger("kaltura.conversionQueueDelaySeconds");
+        kalturaUploadThreads = ServiceConfig.getConfig().getInteger("kaltura.uploadThreads", 1);
+        kalturaLookupCacheSeconds = ServiceConfig.getConfig().getInteger("kaltura.lookupCacheSeconds", 600);
+        kalturaChunkedUploadEnabled = ServiceConfig.getConfig().getBoolean("kaltura.chunkedUpload.enabled", false);
+        kalturaChunkedUploadMinimumMB = ServiceConfig.getConfig().getInteger("kaltura.chunkedUpload.minimumMB", 500);
+        kalturaChunkedUploadChunkMB = ServiceConfig.getConfig().getInteger("kaltura.chunkedUpload.chunkMB", 50);
+        kalturaChunkedUploadRetries = ServiceConfig.getConfig().getInteger("kaltura.chunkedUpload.retries", 3);
+        kalturaChunkedUploadStateFolder = ServiceConfig.getConfig().getString(
+                "kaltura.chunkedUpload.stateFolder", kalturaChunkedUploadStateFolder);
 
         streamPathDomsRadioTv = ServiceConfig.getConfig().getString("streams.domsRadioTvPath");
         streamPathPreservicaTv = ServiceConfig.getConfig().getString("streams.preservicaTvPath");
@@ -136,14 +192,32 @@ public class ServiceConfig {
 
         oaiRetryTimes = serviceConfig.getInteger("oaiSettings.retryTimes", 5); // Defaulting to 5 retries
         oaiRetrySeconds = serviceConfig.getInteger("oaiSettings.retrySeconds", 600); // Defaulting to 10 minuts
+        oaiStreaming = serviceConfig.getBoolean("oaiSettings.streaming", false);
+        oaiPrefetchPages = serviceConfig.getInteger("oaiSettings.prefetchPages", 2);
+        oaiAnalysisThreads = serviceConfig.getInteger("oaiSettings.analysisThreads", 1);
+        oaiSplitRecords = serviceConfig.getInteger("oaiSettings.split.records", 0);
+        oaiSplitThreads = serviceConfig.getInteger("oaiSettings.split.threads", 2);
+        oaiSchedulerEnabled = serviceConfig.getBoolean("oaiScheduler.enabled", false);
+        oaiSchedulerThreads = serviceConfig.getInteger("oaiScheduler.threads", 2);
+        jobThreads = serviceConfig.getInteger("jobs.threads", 2);
+        jobsRetentionDays = serviceConfig.getInteger("jobs.retentionDays", 0);
+        httpClientsConnectTimeoutSeconds = serviceConfig.getInteger("httpClients.connectTimeoutSeconds", 30);
+        httpClientsRequestTimeoutSeconds = serviceConfig.getInteger("httpClients.requestTimeoutSeconds", 0);
+        httpClientsHttp2 = serviceConfig.getBoolean("httpClients.http2", true);
                                                                       
         transcriptionsDropFolder=ServiceConfig.getConfig().getString("transcriptions.dropFolder");   
         transcriptionsCompletedFolder=ServiceConfig.getConfig().getString("transcriptions.completedFolder");
+        transcriptionsThreads = ServiceConfig.getConfig().getInteger("transcriptions.threads", 1);
+        transcriptionsWatchEnabled = ServiceConfig.getConfig().getBoolean("transcriptions.watch.enabled", false);
+        transcriptionsWatchDebounceSeconds = ServiceConfig.getConfig().getInteger("transcriptions.watch.debounceSeconds", 5);
+        fragmentsThreads = ServiceConfig.getConfig().getInteger("fragments.threads", 1);
+        fragmentsCacheMaxEntries = ServiceConfig.getConfig().getInteger("fragments.cache.maxEntries", 10000);
+        fragmentsCacheSeconds = ServiceConfig.getConfig().getInteger("fragments.cache.seconds", 3600);
         
         log.info("Initialised from config: '{}' with the following values: solrUpdateUrl: '{}', solrQueryUrl: '{}', " +
-                "solrBatchSize: '{}', dsStorageUrl: '{}', dsPresentUrl: '{}', oaiRetryTimes: '{}', oaiRetrySeconds: '{}', transcriptionDropFolder: '{}', transcriptionCompletedFolder: '{}'",
-               configFiles, solrUpdateUrl, solrQueryUrl, solrBatchSize, dsStorageUrl, dsPresentUrl, oaiRetryTimes, oaiRetrySeconds, transcriptionsDropFolder
-               ,transcriptionsCompletedFolder);
+                "solrBatchSize: '{}', solrFullIndexPartitions: '{}', solrPrefetchBatches: '{}', solrSpoolToFile: '{}', solrCommitStrategy: '{}', solrCommitWithinMs: '{}', solrCommitEveryDocuments: '{}', solrCommitEverySeconds: '{}', dsStorageUrl: '{}', storageBatchRecords: '{}', storageBatchMB: '{}', storageBatchThreads: '{}', dsPresentUrl: '{}', oaiRetryTimes: '{}', oaiRetrySeconds: '{}', oaiStreaming: '{}', oaiPrefetchPages: '{}', oaiAnalysisThreads: '{}', oaiSplitRecords: '{}', oaiSplitThreads: '{}', oaiSchedulerEnabled: '{}', oaiSchedulerThreads: '{}', jobThreads: '{}', jobsRetentionDays: '{}', httpClientsConnectTimeoutSeconds: '{}', httpClientsRequestTimeoutSeconds: '{}', httpClientsHttp2: '{}', kalturaUploadThreads: '{}', kalturaLookupCacheSeconds: '{}', kalturaChunkedUploadEnabled: '{}', kalturaChunkedUploadMinimumMB: '{}', kalturaChunkedUploadChunkMB: '{}', kalturaChunkedUploadRetries: '{}', kalturaChunkedUploadStateFolder: '{}', transcriptionDropFolder: '{}', transcriptionCompletedFolder: '{}', transcriptionsThreads: '{}', transcriptionsWatchEnabled: '{}', transcriptionsWatchDebounceSeconds: '{}', fragmentsThreads: '{}', fragmentsCacheMaxEntries: '{}', fragmentsCacheSeconds: '{}'",
+               configFiles, solrUpdateUrl, solrQueryUrl, solrBatchSize, solrFullIndexPartitions, solrPrefetchBatches, solrSpoolToFile, solrCommitStrategy, solrCommitWithinMs, solrCommitEveryDocuments, solrCommitEverySeconds, dsStorageUrl, storageBatchRecords, storageBatchMB, storageBatchThreads, dsPresentUrl, oaiRetryTimes, oaiRetrySeconds, oaiStreaming, oaiPrefetchPages, oaiAnalysisThreads, oaiSplitRecords, oaiSplitThreads, oaiSchedulerEnabled, oaiSchedulerThreads, jobThreads, jobsRetentionDays, httpClientsConnectTimeoutSeconds, httpClientsRequestTimeoutSeconds, httpClientsHttp2, kalturaUploadThreads, kalturaLookupCacheSeconds, kalturaChunkedUploadEnabled, kalturaChunkedUploadMinimumMB, kalturaChunkedUploadChunkMB, kalturaChunkedUploadRetries, kalturaChunkedUploadStateFolder, transcriptionsDropFolder
+               ,transcriptionsCompletedFolder, transcriptionsThreads, transcriptionsWatchEnabled, transcriptionsWatchDebounceSeconds, fragmentsThreads, fragmentsCacheMaxEntries, fragmentsCacheSeconds);
 
         Path folderPath = Paths.get(oaiTimestampFolder);
         if (Files.exists(folderPath)) {            
@@ -193,6 +267,55 @@ public class ServiceConfig {
     	return solrBatchSize;
     }
 
+    /**
+     * @return the number of mTime ranges to index in parallel for a full solr index. 1 means sequential indexing.
+     */
+    public static int getSolrFullIndexPartitions() {
+        return solrFullIndexPartitions;
+    }
+
+    /**
+     * @return the number of batches to fetch from ds-present while a batch is indexed in solr. 0 means no prefetch.
+     */
+    public static int getSolrPrefetchBatches() {
+        return solrPrefetchBatches;
+    }
+
+    /**
+     * @return true if prefetched batches for solr are held in temporary files instead of memory.
+     */
+    public static boolean isSolrSpoolToFile() {
+        return solrSpoolToFile;
+    }
+
+    /**
+     * @return when documents are committed during a solr index. See {@link SolrCommitPolicy}.
+     */
+    public static SolrCommitPolicy.Strategy getSolrCommitStrategy() {
+        return solrCommitStrategy;
+    }
+
+    /**
+     * @return commitWithin in milliseconds for updates with the final commit strategy. 0 means no commitWithin.
+     */
+    public static int getSolrCommitWithinMs() {
+        return solrCommitWithinMs;
+    }
+
+    /**
+     * @return the number of documents between commits with the interval commit strategy. 0 means no limit.
+     */
+    public static int getSolrCommitEveryDocuments() {
+        return solrCommitEveryDocuments;
+    }
+
+    /**
+     * @return the number of seconds between commits with the interval commit strategy. 0 means no limit.
+     */
+    public static int getSolrCommitEverySeconds() {
+        return solrCommitEverySeconds;
+    }
+
     /**
      * Get URL to solr write collection with updateHandler added as URL path. Most likely the url has "/update" appened.
      * To get the URL for the write collection without the updateHanler appended use this: {@link #solrWriteCollectionUrl}.
@@ -221,6 +344,28 @@ public class ServiceConfig {
         return dsStorageUrl;
     }
 
+    /**
+     * @return the max number of records to collect before sending them to ds-storage during OAI harvest.
+     */
+    public static int getStorageBatchRecords() {
+        return storageBatchRecords;
+    }
+
+    /**
+     * @return the max size in bytes of the record data to collect before sending them to ds-storage during OAI
+     *         harvest. 0 means no size limit.
+     */
+    public static long getStorageBatchBytes() {
+        return storageBatchMB * 1024L * 1024L;
+    }
+
+    /**
+     * @return the number of parallel requests used for sending a batch of records to ds-storage.
+     */
+    public static int getStorageBatchThreads() {
+        return storageBatchThreads;
+    }
+
     public static String getOaiTimestampFolder() {
         return oaiTimestampFolder;
     }
@@ -229,6 +374,71 @@ public class ServiceConfig {
         return oaiTargets;
     }
 
+    /**
+     * @return cron expressions for the OAI targets that should be delta harvested by the scheduler, with target
+     *         name as key. Targets without a schedule are not included.
+     */
+    public static HashMap<String, String> getOaiTargetSchedules() {
+        return oaiTargetSchedules;
+    }
+
+    /**
+     * @param oaiTargetName name of a configured OAI target.
+     * @return the maximum number of requests per minute to the OAI target. 0 means no limit.
+     */
+    public static int getOaiTargetMaxRequestsPerMinute(String oaiTargetName) {
+        return oaiTargetMaxRequestsPerMinute.getOrDefault(oaiTargetName, 0);
+    }
+
+    /**
+     * @return true if the OAI targets with a schedule should be harvested by the in-process scheduler.
+     */
+    public static boolean isOaiSchedulerEnabled() {
+        return oaiSchedulerEnabled;
+    }
+
+    /**
+     * @return the max number of OAI targets the scheduler harvests concurrently.
+     */
+    public static int getOaiSchedulerThreads() {
+        return oaiSchedulerThreads;
+    }
+
+    /**
+     * @return the max number of jobs started with {@code async=true} that runs at the same time.
+     */
+    public static int getJobThreads() {
+        return jobThreads;
+    }
+
+    /**
+     * @return the number of days finished jobs are kept in the job storage. 0 means that jobs are kept forever.
+     */
+    public static int getJobsRetentionDays() {
+        return jobsRetentionDays;
+    }
+
+    /**
+     * @return the connect timeout in seconds for the shared HTTP clients.
+     */
+    public static int getHttpClientsConnectTimeoutSeconds() {
+        return httpClientsConnectTimeoutSeconds;
+    }
+
+    /**
+     * @return the request timeout in seconds for the shared HTTP clients. 0 means no timeout.
+     */
+    public static int getHttpClientsRequestTimeoutSeconds() {
+        return httpClientsRequestTimeoutSeconds;
+    }
+
+    /**
+     * @return true if the shared HTTP clients should use HTTP/2 where the server supports it.
+     */
+    public static boolean isHttpClientsHttp2() {
+        return httpClientsHttp2;
+    }
+
     public static String getPreservicaUrl() {
         return preservicaUrl;
     }
@@ -253,6 +463,43 @@ public class ServiceConfig {
         return oaiRetrySeconds;
     }
 
+    /**
+     * @return true if OAI-PMH responses should be parsed as a stream, delivering records one at a time to the filter.
+     */
+    public static boolean isOaiStreaming() {
+        return oaiStreaming;
+    }
+
+    /**
+     * @return the number of OAI-PMH pages to fetch ahead while records are added to ds-storage. 0 means no prefetching.
+     */
+    public static int getOaiPrefetchPages() {
+        return oaiPrefetchPages;
+    }
+
+    /**
+     * @return the number of threads used for analysing the Preservica records in an OAI-PMH page in parallel. The
+     *         threads are shared by all running harvests. 1 means that records are analysed on the harvest thread.
+     */
+    public static int getOaiAnalysisThreads() {
+        return oaiAnalysisThreads;
+    }
+
+    /**
+     * @return the max number of records in a range when a harvest without a resumptionToken is split into ranges of
+     *         datestamps that are harvested concurrently. 0 means that harvests are not split.
+     */
+    public static int getOaiSplitRecords() {
+        return oaiSplitRecords;
+    }
+
+    /**
+     * @return the number of ranges of a split harvest that are harvested concurrently.
+     */
+    public static int getOaiSplitThreads() {
+        return oaiSplitThreads;
+    }
+
     public static int getPreservicaRetryTimes() {
         return preservicaRetryTimes;
     }
@@ -309,6 +556,52 @@ public class ServiceConfig {
         return conversionQueueDelaySeconds;
     }
 
+    /**
+     * @return the number of streams uploaded to kaltura in parallel by the delta upload job. 1 means sequential upload.
+     */
+    public static int getKalturaUploadThreads() {
+        return kalturaUploadThreads;
+    }
+
+    /**
+     * @return the number of seconds the kaltura ids looked up by the delta upload job are cached.
+     */
+    public static int getKalturaLookupCacheSeconds() {
+        return kalturaLookupCacheSeconds;
+    }
+
+    /**
+     * @return true if large streams are uploaded to kaltura in chunks that can be resumed.
+     */
+    public static boolean isKalturaChunkedUploadEnabled() {
+        return kalturaChunkedUploadEnabled;
+    }
+
+    /**
+     * @return streams of at least this size in MB are uploaded in chunks when chunked upload is enabled.
+     */
+    public static int getKalturaChunkedUploadMinimumMB() {
+        return kalturaChunkedUploadMinimumMB;
+    }
+
+    public static int getKalturaChunkedUploadChunkMB() {
+        return kalturaChunkedUploadChunkMB;
+    }
+
+    /**
+     * @return the number of times a failed chunk is retried before the upload is left to be resumed by a later job.
+     */
+    public static int getKalturaChunkedUploadRetries() {
+        return kalturaChunkedUploadRetries;
+    }
+
+    /**
+     * @return folder with the state of unfinished chunked uploads.
+     */
+    public static String getKalturaChunkedUploadStateFolder() {
+        return kalturaChunkedUploadStateFolder;
+    }
+
     public static YAML getServiceConfig() {
         return serviceConfig;
     }
@@ -333,6 +626,49 @@ public class ServiceConfig {
     public static String getTranscriptionsCompletedFolder() {
         return transcriptionsCompletedFolder;
     }
+
+    /**
+     * @return the number of transcriptions that are parsed and sent to ds-storage in parallel. 1 means sequential.
+     */
+    public static int getTranscriptionsThreads() {
+        return transcriptionsThreads;
+    }
+
+    /**
+     * @return true if transcriptions are loaded as soon as they appear in the drop folder.
+     */
+    public static boolean isTranscriptionsWatchEnabled() {
+        return transcriptionsWatchEnabled;
+    }
+
+    /**
+     * @return the number of seconds the files for a transcription must be unchanged before it is loaded by the watcher.
+     */
+    public static int getTranscriptionsWatchDebounceSeconds() {
+        return transcriptionsWatchDebounceSeconds;
+    }
+
+    /**
+     * @return the number of records in an OAI-PMH page that are enriched with metadata fragments in parallel. The
+     *         threads are shared by all running harvests.
+     */
+    public static int getFragmentsThreads() {
+        return fragmentsThreads;
+    }
+
+    /**
+     * @return the maximum number of information objects with cached metadata fragments.
+     */
+    public static int getFragmentsCacheMaxEntries() {
+        return fragmentsCacheMaxEntries;
+    }
+
+    /**
+     * @return the number of seconds metadata fragments are cached.
+     */
+    public static int getFragmentsCacheSeconds() {
+        return fragmentsCacheSeconds;
+    }
     
 
     private static void loadOaiTargets() {
@@ -349,6 +685,8 @@ public class ServiceConfig {
             String filterStr = target.getString("filter","direct");
             String dateStampFormat = target.getString("dateStampFormat","date");            
             String fragmentServiceUrl = target.getString("fragmentServiceUrl",null);
+            String schedule = target.getString("schedule",null);
+            int maxRequestsPerMinute = target.getInteger("maxRequestsPerMinute",0);
 
             OaiTargetDto.FilterEnum filter;
             try {
@@ -378,6 +716,10 @@ public class ServiceConfig {
             oaiTarget.setFragmentServiceUrl(fragmentServiceUrl);
                     
             oaiTargets.put(name, oaiTarget);
+            if (schedule != null) {
+                oaiTargetSchedules.put(name, schedule);
+            }
+            oaiTargetMaxRequestsPerMinute.put(name, maxRequestsPerMinute);
             
             log.info("Load OAI target from yaml:"+name);
         }
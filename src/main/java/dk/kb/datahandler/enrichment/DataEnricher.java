@@ -23,6 +23,8 @@ public class DataEnricher {
 
     private static final Logger log = LoggerFactory.getLogger(DataEnricher.class);
 
+    private static final String IO_PREFIX = "oai:io:";
+
     /**
      * Fetches metadata segments and adds them as <Metadata> elements of the XIP -node to the metdata of the oaiRecord
      * Note: only works of metadata is in XIP format.
@@ -32,9 +34,25 @@ public class DataEnricher {
      */
     public static OaiRecord apply(String fragmentsUrl, OaiRecord record)  {
         log.debug("Enriching {}",record.getId());
+        return apply(record, fetchFragments(FragmentsClient.getInstance(fragmentsUrl), record));
+    }
+
+    /**
+     * Adds the metadata fragments as <Metadata> elements of the XIP -node to the metdata of the oaiRecord.
+     * The metadata is parsed and serialized once, no matter the number of fragments.
+     * Note: only works of metadata is in XIP format.
+     *
+     * @param record OaiRecord to be enriched
+     * @param fragments the metadata fragments for the record
+     * @return the enriched records
+     */
+    public static OaiRecord apply(OaiRecord record, List<Fragment> fragments) {
+        if (fragments.isEmpty()) {
+            log.debug("No fragments found for {}", record.getId());
+            return record;
+        }
 
         Document metadataDoc;
-        List<Fragment> fragments;
         try {
             metadataDoc = XML.fromXML(record.getMetadata(), true);
         } catch (ParserConfigurationException | SAXException | IOException e) {
@@ -42,23 +60,12 @@ public class DataEnricher {
             throw new InternalServiceException("Unable to pass OAI record metadata "+record.getId(),e);
         }
 
-         try {
-             fragments = FragmentsClient.getInstance(fragmentsUrl).fetchMetadataFragments(extractIoId(record.getId()));
-         } catch (URISyntaxException | IOException e) {
-             log.error("Unable to fetch fragments for {}",record.getId(),e);
-             throw new InternalServiceException("Unable to fetch fragments for "+record.getId());
-         }
-        if (fragments.isEmpty()) {
-             log.debug("No fragments found for {}", record.getId());
-         }
-
         try {
             for (Fragment fragment : fragments) {
                 Document fragmentDoc = XML.fromXML(fragment.getMetadataFragment(), true);
-                fragmentDoc.getElementById("record");
                 addMetadataFragments(metadataDoc, fragmentDoc);
-                record.setMetadata(XML.domToString(metadataDoc));
             }
+            record.setMetadata(XML.domToString(metadataDoc));
         } catch (ParserConfigurationException | IOException | SAXException | TransformerException e) {
             log.warn("Unable to add metadata fragments to {}",record.getId(),e);
             throw new InternalServiceException("Unable to add metadata to fragment to "+record.getId(),e);
@@ -66,6 +73,34 @@ public class DataEnricher {
         return record;
     }
 
+    /**
+     * Fetch the metadata fragments for the information object of the record.
+     *
+     * @param client the client for the fragments service.
+     * @param record an OaiRecord for an information object.
+     * @return the fragments. Empty if there are no fragments.
+     * @throws InternalServiceException if the fragments could not be fetched.
+     */
+    public static List<Fragment> fetchFragments(FragmentsClient client, OaiRecord record) {
+        try {
+            return client.fetchMetadataFragments(extractIoId(record.getId()));
+        } catch (URISyntaxException | IOException e) {
+            log.error("Unable to fetch fragments for {}",record.getId(),e);
+            throw new InternalServiceException("Unable to fetch fragments for "+record.getId());
+        }
+    }
+
+    /**
+     * Only information objects with metadata can be enriched. Deleted records and structural objects are not.
+     *
+     * @param record an OaiRecord from a Preservica harvest.
+     * @return true if fragments should be fetched for the record.
+     */
+    public static boolean isEnrichable(OaiRecord record) {
+        return !record.isDeleted() && record.getMetadata() != null && record.getId() != null &&
+               record.getId().contains(IO_PREFIX);
+    }
+
     private static void addMetadataFragments(Document record, Document fragments) {
         NodeList nodeList = record.getElementsByTagName("XIP");
         if (nodeList.getLength() > 0 ) {
@@ -91,10 +126,13 @@ public class DataEnricher {
         }
     }
 
-    private static String extractIoId(String recordId) {
-        String prefix = "oai:io:";
-        int lengthOfPrefix = prefix.length();
-        int endOfPrefix = recordId.lastIndexOf(prefix);
+    /**
+     * @param recordId the id of an OaiRecord for an information object, e.g. {@code oai:io:3c0d8491-...}.
+     * @return the id of the information object.
+     */
+    public static String extractIoId(String recordId) {
+        int lengthOfPrefix = IO_PREFIX.length();
+        int endOfPrefix = recordId.lastIndexOf(IO_PREFIX);
 
         return recordId.substring(endOfPrefix + lengthOfPrefix);
     }
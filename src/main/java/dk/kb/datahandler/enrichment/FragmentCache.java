@@ -0,0 +1,94 @@
+package dk.kb.datahandler.enrichment;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache of the metadata fragments for information objects, so records harvested again, e.g. by overlapping delta
+ * harvests, do not call the fragments service. Entries expire after the time given to the constructor and the least
+ * recently used entries are removed when the cache holds more than {@code maxEntries} entries.
+ * <p>
+ * The cache is thread safe.
+ */
+public class FragmentCache {
+    private final Map<String, Entry> entries;
+    private final long ttlNS;
+    private final LongSupplier clock;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxEntries the maximum number of information objects in the cache.
+     * @param ttlSeconds the number of seconds an entry is valid.
+     */
+    public FragmentCache(int maxEntries, long ttlSeconds) {
+        this(maxEntries, ttlSeconds * 1_000_000_000L, System::nanoTime);
+    }
+
+    /**
+     * @param maxEntries the maximum number of information objects in the cache.
+     * @param ttlNS      the number of nanoseconds an entry is valid.
+     * @param clock      the current time in nanoseconds.
+     */
+    FragmentCache(int maxEntries, long ttlNS, LongSupplier clock) {
+        this.ttlNS = ttlNS;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param ioId the id of an information object.
+     * @return the fragments for the information object or null if they are not in the cache.
+     */
+    public synchronized List<Fragment> get(String ioId) {
+        Entry entry = entries.get(ioId);
+        if (entry != null && clock.getAsLong() - entry.expires > 0) {
+            entries.remove(ioId);
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.fragments;
+    }
+
+    /**
+     * @param ioId      the id of an information object.
+     * @param fragments the fragments for the information object.
+     */
+    public synchronized void put(String ioId, List<Fragment> fragments) {
+        entries.put(ioId, new Entry(List.copyOf(fragments), clock.getAsLong() + ttlNS));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        final List<Fragment> fragments;
+        final long expires;
+
+        Entry(List<Fragment> fragments, long expires) {
+            this.fragments = fragments;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package dk.kb.datahandler.enrichment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.oai.OaiHarvestStep;
+import dk.kb.datahandler.oai.OaiRecord;
+import dk.kb.datahandler.oai.OaiResponse;
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.ServiceException;
+
+/**
+ * Harvest step that enriches the information objects in a page with metadata fragments, see
+ * {@link DataEnricher}. The fragments for the records in a page are fetched and added in parallel using the executor
+ * given to the constructor, and fragments are cached, so an information object harvested again within the lifetime of
+ * the cache does not call the fragments service.
+ * <p>
+ * If a record can not be enriched, the rest of the page is still processed, after which an exception naming the
+ * failed records is thrown.
+ */
+public class FragmentEnricher implements OaiHarvestStep {
+    private static final Logger log = LoggerFactory.getLogger(FragmentEnricher.class);
+
+    /** Max number of failed ids to list in the exception message. All failed ids are logged. */
+    private static final int MAX_FAILED_IDS_IN_MESSAGE = 20;
+
+    private final FragmentsClient client;
+    private final FragmentCache cache;
+    private final ExecutorService executor;
+
+    /**
+     * @param client   the client for the fragments service.
+     * @param cache    cache for fragments. If null, fragments are always fetched.
+     * @param executor if not null, the records in a page are enriched in parallel using this executor. The executor
+     *                 is not shut down by the enricher.
+     */
+    public FragmentEnricher(FragmentsClient client, FragmentCache cache, ExecutorService executor) {
+        this.client = client;
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * Enrich the record with its metadata fragments. Records that can not be enriched, see
+     * {@link DataEnricher#isEnrichable(OaiRecord)}, are left unchanged.
+     */
+    @Override
+    public void process(OaiRecord oaiRecord) throws ServiceException {
+        if (!DataEnricher.isEnrichable(oaiRecord)) {
+            return;
+        }
+        String ioId = DataEnricher.extractIoId(oaiRecord.getId());
+        List<Fragment> fragments = cache == null ? null : cache.get(ioId);
+        if (fragments == null) {
+            fragments = DataEnricher.fetchFragments(client, oaiRecord);
+            if (cache != null) {
+                cache.put(ioId, fragments);
+            }
+        }
+        DataEnricher.apply(oaiRecord, fragments);
+    }
+
+    /**
+     * Enrich the records in the page, in parallel if an executor has been given.
+     */
+    @Override
+    public void process(OaiResponse page) throws ServiceException {
+        if (executor == null) {
+            OaiHarvestStep.super.process(page);
+            return;
+        }
+
+        List<OaiRecord> records = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (OaiRecord oaiRecord : page.getRecords()) {
+            if (DataEnricher.isEnrichable(oaiRecord)) {
+                records.add(oaiRecord);
+                futures.add(executor.submit(() -> process(oaiRecord)));
+            }
+        }
+
+        // Wait for all records, so no record is changed after the page has been delivered
+        List<String> failedIds = new ArrayList<>();
+        Throwable firstFailure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                failedIds.add(records.get(i).getId());
+                firstFailure = firstFailure == null ? e.getCause() : firstFailure;
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new InternalServiceException("Interrupted while enriching records", e);
+            }
+        }
+        if (!failedIds.isEmpty()) {
+            log.error("Enrichment failed for {} of {} records: {}", failedIds.size(), records.size(), failedIds);
+            String idList = failedIds.size() <= MAX_FAILED_IDS_IN_MESSAGE ?
+                    failedIds.toString() :
+                    failedIds.subList(0, MAX_FAILED_IDS_IN_MESSAGE) + " and " +
+                            (failedIds.size() - MAX_FAILED_IDS_IN_MESSAGE) + " more";
+            throw new InternalServiceException("Failed to enrich " + failedIds.size() + " records: " + idList,
+                    firstFailure);
+        }
+        if (cache != null) {
+            log.debug("Enriched {} records. Fragment cache has {} entries, {} hits and {} misses",
+                    records.size(), cache.size(), cache.getHits(), cache.getMisses());
+        }
+    }
+}
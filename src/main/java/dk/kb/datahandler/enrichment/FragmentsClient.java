@@ -2,15 +2,17 @@ package dk.kb.datahandler.enrichment;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.kb.datahandler.util.HttpClientRegistry;
 import org.apache.http.client.utils.URIBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.util.List;
 
 /*
@@ -19,21 +21,35 @@ import java.util.List;
 public class FragmentsClient {
     private static final Logger log = LoggerFactory.getLogger(FragmentsClient.class);
 
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
     private static FragmentsClient instance;
 
+    /** Milliseconds to wait after the first failed attempt. The wait grows with each attempt. */
+    private static final long RETRY_DELAY_MS = 500;
+
     private final String baseUrl;
     private final int maxRetries;
+    private final long retryDelayMS;
 
     public static synchronized FragmentsClient getInstance(String baseUrl) {
         if (instance == null || !baseUrl.equals(instance.getBaseUrl())) {
-            instance = new FragmentsClient(baseUrl,5);
+            instance = new FragmentsClient(baseUrl,5,RETRY_DELAY_MS);
         }
         return instance;
     }
 
     public FragmentsClient(String baseUrl,int maxRetries) {
+        this(baseUrl, maxRetries, 0);
+    }
+
+    /**
+     * @param retryDelayMS milliseconds to wait after a failed attempt, multiplied by the number of failed attempts.
+     */
+    public FragmentsClient(String baseUrl,int maxRetries, long retryDelayMS) {
         this.maxRetries = maxRetries;
         this.baseUrl = baseUrl;
+        this.retryDelayMS = retryDelayMS;
     }
 
     public String getBaseUrl() {
@@ -51,43 +67,55 @@ public class FragmentsClient {
         int attempt = 0;
         while (attempt < maxRetries) {
             try {
-                HttpURLConnection connection = getConnection(id);
-
-                int status = connection.getResponseCode();
-                if (status != 200) {
-                    throw new IOException("Failed to fetch metadata fragments, HTTP response code: " + status);
-                }
+                HttpResponse<InputStream> response = getResponse(id);
 
-                try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    String response = readResponse(in);
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    return objectMapper.readValue(response, new TypeReference<List<Fragment>>(){});
+                try (InputStream body = response.body()) { // Always read or close the body to release the connection
+                    int status = response.statusCode();
+                    if (status != 200) {
+                        throw new IOException("Failed to fetch metadata fragments, HTTP response code: " + status);
+                    }
+                    return objectMapper.readValue(body, new TypeReference<List<Fragment>>(){});
                 }
             } catch (IOException e) {
                 log.warn("Fragments client connection failed "+e.getMessage());
                 attempt++;
+                if (attempt < maxRetries) {
+                    sleep(id, attempt);
+                }
             }
         }
         throw new IOException("Failed to fetch fragments for id:"+id+" after "+maxRetries+" retries");
     }
 
-    protected HttpURLConnection getConnection(String id) throws URISyntaxException, IOException {
-        URL url = new URIBuilder(baseUrl)
-                .setPathSegments("fragments", id)
-                .build().toURL();
-
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setRequestMethod("GET");
-        connection.setRequestProperty("accept", "application/json");
-        return connection;
+    private void sleep(String id, int attempt) throws IOException {
+        if (retryDelayMS <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(retryDelayMS * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to retry fetching fragments for id:" + id, e);
+        }
     }
 
-    private String readResponse(BufferedReader in) throws IOException {
-        StringBuilder response = new StringBuilder();
-        String inputLine;
-        while ((inputLine = in.readLine()) != null) {
-            response.append(inputLine);
+    /**
+     * Request the fragments for an id using the shared HTTP client for fragments.
+     */
+    protected HttpResponse<InputStream> getResponse(String id) throws URISyntaxException, IOException {
+        URI uri = new URIBuilder(baseUrl)
+                .setPathSegments("fragments", id)
+                .build();
+
+        HttpRequest request = HttpClientRegistry.newRequest(uri)
+                .header("accept", "application/json")
+                .GET()
+                .build();
+        try {
+            return HttpClientRegistry.send(HttpClientRegistry.FRAGMENTS, request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching fragments for id:" + id, e);
         }
-        return response.toString();
     }
 }
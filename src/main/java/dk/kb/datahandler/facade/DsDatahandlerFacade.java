@@ -1,16 +1,22 @@
 package dk.kb.datahandler.facade;
 
-import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.kaltura.client.types.APIException;
 import dk.kb.datahandler.model.v1.*;
@@ -18,91 +24,74 @@ import dk.kb.datahandler.oai.OaiResponseFilterDrArchive;
 import dk.kb.datahandler.oai.OaiResponseFilterPreservicaSeven;
 import dk.kb.datahandler.solr.SolrIndexResponse;
 import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.HarvestCheckpoint;
+import dk.kb.datahandler.storage.HarvestCheckpointStorage;
 import dk.kb.datahandler.storage.JobStorage;
 import dk.kb.datahandler.transcriptions.TranscriptionJob;
 import dk.kb.storage.model.v1.DsRecordMinimalDto;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.enrichment.FragmentCache;
+import dk.kb.datahandler.enrichment.FragmentEnricher;
+import dk.kb.datahandler.enrichment.FragmentsClient;
 
 import dk.kb.datahandler.oai.OaiHarvestClient;
+import dk.kb.datahandler.oai.OaiPrefetchingHarvester;
+import dk.kb.datahandler.oai.OaiRangeSplitter;
+import dk.kb.datahandler.oai.StorageBatchPoster;
 import dk.kb.datahandler.kaltura.KalturaDeltaUploadJob;
 import dk.kb.datahandler.oai.OaiRecord;
 import dk.kb.datahandler.oai.OaiResponse;
 import dk.kb.datahandler.oai.OaiResponseFilter;
+import dk.kb.datahandler.oai.OaiHarvestStep;
 import dk.kb.datahandler.util.HarvestTimeUtil;
+import dk.kb.datahandler.util.HttpClientRegistry;
+import dk.kb.datahandler.util.JobProgress;
+import dk.kb.datahandler.util.NamedThreadFactory;
 import dk.kb.datahandler.util.SolrUtils;
 import dk.kb.kaltura.client.DsKalturaClient;
-import dk.kb.storage.model.v1.DsRecordDto;
 import dk.kb.storage.util.DsStorageClient;
 import dk.kb.util.webservice.exception.InternalServiceException;
 import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+import dk.kb.util.webservice.exception.NotFoundServiceException;
 import dk.kb.util.webservice.exception.ServiceException;
 
 public class DsDatahandlerFacade {
     private static final Logger log = LoggerFactory.getLogger(DsDatahandlerFacade.class);
 
     private static DsStorageClient storageClient;
+    private static FragmentCache fragmentCache;
+    private static ExecutorService analysisExecutor;
+    private static ExecutorService enrichmentExecutor;
 
     /**
-     * Ingest records directly into ds-storage from a zip-file containing multiple files that each is a xml-file with a single record
+     * Names of the OAI targets being harvested, so the same target is never harvested twice at the same time.
+     * A set instead of locks, as a harvest started in the background is created and finished on different threads.
+     */
+    private static final Set<String> runningOaiTargets = ConcurrentHashMap.newKeySet();
+
+    /** The number of expired jobs deleted in each transaction. */
+    static final int DELETE_JOBS_BATCH_SIZE = 1000;
+
+    /**
+     * Ingest records directly into ds-storage from a zip-file containing multiple files that each is a xml-file with a single record.
+     * <p>
+     * The records are posted to ds-storage in parallel with {@link ServiceConfig#getStorageBatchThreads()} threads.
+     * Records that can not be parsed or posted are skipped and the ingest continues with the next file.
      *  
      * @param  origin The origin for collection documents. The origin must be defined in ds-storage. 
      * @param is InputStream. Must be a zip-file containing single files that each is an XML record.
-     * @return List of strings containing the records that failed parsing.
-     * @throws ServiceException
+     * @return List of strings containing the file names of the records that failed parsing or posting.
+     * @throws ServiceException if the zip-file can not be read.
      */
     public static ArrayList<String> ingestFromZipfile(String origin, InputStream is) throws ServiceException {
-        ZipInputStream zis = new ZipInputStream(new BufferedInputStream(is));
-
-        DsStorageClient dsAPI = getDsStorageApiClient();
-        ArrayList<String> errorRecords= new ArrayList<>();
-
-        ZipEntry entry;
-        String fileName = "";
-
-        try {
-            while ((entry = zis.getNextEntry()) != null) {
-
-                fileName = entry.getName();
-
-                String recordString = IOUtils.toString(zis, StandardCharsets.UTF_8);
-                Document record = OaiHarvestClient.sanitizeXml(recordString, null);
-
-                //There are several 'mods:identifier' identifier tags, but the first always contains the URI.
-                Node item = record.getElementsByTagName("mods:identifier").item(0);
-                String identifier = item.getTextContent();
-
-                //Example: urn:uuid:096c9090-717f-11e0-82d7-002185371280
-                identifier = identifier.replaceFirst("urn:uuid:", ""); // Clear this first part from the ID
-
-                String recordId = origin + ":" + identifier;
-                log.info("Ingesting record filename from zip: '{}' and id: '{}'", fileName, recordId);
-                DsRecordDto dsRecord = new DsRecordDto();
-                dsRecord.setId(recordId);
-                dsRecord.setOrigin(origin);
-                dsRecord.setData(recordString);
-                dsAPI.recordPost(dsRecord);
-            }
-        } catch (IOException e) {
-            errorRecords.add(fileName);
-            String msg = "Error parsing xml record for file: " + fileName;
-            log.error(msg, e);
-            throw new InvalidArgumentServiceException(msg);
-        } catch (ServiceException e){
-            errorRecords.add(fileName);
-            log.error("Error posting record with filename: '{}' to DsStorage.", fileName, e);
-            throw e; 
-        }
-
-        IOUtils.closeQuietly(zis);        
-        return errorRecords;         
+        ZipRecordImporter importer = new ZipRecordImporter(
+                getDsStorageApiClient(), origin, ServiceConfig.getStorageBatchThreads());
+        return new ArrayList<>(importer.importRecords(is));
     }
 
     /**  
@@ -110,28 +99,31 @@ public class DsDatahandlerFacade {
      * <p>
      *  1) Call ds-present that will extract records from ds-storage and xslt transform them into solr-add documents json.
      *  2) Send the input stream with json documents directly to solr, so it is not kept in memory.
+     * <p>
+     *  If {@link ServiceConfig#getSolrFullIndexPartitions()} is more than 1, the mTimes of the origin are split into
+     *  ranges that are indexed in parallel.
      *  
      * @param origin Origin must be defined on the ds-present server.
      * @exception InternalServiceException Will throw exception is the dsPresentCollectionName is not known, or if server communication fails.
      */    
     public static String indexSolrFull(String origin, String user) throws InternalServiceException {
-        SolrIndexResponse solrIndexResponse;
-
         JobDto jobDto = startJob(TypeDto.FULL, CategoryDto.SOLR_INDEX, origin, null, user);
 
-        try {
-            solrIndexResponse = SolrUtils.indexOrigin(origin, 0L);
+        SolrIndexResponse solrIndexResponse = indexSolrPerform(jobDto, origin, 0L, ServiceConfig.getSolrFullIndexPartitions());
 
-            updateJob(jobDto, JobStatusDto.COMPLETED, null, OffsetDateTime.now(ZoneOffset.UTC), solrIndexResponse.getAllDocumentsIndexed().intValue(), null);
+        return SolrUtils.solrIndexObjectAsJSON(solrIndexResponse);
+    }
 
-        } catch(Exception e) {
+    /**
+     * Start a full index of the origin in the background. See {@link #indexSolrFull(String, String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto indexSolrFullAsync(String origin, String user) {
+        JobDto jobDto = startJob(TypeDto.FULL, CategoryDto.SOLR_INDEX, origin, null, user, JobStatusDto.QUEUED);
 
-            updateJob(jobDto, JobStatusDto.FAILED, e.getMessage(), OffsetDateTime.now(ZoneOffset.UTC), null, null);
+        submitJob(jobDto, () -> indexSolrPerform(jobDto, origin, 0L, ServiceConfig.getSolrFullIndexPartitions()));
 
-            throw e;
-        }
-
-        return SolrUtils.solrIndexObjectAsJSON(solrIndexResponse);
+        return jobDto;
     }
 
     /**
@@ -145,26 +137,58 @@ public class DsDatahandlerFacade {
      */
     public static String indexSolrDelta(String origin, String user) throws InternalServiceException, SolrServerException, IOException {
         Long lastStorageModifiedTime = SolrUtils.getLatestMTimeForOrigin(origin);
-        SolrIndexResponse solrIndexResponse;
 
-        // lastStorageModifiedTime is in microseconds
-        OffsetDateTime offsetDateTimeLastStorageModifiedTime = OffsetDateTime.ofInstant(Instant.EPOCH.plus(lastStorageModifiedTime, ChronoUnit.MICROS), ZoneOffset.UTC);
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.SOLR_INDEX, origin, mTimeToOffsetDateTime(lastStorageModifiedTime), user);
 
-        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.SOLR_INDEX, origin, offsetDateTimeLastStorageModifiedTime, user);
+        SolrIndexResponse solrIndexResponse = indexSolrPerform(jobDto, origin, lastStorageModifiedTime, 1);
 
+        return SolrUtils.solrIndexObjectAsJSON(solrIndexResponse);
+    }
+
+    /**
+     * Start a delta index of the origin in the background. See {@link #indexSolrDelta(String, String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto indexSolrDeltaAsync(String origin, String user) throws SolrServerException, IOException {
+        Long lastStorageModifiedTime = SolrUtils.getLatestMTimeForOrigin(origin);
+
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.SOLR_INDEX, origin, mTimeToOffsetDateTime(lastStorageModifiedTime), user,
+                JobStatusDto.QUEUED);
+
+        submitJob(jobDto, () -> indexSolrPerform(jobDto, origin, lastStorageModifiedTime, 1));
+
+        return jobDto;
+    }
+
+    /**
+     * Index the records from the origin and mark the job as completed or failed.
+     * @param jobDto    the running job.
+     * @param sinceTime  only index records with a ds-storage mTime after this.
+     * @param partitions the number of mTime ranges to index in parallel. Only used if {@code sinceTime} is 0.
+     */
+    private static SolrIndexResponse indexSolrPerform(JobDto jobDto, String origin, Long sinceTime, int partitions) {
         try {
-            solrIndexResponse = SolrUtils.indexOrigin(origin, lastStorageModifiedTime);
+            JobProgress progress = new JobProgress(jobDto);
+            SolrIndexResponse solrIndexResponse = partitions > 1 && sinceTime == 0L ?
+                    SolrUtils.indexOriginPartitioned(origin, partitions, progress) :
+                    SolrUtils.indexOrigin(origin, sinceTime, progress);
 
             updateJob(jobDto, JobStatusDto.COMPLETED, null, OffsetDateTime.now(ZoneOffset.UTC), solrIndexResponse.getAllDocumentsIndexed().intValue(), null);
 
+            return solrIndexResponse;
         } catch (Exception e) {
 
             updateJob(jobDto, JobStatusDto.FAILED, e.getMessage(), OffsetDateTime.now(ZoneOffset.UTC), null, null);
 
             throw e;
         }
+    }
 
-        return SolrUtils.solrIndexObjectAsJSON(solrIndexResponse);
+    /**
+     * @param mTime ds-storage mTime in microseconds.
+     */
+    private static OffsetDateTime mTimeToOffsetDateTime(long mTime) {
+        return OffsetDateTime.ofInstant(Instant.EPOCH.plus(mTime, ChronoUnit.MICROS), ZoneOffset.UTC);
     }
 
     /**
@@ -191,15 +215,32 @@ public class DsDatahandlerFacade {
      */
 
     public static void kalturaDeltaUpload(String user) throws InternalServiceException, SolrServerException, IOException {
-        // mTimeFrom is in microseconds
-        OffsetDateTime offsetDateModifiedTimeFrom = OffsetDateTime.ofInstant(Instant.EPOCH.plus(0, ChronoUnit.MICROS), ZoneOffset.UTC);
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.KALTURA_UPLOAD, null, mTimeToOffsetDateTime(0), user);
 
-        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.KALTURA_UPLOAD, null, offsetDateModifiedTimeFrom, user);
+        kalturaDeltaUploadPerform(jobDto, user);
+    }
+
+    /**
+     * Start a kaltura delta upload in the background. See {@link #kalturaDeltaUpload(String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto kalturaDeltaUploadAsync(String user) {
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.KALTURA_UPLOAD, null, mTimeToOffsetDateTime(0), user,
+                JobStatusDto.QUEUED);
+
+        submitJob(jobDto, () -> {
+            kalturaDeltaUploadPerform(jobDto, user);
+            return null;
+        });
 
+        return jobDto;
+    }
+
+    private static void kalturaDeltaUploadPerform(JobDto jobDto, String user) throws InternalServiceException, SolrServerException, IOException {
         log.info("Starting kaltura delta upload");
         try {
             //upload streams
-            int numberStreamsUploaded = KalturaDeltaUploadJob.uploadStreamsToKaltura();
+            int numberStreamsUploaded = KalturaDeltaUploadJob.uploadStreamsToKaltura(new JobProgress(jobDto));
 
             log.info("Kaltura delta uploaded completed successfully. #streams uploaded={}", numberStreamsUploaded);
 
@@ -232,10 +273,48 @@ public class DsDatahandlerFacade {
      */        
     public static Integer transcriptionsLoad(String user) throws Exception { 
         JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.TRANSCRIPTIONS, null, null, user);        
+        return transcriptionsLoadPerform(jobDto, null);
+    }
+
+    /**
+     * Load the given transcriptions from the dropFolder as a job. Used by {@link TranscriptionWatcher} for each
+     * batch of transcriptions that has appeared in the dropFolder. 
+     * 
+     * @param transcriptionFiles the transcription files with suffix .ner.json in the dropFolder.
+     * @return Number of successful transcriptions loaded
+     * @throws InvalidArgumentServiceException if another transcriptions job is running.
+     */
+    public static Integer transcriptionsLoad(File[] transcriptionFiles, String user) throws Exception {
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.TRANSCRIPTIONS, null, null, user);
+        return transcriptionsLoadPerform(jobDto, transcriptionFiles);
+    }
+
+    /**
+     * Load transcriptions in the background. See {@link #transcriptionsLoad(String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto transcriptionsLoadAsync(String user) {
+        JobDto jobDto = startJob(TypeDto.DELTA, CategoryDto.TRANSCRIPTIONS, null, null, user, JobStatusDto.QUEUED);
+
+        submitJob(jobDto, () -> transcriptionsLoadPerform(jobDto, null));
+
+        return jobDto;
+    }
+
+    /**
+     * @param transcriptionFiles the transcriptions to load. If null, all transcriptions in the dropFolder are loaded.
+     */
+    private static Integer transcriptionsLoadPerform(JobDto jobDto, File[] transcriptionFiles) throws Exception {
         try {
           String dropFolder=ServiceConfig.getTranscriptionsDropFolder();
           String completedFolder=ServiceConfig.getTranscriptionsCompletedFolder();
-          int success= TranscriptionJob.processTranscriptions(dropFolder,completedFolder);
+          int success;
+          if (transcriptionFiles == null) {
+              success= TranscriptionJob.processTranscriptions(dropFolder,completedFolder, new JobProgress(jobDto));
+          }
+          else {
+              success= TranscriptionJob.processTranscriptions(transcriptionFiles, new File(dropFolder), new File(completedFolder), new JobProgress(jobDto));
+          }
           updateJob(jobDto, JobStatusDto.COMPLETED, null, OffsetDateTime.now(ZoneOffset.UTC), success, null);
           log.info("Successful load #transcriptions="+success);
           return success;
@@ -251,7 +330,8 @@ public class DsDatahandlerFacade {
     /**
      * Starts a full OAI harvest job for the target.
      * The job will harvest records from the OAI server and ingest them into DS-storage  
-     * If OAI strategy for the target is dayOnly, the harvest process will be split into days instead of a single job. 
+     * If {@link ServiceConfig#getOaiSplitRecords()} is set, the harvest is split into ranges of datestamps that are
+     * harvested concurrently, see {@link #oaiIngestRanges(OaiTargetDto, HarvestCheckpoint, JobProgress)}.
      *  
      * @param oaiTargetName the location of the image, relative to the url argument
      * @return Number of harvested records.
@@ -260,7 +340,7 @@ public class DsDatahandlerFacade {
         OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);
 
         String modifiedTimeFrom = HarvestTimeUtil.generateFrom(oaiTargetDto, null); // from == null, use default start day for OAI target instead
-        Integer totalHarvested = oaiIngestJobScheduler(oaiTargetName, modifiedTimeFrom, user, TypeDto.FULL);
+        Integer totalHarvested = oaiIngestJobScheduler(oaiTargetName, HarvestCheckpoint.start(oaiTargetName, modifiedTimeFrom), user, TypeDto.FULL);
 
         log.info("Full ingest of target={} completed with records={}", oaiTargetName, totalHarvested);
 
@@ -268,9 +348,25 @@ public class DsDatahandlerFacade {
     }
 
     /**
-     * Starts a delta OAI harvest job for the target. The job will continue from last timestamp
-     * saved on the file system for that target.
-     * If OAI strategy for the target is dayOnly, the harvest process will be split into days instead of a single job.
+     * Start a full OAI harvest of the target in the background. See {@link #oaiIngestFull(String, String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto oaiIngestFullAsync(String oaiTargetName, String user) {
+        OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);
+
+        String modifiedTimeFrom = HarvestTimeUtil.generateFrom(oaiTargetDto, null); // from == null, use default start day for OAI target instead
+        JobDto jobDto = startOaiJob(oaiTargetName, modifiedTimeFrom, user, TypeDto.FULL, JobStatusDto.QUEUED);
+
+        submitJob(jobDto, () -> oaiIngestJobPerform(jobDto, HarvestCheckpoint.start(oaiTargetName, modifiedTimeFrom)));
+
+        return jobDto;
+    }
+
+    /**
+     * Starts a delta OAI harvest job for the target. The job will continue from the checkpoint saved in the
+     * database for that target. If the last harvest was stopped, it continues from the page it stopped at.
+     * If the harvest does not continue a stopped harvest and {@link ServiceConfig#getOaiSplitRecords()} is set, the
+     * harvest is split into ranges of datestamps that are harvested concurrently.
      * The job will harvest records from the OAI server and ingest them into DS-storage  
      *  
      * @param oaiTargetName The name for the OAI target in the configuration
@@ -278,17 +374,30 @@ public class DsDatahandlerFacade {
      */
     public static Integer oaiIngestDelta(String oaiTargetName, String user) throws Exception {
         OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);       
-        String lastHarvestTime = HarvestTimeUtil.loadLastHarvestTime(oaiTargetDto);
+        HarvestCheckpoint start = HarvestTimeUtil.getDeltaStart(oaiTargetDto);
 
-        //Will be 1 interval for OAI targets that does not need to split into days
-        String modifiedTimeFrom = HarvestTimeUtil.generateFrom(oaiTargetDto, lastHarvestTime);
-        Integer totalHarvested = oaiIngestJobScheduler(oaiTargetName, modifiedTimeFrom, user, TypeDto.DELTA);
+        Integer totalHarvested = oaiIngestJobScheduler(oaiTargetName, start, user, TypeDto.DELTA);
 
         log.info("Delta ingest of target={} completed with records={}", oaiTargetName, totalHarvested);
 
         return totalHarvested;
     }
 
+    /**
+     * Start a delta OAI harvest of the target in the background. See {@link #oaiIngestDelta(String, String)}.
+     * @return the queued job. Progress can be followed with {@link #getJob(UUID)}.
+     */
+    public static JobDto oaiIngestDeltaAsync(String oaiTargetName, String user) throws Exception {
+        OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);
+        HarvestCheckpoint start = HarvestTimeUtil.getDeltaStart(oaiTargetDto);
+
+        JobDto jobDto = startOaiJob(oaiTargetName, start.getFrom(), user, TypeDto.DELTA, JobStatusDto.QUEUED);
+
+        submitJob(jobDto, () -> oaiIngestJobPerform(jobDto, start));
+
+        return jobDto;
+    }
+
     /**
      * This method has no specific code for the different OAI targets. Date formats must be set correct for the target when calling this method. <br>
      * The list of date-intervals must be ascending in time<br> 
@@ -297,24 +406,61 @@ public class DsDatahandlerFacade {
      * For each interval this method will start a new OAI job and call {@link #oaiIngestPerform(OaiTargetJob, String, String)}-method}<br>
      *  
      * @param oaiTargetName the name of the configured oai-target
-     * @param modifiedTimeFrom List of date intervals. When calling this method the date formats must be in format accepted by the target.
+     * @param start where to start the harvest. The from date format must be in format accepted by the target.
      * @return Total number of records harvest modifiedTimeFrom all intervals. Records that are discarded will not be counted.
      * @throws InternalServiceException
      */
-    protected static Integer oaiIngestJobScheduler(String oaiTargetName, String modifiedTimeFrom, String user, TypeDto typeDto) throws InternalServiceException {
+    protected static Integer oaiIngestJobScheduler(String oaiTargetName, HarvestCheckpoint start, String user, TypeDto typeDto) throws InternalServiceException {
+        JobDto jobDto = startOaiJob(oaiTargetName, start.getFrom(), user, typeDto, JobStatusDto.RUNNING);
+
+        return oaiIngestJobPerform(jobDto, start);
+    }
 
+    /**
+     * Create a running or queued OAI harvest job for the target.
+     * Different targets can be harvested concurrently, but a target can only have one running harvest. The target is
+     * marked as harvested until {@link #oaiIngestJobPerform(JobDto, HarvestCheckpoint)} finishes.
+     * @param jobStatusDto running for a job that starts at once or queued for a job given to {@link JobExecutor}.
+     * @throws InvalidArgumentServiceException if the target is unknown or a harvest of the target is already running.
+     */
+    private static JobDto startOaiJob(String oaiTargetName, String modifiedTimeFrom, String user, TypeDto typeDto,
+                                      JobStatusDto jobStatusDto) {
         log.info("Starting jobs modifiedTimeFrom: " + modifiedTimeFrom + " for target: " + oaiTargetName);
-                       
+
         OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);
         if (oaiTargetDto == null) {
             throw new InvalidArgumentServiceException("No target found in configuration with name: '" + oaiTargetName +
                     "'. See the config method for list of configured targets.");
         }
 
-        JobDto jobDto = startJob(typeDto, CategoryDto.OAI_HARVEST, oaiTargetName, HarvestTimeUtil.parseModifiedTimeFromToOffsetDatetime(modifiedTimeFrom), user);
+        if (!runningOaiTargets.add(oaiTargetName)) {
+            throw new InvalidArgumentServiceException("A harvest is already running for target: '" + oaiTargetName + "'");
+        }
+        try {
+            return startJob(typeDto, CategoryDto.OAI_HARVEST, oaiTargetName, HarvestTimeUtil.parseModifiedTimeFromToOffsetDatetime(modifiedTimeFrom), user,
+                    jobStatusDto);
+        } catch (RuntimeException e) {
+            runningOaiTargets.remove(oaiTargetName);
+            throw e;
+        }
+    }
 
+    /**
+     * Harvest the target of the running job and mark the job as completed or failed.
+     * @param jobDto the job created by {@link #startOaiJob(String, String, String, TypeDto, JobStatusDto)}. The source is the name
+     *               of the OAI target.
+     * @param start where to start the harvest.
+     * @return the number of harvested records.
+     */
+    private static Integer oaiIngestJobPerform(JobDto jobDto, HarvestCheckpoint start) throws InternalServiceException {
+        String oaiTargetName = jobDto.getSource();
         try {
-            Integer numberOfRecords = oaiIngestPerform(oaiTargetDto, modifiedTimeFrom);
+            OaiTargetDto oaiTargetDto = ServiceConfig.getOaiTargets().get(oaiTargetName);
+
+            JobProgress progress = new JobProgress(jobDto);
+            Integer numberOfRecords = ServiceConfig.getOaiSplitRecords() > 0 && !start.isResumable() ?
+                    oaiIngestRanges(oaiTargetDto, start.forJob(jobDto.getId()), progress) :
+                    oaiIngestPerform(oaiTargetDto, start.forJob(jobDto.getId()), null, progress);
 
             updateJob(jobDto, JobStatusDto.COMPLETED, null,  OffsetDateTime.now(ZoneOffset.UTC), numberOfRecords, null);
 
@@ -326,9 +472,26 @@ public class DsDatahandlerFacade {
             updateJob(jobDto, JobStatusDto.FAILED, e.getMessage(),  OffsetDateTime.now(ZoneOffset.UTC), null, null);
 
             throw new InternalServiceException("Error harvesting oai target: oaiTarget: " + oaiTargetName + " jobId: " + jobDto.getId(), e);
+        } finally {
+            runningOaiTargets.remove(oaiTargetName);
         }
     }
 
+    /**
+     * Get a single job. For a running job the number of records, records per second and current position are
+     * updated while the job runs.
+     * @param id the id of the job.
+     * @return the job.
+     * @throws NotFoundServiceException if there is no job with the id.
+     */
+    public static JobDto getJob(UUID id) {
+        JobDto jobDto = BasicStorage.performStorageAction("Get job", JobStorage::new, (JobStorage storage) -> storage.getJob(id));
+        if (jobDto == null) {
+            throw new NotFoundServiceException("No job with id: '" + id + "'");
+        }
+        return jobDto;
+    }
+
     /**
      *  Gives a list of both completed and running jobs with status. Jobs still running will be first.
      *  The completed jobs will only contain last 10000 completed jobs
@@ -339,18 +502,81 @@ public class DsDatahandlerFacade {
         return BasicStorage.performStorageAction("Get all jobs", JobStorage::new, (JobStorage storage) -> storage.getJobs(categoryDto, jobStatusDto));
     }
 
+    /**
+     * Gives a page of jobs ordered by category, start time and id. The next page is requested with the id of the last
+     * job in the page as afterId.
+     *
+     * @param afterId only list jobs after the job with this id. If null, the list starts with the first job.
+     * @param pageSize the max number of jobs to list. Null or 0 means all jobs.
+     * @return List of jobs with status
+     */
+    public static List<JobDto> getJobs(CategoryDto categoryDto, JobStatusDto jobStatusDto, UUID afterId, Integer pageSize) {
+        if (pageSize != null && pageSize < 0) {
+            throw new InvalidArgumentServiceException("pageSize must be 0 or more, but was " + pageSize);
+        }
+        return BasicStorage.performStorageAction("Get page of jobs", JobStorage::new, (JobStorage storage) ->
+                storage.getJobs(categoryDto, jobStatusDto, afterId, pageSize == null ? 0 : pageSize));
+    }
+
+    /**
+     * Delete finished jobs that started more than {@link ServiceConfig#getJobsRetentionDays()} days ago. Jobs are
+     * deleted and committed in batches of {@link #DELETE_JOBS_BATCH_SIZE}.
+     *
+     * @return the number of deleted jobs
+     */
+    public static int deleteExpiredJobs() {
+        int retentionDays = ServiceConfig.getJobsRetentionDays();
+        if (retentionDays <= 0) {
+            return 0;
+        }
+        OffsetDateTime startedBefore = OffsetDateTime.now(ZoneOffset.UTC).minusDays(retentionDays);
+        int deleted = 0;
+        int batch;
+        do {
+            batch = BasicStorage.performStorageAction("Delete expired jobs", JobStorage::new, (JobStorage storage) ->
+                    storage.deleteFinishedJobs(startedBefore, DELETE_JOBS_BATCH_SIZE));
+            deleted += batch;
+        } while (batch == DELETE_JOBS_BATCH_SIZE);
+        log.info("Deleted {} finished jobs started before {}", deleted, startedBefore);
+        return deleted;
+    }
+
     /**
      * This method will be called by the {@link #oaiIngestJobScheduler(String, ArrayList)}-method}<br>
      * The scheduler method will set up the job and responsible for status of the job. <br>
      * The target will be harvest full for this interval using the resumptionToken from the response and call recursively.<br>
-     * For each successful response the persistent datestamp for the OAI target will be updated with datestamp from last parsed records.<br>
+     * For each successful response the checkpoint for the OAI target will be updated with datestamp from last parsed
+     * records and the resumptionToken for the next page.<br>
+     * If the start has a resumptionToken that the OAI target no longer accepts, the harvest is started again from the
+     * datestamp of the start.
      *
-     * @param from Datestamp format that will be accepted for that OAI target
+     * @param start where to start the harvest. The from must be in a format that will be accepted for that OAI target
+     * @param until the last datestamp to harvest, included. If null, the harvest continues to the newest record.
      * @return Number of harvested records for this date interval. Records discarded by filter etc. will not be counted.
      * @throws IOException If anything unexpected happens. OAI target does not respond, invalid xml, XSLT (filtering) failed etc.
      * @throws ServiceException
      */
-    private static Integer oaiIngestPerform(OaiTargetDto oaiTargetDto, String from) throws IOException, ServiceException {
+    private static Integer oaiIngestPerform(OaiTargetDto oaiTargetDto, HarvestCheckpoint start, String until,
+                                            JobProgress progress) throws IOException, ServiceException {
+        ExecutorService postExecutor = StorageBatchPoster.createExecutor(ServiceConfig.getStorageBatchThreads());
+        try {
+            return oaiIngestPerform(oaiTargetDto, start, until, progress, postExecutor);
+        } finally {
+            if (postExecutor != null) {
+                postExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Harvest as {@link #oaiIngestPerform(OaiTargetDto, HarvestCheckpoint, String, JobProgress)}, posting records to
+     * ds-storage with the given pool, so harvests of several ranges can share it.
+     * @param postExecutor the pool for parallel posts to ds-storage. Not shut down. If null, records are posted on
+     *                     the harvest thread.
+     */
+    private static Integer oaiIngestPerform(OaiTargetDto oaiTargetDto, HarvestCheckpoint start, String until,
+                                            JobProgress progress, ExecutorService postExecutor)
+            throws IOException, ServiceException {
 
         //In the OAI spec, the from-parameter can be both yyyy-MM-dd or full UTC timestamp (2021-10-09T09:42:03Z)
         //But COP only supports the short version. So when this is called use short format
@@ -362,49 +588,379 @@ public class DsDatahandlerFacade {
         String targetName = oaiTargetDto.getName();
 
         DsStorageClient dsAPI = getDsStorageApiClient();
-        OaiHarvestClient client = new OaiHarvestClient(oaiTargetDto, from);
-        OaiResponse response = client.next();
+        OaiHarvestClient client = new OaiHarvestClient(oaiTargetDto, start.getFrom(), until, start.getResumptionToken());
 
-        OaiResponseFilter oaiFilter;
         if (oaiTargetDto.getFilter() == null) {
             throw new IllegalStateException("The filter for OaiTargetDto '" + targetName + "' was null");
         }
-        switch (oaiTargetDto.getFilter()) {
-            case DIRECT:
-                oaiFilter = new OaiResponseFilter(origin, dsAPI);
-                break;
-            case DR:
-                oaiFilter = new OaiResponseFilterDrArchive(origin, dsAPI);
-                break;
-            case PRESERVICA:
-                oaiFilter = new OaiResponseFilterPreservicaSeven(origin, dsAPI);
-                break;
-            default: throw new UnsupportedOperationException(
-                    "Unknown filter '" + oaiTargetDto.getFilter() + "' for target '" + targetName + "'");
+
+        OaiHarvestStep step = createHarvestStep(oaiTargetDto);
+        HarvestCheckpoint restart;
+        try (StorageBatchPoster poster = new StorageBatchPoster(dsAPI, ServiceConfig.getStorageBatchRecords(),
+                ServiceConfig.getStorageBatchBytes(), postExecutor)) {
+            OaiResponseFilter oaiFilter;
+            switch (oaiTargetDto.getFilter()) {
+                case DIRECT:
+                    oaiFilter = new OaiResponseFilter(origin, dsAPI, poster);
+                    break;
+                case DR:
+                    oaiFilter = new OaiResponseFilterDrArchive(origin, dsAPI, poster, getAnalysisExecutor());
+                    break;
+                case PRESERVICA:
+                    oaiFilter = new OaiResponseFilterPreservicaSeven(origin, dsAPI, poster, getAnalysisExecutor());
+                    break;
+                default: throw new UnsupportedOperationException(
+                        "Unknown filter '" + oaiTargetDto.getFilter() + "' for target '" + targetName + "'");
+            }
+
+            OaiResponse response = ServiceConfig.isOaiStreaming() ?
+                    oaiIngestStreaming(oaiTargetDto, client, step, oaiFilter, start, progress) :
+                    oaiIngestPages(oaiTargetDto, client, step, oaiFilter, start, progress);
+
+            if (response.isError() && start.isResumable() && oaiFilter.getProcessed() == 0) {
+                log.warn("Unable to continue harvest of target '{}' with resumptionToken '{}'. Harvesting from '{}'",
+                        targetName, start.getResumptionToken(), start.getDatestamp());
+                restart = getRestartCheckpoint(oaiTargetDto, start);
+            } else if (response.isError()) {
+                throw new InternalServiceException("Error during harvest for target: " + oaiTargetDto.getName() +
+                        " after harvesting: " + oaiFilter.getProcessed() + " records");
+            } else {
+                if (start.isResumable() && oaiFilter.getProcessed() == 0) {
+                    // No more records after the resumptionToken, so the stopped harvest has completed
+                    HarvestTimeUtil.saveCheckpoint(start.next(start.getDatestamp(), null, 0));
+                }
+                log.info("Completed ingesting origin '{}' successfully with {} records", origin, oaiFilter.getProcessed());
+                return oaiFilter.getProcessed();
+            }
         }
+        return oaiIngestPerform(oaiTargetDto, restart, until, progress, postExecutor);
+    }
 
+    /**
+     * @param start a checkpoint with a resumptionToken that the OAI target no longer accepts.
+     * @return a checkpoint for harvesting again from the datestamp of the start, saved under the same name as the
+     *         start, so the harvest of a range only updates the checkpoint of the range.
+     */
+    static HarvestCheckpoint getRestartCheckpoint(OaiTargetDto oaiTargetDto, HarvestCheckpoint start) {
+        return HarvestCheckpoint.start(start.getTarget(), HarvestTimeUtil.generateFrom(oaiTargetDto,
+                start.getDatestamp())).forJob(start.getJobId());
+    }
+
+    /**
+     * Harvest the target in ranges of datestamps with at most {@link ServiceConfig#getOaiSplitRecords()} records,
+     * see {@link OaiRangeSplitter}. {@link ServiceConfig#getOaiSplitThreads()} ranges are harvested concurrently,
+     * each with its own checkpoint named from the target and the start and end of the range. The ranges share one
+     * pool for posts to ds-storage with {@link ServiceConfig#getStorageBatchThreads()} threads.
+     * <p>
+     * When a range has completed and all ranges before it have completed, the checkpoint of the target is moved to
+     * the start of the next range, or to the datestamp of the last record for the last range. The range checkpoints
+     * are deleted when all ranges have completed. If a range fails, the range checkpoints are kept and the next
+     * harvest from the checkpoint of the target continues the same ranges: Completed ranges are skipped and the other
+     * ranges continue from their own checkpoints.
+     *
+     * @param start where to start the harvest. Must not have a resumptionToken.
+     * @return the number of harvested records in all ranges.
+     */
+    private static Integer oaiIngestRanges(OaiTargetDto oaiTargetDto, HarvestCheckpoint start, JobProgress progress)
+            throws IOException, ServiceException {
+        String targetName = oaiTargetDto.getName();
+        String rangePrefix = targetName + "|";
+
+        // The start of each range or null for ranges that do not need to be harvested
+        List<HarvestCheckpoint> rangeStarts = new ArrayList<>();
+        List<OaiRangeSplitter.Range> ranges = getStoppedRanges(rangePrefix, start, rangeStarts);
+        if (ranges == null) {
+            deleteRangeCheckpoints(rangePrefix); // From a stopped harvest of another window
+            OaiRangeSplitter splitter = new OaiRangeSplitter(
+                    new OaiHarvestClient(oaiTargetDto, start.getFrom())::probeListSize,
+                    oaiTargetDto.getDateStampFormat(), ServiceConfig.getOaiSplitRecords());
+            ranges = splitter.split(
+                    HarvestTimeUtil.parseModifiedTimeFromToOffsetDatetime(start.getFrom()).toInstant(), Instant.now());
+            if (ranges.size() == 1) {
+                return oaiIngestPerform(oaiTargetDto, start, null, progress);
+            }
+            for (OaiRangeSplitter.Range range : ranges) {
+                if (range.getSize() == 0) {
+                    rangeStarts.add(null);
+                    continue;
+                }
+                // Saved before the harvest starts, so a stopped harvest can continue with the same ranges
+                HarvestCheckpoint rangeStart = HarvestCheckpoint.start(getRangeName(rangePrefix, range),
+                        range.getFrom()).forJob(start.getJobId());
+                HarvestTimeUtil.saveCheckpoint(rangeStart);
+                rangeStarts.add(rangeStart);
+            }
+            log.info("Harvesting target '{}' from '{}' in {} ranges using {} threads: {}",
+                    targetName, start.getFrom(), ranges.size(), ServiceConfig.getOaiSplitThreads(), ranges);
+        }
+
+        ExecutorService rangeExecutor = Executors.newFixedThreadPool(Math.max(1, ServiceConfig.getOaiSplitThreads()),
+                new NamedThreadFactory("oai-range-"));
+        ExecutorService postExecutor = StorageBatchPoster.createExecutor(ServiceConfig.getStorageBatchThreads());
+        try {
+            List<Future<Integer>> futures = new ArrayList<>(ranges.size());
+            for (HarvestCheckpoint rangeStart : rangeStarts) {
+                if (rangeStart == null) {
+                    futures.add(CompletableFuture.completedFuture(0));
+                    continue;
+                }
+                OaiRangeSplitter.Range range = ranges.get(futures.size());
+                JobProgress rangeProgress = progress.part();
+                futures.add(rangeExecutor.submit(() -> {
+                    int harvested = oaiIngestPerform(oaiTargetDto, rangeStart, range.getUntil(), rangeProgress,
+                            postExecutor);
+                    completeRange(rangeStart);
+                    return harvested;
+                }));
+            }
+
+            int total = 0;
+            for (int i = 0; i < ranges.size(); i++) {
+                OaiRangeSplitter.Range range = ranges.get(i);
+                try {
+                    total += futures.get(i).get();
+                } catch (ExecutionException e) {
+                    throw new InternalServiceException("Error harvesting range " + range + " of target: " +
+                            targetName, e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalServiceException("Interrupted harvesting target: " + targetName, e);
+                }
+                // All records before the next range have been harvested
+                String datestamp = i + 1 < ranges.size() ?
+                        ranges.get(i + 1).getFrom() :
+                        getRangeDatestamp(getRangeName(rangePrefix, range), range.getFrom());
+                HarvestTimeUtil.saveCheckpoint(new HarvestCheckpoint(
+                        targetName, datestamp, null, null, start.getNumberOfRecords() + total, start.getJobId()));
+            }
+            deleteRangeCheckpoints(rangePrefix);
+            log.info("Completed harvesting target '{}' in {} ranges with {} records", targetName, ranges.size(), total);
+            return total;
+        } finally {
+            rangeExecutor.shutdownNow();
+            if (postExecutor != null) {
+                postExecutor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Find the ranges of a stopped split harvest that the harvest from start continues. The ranges are continued if
+     * start is the start of one of the ranges, as the checkpoint of the target is moved to the start of the first
+     * range that did not complete. The ranges before that have completed.
+     * @param rangeStarts the start of each returned range is added, or null if the range has completed.
+     * @return the ranges from start or null if there is no stopped harvest to continue.
+     */
+    private static List<OaiRangeSplitter.Range> getStoppedRanges(String rangePrefix, HarvestCheckpoint start,
+                                                                 List<HarvestCheckpoint> rangeStarts) {
+        List<HarvestCheckpoint> checkpoints = BasicStorage.performStorageAction(
+                "Get range checkpoints for " + rangePrefix, HarvestCheckpointStorage::new,
+                (HarvestCheckpointStorage storage) -> storage.getCheckpoints(rangePrefix));
+        Instant from = HarvestTimeUtil.parseModifiedTimeFromToOffsetDatetime(start.getFrom()).toInstant();
+
+        List<OaiRangeSplitter.Range> ranges = new ArrayList<>();
+        for (HarvestCheckpoint checkpoint : checkpoints) {
+            OaiRangeSplitter.Range range = parseRangeName(rangePrefix, checkpoint.getTarget());
+            if (range == null) {
+                return null;
+            }
+            if (ranges.isEmpty() &&
+                    !HarvestTimeUtil.parseModifiedTimeFromToOffsetDatetime(range.getFrom()).toInstant().equals(from)) {
+                continue; // Completed before the checkpoint of the target
+            }
+            ranges.add(range);
+            // A completed range has no from, see completeRange
+            rangeStarts.add(checkpoint.getFrom() == null ? null : checkpoint.forJob(start.getJobId()));
+        }
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        log.info("Continuing stopped harvest of target '{}' from '{}' in {} ranges, {} of them completed: {}",
+                start.getTarget(), start.getFrom(), ranges.size(), rangeStarts.stream().filter(Objects::isNull).count(),
+                ranges);
+        return ranges;
+    }
+
+    /**
+     * Mark a range as completed by removing the from of its checkpoint, so a stopped harvest does not harvest the
+     * range again.
+     */
+    private static void completeRange(HarvestCheckpoint rangeStart) {
+        HarvestCheckpoint checkpoint = BasicStorage.performStorageAction(
+                "Get harvest checkpoint for " + rangeStart.getTarget(), HarvestCheckpointStorage::new,
+                (HarvestCheckpointStorage storage) -> storage.getCheckpoint(rangeStart.getTarget()));
+        HarvestCheckpoint current = checkpoint == null ? rangeStart : checkpoint;
+        HarvestTimeUtil.saveCheckpoint(new HarvestCheckpoint(current.getTarget(), current.getDatestamp(), null, null,
+                current.getNumberOfRecords(), rangeStart.getJobId()));
+    }
+
+    /**
+     * @return the name of the checkpoint for the range: The range prefix followed by the start and the end of the
+     *         range, separated by {@code |}. The end is empty for the last range.
+     */
+    private static String getRangeName(String rangePrefix, OaiRangeSplitter.Range range) {
+        return rangePrefix + range.getFrom() + "|" + (range.getUntil() == null ? "" : range.getUntil());
+    }
+
+    /**
+     * @return the range from a name made by {@link #getRangeName(String, OaiRangeSplitter.Range)} or null if the
+     *         name is not a range name.
+     */
+    private static OaiRangeSplitter.Range parseRangeName(String rangePrefix, String rangeName) {
+        String range = rangeName.substring(rangePrefix.length());
+        int separator = range.indexOf('|');
+        if (separator <= 0) {
+            return null;
+        }
+        String until = range.substring(separator + 1);
+        return new OaiRangeSplitter.Range(range.substring(0, separator), until.isEmpty() ? null : until, -1);
+    }
+
+    /**
+     * @return the datestamp of the last record harvested in the range or the start of the range if no records were
+     *         harvested.
+     */
+    private static String getRangeDatestamp(String rangeName, String rangeFrom) {
+        HarvestCheckpoint checkpoint = BasicStorage.performStorageAction(
+                "Get harvest checkpoint for " + rangeName, HarvestCheckpointStorage::new,
+                (HarvestCheckpointStorage storage) -> storage.getCheckpoint(rangeName));
+        return checkpoint == null ? rangeFrom : checkpoint.getDatestamp();
+    }
+
+    private static void deleteRangeCheckpoints(String rangePrefix) {
+        int deleted = BasicStorage.performStorageAction(
+                "Delete range checkpoints for " + rangePrefix, HarvestCheckpointStorage::new,
+                (HarvestCheckpointStorage storage) -> storage.deleteCheckpoints(rangePrefix));
+        log.debug("Deleted {} range checkpoints starting with '{}'", deleted, rangePrefix);
+    }
+
+    /**
+     * Create the step that processes records from the OAI target before they are filtered. The records in a page are
+     * enriched in parallel with the pool from {@link #getEnrichmentExecutor()}.
+     * @return an enricher if the target has a fragment service, else null.
+     */
+    private static OaiHarvestStep createHarvestStep(OaiTargetDto oaiTargetDto) {
+        if (oaiTargetDto.getFragmentServiceUrl() == null) {
+            return null;
+        }
+        log.info("Records from OAI target '{}' are enriched with fragments from '{}' using {} threads",
+                oaiTargetDto.getName(), oaiTargetDto.getFragmentServiceUrl(), ServiceConfig.getFragmentsThreads());
+        return new FragmentEnricher(FragmentsClient.getInstance(oaiTargetDto.getFragmentServiceUrl()),
+                getFragmentCache(), getEnrichmentExecutor());
+    }
+
+    /**
+     * @return the pool that enriches the records of OAI pages with fragments in parallel, shared by all harvests, or
+     *         null if {@link ServiceConfig#getFragmentsThreads()} is 1 or less.
+     */
+    private static synchronized ExecutorService getEnrichmentExecutor() {
+        if (enrichmentExecutor == null && ServiceConfig.getFragmentsThreads() > 1) {
+            enrichmentExecutor = Executors.newFixedThreadPool(
+                    ServiceConfig.getFragmentsThreads(), new NamedThreadFactory("fragments-"));
+        }
+        return enrichmentExecutor;
+    }
+
+    /**
+     * @return the pool that parses the records of OAI pages in parallel, shared by all harvests, or null if
+     *         {@link ServiceConfig#getOaiAnalysisThreads()} is 1 or less.
+     */
+    private static synchronized ExecutorService getAnalysisExecutor() {
+        if (analysisExecutor == null && ServiceConfig.getOaiAnalysisThreads() > 1) {
+            analysisExecutor = Executors.newFixedThreadPool(
+                    ServiceConfig.getOaiAnalysisThreads(), new NamedThreadFactory("oai-analysis-"));
+        }
+        return analysisExecutor;
+    }
+
+    private static synchronized FragmentCache getFragmentCache() {
+        if (fragmentCache == null) {
+            fragmentCache = new FragmentCache(ServiceConfig.getFragmentsCacheMaxEntries(),
+                    ServiceConfig.getFragmentsCacheSeconds());
+        }
+        return fragmentCache;
+    }
+
+    /**
+     * Harvest all pages from the client, parsing each page fully before its records are passed to the filter.
+     * The following pages are fetched in the background while the current page is added to storage, see
+     * {@link ServiceConfig#getOaiPrefetchPages()}. If a step is given, it processes the prefetched pages in the
+     * background as well.
+     * After each page has been fully stored, the checkpoint for the OAI target is updated with the datestamp of the
+     * last record in the page and the resumptionToken for the next page.
+     * @param start the checkpoint the client started from.
+     * @return the last response from the client, which is either empty or an error.
+     */
+    private static OaiResponse oaiIngestPages(OaiTargetDto oaiTargetDto, OaiHarvestClient client, OaiHarvestStep step,
+                                              OaiResponseFilter oaiFilter, HarvestCheckpoint start,
+                                              JobProgress progress) throws IOException {
+        try (OaiPrefetchingHarvester pages = new OaiPrefetchingHarvester(
+                client, oaiTargetDto.getName(), ServiceConfig.getOaiPrefetchPages(), step)) {
+            return oaiIngestPages(oaiTargetDto, pages, oaiFilter, start, progress);
+        }
+    }
+
+    private static OaiResponse oaiIngestPages(OaiTargetDto oaiTargetDto, OaiPrefetchingHarvester pages,
+                                              OaiResponseFilter oaiFilter, HarvestCheckpoint start,
+                                              JobProgress progress) throws IOException {
+        OaiResponse response = pages.next();
         while (response.getRecords().size() > 0) {
 
             OaiRecord lastRecord = response.getRecords().get(response.getRecords().size()-1);
 
             oaiFilter.addToStorage(response);
 
-            log.info("Processed '{}' records from origin: '{}' out of a total of '{}' records.",
-                    oaiFilter.getProcessed(), origin, response.getTotalRecords());
+            log.info("Processed '{}' records from origin: '{}' out of a total of '{}' records. Last storage batch " +
+                            "was sent with {} records/s.",
+                    oaiFilter.getProcessed(), oaiTargetDto.getDatasource(), response.getTotalRecords(),
+                    String.format(Locale.ROOT, "%.1f", oaiFilter.getPoster().getLastFlushRecordsPerSecond()));
 
-            //Update timestamp with timestamp from last OAI record.
-            HarvestTimeUtil.updateDatestampForOaiTarget(oaiTargetDto,lastRecord.getDateStamp());
+            //Update checkpoint with timestamp from last OAI record.
+            HarvestTimeUtil.saveCheckpoint(
+                    start.next(lastRecord.getDateStamp(), response.getResumptionToken(), oaiFilter.getProcessed()));
+            progress.update(oaiFilter.getProcessed(), response.getResumptionToken());
 
-            response = client.next(); //load next (can be empty)
+            response = pages.next(); //load next (can be empty)
         }
+        return response;
+    }
 
-        if (response.isError()) {
-            throw new InternalServiceException("Error during harvest for target: " + oaiTargetDto.getName() +
-                    " after harvesting: " + oaiFilter.getProcessed() + " records");
-        }
+    /**
+     * Harvest all pages from the client, passing each record to the filter as soon as it has been parsed from the
+     * HTTP response, see {@link OaiHarvestClient#nextStreaming(java.util.function.Consumer)}. If a step is given, it
+     * processes each record before it is passed to the filter.
+     * After each page has been fully stored, the checkpoint for the OAI target is updated with the datestamp of the
+     * last record and the resumptionToken for the next page.
+     * @param start the checkpoint the client started from.
+     * @return the last response from the client, which is either without records or an error.
+     */
+    private static OaiResponse oaiIngestStreaming(OaiTargetDto oaiTargetDto, OaiHarvestClient client,
+                                                  OaiHarvestStep step, OaiResponseFilter oaiFilter,
+                                                  HarvestCheckpoint start, JobProgress progress) throws IOException {
+        while (true) {
+            AtomicReference<String> lastDatestamp = new AtomicReference<>();
+            OaiResponse response = client.nextStreaming(oaiRecord -> {
+                if (step != null) {
+                    step.process(oaiRecord);
+                }
+                oaiFilter.addFilteredToStorage(oaiRecord);
+                lastDatestamp.set(oaiRecord.getDateStamp());
+            });
+            oaiFilter.flush();
+            if (lastDatestamp.get() == null || response.isError()) {
+                return response;
+            }
 
-        log.info("Completed ingesting origin '{}' successfully with {} records", origin, oaiFilter.getProcessed());
-        return oaiFilter.getProcessed();
+            log.info("Processed '{}' records from origin: '{}' out of a total of '{}' records. Last storage batch " +
+                            "was sent with {} records/s.",
+                    oaiFilter.getProcessed(), oaiTargetDto.getDatasource(), response.getTotalRecords(),
+                    String.format(Locale.ROOT, "%.1f", oaiFilter.getPoster().getLastFlushRecordsPerSecond()));
+
+            //Update checkpoint with timestamp from last OAI record.
+            HarvestTimeUtil.saveCheckpoint(
+                    start.next(lastDatestamp.get(), response.getResumptionToken(), oaiFilter.getProcessed()));
+            progress.update(oaiFilter.getProcessed(), response.getResumptionToken());
+        }
     }
 
     private static DsKalturaClient getKalturaClient() throws APIException {
@@ -430,7 +986,7 @@ public class DsDatahandlerFacade {
         }
 
         String dsStorageUrl = ServiceConfig.getDsStorageUrl();
-        storageClient = new DsStorageClient(dsStorageUrl);
+        storageClient = HttpClientRegistry.getDsStorageClient(dsStorageUrl);
         return storageClient;
     }
 
@@ -444,13 +1000,23 @@ public class DsDatahandlerFacade {
      * @return jobDto JobDto that is running
      */
     private static JobDto startJob(TypeDto typeDto, CategoryDto categoryDto, String source, OffsetDateTime modifiedTimeFrom, String user) {
+        return startJob(typeDto, categoryDto, source, modifiedTimeFrom, user, JobStatusDto.RUNNING);
+    }
+
+    /**
+     * Creates a new job that is running or queued. Only one job for the category and source can be running or queued.
+     * @param jobStatusDto running for a job that starts at once or queued for a job given to {@link #submitJob}.
+     * @return jobDto JobDto with the status
+     */
+    private static JobDto startJob(TypeDto typeDto, CategoryDto categoryDto, String source, OffsetDateTime modifiedTimeFrom, String user,
+                                   JobStatusDto jobStatusDto) {
         JobDto jobDto = new JobDto();
 
         jobDto.setId(UUID.randomUUID());
         jobDto.setType(typeDto);
         jobDto.setCategory(categoryDto);
         jobDto.setSource(source);
-        jobDto.setJobStatus(JobStatusDto.RUNNING);
+        jobDto.setJobStatus(jobStatusDto);
         jobDto.setModifiedTimeFrom(modifiedTimeFrom);
         jobDto.setCreatedBy(user);
         jobDto.setStartTime(OffsetDateTime.now(ZoneOffset.UTC));
@@ -469,6 +1035,26 @@ public class DsDatahandlerFacade {
         return jobDto;
     }
 
+    /**
+     * Give a queued job to {@link JobExecutor}. If the job can not be queued, it is marked as failed and the OAI
+     * target of a harvest job is released.
+     * @throws InternalServiceException if the job can not be queued.
+     */
+    private static void submitJob(JobDto jobDto, Callable<?> work) {
+        try {
+            JobExecutor.submit(jobDto, work);
+        } catch (RejectedExecutionException e) {
+            log.error("Unable to queue {} {} job '{}'",
+                    jobDto.getType().getValue(), jobDto.getCategory().getValue(), jobDto.getId(), e);
+            updateJob(jobDto, JobStatusDto.FAILED, "Unable to queue job: " + e.getMessage(),
+                    OffsetDateTime.now(ZoneOffset.UTC), null, null);
+            if (jobDto.getCategory() == CategoryDto.OAI_HARVEST) {
+                runningOaiTargets.remove(jobDto.getSource());
+            }
+            throw new InternalServiceException("Unable to queue job: " + jobDto.getId(), e);
+        }
+    }
+
     /**
      * Updates an existing job
      * @param jobDto the job to update
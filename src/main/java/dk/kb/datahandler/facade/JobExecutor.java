@@ -0,0 +1,101 @@
+package dk.kb.datahandler.facade;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.model.v1.JobDto;
+import dk.kb.datahandler.model.v1.JobStatusDto;
+import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.JobStorage;
+import dk.kb.datahandler.util.NamedThreadFactory;
+
+/**
+ * Runs jobs started with {@code async=true} in the background, so the HTTP request returns as soon as the job has
+ * been created in the jobs table. At most {@link ServiceConfig#getJobThreads()} jobs run at the same time. Further
+ * jobs wait for a free thread with status queued and are marked as running when a thread picks them up.
+ * <p>
+ * The work is responsible for marking the job as completed or failed, as the synchronous calls do. If the work, or
+ * marking the job as running, fails with any {@link Throwable} and the job is still queued or running, the job is
+ * marked as failed here, so callers polling the job always see it end.
+ */
+public class JobExecutor {
+    private static final Logger log = LoggerFactory.getLogger(JobExecutor.class);
+
+    private static ExecutorService executor = null;
+
+    /**
+     * Run the work for a job in the background.
+     * @param jobDto the job, already created in the jobs table with status queued.
+     * @param work   the work for the job.
+     * @throws RejectedExecutionException if the job can not be queued. The job is not changed and the caller must
+     *                                    mark it as failed.
+     */
+    public static synchronized void submit(JobDto jobDto, Callable<?> work) {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(Math.max(1, ServiceConfig.getJobThreads()), new NamedThreadFactory("job-"));
+        }
+        log.info("Submitting {} {} job '{}' for source '{}'",
+                jobDto.getType().getValue(), jobDto.getCategory().getValue(), jobDto.getId(), jobDto.getSource());
+        executor.submit(() -> {
+            try {
+                markRunning(jobDto);
+                work.call();
+                log.info("Background job '{}' completed", jobDto.getId());
+            } catch (Throwable t) {
+                log.error("Background job '{}' failed", jobDto.getId(), t);
+                markFailed(jobDto, t);
+            }
+        });
+    }
+
+    /**
+     * Mark the job as failed if it is still queued or running.
+     */
+    private static void markFailed(JobDto jobDto, Throwable cause) {
+        try {
+            BasicStorage.performStorageAction("Fail unfinished job", JobStorage::new, (JobStorage storage) -> {
+                JobDto stored = storage.getJob(jobDto.getId());
+                if (stored == null || (stored.getJobStatus() != JobStatusDto.QUEUED &&
+                        stored.getJobStatus() != JobStatusDto.RUNNING)) {
+                    return null;
+                }
+                stored.setJobStatus(JobStatusDto.FAILED);
+                stored.setMessage("Background job failed: " + cause);
+                stored.setEndTime(OffsetDateTime.now(ZoneOffset.UTC));
+                storage.updateJob(stored);
+                return null;
+            });
+        } catch (Exception e) {
+            log.error("Unable to mark background job '{}' as failed", jobDto.getId(), e);
+        }
+    }
+
+    private static void markRunning(JobDto jobDto) {
+        int updated = BasicStorage.performStorageAction("Start queued job", JobStorage::new,
+                (JobStorage storage) -> storage.startQueuedJob(jobDto.getId()));
+        if (updated == 0) {
+            log.warn("Background job '{}' was not queued when it was started", jobDto.getId());
+        }
+        jobDto.setJobStatus(JobStatusDto.RUNNING);
+    }
+
+    /**
+     * Stop all running jobs. Called when the service is shut down.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        log.info("Stopping background jobs");
+        executor.shutdownNow();
+        executor = null;
+    }
+}
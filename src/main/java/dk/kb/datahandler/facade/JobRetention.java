@@ -0,0 +1,64 @@
+package dk.kb.datahandler.facade;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.NamedThreadFactory;
+
+/**
+ * Deletes finished jobs older than {@link ServiceConfig#getJobsRetentionDays()} days from the job storage once a day,
+ * so the jobs table does not grow forever. The first run is a few minutes after start, so it does not slow down the
+ * start of the service.
+ */
+public class JobRetention {
+    private static final Logger log = LoggerFactory.getLogger(JobRetention.class);
+
+    private static final long INITIAL_DELAY_MINUTES = 5;
+
+    private static ScheduledExecutorService executor = null;
+
+    /**
+     * Start deleting expired jobs if a retention is set in the configuration.
+     */
+    public static synchronized void start() {
+        if (ServiceConfig.getJobsRetentionDays() <= 0) {
+            log.info("Job retention is not enabled. Jobs are kept forever");
+            return;
+        }
+        if (executor != null) {
+            log.warn("Job retention is already started");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("job-retention-"));
+        executor.scheduleWithFixedDelay(JobRetention::deleteExpiredJobs, INITIAL_DELAY_MINUTES,
+                TimeUnit.DAYS.toMinutes(1), TimeUnit.MINUTES);
+        log.info("Started job retention. Finished jobs are kept for {} days", ServiceConfig.getJobsRetentionDays());
+    }
+
+    /**
+     * Stop deleting expired jobs.
+     */
+    public static synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        executor = null;
+        log.info("Stopped job retention");
+    }
+
+    private static void deleteExpiredJobs() {
+        try {
+            DsDatahandlerFacade.deleteExpiredJobs();
+        } catch (Exception e) {
+            // An exception would stop the scheduled executor
+            log.error("Exception deleting expired jobs", e);
+        }
+    }
+}
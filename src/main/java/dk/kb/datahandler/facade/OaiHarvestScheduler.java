@@ -0,0 +1,154 @@
+package dk.kb.datahandler.facade;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.CronSchedule;
+import dk.kb.datahandler.util.NamedThreadFactory;
+
+/**
+ * In-process scheduler for delta harvest of OAI targets. The targets with a {@code schedule} in the configuration
+ * are checked every minute and a delta harvest is started through
+ * {@link DsDatahandlerFacade#oaiIngestDelta(String, String)} when the cron expression matches. Jobs are recorded in
+ * the job storage as for harvests started from the API.
+ * <p>
+ * Harvests run on a bounded executor with {@link ServiceConfig#getOaiSchedulerThreads()} threads, so different
+ * targets are harvested concurrently. A target that is still being harvested when it is due again is skipped.
+ */
+public class OaiHarvestScheduler {
+    private static final Logger log = LoggerFactory.getLogger(OaiHarvestScheduler.class);
+
+    /** Registered as creator of the jobs started by the scheduler. */
+    public static final String SCHEDULER_USER = "oai-scheduler";
+
+    /** Max number of minutes to catch up if the ticker has been delayed. */
+    private static final int MAX_CATCH_UP_MINUTES = 10;
+
+    private static final Map<String, CronSchedule> schedules = new LinkedHashMap<>();
+    private static final Set<String> activeTargets = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService ticker = null;
+    private static ExecutorService harvestExecutor = null;
+    private static LocalDateTime lastChecked = null;
+
+    /**
+     * Start the scheduler if it is enabled in the configuration. Invalid cron expressions are logged and the
+     * target is not scheduled.
+     */
+    public static synchronized void start() {
+        if (!ServiceConfig.isOaiSchedulerEnabled()) {
+            log.info("OAI harvest scheduler is not enabled");
+            return;
+        }
+        if (ticker != null) {
+            log.warn("OAI harvest scheduler is already started");
+            return;
+        }
+
+        schedules.clear();
+        ServiceConfig.getOaiTargetSchedules().forEach((targetName, expression) -> {
+            try {
+                schedules.put(targetName, new CronSchedule(expression));
+                log.info("Scheduled delta harvest of OAI target '{}' with '{}'", targetName, expression);
+            } catch (Exception e) {
+                log.error("Unable to schedule OAI target '{}' with '{}'", targetName, expression, e);
+            }
+        });
+        if (schedules.isEmpty()) {
+            log.info("OAI harvest scheduler is enabled, but no targets has a valid schedule");
+            return;
+        }
+
+        harvestExecutor = Executors.newFixedThreadPool(Math.max(1, ServiceConfig.getOaiSchedulerThreads()),
+                new NamedThreadFactory("oai-scheduled-"));
+        ticker = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("oai-scheduler-"));
+        lastChecked = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        long delayMS = ChronoUnit.MILLIS.between(LocalDateTime.now(), lastChecked.plusMinutes(1));
+        ticker.scheduleAtFixedRate(OaiHarvestScheduler::tick, delayMS, TimeUnit.MINUTES.toMillis(1),
+                TimeUnit.MILLISECONDS);
+        log.info("Started OAI harvest scheduler with {} targets and {} harvest threads",
+                schedules.size(), ServiceConfig.getOaiSchedulerThreads());
+    }
+
+    /**
+     * Stop the scheduler. Running harvests are interrupted.
+     */
+    public static synchronized void stop() {
+        if (ticker == null) {
+            return;
+        }
+        ticker.shutdownNow();
+        harvestExecutor.shutdownNow();
+        ticker = null;
+        harvestExecutor = null;
+        log.info("Stopped OAI harvest scheduler");
+    }
+
+    /**
+     * Check all minutes since last check, so a delayed tick does not skip a schedule.
+     */
+    private static synchronized void tick() {
+        try {
+            LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+            LocalDateTime minute = lastChecked.plusMinutes(1);
+            if (minute.isBefore(now.minusMinutes(MAX_CATCH_UP_MINUTES))) {
+                minute = now.minusMinutes(MAX_CATCH_UP_MINUTES);
+            }
+            for (; !minute.isAfter(now); minute = minute.plusMinutes(1)) {
+                for (String targetName : getDueTargets(schedules, minute)) {
+                    startHarvest(targetName);
+                }
+                lastChecked = minute;
+            }
+        } catch (Exception e) {
+            // An exception would stop the scheduled executor
+            log.error("Exception checking OAI harvest schedules", e);
+        }
+    }
+
+    /**
+     * @param schedules cron schedules with target name as key.
+     * @param minute    the minute to check.
+     * @return the names of the targets that are due in the given minute.
+     */
+    static Set<String> getDueTargets(Map<String, CronSchedule> schedules, LocalDateTime minute) {
+        Set<String> due = new LinkedHashSet<>();
+        schedules.forEach((targetName, schedule) -> {
+            if (schedule.matches(minute)) {
+                due.add(targetName);
+            }
+        });
+        return due;
+    }
+
+    private static void startHarvest(String targetName) {
+        if (!activeTargets.add(targetName)) {
+            log.warn("Delta harvest of OAI target '{}' is due, but the previous scheduled harvest is still running. " +
+                    "Skipping", targetName);
+            return;
+        }
+        log.info("Starting scheduled delta harvest of OAI target '{}'", targetName);
+        harvestExecutor.submit(() -> {
+            try {
+                Integer records = DsDatahandlerFacade.oaiIngestDelta(targetName, SCHEDULER_USER);
+                log.info("Scheduled delta harvest of OAI target '{}' completed with {} records", targetName, records);
+            } catch (Exception e) {
+                log.error("Scheduled delta harvest of OAI target '{}' failed", targetName, e);
+            } finally {
+                activeTargets.remove(targetName);
+            }
+        });
+    }
+}
@@ -0,0 +1,269 @@
+package dk.kb.datahandler.facade;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+/**
+ * Loads transcriptions as soon as they appear in the drop folder, instead of waiting for a call to
+ * {@code /transcriptions/load}. The drop folder is watched with a {@link WatchService}. When the ner, segments and
+ * info files for a transcription are all present and none of them have changed for
+ * {@link ServiceConfig#getTranscriptionsWatchDebounceSeconds()} seconds, so they are fully written, the
+ * transcription is loaded.
+ * <p>
+ * The transcriptions that are ready at the same time are loaded as one job through
+ * {@link DsDatahandlerFacade#transcriptionsLoad(File[], String)}, so each batch is recorded as a transcriptions job
+ * and the files are moved to the completed folder as for a manual load. If another transcriptions job is running,
+ * the batch is loaded when it has finished.
+ * <p>
+ * A transcription where the segments or info file has not appeared after {@link #INCOMPLETE_TIMEOUT_MS} is loaded
+ * anyway and handled as by a manual load.
+ */
+public class TranscriptionWatcher {
+    private static final Logger log = LoggerFactory.getLogger(TranscriptionWatcher.class);
+
+    /** Registered as creator of the jobs started by the watcher. */
+    public static final String WATCHER_USER = "transcription-watcher";
+
+    static final String NER_SUFFIX = ".ner.json";
+    static final String SEGMENTS_SUFFIX = ".segments.fw.json";
+    static final String INFO_SUFFIX = ".info.fw.json";
+
+    /** Max time to wait for the rest of the files for a transcription. */
+    static final long INCOMPLETE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /** How often pending transcriptions are checked when there are no file events. */
+    private static final long POLL_MS = 1000;
+
+    private static Thread watcherThread = null;
+    private static WatchService watchService = null;
+
+    /**
+     * Start watching the drop folder if it is enabled in the configuration. Transcriptions already in the drop folder
+     * are loaded as well.
+     */
+    public static synchronized void start() {
+        if (!ServiceConfig.isTranscriptionsWatchEnabled()) {
+            log.info("Transcription watcher is not enabled");
+            return;
+        }
+        if (watcherThread != null) {
+            log.warn("Transcription watcher is already started");
+            return;
+        }
+
+        Path dropFolder = Paths.get(ServiceConfig.getTranscriptionsDropFolder());
+        try {
+            watchService = dropFolder.getFileSystem().newWatchService();
+            dropFolder.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.error("Unable to watch transcription drop folder '{}'. Transcriptions must be loaded manually",
+                    dropFolder, e);
+            watchService = null;
+            return;
+        }
+
+        long debounceMS = TimeUnit.SECONDS.toMillis(ServiceConfig.getTranscriptionsWatchDebounceSeconds());
+        PendingTranscriptions pending = new PendingTranscriptions(debounceMS, INCOMPLETE_TIMEOUT_MS);
+        WatchService service = watchService;
+        watcherThread = new Thread(() -> watch(service, dropFolder, pending), "transcription-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        log.info("Started transcription watcher for drop folder '{}' with debounce {} ms", dropFolder, debounceMS);
+    }
+
+    /**
+     * Stop watching the drop folder. A running load is interrupted.
+     */
+    public static synchronized void stop() {
+        if (watcherThread == null) {
+            return;
+        }
+        watcherThread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Exception closing the watch service for transcriptions", e);
+        }
+        watcherThread = null;
+        watchService = null;
+        log.info("Stopped transcription watcher");
+    }
+
+    private static void watch(WatchService service, Path dropFolder, PendingTranscriptions pending) {
+        // Transcriptions dropped while the service was down
+        scan(dropFolder, pending);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                WatchKey key = service.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            log.info("Too many changes in transcription drop folder to track. Scanning the folder");
+                            scan(dropFolder, pending);
+                        } else {
+                            pending.changed(((Path) event.context()).getFileName().toString(),
+                                    System.currentTimeMillis());
+                        }
+                    }
+                    if (!key.reset()) {
+                        log.error("Transcription drop folder '{}' can no longer be watched. Stopping watcher",
+                                dropFolder);
+                        return;
+                    }
+                }
+                List<String> ready = pending.ready(System.currentTimeMillis(),
+                        fileName -> Files.exists(dropFolder.resolve(fileName)));
+                if (!ready.isEmpty()) {
+                    load(dropFolder, ready, pending);
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (Exception e) {
+                // The watcher must keep running
+                log.error("Exception in transcription watcher", e);
+            }
+        }
+    }
+
+    /**
+     * Register all transcription files in the drop folder as changed now.
+     */
+    private static void scan(Path dropFolder, PendingTranscriptions pending) {
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dropFolder)) {
+            for (Path file : files) {
+                pending.changed(file.getFileName().toString(), now);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to scan transcription drop folder '{}'", dropFolder, e);
+        }
+    }
+
+    private static void load(Path dropFolder, List<String> baseNames, PendingTranscriptions pending) {
+        File[] files = baseNames.stream()
+                .map(baseName -> dropFolder.resolve(baseName + NER_SUFFIX).toFile())
+                .toArray(File[]::new);
+        try {
+            Integer success = DsDatahandlerFacade.transcriptionsLoad(files, WATCHER_USER);
+            log.info("Loaded {} of {} new transcriptions", success, files.length);
+        } catch (InvalidArgumentServiceException e) {
+            log.debug("Another transcriptions job is running. Loading {} transcriptions later", files.length);
+            return;
+        } catch (Exception e) {
+            // The job is recorded as failed. Files left in the drop folder are picked up by the next manual load
+            log.error("Loading {} new transcriptions failed", files.length, e);
+        }
+        pending.remove(baseNames);
+    }
+
+    /**
+     * Keeps track of transcriptions with changed files in the drop folder. Not thread safe.
+     */
+    static class PendingTranscriptions {
+        private final long debounceMS;
+        private final long incompleteTimeoutMS;
+        private final Map<String, Long> lastChanged = new LinkedHashMap<>();
+        private final Map<String, Long> firstSeen = new LinkedHashMap<>();
+
+        /**
+         * @param debounceMS          milliseconds without changes before the files are considered fully written.
+         * @param incompleteTimeoutMS milliseconds to wait for the rest of the files for a transcription.
+         */
+        PendingTranscriptions(long debounceMS, long incompleteTimeoutMS) {
+            this.debounceMS = debounceMS;
+            this.incompleteTimeoutMS = incompleteTimeoutMS;
+        }
+
+        /**
+         * Register that a file in the drop folder has been created or changed. Files that are not part of a
+         * transcription are ignored.
+         */
+        void changed(String fileName, long nowMS) {
+            String baseName = toBaseName(fileName);
+            if (baseName != null) {
+                lastChanged.put(baseName, nowMS);
+                firstSeen.putIfAbsent(baseName, nowMS);
+            }
+        }
+
+        /**
+         * Find the transcriptions that are ready to load. Transcriptions that are no longer in the drop folder are
+         * forgotten.
+         * @param exists tells if a file with the given name is in the drop folder.
+         * @return the base names of the transcriptions that are ready, in the order they appeared.
+         */
+        List<String> ready(long nowMS, Predicate<String> exists) {
+            List<String> ready = new ArrayList<>();
+            Iterator<Map.Entry<String, Long>> entries = lastChanged.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Long> entry = entries.next();
+                String baseName = entry.getKey();
+                if (nowMS - entry.getValue() < debounceMS) {
+                    continue;
+                }
+                boolean ner = exists.test(baseName + NER_SUFFIX);
+                boolean segments = exists.test(baseName + SEGMENTS_SUFFIX);
+                boolean info = exists.test(baseName + INFO_SUFFIX);
+                boolean timedOut = nowMS - firstSeen.get(baseName) >= incompleteTimeoutMS;
+                if (ner && (segments && info || timedOut)) {
+                    ready.add(baseName);
+                } else if (!ner && (!segments && !info || timedOut)) {
+                    // Loaded by someone else or never completed
+                    entries.remove();
+                    firstSeen.remove(baseName);
+                }
+            }
+            return ready;
+        }
+
+        /**
+         * Forget transcriptions that have been loaded.
+         */
+        void remove(Collection<String> baseNames) {
+            for (String baseName : baseNames) {
+                lastChanged.remove(baseName);
+                firstSeen.remove(baseName);
+            }
+        }
+
+        int size() {
+            return lastChanged.size();
+        }
+
+        /**
+         * @return the file name without the transcription suffix or null if it is not a transcription file.
+         */
+        static String toBaseName(String fileName) {
+            for (String suffix : new String[]{NER_SUFFIX, SEGMENTS_SUFFIX, INFO_SUFFIX}) {
+                if (fileName.endsWith(suffix) && fileName.length() > suffix.length()) {
+                    return fileName.substring(0, fileName.length() - suffix.length());
+                }
+            }
+            return null;
+        }
+    }
+}
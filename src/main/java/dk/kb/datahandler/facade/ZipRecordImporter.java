@@ -0,0 +1,228 @@
+package dk.kb.datahandler.facade;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.util.NamedThreadFactory;
+import dk.kb.datahandler.util.XmlEscapeSanitisingReader;
+import dk.kb.storage.model.v1.DsRecordDto;
+import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+/**
+ * Imports records into ds-storage from a zip file where each entry is an XML record in METS with mods. The record id
+ * is the origin followed by the uuid from the first {@code <mods:identifier>} in the record.
+ * <p>
+ * The entries are read one at a time from the zip stream. The identifier is found with a StAX scan that stops at the
+ * first {@code <mods:identifier>}, so no DOM is built. Records are posted to ds-storage by a pool of threads, with at
+ * most twice the number of threads records waiting to be posted, so the zip is never held in memory.
+ * <p>
+ * Entries that can not be parsed or posted are logged and the import continues with the next entry. The file names
+ * of the failed entries are returned.
+ */
+public class ZipRecordImporter {
+    private static final Logger log = LoggerFactory.getLogger(ZipRecordImporter.class);
+
+    private static final XMLInputFactory factory = createFactory();
+    private static final String IDENTIFIER_ELEMENT = "mods:identifier";
+    private static final double MB = 1024.0 * 1024.0;
+
+    private final DsStorageClient storage;
+    private final String origin;
+    private final int threads;
+
+    /**
+     * @param storage destination for records.
+     * @param origin  the origin for the records. The origin must be defined in ds-storage.
+     * @param threads the number of parallel posts to ds-storage. If 1 or less, records are posted on the calling
+     *                thread.
+     */
+    public ZipRecordImporter(DsStorageClient storage, String origin, int threads) {
+        this.storage = storage;
+        this.origin = origin;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Import all records in the zip file.
+     * @param is a zip file with a single XML record in each file.
+     * @return the file names of the records that failed, in the order of the zip file.
+     * @throws InvalidArgumentServiceException if the zip file itself can not be read. Records read before the error
+     *                                         have been imported.
+     */
+    public List<String> importRecords(InputStream is) {
+        Map<Integer, String> failed = new ConcurrentSkipListMap<>();
+        AtomicInteger imported = new AtomicInteger(0);
+        long bytes = 0;
+        int entries = 0;
+        long startNS = System.nanoTime();
+
+        ExecutorService executor = threads > 1 ?
+                Executors.newFixedThreadPool(threads, new NamedThreadFactory("zip-import-")) :
+                null;
+        Semaphore inFlight = new Semaphore(threads * 2);
+        String fileName = null;
+        boolean posted = false;
+        try (ZipInputStream zis = new ZipInputStream(new BufferedInputStream(is))) {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                fileName = entry.getName();
+                int index = entries++;
+                byte[] recordBytes = zis.readAllBytes();
+                bytes += recordBytes.length;
+                String recordString = new String(recordBytes, StandardCharsets.UTF_8);
+
+                DsRecordDto dsRecord;
+                try {
+                    dsRecord = createRecord(recordString);
+                } catch (Exception e) {
+                    log.warn("Error parsing xml record for file: '{}'. Continuing with next file", fileName, e);
+                    failed.put(index, fileName);
+                    continue;
+                }
+                log.debug("Ingesting record filename from zip: '{}' and id: '{}'", fileName, dsRecord.getId());
+
+                String entryName = fileName;
+                Runnable post = () -> {
+                    try {
+                        storage.recordPost(dsRecord);
+                        imported.incrementAndGet();
+                    } catch (Exception e) {
+                        log.warn("Error posting record with filename: '{}' to DsStorage.", entryName, e);
+                        failed.put(index, entryName);
+                    } finally {
+                        inFlight.release();
+                    }
+                };
+                inFlight.acquire();
+                if (executor == null) {
+                    post.run();
+                } else {
+                    executor.execute(post);
+                }
+            }
+            awaitPosts(executor, inFlight);
+            posted = true;
+        } catch (IOException e) {
+            awaitPosts(executor, inFlight);
+            posted = true;
+            String msg = "Error reading zip file at file: '" + fileName + "' after " + imported.get() +
+                    " imported records";
+            log.error(msg, e);
+            throw new InvalidArgumentServiceException(msg);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while importing records from zip file", e);
+        } finally {
+            if (executor != null) {
+                if (posted) {
+                    executor.shutdown();
+                } else {
+                    // Posts that have not started are dropped
+                    executor.shutdownNow();
+                }
+            }
+        }
+
+        double seconds = Math.max(1, System.nanoTime() - startNS) / 1_000_000_000.0;
+        log.info(String.format(Locale.ROOT, "Imported %d of %d records from zip file for origin '%s' in %.1f " +
+                        "seconds (%.1f records/s, %.2f MB/s). %d failed: %s", imported.get(), entries, origin,
+                seconds, imported.get() / seconds, bytes / MB / seconds, failed.size(), failed.values()));
+        return new ArrayList<>(failed.values());
+    }
+
+    /**
+     * Wait until all submitted records have been posted.
+     */
+    private void awaitPosts(ExecutorService executor, Semaphore inFlight) {
+        if (executor == null) {
+            return;
+        }
+        try {
+            if (!inFlight.tryAcquire(threads * 2, 1, TimeUnit.HOURS)) {
+                throw new InternalServiceException("Timeout waiting for records to be posted to ds-storage");
+            }
+            inFlight.release(threads * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while waiting for records to be posted", e);
+        }
+    }
+
+    private DsRecordDto createRecord(String recordString) throws XMLStreamException {
+        String identifier = findIdentifier(recordString);
+        if (identifier == null) {
+            throw new XMLStreamException("No " + IDENTIFIER_ELEMENT + " in record");
+        }
+        //Example: urn:uuid:096c9090-717f-11e0-82d7-002185371280
+        identifier = identifier.replaceFirst("urn:uuid:", ""); // Clear this first part from the ID
+
+        DsRecordDto dsRecord = new DsRecordDto();
+        dsRecord.setId(origin + ":" + identifier);
+        dsRecord.setOrigin(origin);
+        dsRecord.setData(recordString);
+        return dsRecord;
+    }
+
+    /**
+     * There are several 'mods:identifier' identifier tags, but the first always contains the URI. The scan stops at
+     * the first one.
+     * @param recordString an XML record.
+     * @return the content of the first {@code <mods:identifier>} or null if there is none.
+     */
+    static String findIdentifier(String recordString) throws XMLStreamException {
+        XMLStreamReader reader = factory.createXMLStreamReader(
+                new XmlEscapeSanitisingReader(new StringReader(recordString)));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && IDENTIFIER_ELEMENT.equals(qName(reader))) {
+                    return reader.getElementText();
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static String qName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+}
@@ -0,0 +1,358 @@
+package dk.kb.datahandler.kaltura;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kaltura.client.enums.MediaType;
+import com.kaltura.client.types.APIException;
+
+/**
+ * Uploads a stream to kaltura in chunks using an upload token, so a failed transfer can be resumed from the last chunk
+ * instead of starting over. Chunks are read with positional reads on a {@link FileChannel}, so the file is never held
+ * in memory.
+ * <p>
+ * The upload token for a stream is stored in a state file in the state folder, named after the reference id. If an
+ * upload fails after the retries for a chunk, the state file is kept and a {@link ResumableUploadException} is thrown.
+ * The next upload of the same file, also after a restart of the service, asks kaltura how much of the file it has
+ * received and continues from there. The state is discarded if the file has changed or kaltura no longer accepts the
+ * token.
+ * <p>
+ * If a conversion queue threshold is given, the upload waits while kaltura has at least that many flavors waiting for
+ * or in conversion, as {@code DsKalturaClient} does for uploads that are not chunked.
+ */
+public class KalturaChunkedUploader {
+    private static final Logger log = LoggerFactory.getLogger(KalturaChunkedUploader.class);
+
+    private static final double MB = 1024.0 * 1024.0;
+
+    /**
+     * The kaltura calls used for a chunked upload.
+     */
+    public interface UploadTokenApi {
+        /**
+         * @return the id of a new upload token for the file.
+         */
+        String createUploadToken(String fileName, long fileSize) throws APIException;
+
+        /**
+         * @return the number of bytes kaltura has received for the token or -1 if the token can not be used anymore.
+         */
+        long getUploadedSize(String uploadTokenId) throws APIException;
+
+        /**
+         * Upload a chunk of the file.
+         * @param resumeAt the position of the chunk in the file.
+         */
+        void uploadChunk(String uploadTokenId, InputStream chunk, String fileName, long chunkSize, long resumeAt,
+                         boolean finalChunk) throws APIException;
+
+        /**
+         * @return the number of flavors waiting for or in conversion in kaltura.
+         */
+        int getConversionQueueSize() throws APIException;
+
+        /**
+         * Create a media entry with the uploaded file as content. If the content can not be added, the entry is
+         * deleted again.
+         * @return the entry id.
+         */
+        String addMediaEntry(String uploadTokenId, String title, String referenceId, String description, String tag,
+                             MediaType mediaType, int conversionProfileId) throws APIException;
+    }
+
+    /**
+     * Thrown when an upload failed, but has been saved so it can be resumed.
+     */
+    public static class ResumableUploadException extends IOException {
+        public ResumableUploadException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final UploadTokenApi api;
+    private final Path stateFolder;
+    private final long chunkSize;
+    private final int chunkRetries;
+    private final long retryDelayMS;
+    private final int conversionQueueThreshold;
+    private final long conversionQueueDelayMS;
+
+    /**
+     * Create an uploader that does not check the conversion queue.
+     * @param api          the kaltura calls.
+     * @param stateFolder  folder for upload state. Created if it does not exist.
+     * @param chunkSize    the size of each chunk in bytes.
+     * @param chunkRetries the number of times a failed chunk is retried before the upload is given up.
+     * @param retryDelayMS milliseconds to wait before retrying a chunk.
+     */
+    public KalturaChunkedUploader(UploadTokenApi api, Path stateFolder, long chunkSize, int chunkRetries,
+                                  long retryDelayMS) {
+        this(api, stateFolder, chunkSize, chunkRetries, retryDelayMS, 0, 0);
+    }
+
+    /**
+     * @param api                      the kaltura calls.
+     * @param stateFolder              folder for upload state. Created if it does not exist.
+     * @param chunkSize                the size of each chunk in bytes.
+     * @param chunkRetries             the number of times a failed chunk is retried before the upload is given up.
+     * @param retryDelayMS             milliseconds to wait before retrying a chunk.
+     * @param conversionQueueThreshold an upload waits while the conversion queue has at least this many flavors.
+     *                                 0 or less disables the check.
+     * @param conversionQueueDelayMS   milliseconds to wait before checking the conversion queue again.
+     */
+    public KalturaChunkedUploader(UploadTokenApi api, Path stateFolder, long chunkSize, int chunkRetries,
+                                  long retryDelayMS, int conversionQueueThreshold, long conversionQueueDelayMS) {
+        this.api = api;
+        this.stateFolder = stateFolder;
+        this.chunkSize = chunkSize;
+        this.chunkRetries = chunkRetries;
+        this.retryDelayMS = retryDelayMS;
+        this.conversionQueueThreshold = conversionQueueThreshold;
+        this.conversionQueueDelayMS = conversionQueueDelayMS;
+    }
+
+    /**
+     * Upload a file to kaltura, resuming an earlier upload of the file if possible. The upload starts when the
+     * conversion queue is below the threshold.
+     * @param file     the file to upload.
+     * @param fileName the file name given to kaltura.
+     * @return the kaltura entry id.
+     * @throws ResumableUploadException if a chunk could not be uploaded. The upload can be resumed.
+     * @throws IOException              if the file could not be read or the wait for the conversion queue was
+     *                                  interrupted.
+     * @throws APIException             if the upload could not be started or the entry could not be created.
+     */
+    public String upload(Path file, String fileName, String title, String referenceId, String description,
+                         String tag, MediaType mediaType, int conversionProfileId) throws IOException, APIException {
+        waitForConversionQueue(file);
+        long fileSize = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        Path stateFile = stateFolder.resolve(referenceId + ".properties");
+
+        String uploadTokenId = null;
+        long offset = 0;
+        Properties state = loadState(stateFile);
+        if (state != null && file.toString().equals(state.getProperty("path")) &&
+                Long.toString(fileSize).equals(state.getProperty("fileSize")) &&
+                Long.toString(lastModified).equals(state.getProperty("lastModified"))) {
+            long uploaded = getUploadedSize(state.getProperty("uploadTokenId"));
+            if (uploaded >= 0 && uploaded <= fileSize) {
+                uploadTokenId = state.getProperty("uploadTokenId");
+                offset = uploaded;
+                log.info("Resuming upload of '{}' with uploadToken '{}' at {} of {} bytes",
+                        file, uploadTokenId, offset, fileSize);
+            }
+        }
+        if (uploadTokenId == null) {
+            uploadTokenId = api.createUploadToken(fileName, fileSize);
+            state = new Properties();
+            state.setProperty("uploadTokenId", uploadTokenId);
+            state.setProperty("path", file.toString());
+            state.setProperty("fileSize", Long.toString(fileSize));
+            state.setProperty("lastModified", Long.toString(lastModified));
+            saveState(stateFile, state);
+            log.info("Starting chunked upload of '{}' ({} bytes) with uploadToken '{}'", file, fileSize, uploadTokenId);
+        }
+
+        long startNS = System.nanoTime();
+        long startOffset = offset;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (offset < fileSize) {
+                offset = uploadChunk(channel, uploadTokenId, fileName, offset, fileSize);
+                state.setProperty("uploadedSize", Long.toString(offset));
+                saveState(stateFile, state);
+            }
+        }
+
+        String entryId = api.addMediaEntry(uploadTokenId, title, referenceId, description, tag, mediaType,
+                conversionProfileId);
+        Files.deleteIfExists(stateFile);
+        double seconds = Math.max(1, System.nanoTime() - startNS) / 1_000_000_000.0;
+        log.info(String.format(Locale.ROOT, "Uploaded %.1f MB of '%s' in %.1f seconds (%.2f MB/s). Entry id '%s'",
+                (fileSize - startOffset) / MB, file, seconds, (fileSize - startOffset) / MB / seconds, entryId));
+        return entryId;
+    }
+
+    /**
+     * Upload the chunk starting at offset, retrying on failure.
+     * @return the offset of the next chunk.
+     */
+    private long uploadChunk(FileChannel channel, String uploadTokenId, String fileName, long offset, long fileSize)
+            throws ResumableUploadException {
+        for (int attempt = 0; ; attempt++) {
+            long length = Math.min(chunkSize, fileSize - offset);
+            boolean finalChunk = offset + length >= fileSize;
+            try {
+                api.uploadChunk(uploadTokenId, new ChunkInputStream(channel, offset, length), fileName, length,
+                        offset, finalChunk);
+                return offset + length;
+            } catch (Exception e) {
+                if (attempt >= chunkRetries) {
+                    throw new ResumableUploadException(String.format(Locale.ROOT,
+                            "Upload of chunk at %d of %d bytes for uploadToken '%s' failed after %d attempts",
+                            offset, fileSize, uploadTokenId, attempt + 1), e);
+                }
+                log.warn("Upload of chunk at {} for uploadToken '{}' failed. Retrying in {} ms",
+                        offset, uploadTokenId, retryDelayMS, e);
+                sleep();
+                // Kaltura may have received part of the chunk
+                long uploaded = getUploadedSize(uploadTokenId);
+                if (uploaded >= 0 && uploaded <= fileSize) {
+                    offset = uploaded;
+                    if (offset == fileSize) {
+                        return offset;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait while the conversion queue in kaltura has at least {@code conversionQueueThreshold} flavors.
+     */
+    private void waitForConversionQueue(Path file) throws APIException, InterruptedIOException {
+        if (conversionQueueThreshold <= 0) {
+            return;
+        }
+        int queueSize;
+        while ((queueSize = api.getConversionQueueSize()) >= conversionQueueThreshold) {
+            log.info("Kaltura conversion queue has {} flavors, the threshold is {}. Waiting {} ms before uploading '{}'",
+                    queueSize, conversionQueueThreshold, conversionQueueDelayMS, file);
+            try {
+                Thread.sleep(conversionQueueDelayMS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the kaltura conversion queue");
+            }
+        }
+    }
+
+    private long getUploadedSize(String uploadTokenId) {
+        if (uploadTokenId == null) {
+            return -1;
+        }
+        try {
+            return api.getUploadedSize(uploadTokenId);
+        } catch (Exception e) {
+            log.warn("Unable to get the uploaded size for uploadToken '{}'", uploadTokenId, e);
+            return -1;
+        }
+    }
+
+    private void sleep() throws ResumableUploadException {
+        try {
+            Thread.sleep(retryDelayMS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResumableUploadException("Interrupted while waiting to retry chunk upload", e);
+        }
+    }
+
+    private Properties loadState(Path stateFile) {
+        if (!Files.exists(stateFile)) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (Reader reader = Files.newBufferedReader(stateFile, StandardCharsets.UTF_8)) {
+            state.load(reader);
+            return state;
+        } catch (IOException e) {
+            log.warn("Unable to read upload state '{}'. Starting a new upload", stateFile, e);
+            return null;
+        }
+    }
+
+    /**
+     * Write the state to a temporary file and move it in place, so a crash never leaves a partial state file.
+     */
+    private void saveState(Path stateFile, Properties state) {
+        try {
+            Files.createDirectories(stateFolder);
+            Path tmp = stateFolder.resolve(stateFile.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                state.store(out, "Kaltura chunked upload");
+            }
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Unable to save upload state '{}'. The upload can not be resumed after a restart", stateFile, e);
+        }
+    }
+
+    /**
+     * Reads a part of a file with positional reads, so the channel can be shared and no more than the buffer is held
+     * in memory.
+     */
+    static class ChunkInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private long position;
+        private long remaining;
+
+        ChunkInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            buffer.limit(0);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + remaining);
+        }
+
+        private boolean fill() throws IOException {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (remaining <= 0) {
+                return false;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                throw new IOException("Unexpected end of file at position " + position);
+            }
+            position += read;
+            remaining -= read;
+            buffer.flip();
+            return true;
+        }
+    }
+}
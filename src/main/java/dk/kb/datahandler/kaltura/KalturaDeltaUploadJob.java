@@ -3,6 +3,11 @@ package dk.kb.datahandler.kaltura;
 import com.kaltura.client.enums.MediaType;
 import com.kaltura.client.types.APIException;
 import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.solr.SolrCursorScanner;
+import dk.kb.datahandler.util.HttpClientRegistry;
+import dk.kb.datahandler.util.JobProgress;
+import dk.kb.datahandler.util.Metrics;
+import dk.kb.datahandler.util.NamedThreadFactory;
 import dk.kb.kaltura.client.DsKalturaClient;
 import dk.kb.kaltura.enums.FileExtension;
 import dk.kb.storage.model.v1.DsRecordDto;
@@ -10,9 +15,9 @@ import dk.kb.storage.model.v1.StreamErrorTypeDto;
 import dk.kb.storage.util.DsStorageClient;
 import dk.kb.util.webservice.exception.InternalServiceException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.HttpJdkSolrClient;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
@@ -25,15 +30,38 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class has a single public method to upload all kaltura streams with from mTime (in Solr) and higher values.
  */
 public class KalturaDeltaUploadJob {
 
-    static DsKalturaClient kalturaClient = null;
+    static volatile DsKalturaClient kalturaClient = null;
+    static KalturaIdCache kalturaIdCache = null;
+    static KalturaChunkedUploader chunkedUploader = null;
+    /** Bytes uploaded to kaltura by the running delta upload, for reporting throughput. */
+    private static final LongAdder uploadedBytes = new LongAdder();
+    /** MB/s is the rate of the bytes, or the bytes divided by the upload seconds for the time spent uploading. */
+    private static final Metrics.Counter uploadedBytesTotal = Metrics.counter("kaltura_upload_bytes_total",
+            "Bytes of streams uploaded to kaltura");
+    private static final Metrics.Histogram uploadTime = Metrics.histogram("kaltura_upload_seconds",
+            "Time to upload a stream to kaltura");
+    /** Maximum number of reference ids in a single bulk lookup in kaltura. */
+    static final int KALTURA_LOOKUP_BATCH_SIZE = 500;
     private static final Logger log = LoggerFactory.getLogger(KalturaDeltaUploadJob.class);
 
     /**
@@ -68,67 +96,189 @@ public class KalturaDeltaUploadJob {
      * @throws InternalServiceException If any Solr or Kaltura call fails. Stop uploading more. Maybe allow single kaltura upload jobs to fail later.
      */
     public static int uploadStreamsToKaltura() throws InternalServiceException {
+        return uploadStreamsToKaltura(JobProgress.untracked());
+    }
+
+    /**
+     * Upload missing streams to kaltura. See {@link #uploadStreamsToKaltura()}.
+     * <p>
+     * If {@link ServiceConfig#getKalturaUploadThreads()} is more than 1, the records are uploaded in parallel. See
+     * {@link #uploadStreamsToKalturaParallel(JobProgress, int)}.
+     * @param progress updated after each record with the number of processed records and the mTime to continue from.
+     * @return number of streams uploaded
+     */
+    public static int uploadStreamsToKaltura(JobProgress progress) throws InternalServiceException {
+        uploadedBytes.reset();
+        long startNS = System.nanoTime();
+        try {
+            int uploadThreads = ServiceConfig.getKalturaUploadThreads();
+            if (uploadThreads > 1) {
+                return uploadStreamsToKalturaParallel(progress, uploadThreads);
+            }
+            return uploadStreamsToKalturaSequential(progress);
+        } finally {
+            double seconds = Math.max(1, System.nanoTime() - startNS) / 1_000_000_000.0;
+            double uploadedMB = uploadedBytes.sum() / (1024.0 * 1024.0);
+            log.info(String.format(Locale.ROOT, "Kaltura delta upload sent %.1f MB in %.0f seconds (%.2f MB/s)",
+                    uploadedMB, seconds, uploadedMB / seconds));
+        }
+    }
+
+    private static int uploadStreamsToKalturaSequential(JobProgress progress) throws InternalServiceException {
+        int numberRecordsProcessed = 0;
 
-        boolean moreSolrRecords = true;
-        long mTimeFromCurrent = 0; //Use this for batching. It will still only extract records without kaltura_id
+        long mTimeFromCurrent = 0; // The mTime of the last processed record. Records are fetched with a solr cursor
         int numberStreamsUploaded = 0;
         String uploadTagForKaltura = getUploadTagForKaltura();
         //The minimumFileSizeInBytesvalue has been defined by Asger+Petur. It has been burned into the kaltura bulk upload and must not be changed, unless we start with a new empty kaltura partnerid.
         //Next time I recommend a much higher value such as 4096 etc, this is a few seconds of audio.
         long minimumFileSizeInBytes = 700;
         String dsStorageUrl = ServiceConfig.getDsStorageUrl();
-        DsStorageClient storageClient = new DsStorageClient(dsStorageUrl);
+        DsStorageClient storageClient = HttpClientRegistry.getDsStorageClient(dsStorageUrl);
 
-        while (moreSolrRecords) {
-            SolrDocumentList docs;
-            try {
-                docs = fetchSolrRecords(mTimeFromCurrent, 500);
-            } catch (SolrServerException | IOException e) {
-                // Can not fetch more records. Stop delta upload
-                moreSolrRecords = false;
-                String errorMessage = "Could not fetch more solr records from mTime=" + mTimeFromCurrent;
-                log.error(errorMessage);
-                throw new InternalServiceException(errorMessage, e);
-            }
-            if (docs.getNumFound() == 0) {
-                return numberStreamsUploaded;
-            }
-
-            for (SolrDocument doc : docs) {
-                String resourceDescription = (String) doc.getFieldValue("resource_description");
+        try (SolrCursorScanner solrRecords = openSolrRecords(0, 500)) {
+            while (true) {
+                SolrDocumentList docs;
+                try {
+                    docs = solrRecords.nextPage();
+                } catch (SolrServerException | IOException e) {
+                    // Can not fetch more records. Stop delta upload
+                    String errorMessage = "Could not fetch more solr records after mTime=" + mTimeFromCurrent;
+                    log.error(errorMessage);
+                    throw new InternalServiceException(errorMessage, e);
+                }
+                if (docs == null) {
+                    return numberStreamsUploaded;
+                }
 
-                String title = ""; //Default
-                ArrayList<String> titles = (ArrayList<String>) doc.getFieldValue("title"); //multivalue
-                if (titles != null && titles.size() > 0) {
-                    title = titles.get(0); // take first
+                List<UploadRecord> records = toUploadRecords(docs);
+                resolveKalturaIds(records);
+                for (UploadRecord record : records) {
+                    mTimeFromCurrent = record.mTime + 1L; //update mTime for progress
+                    numberStreamsUploaded += record.upload(uploadTagForKaltura, minimumFileSizeInBytes, storageClient);
+                    progress.update(++numberRecordsProcessed, String.valueOf(mTimeFromCurrent));
                 }
-                String description = (String) doc.getFieldValue("description");
-                String fileId = (String) doc.getFieldValue("file_id");
-                String filePathSolr = (String) doc.getFieldValue("file_path");
-                String originatesFrom = (String) doc.getFieldValue("originates_from");
-                String id = (String) doc.getFieldValue("id");
-                long recordMtime = (long) doc.getFieldValue("internal_storage_mTime");
-                String fileExtension = (String) doc.getFieldValue("file_extension");
-                String filePath = null;
+            }
+        }
+    }
+
+    /**
+     * Upload missing streams to kaltura with a number of upload workers. Each batch of records from solr is uploaded by
+     * the workers and the next batch is fetched from solr while they work. The next batch is uploaded when all uploads
+     * in the batch have finished. Records in a batch that share a stream are processed in order by the same worker, so
+     * the stream is only uploaded once.
+     * <p>
+     * The workers share the kaltura client, so the conversion queue throttling in the client applies to every upload.
+     * Note that each worker checks the conversion queue on its own, so up to {@code uploadThreads} uploads can pass the
+     * check before the queue length is updated.
+     * <p>
+     * A failed upload does not stop the other uploads. The failure is logged and the job continues with the remaining
+     * records. When all records have been processed an exception listing the failed file ids is thrown, so the job is
+     * marked as failed. The position in the job progress is the mTime before the first record that has not been
+     * uploaded, so a new delta upload from that position will not skip any records.
+     *
+     * @param progress      updated after each record with the number of processed records and the mTime to continue
+     *                      from.
+     * @param uploadThreads the number of parallel uploads.
+     * @return number of streams uploaded
+     * @throws InternalServiceException if solr can not be queried or if one or more uploads failed.
+     */
+    static int uploadStreamsToKalturaParallel(JobProgress progress, int uploadThreads) throws InternalServiceException {
+        String uploadTagForKaltura = getUploadTagForKaltura();
+        long minimumFileSizeInBytes = 700; // See uploadStreamsToKaltura(JobProgress)
+        DsStorageClient storageClient = HttpClientRegistry.getDsStorageClient(ServiceConfig.getDsStorageUrl());
+        initKalturaClient(); // Create the shared client before the workers use it
+
+        AtomicInteger numberRecordsProcessed = new AtomicInteger(0);
+        AtomicInteger numberStreamsUploaded = new AtomicInteger(0);
+        Map<String, String> failedUploads = Collections.synchronizedMap(new LinkedHashMap<>());
+        CompletedMTime completedMTime = new CompletedMTime();
+
+        log.info("Starting parallel kaltura upload with {} upload threads", uploadThreads);
+        ExecutorService executor =
+                Executors.newFixedThreadPool(uploadThreads, new NamedThreadFactory("kaltura-upload-"));
+        try (SolrCursorScanner solrRecords = openSolrRecords(0, 500)) {
+            while (true) {
+                SolrDocumentList docs;
                 try {
-                    filePath = KalturaUtil.generateStreamPath(filePathSolr, originatesFrom, resourceDescription);
-                } catch (IOException e) {
-                    String errorMessage = "Could not generate stream path";
+                    docs = solrRecords.nextPage();
+                } catch (SolrServerException | IOException e) {
+                    String errorMessage = "Could not fetch more solr records after mTime=" + completedMTime.get();
                     log.error(errorMessage);
                     throw new InternalServiceException(errorMessage, e);
                 }
+                if (docs == null) {
+                    break;
+                }
 
-                mTimeFromCurrent = recordMtime + 1L; //update mTime for next call
-
-                if (recordAlreadyHasKalturaId(storageClient, id)) { // No need to ask kaltura for kalturaId.
-                    continue;
+                List<UploadRecord> records = toUploadRecords(docs);
+                resolveKalturaIds(records);
+                completedMTime.startBatch(records);
+
+                List<Future<?>> uploads = new ArrayList<>(records.size());
+                for (List<Integer> sameStream : groupByFileId(records)) {
+                    uploads.add(executor.submit(() -> {
+                        for (int index : sameStream) {
+                            UploadRecord record = records.get(index);
+                            try {
+                                numberStreamsUploaded.addAndGet(
+                                        record.upload(uploadTagForKaltura, minimumFileSizeInBytes, storageClient));
+                                completedMTime.completed(index);
+                            } catch (Exception e) {
+                                log.error("Upload failed for fileId='{}' and recordId='{}'. Continuing with the " +
+                                        "other records", record.fileId, record.id, e);
+                                failedUploads.put(record.fileId, e.getMessage());
+                            }
+                            progress.update(numberRecordsProcessed.incrementAndGet(),
+                                    String.valueOf(completedMTime.get()));
+                        }
+                    }));
                 }
+                waitForUploads(uploads);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (!failedUploads.isEmpty()) {
+            String errorMessage = String.format(Locale.ROOT,
+                    "Kaltura upload failed for %d of %d records. Uploaded %d streams. All records before mTime=%d " +
+                    "have been processed. Failed fileIds: %s", failedUploads.size(), numberRecordsProcessed.get(),
+                    numberStreamsUploaded.get(), completedMTime.get(), failedUploads.keySet());
+            log.error(errorMessage);
+            throw new InternalServiceException(errorMessage);
+        }
+        log.info("Parallel kaltura upload finished. Processed {} records and uploaded {} streams",
+                numberRecordsProcessed.get(), numberStreamsUploaded.get());
+        return numberStreamsUploaded.get();
+    }
+
+    /**
+     * Group the records in a batch by stream, so records sharing a stream are not uploaded at the same time.
+     * @return the positions in the batch of the records for each file_id, ordered by the first record for each.
+     */
+    static Collection<List<Integer>> groupByFileId(List<UploadRecord> records) {
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            groups.computeIfAbsent(records.get(i).fileId, fileId -> new ArrayList<>()).add(i);
+        }
+        return groups.values();
+    }
 
-                numberStreamsUploaded += processUpload(uploadTagForKaltura, minimumFileSizeInBytes, storageClient,
-                        resourceDescription, title, description, fileId, id, filePath, fileExtension);
+    /**
+     * Wait for all uploads in a batch. Failed uploads are handled by the upload itself.
+     */
+    private static void waitForUploads(List<Future<?>> uploads) {
+        for (Future<?> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalServiceException("Interrupted while waiting for kaltura uploads", e);
+            } catch (ExecutionException e) {
+                throw new InternalServiceException("Unexpected error during kaltura upload", e.getCause());
             }
         }
-        return numberStreamsUploaded;
     }
 
     /**
@@ -140,10 +290,12 @@ public class KalturaDeltaUploadJob {
     static int processUpload(String uploadTagForKaltura, long minimumFileSizeInBytes, DsStorageClient storageClient,
                              String resourceDescription, String title, String description, String fileId, String id, String filePath,
                              String fileExtension) {
+        MediaType mediaType;
+        int conversionProfileId;
         try {
             //upload stream
-            MediaType mediaType = KalturaUtil.getMediaType(resourceDescription);
-            int conversionProfileId = KalturaUtil.getGetConversionProfileId(mediaType);
+            mediaType = KalturaUtil.getMediaType(resourceDescription);
+            conversionProfileId = KalturaUtil.getGetConversionProfileId(mediaType);
             log.info("validating stream='{}' with title='{}'", filePath, title);
             StreamErrorTypeDto fileError = hasStreamFileError(filePath, minimumFileSizeInBytes);
             if (fileError != null) {
@@ -153,26 +305,12 @@ public class KalturaDeltaUploadJob {
             }
 
             // Check file not already in kaltura. 
-            String kalturaInternalId = getInternalIdKaltura(fileId);
+            String kalturaInternalId = lookupInternalIdKaltura(fileId);
             if (kalturaInternalId != null) {
                 log.warn("Stream already found in Kaltura. FileId='{}' and has kalturaId='{}'. Setting this kalturaId for recordId='{}'", fileId, kalturaInternalId, id);
                 updateKalturaIdForRecord(storageClient, fileId, kalturaInternalId);
                 return 0;
             }
-
-            try {
-                String kalturaId = uploadStream(title, fileId, description, filePath, uploadTagForKaltura,
-                        mediaType, fileExtension, conversionProfileId);
-                log.info("Uploaded stream='{}' and got kalturaId='{}'", filePath, kalturaId);
-                //update storage record with kalturaId
-                updateKalturaIdForRecord(storageClient, fileId, kalturaId);
-                log.info("Updated Kaltura mapping in storage for fileId='{}'", fileId);
-                return 1;
-            } catch (Exception e) {  //Stop delta job
-                log.error("Failed uploading stream to kaltura with fileId='{}', path='{}', title='{}', error='{}'", fileId, filePath, title, e.getMessage());
-                updateKalturaIdForRecord(storageClient, fileId, StreamErrorTypeDto.API.getValue()); //Mark as API error
-                throw new InternalServiceException("Failed uploading stream to kaltura with fileId: " + fileId);
-            }
         } catch (Exception e) {
             //Totally stop all uploads if a single call fails. Change strategy if this does seem to happen sporadic
             //Delta upload can be started again. We want to detect this error and not ignore it.
@@ -180,6 +318,25 @@ public class KalturaDeltaUploadJob {
             //Do not mark record with error. We need to know why this happens.
             throw new InternalServiceException("Error kaltura lookup for fileId: " + fileId);
         }
+
+        try {
+            String kalturaId = uploadStream(title, fileId, description, filePath, uploadTagForKaltura,
+                    mediaType, fileExtension, conversionProfileId);
+            log.info("Uploaded stream='{}' and got kalturaId='{}'", filePath, kalturaId);
+            getKalturaIdCache().put(fileId, kalturaId); // Other records with the same stream use this upload
+            //update storage record with kalturaId
+            updateKalturaIdForRecord(storageClient, fileId, kalturaId);
+            log.info("Updated Kaltura mapping in storage for fileId='{}'", fileId);
+            return 1;
+        } catch (KalturaChunkedUploader.ResumableUploadException e) {
+            // Do not mark the record with error, so the next delta upload resumes the upload
+            log.error("Chunked upload to kaltura with fileId='{}', path='{}' failed. It will be resumed by the next delta upload. Error='{}'", fileId, filePath, e.getMessage());
+            throw new InternalServiceException("Failed uploading stream to kaltura with fileId: " + fileId + ". The upload can be resumed", e);
+        } catch (Exception e) {  //Stop delta job
+            log.error("Failed uploading stream to kaltura with fileId='{}', path='{}', title='{}', error='{}'", fileId, filePath, title, e.getMessage());
+            updateKalturaIdForRecord(storageClient, fileId, StreamErrorTypeDto.API.getValue()); //Mark as API error
+            throw new InternalServiceException("Failed uploading stream to kaltura with fileId: " + fileId);
+        }
     }
 
     /*
@@ -209,25 +366,10 @@ public class KalturaDeltaUploadJob {
      * @throws IOException
      */
     public static SolrDocumentList fetchSolrRecords(long mTimeFrom, int batchSize) throws SolrServerException, IOException {
-        String solrUrl = ServiceConfig.getSolrQueryUrl();
-        //The reason for missing file_id on some records are preservica metadata error. Should have been marked as access_malfunction
-        String filterQuery = "access_malfunction:false AND production_code_allowed:true AND file_id:* AND NOT kaltura_id:*";  // only valid streams that does not have kaltura id already
-
-        HttpJdkSolrClient client = new HttpJdkSolrClient.Builder(solrUrl).build();
+        SolrClient client = HttpClientRegistry.getSolrClient(ServiceConfig.getSolrQueryUrl());
 
-        String query = "internal_storage_mTime:[" + mTimeFrom + " TO *]"; // mTimeFrom must start with this value or higher.
-        String fieldList = "title,description,file_id,id,resource_description,originates_from,internal_storage_mTime," +
-                "file_path, file_extension"; // only extract fields we need
-
-        try (client) { // autoclosable
-            SolrQuery solrQuery = new SolrQuery();
-            solrQuery.setQuery(query);
-            solrQuery.setFilterQueries(filterQuery);
-            solrQuery.set("facet", "false"); // very important. Must overwrite to false. Facets are very slow and expensive.
-            solrQuery.set("hl", false);// no highlights
-            solrQuery.set("spellcheck", false); //No spellcheck
-            solrQuery.add("sort", "internal_storage_mTime ASC"); // increasing order
-            solrQuery.add("fl", fieldList);
+        try (client) { // autoclosable. Closing the shared client does nothing
+            SolrQuery solrQuery = createSolrRecordsQuery(mTimeFrom);
             solrQuery.setRows(batchSize);
             QueryResponse response = client.query(solrQuery);
             SolrDocumentList results = response.getResults();
@@ -237,7 +379,41 @@ public class KalturaDeltaUploadJob {
     }
 
     /**
+     * Open a solr cursor over all records without a stream registered in kaltura, in mTime order. The next page is
+     * fetched while the current page is uploaded. Records sharing the same mTime are all delivered.
      *
+     * @param mTimeFrom Only extract records with mTime higher that this value
+     * @param batchSize the number of records in each page.
+     * @return a scanner delivering the records page by page. Must be closed after use.
+     */
+    static SolrCursorScanner openSolrRecords(long mTimeFrom, int batchSize) {
+        SolrClient client = HttpClientRegistry.getSolrClient(ServiceConfig.getSolrQueryUrl());
+        return new SolrCursorScanner(client, createSolrRecordsQuery(mTimeFrom), "id", batchSize, true,
+                "kaltura-upload");
+    }
+
+    private static SolrQuery createSolrRecordsQuery(long mTimeFrom) {
+        //The reason for missing file_id on some records are preservica metadata error. Should have been marked as access_malfunction
+        String filterQuery = "access_malfunction:false AND production_code_allowed:true AND file_id:* AND NOT kaltura_id:*";  // only valid streams that does not have kaltura id already
+        String query = "internal_storage_mTime:[" + mTimeFrom + " TO *]"; // mTimeFrom must start with this value or higher.
+        String fieldList = "title,description,file_id,id,resource_description,originates_from,internal_storage_mTime," +
+                "file_path, file_extension"; // only extract fields we need
+
+        SolrQuery solrQuery = new SolrQuery();
+        solrQuery.setQuery(query);
+        solrQuery.setFilterQueries(filterQuery);
+        solrQuery.set("facet", "false"); // very important. Must overwrite to false. Facets are very slow and expensive.
+        solrQuery.set("hl", false);// no highlights
+        solrQuery.set("spellcheck", false); //No spellcheck
+        solrQuery.setSort("internal_storage_mTime", SolrQuery.ORDER.asc); // increasing order
+        solrQuery.add("fl", fieldList);
+        return solrQuery;
+    }
+
+    /**
+     * Upload a stream to kaltura. If chunked upload is enabled, streams of at least
+     * {@link ServiceConfig#getKalturaChunkedUploadMinimumMB()} MB are uploaded in chunks with
+     * {@link KalturaChunkedUploader}, so a failed upload can be resumed.
      *
      * @param title               Title field for kaltura
      * @param referenceId         The file_id from preservica that is part of the file stream name
@@ -266,11 +442,29 @@ public class KalturaDeltaUploadJob {
             fileExtensionEnum = FileExtension.fromString(fileExtension);
         }
 
+        long fileSize = Files.size(Paths.get(filePath));
+        long startNS = uploadTime.start();
+        if (ServiceConfig.isKalturaChunkedUploadEnabled() &&
+                fileSize >= ServiceConfig.getKalturaChunkedUploadMinimumMB() * 1024L * 1024L) {
+            String fileName = referenceId + "." + (StringUtils.isBlank(fileExtension) ?
+                    (mediaType == MediaType.AUDIO ? "mp3" : "mp4") : fileExtension);
+            log.info("Starting chunked upload stream. FilePath='{}' with conversionProfileId='{}'", filePath, conversionProfileId);
+            String entryId = getChunkedUploader().upload(Paths.get(filePath), fileName, title, referenceId,
+                    description, tag, mediaType, conversionProfileId);
+            uploadTime.end(startNS);
+            uploadedBytes.add(fileSize);
+            uploadedBytesTotal.add(fileSize);
+            return entryId;
+        }
+
         initKalturaClient();
         log.info("Starting upload stream. FilePath='{}' with conversionProfileId='{}'", filePath, conversionProfileId);
 
         String entryId = kalturaClient.uploadMedia(filePath, referenceId, mediaType, title, description, tag,
                 fileExtensionEnum, conversionProfileId);
+        uploadTime.end(startNS);
+        uploadedBytes.add(fileSize);
+        uploadedBytesTotal.add(fileSize);
         log.info("Upload completed. FilePath='{}' with fileReference='{}' and got kaltura entryId='{}'", filePath,
                 referenceId, entryId);
         return entryId;
@@ -292,6 +486,92 @@ public class KalturaDeltaUploadJob {
         }
     }
 
+    private static List<UploadRecord> toUploadRecords(SolrDocumentList docs) {
+        List<UploadRecord> records = new ArrayList<>(docs.size());
+        for (SolrDocument doc : docs) {
+            records.add(UploadRecord.fromSolrDocument(doc));
+        }
+        return records;
+    }
+
+    /**
+     * Look up the kaltura entry ids for all streams in a page of records with a single bulk lookup and keep them in
+     * the {@link KalturaIdCache}. If the bulk lookup fails, each stream is looked up when it is processed.
+     * @param records the records in a page from solr.
+     */
+    static void resolveKalturaIds(List<UploadRecord> records) {
+        List<String> fileIds = new ArrayList<>(records.size());
+        for (UploadRecord record : records) {
+            fileIds.add(record.fileId);
+        }
+        getKalturaIdCache().resolve(fileIds, KalturaDeltaUploadJob::getInternalIdsKaltura);
+    }
+
+    /**
+     * Check if a file_id already does exist in kaltura, using the {@link KalturaIdCache} if the file_id has been
+     * resolved by {@link #resolveKalturaIds(List)}. Else kaltura is searched for the file_id.
+     *
+     * @param fileId Our reference to the stream.
+     * @return kalturaId or null if does not exist.
+     */
+    static String lookupInternalIdKaltura(String fileId) throws IOException, APIException {
+        KalturaIdCache cache = getKalturaIdCache();
+        String kalturaInternalId = cache.get(fileId);
+        if (kalturaInternalId != null) {
+            return kalturaInternalId;
+        }
+        if (cache.isResolved(fileId)) {
+            return null; // Not in kaltura
+        }
+        kalturaInternalId = getInternalIdKaltura(fileId);
+        if (kalturaInternalId != null) {
+            cache.put(fileId, kalturaInternalId);
+        }
+        return kalturaInternalId;
+    }
+
+    /**
+     * Look up a number of file_ids in kaltura with as few calls as possible.
+     *
+     * @param fileIds Our references to the streams.
+     * @return kalturaIds for the file_ids that exist in kaltura.
+     * @throws IOException  If the kaltura client could not be created
+     * @throws APIException If API error
+     */
+    static Map<String, String> getInternalIdsKaltura(List<String> fileIds) throws IOException, APIException {
+        initKalturaClient();
+        if (kalturaClient == null) {
+            throw new IOException("Kaltura client could not be created");
+        }
+
+        Map<String, String> kalturaIds = new HashMap<>();
+        for (int start = 0; start < fileIds.size(); start += KALTURA_LOOKUP_BATCH_SIZE) {
+            List<String> batch = fileIds.subList(start, Math.min(fileIds.size(), start + KALTURA_LOOKUP_BATCH_SIZE));
+            kalturaIds.putAll(kalturaClient.getKalturaIds(batch));
+        }
+        log.debug("Found {} of {} fileIds in kaltura", kalturaIds.size(), fileIds.size());
+        return kalturaIds;
+    }
+
+    static synchronized KalturaChunkedUploader getChunkedUploader() {
+        if (chunkedUploader == null) {
+            chunkedUploader = new KalturaChunkedUploader(new KalturaUploadTokenClient(),
+                    Paths.get(ServiceConfig.getKalturaChunkedUploadStateFolder()),
+                    ServiceConfig.getKalturaChunkedUploadChunkMB() * 1024L * 1024L,
+                    ServiceConfig.getKalturaChunkedUploadRetries(), 10_000,
+                    ServiceConfig.getConversionQueueThreshold(),
+                    ServiceConfig.getConversionQueueDelaySeconds() * 1000L);
+        }
+        return chunkedUploader;
+    }
+
+    static synchronized KalturaIdCache getKalturaIdCache() {
+        if (kalturaIdCache == null) {
+            kalturaIdCache = new KalturaIdCache(ServiceConfig.getKalturaLookupCacheSeconds());
+        }
+        return kalturaIdCache;
+    }
+
     /**
      * Check if a file_id already does exist in kaltura. Then it is already uploaded.
      * There can be meta-data errors where different records points to same stream.
@@ -357,7 +637,131 @@ public class KalturaDeltaUploadJob {
         return null;
     }
 
-    static void initKalturaClient() {
+    /**
+     * The fields from a solr record that are needed for uploading its stream.
+     */
+    static class UploadRecord {
+        final String resourceDescription;
+        final String title;
+        final String description;
+        final String fileId;
+        final String id;
+        final String filePath;
+        final String fileExtension;
+        final long mTime;
+
+        UploadRecord(String resourceDescription, String title, String description, String fileId, String id,
+                     String filePath, String fileExtension, long mTime) {
+            this.resourceDescription = resourceDescription;
+            this.title = title;
+            this.description = description;
+            this.fileId = fileId;
+            this.id = id;
+            this.filePath = filePath;
+            this.fileExtension = fileExtension;
+            this.mTime = mTime;
+        }
+
+        /**
+         * @param doc solr document with the fields from {@link #openSolrRecords(long, int)}.
+         * @return the record with the full path to the stream.
+         * @throws InternalServiceException if the path to the stream can not be generated.
+         */
+        static UploadRecord fromSolrDocument(SolrDocument doc) {
+            String resourceDescription = (String) doc.getFieldValue("resource_description");
+
+            String title = ""; //Default
+            ArrayList<String> titles = (ArrayList<String>) doc.getFieldValue("title"); //multivalue
+            if (titles != null && titles.size() > 0) {
+                title = titles.get(0); // take first
+            }
+            String description = (String) doc.getFieldValue("description");
+            String fileId = (String) doc.getFieldValue("file_id");
+            String filePathSolr = (String) doc.getFieldValue("file_path");
+            String originatesFrom = (String) doc.getFieldValue("originates_from");
+            String id = (String) doc.getFieldValue("id");
+            long recordMtime = (long) doc.getFieldValue("internal_storage_mTime");
+            String fileExtension = (String) doc.getFieldValue("file_extension");
+            String filePath = null;
+            try {
+                filePath = KalturaUtil.generateStreamPath(filePathSolr, originatesFrom, resourceDescription);
+            } catch (IOException e) {
+                String errorMessage = "Could not generate stream path";
+                log.error(errorMessage);
+                throw new InternalServiceException(errorMessage, e);
+            }
+            return new UploadRecord(resourceDescription, title, description, fileId, id, filePath, fileExtension,
+                    recordMtime);
+        }
+
+        /**
+         * Upload the stream unless the record already has a kalturaId or the stream is already in kaltura.
+         * @return 1 if the stream was uploaded, else 0.
+         */
+        int upload(String uploadTagForKaltura, long minimumFileSizeInBytes, DsStorageClient storageClient) {
+            // If the stream is known to be in kaltura, processUpload sets the kalturaId without uploading, so there is
+            // no need to fetch the record from storage first
+            if (getKalturaIdCache().get(fileId) == null && recordAlreadyHasKalturaId(storageClient, id)) {
+                return 0;
+            }
+            return processUpload(uploadTagForKaltura, minimumFileSizeInBytes, storageClient,
+                    resourceDescription, title, description, fileId, id, filePath, fileExtension);
+        }
+    }
+
+    /**
+     * Keeps track of the mTime to continue a delta upload from, when the records in a batch are uploaded in parallel
+     * and finish in any order. The mTime only moves past a record when the record and all records before it have
+     * completed. A record that fails is never completed, so the mTime stays before it for the rest of the upload.
+     */
+    static class CompletedMTime {
+        private long mTime = 0;
+        private boolean blocked = false;
+        private long[] batchMTimes = new long[0];
+        private boolean[] batchCompleted = new boolean[0];
+        private int next = 0;
+
+        /**
+         * Start tracking a new batch. Must be called when all records in the previous batch have finished.
+         * @param records the records in the batch in mTime order.
+         */
+        synchronized void startBatch(List<UploadRecord> records) {
+            if (next < batchMTimes.length) {
+                blocked = true; // A record in the previous batch did not complete
+            }
+            batchMTimes = new long[records.size()];
+            for (int i = 0; i < records.size(); i++) {
+                batchMTimes[i] = records.get(i).mTime;
+            }
+            batchCompleted = new boolean[records.size()];
+            next = 0;
+        }
+
+        /**
+         * Mark a record in the current batch as completed.
+         * @param index the position of the record in the batch.
+         */
+        synchronized void completed(int index) {
+            batchCompleted[index] = true;
+            while (!blocked && next < batchMTimes.length && batchCompleted[next]) {
+                mTime = batchMTimes[next] + 1L;
+                next++;
+            }
+        }
+
+        /**
+         * @return the mTime to continue from. All records before it have completed.
+         */
+        synchronized long get() {
+            return mTime;
+        }
+    }
+
+    /**
+     * Create the shared kaltura client if it has not been created. Synchronized, as the upload workers and concurrent
+     * jobs call it.
+     */
+    static synchronized void initKalturaClient() {
         if (kalturaClient != null) {
             return; // already inititalised
         }
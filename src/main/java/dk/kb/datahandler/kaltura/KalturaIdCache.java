@@ -0,0 +1,148 @@
+package dk.kb.datahandler.kaltura;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the kaltura entry ids for reference ids (the file_id of a stream). The ids for a full page of records are
+ * resolved with a single bulk lookup in kaltura, instead of one search per record. Reference ids that are not in
+ * kaltura are cached as well, so the upload does not search for them again.
+ * <p>
+ * Entries expire after the time given to the constructor, as streams can be uploaded to kaltura by others. When the
+ * delta upload uploads a stream, the new entry id is added with {@link #put(String, String)}, so other records
+ * pointing to the same stream use it, even before kaltura has indexed the new entry.
+ * <p>
+ * Expired entries are removed on each bulk lookup. The cache is thread safe.
+ */
+public class KalturaIdCache {
+    private static final Logger log = LoggerFactory.getLogger(KalturaIdCache.class);
+
+    /**
+     * Looks up entry ids in kaltura for a number of reference ids.
+     */
+    @FunctionalInterface
+    public interface BulkLookup {
+        /**
+         * @param referenceIds the reference ids to look up.
+         * @return entry ids for the reference ids that exist in kaltura. Reference ids not in kaltura are left out.
+         */
+        Map<String, String> lookup(List<String> referenceIds) throws Exception;
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long ttlNS;
+    private final LongSupplier clock;
+
+    /**
+     * @param ttlSeconds the number of seconds an entry is valid.
+     */
+    public KalturaIdCache(long ttlSeconds) {
+        this(ttlSeconds * 1_000_000_000L, System::nanoTime);
+    }
+
+    /**
+     * @param ttlNS the number of nanoseconds an entry is valid.
+     * @param clock the current time in nanoseconds.
+     */
+    KalturaIdCache(long ttlNS, LongSupplier clock) {
+        this.ttlNS = ttlNS;
+        this.clock = clock;
+    }
+
+    /**
+     * Look up the reference ids that are not in the cache with a single call to kaltura. If the lookup fails, the
+     * failure is logged and the reference ids are left unresolved, so the caller can fall back to single lookups.
+     * @param referenceIds the reference ids to resolve. Nulls are ignored.
+     * @param lookup       the bulk lookup in kaltura.
+     * @return the number of reference ids looked up in kaltura.
+     */
+    public int resolve(Collection<String> referenceIds, BulkLookup lookup) {
+        long now = clock.getAsLong();
+        entries.values().removeIf(entry -> now - entry.expires > 0);
+
+        List<String> missing = new ArrayList<>();
+        for (String referenceId : new LinkedHashSet<>(referenceIds)) {
+            if (referenceId != null && !isResolved(referenceId)) {
+                missing.add(referenceId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, String> found;
+        try {
+            found = lookup.lookup(missing);
+        } catch (Exception e) {
+            log.warn("Bulk lookup of {} reference ids in kaltura failed. Falling back to single lookups",
+                    missing.size(), e);
+            return 0;
+        }
+        long expires = now + ttlNS;
+        for (String referenceId : missing) {
+            entries.put(referenceId, new Entry(found.get(referenceId), expires));
+        }
+        log.debug("Resolved {} reference ids in kaltura. {} were found", missing.size(), found.size());
+        return missing.size();
+    }
+
+    /**
+     * @param referenceId the reference id of a stream.
+     * @return true if it is known whether kaltura has the reference id.
+     */
+    public boolean isResolved(String referenceId) {
+        Entry entry = entries.get(referenceId);
+        if (entry == null) {
+            return false;
+        }
+        if (clock.getAsLong() - entry.expires > 0) {
+            entries.remove(referenceId, entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param referenceId the reference id of a stream.
+     * @return the entry id in kaltura or null if the reference id is not in kaltura or not resolved. Use
+     *         {@link #isResolved(String)} to tell the two apart.
+     */
+    public String get(String referenceId) {
+        Entry entry = entries.get(referenceId);
+        return entry == null || clock.getAsLong() - entry.expires > 0 ? null : entry.entryId;
+    }
+
+    /**
+     * Register that a stream has been uploaded to kaltura.
+     * @param referenceId the reference id of the stream.
+     * @param entryId     the entry id in kaltura.
+     */
+    public void put(String referenceId, String entryId) {
+        entries.put(referenceId, new Entry(entryId, clock.getAsLong() + ttlNS));
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        final String entryId;
+        final long expires;
+
+        Entry(String entryId, long expires) {
+            this.entryId = entryId;
+            this.expires = expires;
+        }
+    }
+}
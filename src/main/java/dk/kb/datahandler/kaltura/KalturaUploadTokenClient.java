@@ -0,0 +1,201 @@
+package dk.kb.datahandler.kaltura;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kaltura.client.APIOkRequestsExecutor;
+import com.kaltura.client.Client;
+import com.kaltura.client.Configuration;
+import com.kaltura.client.enums.FlavorAssetStatus;
+import com.kaltura.client.enums.MediaType;
+import com.kaltura.client.enums.SessionType;
+import com.kaltura.client.enums.UploadTokenStatus;
+import com.kaltura.client.services.AppTokenService;
+import com.kaltura.client.services.FlavorAssetService;
+import com.kaltura.client.services.MediaService;
+import com.kaltura.client.services.SessionService;
+import com.kaltura.client.services.UploadTokenService;
+import com.kaltura.client.types.APIException;
+import com.kaltura.client.types.FilterPager;
+import com.kaltura.client.types.FlavorAssetFilter;
+import com.kaltura.client.types.MediaEntry;
+import com.kaltura.client.types.SessionInfo;
+import com.kaltura.client.types.ListResponse;
+import com.kaltura.client.types.StartWidgetSessionResponse;
+import com.kaltura.client.types.UploadToken;
+import com.kaltura.client.types.UploadedFileTokenResource;
+import com.kaltura.client.utils.request.RequestBuilder;
+import com.kaltura.client.utils.response.base.Response;
+
+import dk.kb.datahandler.config.ServiceConfig;
+
+/**
+ * The upload token calls for {@link KalturaChunkedUploader}, made with the kaltura API client. The session is started
+ * with the app token from the configuration, in the same way as {@code DsKalturaClient}, and renewed when it is about
+ * to expire. The client can be used by more upload threads at the same time. A new session is started with a separate
+ * client, so the shared client always has a valid session while the upload threads use it.
+ */
+public class KalturaUploadTokenClient implements KalturaChunkedUploader.UploadTokenApi {
+    private static final Logger log = LoggerFactory.getLogger(KalturaUploadTokenClient.class);
+
+    private final Configuration config;
+    private final Client client;
+    private final int partnerId;
+    private final String userId;
+    private final String token;
+    private final String tokenId;
+    private final int sessionDurationSeconds;
+    private final int sessionRefreshThreshold;
+    private long sessionStartNS = 0;
+
+    /**
+     * Create a client with the kaltura settings from the configuration.
+     */
+    public KalturaUploadTokenClient() {
+        this(ServiceConfig.getKalturaUrl(), ServiceConfig.getKalturaPartnerId(), ServiceConfig.getKalturaUserId(),
+                ServiceConfig.getKalturaToken(), ServiceConfig.getKalturaTokenId(),
+                ServiceConfig.getKalturaSessionDurationSeconds(), ServiceConfig.getKalturaSessionRefreshThreshold());
+    }
+
+    public KalturaUploadTokenClient(String kalturaUrl, int partnerId, String userId, String token, String tokenId,
+                                    int sessionDurationSeconds, int sessionRefreshThreshold) {
+        this.config = new Configuration();
+        config.setEndpoint(kalturaUrl);
+        this.client = new Client(config);
+        this.partnerId = partnerId;
+        this.userId = userId;
+        this.token = token;
+        this.tokenId = tokenId;
+        this.sessionDurationSeconds = sessionDurationSeconds;
+        this.sessionRefreshThreshold = sessionRefreshThreshold;
+    }
+
+    @Override
+    public String createUploadToken(String fileName, long fileSize) throws APIException {
+        UploadToken uploadToken = new UploadToken();
+        uploadToken.setFileName(fileName);
+        uploadToken.setFileSize((double) fileSize);
+        return execute(UploadTokenService.add(uploadToken)).getId();
+    }
+
+    @Override
+    public long getUploadedSize(String uploadTokenId) throws APIException {
+        UploadToken uploadToken = execute(UploadTokenService.get(uploadTokenId));
+        UploadTokenStatus status = uploadToken.getStatus();
+        if (status != UploadTokenStatus.PENDING && status != UploadTokenStatus.PARTIAL_UPLOAD &&
+                status != UploadTokenStatus.FULL_UPLOAD) {
+            log.info("UploadToken '{}' has status '{}' and can not be resumed", uploadTokenId, status);
+            return -1;
+        }
+        return uploadToken.getUploadedFileSize() == null ? 0 : uploadToken.getUploadedFileSize().longValue();
+    }
+
+    @Override
+    public void uploadChunk(String uploadTokenId, InputStream chunk, String fileName, long chunkSize, long resumeAt,
+                            boolean finalChunk) throws APIException {
+        // The first chunk starts the upload. Later chunks are appended at resumeAt
+        boolean resume = resumeAt > 0;
+        execute(UploadTokenService.upload(uploadTokenId, chunk, "application/octet-stream", fileName, chunkSize,
+                resume, finalChunk, resume ? resumeAt : -1));
+    }
+
+    @Override
+    public int getConversionQueueSize() throws APIException {
+        FlavorAssetFilter filter = new FlavorAssetFilter();
+        filter.setStatusIn(FlavorAssetStatus.QUEUED.getValue() + "," + FlavorAssetStatus.CONVERTING.getValue() + "," +
+                FlavorAssetStatus.WAIT_FOR_CONVERT.getValue());
+        // Only the total count is used
+        FilterPager pager = new FilterPager();
+        pager.setPageSize(1);
+        ListResponse<?> response = execute(FlavorAssetService.list(filter, pager));
+        return response.getTotalCount();
+    }
+
+    @Override
+    public String addMediaEntry(String uploadTokenId, String title, String referenceId, String description, String tag,
+                                MediaType mediaType, int conversionProfileId) throws APIException {
+        MediaEntry entry = new MediaEntry();
+        entry.setMediaType(mediaType);
+        entry.setName(title);
+        entry.setDescription(description);
+        entry.setReferenceId(referenceId);
+        entry.setTags(tag);
+        entry.setConversionProfileId(conversionProfileId);
+        MediaEntry created = execute(MediaService.add(entry));
+
+        UploadedFileTokenResource resource = new UploadedFileTokenResource();
+        resource.setToken(uploadTokenId);
+        try {
+            execute(MediaService.addContent(created.getId(), resource));
+        } catch (APIException | RuntimeException e) {
+            // Without content the entry is an orphan and a resumed upload would create another one
+            deleteEntry(created.getId());
+            throw e;
+        }
+        return created.getId();
+    }
+
+    private void deleteEntry(String entryId) {
+        try {
+            execute(MediaService.delete(entryId));
+            log.info("Deleted kaltura entry '{}' as the uploaded content could not be added", entryId);
+        } catch (Exception e) {
+            log.warn("Unable to delete kaltura entry '{}' without content", entryId, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T execute(RequestBuilder<T, ?, ?> request) throws APIException {
+        ensureSession();
+        Response<?> response = APIOkRequestsExecutor.getExecutor().execute(request.build(client));
+        if (!response.isSuccess()) {
+            throw response.error;
+        }
+        return (T) response.results;
+    }
+
+    /**
+     * Start a session with the app token if there is none or the current is about to expire. The session is started
+     * with its own client and the shared client only gets the finished admin session, as other upload threads can be
+     * using the shared client with the current session.
+     */
+    private synchronized void ensureSession() throws APIException {
+        long ageSeconds = (System.nanoTime() - sessionStartNS) / 1_000_000_000L;
+        if (sessionStartNS != 0 && ageSeconds < sessionDurationSeconds - sessionRefreshThreshold) {
+            return;
+        }
+        Client sessionClient = new Client(config);
+        Response<?> widgetResponse = APIOkRequestsExecutor.getExecutor().execute(
+                SessionService.startWidgetSession("_" + partnerId, sessionDurationSeconds).build(sessionClient));
+        if (!widgetResponse.isSuccess()) {
+            throw widgetResponse.error;
+        }
+        String widgetKs = ((StartWidgetSessionResponse) widgetResponse.results).getKs();
+        sessionClient.setKs(widgetKs);
+
+        Response<?> sessionResponse = APIOkRequestsExecutor.getExecutor().execute(AppTokenService.startSession(
+                tokenId, sha256(widgetKs + token), userId, SessionType.ADMIN, sessionDurationSeconds)
+                .build(sessionClient));
+        if (!sessionResponse.isSuccess()) {
+            throw sessionResponse.error;
+        }
+        client.setKs(((SessionInfo) sessionResponse.results).getKs());
+        sessionStartNS = System.nanoTime();
+        log.debug("Started kaltura session for chunked uploads");
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package dk.kb.datahandler.oai;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
@@ -13,6 +13,9 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -30,6 +33,9 @@ import org.xml.sax.InputSource;
 
 import dk.kb.datahandler.model.v1.JobDto;
 import dk.kb.datahandler.model.v1.OaiTargetDto;
+import dk.kb.datahandler.util.HttpClientRegistry;
+import dk.kb.datahandler.util.Metrics;
+import dk.kb.datahandler.util.RequestRateLimiter;
 import dk.kb.datahandler.util.XmlUtils;
 import dk.kb.util.xml.XMLEscapeSanitiser;
 
@@ -40,14 +46,84 @@ public class OaiHarvestClient {
 
     private static final Logger log = LoggerFactory.getLogger(OaiHarvestClient.class);
 
+    /** Rate limits are per target, shared by all clients for the target. */
+    private static final ConcurrentMap<String, RequestRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+
     private OaiTargetDto oaiTarget = null;
     private boolean completed=false;
     private String resumptionToken=null;
     private String from;
+    private String until;
 
     public OaiHarvestClient(OaiTargetDto oaiTarget, String from) {
+        this(oaiTarget, from, null);
+    }
+
+    /**
+     * Create a client that continues a harvest with a resumption token from an earlier harvest.
+     * @param from            the from the earlier harvest was started with.
+     * @param resumptionToken the resumption token for the first page. If null, the harvest starts from the beginning.
+     */
+    public OaiHarvestClient(OaiTargetDto oaiTarget, String from, String resumptionToken) {
+        this(oaiTarget, from, null, resumptionToken);
+    }
+
+    /**
+     * Create a client that harvests the records in a range of datestamps.
+     * @param from            the first datestamp of the range.
+     * @param until           the last datestamp of the range, included. If null, the range has no end.
+     * @param resumptionToken the resumption token for the first page. If null, the harvest starts from the beginning.
+     */
+    public OaiHarvestClient(OaiTargetDto oaiTarget, String from, String until, String resumptionToken) {
         this.oaiTarget=oaiTarget;
         this.from=from;
+        this.until=until;
+        this.resumptionToken=resumptionToken;
+    }
+
+    /**
+     * Ask the OAI target for the number of records in a range of datestamps with a ListIdentifiers request, so no
+     * metadata is transferred. The number is the completeListSize of the first page or the number of identifiers if
+     * there is only one page.
+     * @param from  the first datestamp of the range.
+     * @param until the last datestamp of the range, included. If null, the range has no end.
+     * @return the number of records in the range or -1 if the OAI target does not give the completeListSize.
+     */
+    public long probeListSize(String from, String until) throws IOException {
+        String set = oaiTarget.getSet();
+        String uri = addQueryParamsToUri(oaiTarget.getUrl() + "?verb=ListIdentifiers", set, null,
+                oaiTarget.getMetadataprefix(), from, until);
+        log.debug("Probing list size with uri:" + uri);
+
+        String xmlResponse;
+        try {
+            acquireRequestPermit();
+            xmlResponse = getHttpResponse(uri, oaiTarget.getUsername(), oaiTarget.getPassword());
+        } catch (InterruptedException e) {
+            throw new InternalServiceException(e);
+        }
+        Document document = sanitizeXml(xmlResponse, uri);
+
+        Element error = (Element) document.getElementsByTagName("error").item(0);
+        if (error != null) {
+            if ("noRecordsMatch".equals(error.getAttribute("code"))) {
+                return 0;
+            }
+            throw new InternalServiceException("Error from OAI target '" + oaiTarget.getName() + "' probing list size with uri '" +
+                    uri + "': " + error.getTextContent());
+        }
+
+        Element resumptionToken = (Element) document.getElementsByTagName("resumptionToken").item(0);
+        if (resumptionToken == null || resumptionToken.getTextContent().isBlank()) {
+            return document.getElementsByTagName("header").getLength();
+        }
+        String completeListSize = resumptionToken.getAttribute("completeListSize");
+        try {
+            return completeListSize.isEmpty() ? -1 : Long.parseLong(completeListSize.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid completeListSize '{}' from uri '{}'", completeListSize, uri);
+            return -1;
+        }
     }
 
 
@@ -66,16 +142,24 @@ public class OaiHarvestClient {
         String set= oaiTarget.getSet();
         String metadataPrefix= oaiTarget.getMetadataprefix();
 
-        uri=addQueryParamsToUri(uri, set, resumptionToken,metadataPrefix,from);
+        uri=addQueryParamsToUri(uri, set, resumptionToken,metadataPrefix,from,until);
         log.info("calling uri:"+uri);
         //log.info("resumption token at:"+resumptionToken);
         String xmlResponse = null;
         try {
+            acquireRequestPermit();
+            Metrics.Histogram fetchTime = Metrics.histogram("oai_fetch_seconds",
+                    "Time to fetch a ListRecords page from the OAI target", "target", oaiTarget.getName());
+            long startNS = fetchTime.start();
             xmlResponse = getHttpResponse(uri, oaiTarget.getUsername(), oaiTarget.getPassword());
+            fetchTime.end(startNS);
         } catch (InterruptedException e) {
             throw new InternalServiceException(e);
         }
 
+        Metrics.Histogram parseTime = Metrics.histogram("oai_parse_seconds",
+                "Time to parse a ListRecords page from the OAI target", "target", oaiTarget.getName());
+        long parseStartNS = parseTime.start();
         Document document = sanitizeXml(xmlResponse,uri);
 
         String errorMessage = getErrorMessage(document);
@@ -102,16 +186,82 @@ public class OaiHarvestClient {
         }
 
         ArrayList<OaiRecord> records=extractRecordsFromXml(document);
+        parseTime.end(parseStartNS);
 
         oaiResponse.setRecords(records);
         return oaiResponse;
     }
 
+    /**
+     * Streaming version of {@link #next()}. The ListRecords page is read directly from the HTTP response, invalid XML
+     * encodings are removed on the fly and each record is delivered to {@code recordConsumer} as soon as it has been
+     * parsed. Only a single record is held in memory at a time instead of the full page.
+     * <p>
+     * The returned response does not contain any records, as they have been delivered to the consumer. It contains
+     * the resumption token, total size and error state for the page.
+     *
+     * @param recordConsumer receives the records from the page in document order.
+     * @return response for the page without records.
+     */
+    public OaiResponse nextStreaming(Consumer<OaiRecord> recordConsumer) throws IOException {
+        if (completed) {
+            //The caller should know not to ask for more since last batch had 0 entries.
+            log.info("No more records to load for oai target:"+oaiTarget.getName());
+            return new OaiResponse();
+        }
+
+        String set= oaiTarget.getSet();
+        String uri=addQueryParamsToUri(oaiTarget.getUrl()+"?verb=ListRecords", set, resumptionToken,
+                oaiTarget.getMetadataprefix(), from, until);
+        log.info("calling uri:"+uri);
+
+        OaiResponse oaiResponse;
+        try {
+            acquireRequestPermit();
+            // Records are parsed and passed to the consumer while the page is received, so the time is for all of it
+            Metrics.Histogram pageTime = Metrics.histogram("oai_streaming_page_seconds",
+                    "Time to fetch, parse and process a streamed ListRecords page from the OAI target",
+                    "target", oaiTarget.getName());
+            long startNS = pageTime.start();
+            try (InputStream body = getHttpResponseStream(uri, oaiTarget.getUsername(), oaiTarget.getPassword())) {
+                oaiResponse = OaiStreamingParser.parse(body, uri, recordConsumer);
+            }
+            pageTime.end(startNS);
+        } catch (InterruptedException e) {
+            throw new InternalServiceException(e);
+        }
+
+        if (oaiResponse.isError()) {
+            log.info("Error message from OAI server when harvesting set:"+set);
+            return oaiResponse;
+        }
+
+        if (oaiResponse.getResumptionToken() != null) {
+            this.resumptionToken = oaiResponse.getResumptionToken();
+            log.debug("next resumption token:"+resumptionToken);
+        }
+        else {
+            this.resumptionToken=null;
+            completed=true;
+            log.info("No more records to load for set="+set);
+        }
+        return oaiResponse;
+    }
+
+
+    /**
+     * Wait until the rate limit for the target allows another request, see
+     * {@link ServiceConfig#getOaiTargetMaxRequestsPerMinute(String)}.
+     */
+    private void acquireRequestPermit() throws InterruptedException {
+        rateLimiters.computeIfAbsent(oaiTarget.getName(), name ->
+                new RequestRateLimiter(ServiceConfig.getOaiTargetMaxRequestsPerMinute(name))).acquire();
+    }
 
     /* Will construct the uri for next http request. Resumption token will be set if not null.
      * Also special coding since  Cumulus/Cups API is not OAI-PMH compliant. 
      */
-    private String addQueryParamsToUri(String uri, String set, String resumptionToken, String metadataPrefix, String from) {
+    private String addQueryParamsToUri(String uri, String set, String resumptionToken, String metadataPrefix, String from, String until) {
 
         //For unknown reason cumulus/cups oai API failes if metaData+set parameter is repeated with resumptionToken! (bug)
         if (resumptionToken==null && set != null) { //COPS fails if set is still used with resumptiontoken
@@ -125,6 +275,9 @@ public class OaiHarvestClient {
         if (from != null && resumptionToken == null) {
             uri += "&from="+from;            
         }     
+        if (until != null && resumptionToken == null) {
+            uri += "&until="+until;
+        }
         
         if (metadataPrefix != null && resumptionToken == null) {
             uri +="&metadataPrefix="+metadataPrefix;            
@@ -221,27 +374,44 @@ public class OaiHarvestClient {
      * Preservica 7 wants basic authentication in every single call.
      */
     protected static String getHttpResponse(String uri, String user, String password) throws IOException, InterruptedException {
-        HttpClient client = HttpClient.newBuilder().build();
+        return sendWithRetries(uri, user, password, BodyHandlers.ofString());
+    }
+
+    /**
+     * Call server and get the response as a stream, so the body is not kept in memory. The caller must close the
+     * stream. Basic authentication is set in every single call as for {@link #getHttpResponse(String, String, String)}.
+     */
+    protected static InputStream getHttpResponseStream(String uri, String user, String password) throws IOException, InterruptedException {
+        return sendWithRetries(uri, user, password, BodyHandlers.ofInputStream());
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()                          
-                .uri(URI.create(uri))
+    /**
+     * Send a GET request to the OAI server. If the response code is not 200, the request is retried as defined by
+     * {@link ServiceConfig#getOaiRetryTimes()} and {@link ServiceConfig#getOaiRetrySeconds()}.
+     */
+    private static <T> T sendWithRetries(String uri, String user, String password, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        HttpRequest request = HttpClientRegistry.newRequest(URI.create(uri))
                 .header("User-Agent", "Java 11 HttpClient Bot")
                 .header("Authorization", getBasicAuthenticationHeader(user, password))
                 .build();
 
-        HttpResponse<String> response = null;
+        HttpResponse<T> response = null;
         int attempt = 0;
         int maxRetries = ServiceConfig.getOaiRetryTimes();
         int sleepSeconds = ServiceConfig.getOaiRetrySeconds();
         while (attempt < maxRetries){
             try {
-                response = client.send(request, BodyHandlers.ofString());
+                response = HttpClientRegistry.send(HttpClientRegistry.OAI, request, bodyHandler);
 
                 //log.debug("http header:"+response.headers());
                 //log.debug("http body:"+response.body());if
 
                 if (200 != response.statusCode()) {
                     log.error("Response code was not 200, it was '{}' instead.", response.statusCode());
+                    if (response.body() instanceof InputStream body) {
+                        body.close(); // Release the connection
+                    }
                     throw new IOException("Response code was not 200");
                 }
 
@@ -277,9 +447,9 @@ public class OaiHarvestClient {
 
     /*
      * Get the raw XML text from a node. Also make sure encoding is UTF-8.  
-     * 
+     * Package private for OaiXmlBenchmark.
      */
-    private String serializeXmlElementToStringUTF8(Document document , Element element) { 
+    String serializeXmlElementToStringUTF8(Document document , Element element) { 
         DOMImplementation impl = document.getImplementation();
         DOMImplementationLS implLS = (DOMImplementationLS) impl.getFeature("LS", "3.0");
         LSSerializer lsSerializer = implLS.createLSSerializer();
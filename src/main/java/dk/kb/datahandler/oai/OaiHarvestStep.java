@@ -0,0 +1,31 @@
+package dk.kb.datahandler.oai;
+
+import dk.kb.util.webservice.exception.ServiceException;
+
+/**
+ * A step in an OAI-PMH harvest that processes records before they are filtered and added to ds-storage, e.g.
+ * enrichment of the metadata.
+ * <p>
+ * When pages are prefetched, the step is given to {@link OaiPrefetchingHarvester} and processes each page on the
+ * prefetch thread, while the records from the previous page are being stored. When records are streamed, the step
+ * processes one record at a time on the harvest thread.
+ */
+public interface OaiHarvestStep {
+
+    /**
+     * Process a single record. The record can be changed in place.
+     * @param oaiRecord a record from an OAI-PMH response.
+     */
+    void process(OaiRecord oaiRecord) throws ServiceException;
+
+    /**
+     * Process all records in a page. The default implementation processes the records one at a time. Implementations
+     * can process the records in parallel.
+     * @param page a response from the OAI target with records.
+     */
+    default void process(OaiResponse page) throws ServiceException {
+        for (OaiRecord oaiRecord : page.getRecords()) {
+            process(oaiRecord);
+        }
+    }
+}
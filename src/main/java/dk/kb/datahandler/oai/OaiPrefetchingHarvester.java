@@ -0,0 +1,184 @@
+package dk.kb.datahandler.oai;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.ServiceException;
+
+/**
+ * Delivers the pages from an {@link OaiHarvestClient} while the following pages are fetched and parsed in the
+ * background. This lets the OAI server deliver page N+1 while the records from page N are being added to ds-storage.
+ * <p>
+ * A single producer thread follows the resumption tokens and puts the parsed pages in a bounded queue. When the queue
+ * is full the producer waits, so at most {@code prefetchPages} pages are held in memory besides the page being
+ * processed by the caller. If {@code prefetchPages} is 0, no thread is started and each call to {@link #next()} calls
+ * the client directly.
+ * <p>
+ * If an {@link OaiHarvestStep} is given, each page with records is processed by the step before it is delivered.
+ * With prefetching, the step runs on the producer thread, so e.g. enrichment of the next pages runs while the
+ * current page is being stored.
+ * <p>
+ * The harvester must be closed after use, so the producer thread is stopped if the caller fails.
+ */
+public class OaiPrefetchingHarvester implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(OaiPrefetchingHarvester.class);
+
+    private final OaiHarvestClient client;
+    private final OaiHarvestStep step;
+    private final BlockingQueue<Page> pages;
+    private final Thread producer;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+
+    /**
+     * @param client        the client to fetch pages with. Must not be used by the caller while the harvester is open.
+     * @param targetName    the name of the OAI target. Used for naming the producer thread.
+     * @param prefetchPages the maximum number of pages to fetch ahead of the caller. If 0, nothing is prefetched.
+     */
+    public OaiPrefetchingHarvester(OaiHarvestClient client, String targetName, int prefetchPages) {
+        this(client, targetName, prefetchPages, null);
+    }
+
+    /**
+     * @param client        the client to fetch pages with. Must not be used by the caller while the harvester is open.
+     * @param targetName    the name of the OAI target. Used for naming the producer thread.
+     * @param prefetchPages the maximum number of pages to fetch ahead of the caller. If 0, nothing is prefetched.
+     * @param step          if not null, pages with records are processed by the step before they are delivered.
+     */
+    public OaiPrefetchingHarvester(OaiHarvestClient client, String targetName, int prefetchPages,
+                                   OaiHarvestStep step) {
+        this.client = client;
+        this.step = step;
+        if (prefetchPages <= 0) {
+            this.pages = null;
+            this.producer = null;
+            return;
+        }
+        this.pages = new ArrayBlockingQueue<>(prefetchPages);
+        this.producer = new Thread(this::produce, "oai-prefetch-" + targetName);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Get the next page from the OAI target. When the last page has been delivered, empty responses are returned,
+     * as for {@link OaiHarvestClient#next()}.
+     * @return the next page. Empty if there are no more records and with {@link OaiResponse#isError()} set if the
+     *         OAI target delivered an error.
+     * @throws IOException if the page could not be fetched.
+     */
+    public OaiResponse next() throws IOException {
+        if (finished) {
+            return new OaiResponse();
+        }
+        if (producer == null) {
+            OaiResponse response = fetch();
+            finished = isLastPage(response);
+            return response;
+        }
+
+        Page page;
+        try {
+            page = pages.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while waiting for the next page from the OAI target", e);
+        }
+
+        if (page.failure != null) {
+            finished = true;
+            if (page.failure instanceof IOException) {
+                throw (IOException) page.failure;
+            }
+            if (page.failure instanceof ServiceException) {
+                throw (ServiceException) page.failure;
+            }
+            throw new InternalServiceException("Exception fetching the next page from the OAI target", page.failure);
+        }
+        finished = isLastPage(page.response);
+        return page.response;
+    }
+
+    /**
+     * Stop the producer thread. Pages that has been prefetched but not delivered are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (producer != null) {
+            producer.interrupt();
+            pages.clear();
+        }
+    }
+
+    /**
+     * Fetch pages until the last page has been fetched, an exception occurs or the harvester is closed. Any
+     * {@link Throwable}, also an {@link Error}, is delivered to the caller, so the caller never waits for a page
+     * that will not come.
+     */
+    private void produce() {
+        try {
+            while (!closed) {
+                OaiResponse response;
+                try {
+                    response = fetch();
+                } catch (Throwable t) {
+                    put(new Page(null, t));
+                    return;
+                }
+                put(new Page(response, null));
+                if (isLastPage(response)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.debug("Prefetching of OAI pages was interrupted");
+        }
+    }
+
+    /**
+     * Fetch the next page and process it with the step.
+     */
+    private OaiResponse fetch() throws IOException {
+        OaiResponse response = client.next();
+        if (step != null && !isLastPage(response)) {
+            step.process(response);
+        }
+        return response;
+    }
+
+    /**
+     * Put the page in the queue, waiting for space. The closed state is checked regularly, as a fetch from the OAI
+     * target can swallow an interrupt.
+     */
+    private void put(Page page) throws InterruptedException {
+        while (!closed) {
+            if (pages.offer(page, 1, TimeUnit.SECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isLastPage(OaiResponse response) {
+        return response.isError() || response.getRecords().isEmpty();
+    }
+
+    /**
+     * A page from the OAI target or the failure that was thrown when fetching it.
+     */
+    private static class Page {
+        final OaiResponse response;
+        final Throwable failure;
+
+        Page(OaiResponse response, Throwable failure) {
+            this.response = response;
+            this.failure = failure;
+        }
+    }
+}
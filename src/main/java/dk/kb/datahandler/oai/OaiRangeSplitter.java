@@ -0,0 +1,156 @@
+package dk.kb.datahandler.oai;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.model.v1.OaiTargetDto.DateStampFormatEnum;
+
+/**
+ * Splits a harvest window into ranges of datestamps with at most a given number of records, so the ranges can be
+ * harvested concurrently instead of following a single long chain of resumption tokens.
+ * <p>
+ * The size of a range is found with a probe, see {@link OaiHarvestClient#probeListSize(String, String)}. A range
+ * with too many records is split in two halves, which are probed and split again if needed, so the ranges adapt to
+ * how the records are spread over time. A range is never shorter than a day for targets with day datestamps or an
+ * hour for targets with full datestamps. If the target does not give the size of a range, the range is not split.
+ * <p>
+ * OAI-PMH {@code until} is inclusive, so each range ends one unit before the next range starts. The last range has
+ * no end, so records added while harvesting are included.
+ */
+public class OaiRangeSplitter {
+    private static final Logger log = LoggerFactory.getLogger(OaiRangeSplitter.class);
+
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATETIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+
+    /**
+     * Gives the number of records in a range of datestamps.
+     */
+    @FunctionalInterface
+    public interface ListSizeProbe {
+        /**
+         * @param from  the first datestamp of the range.
+         * @param until the last datestamp of the range, included. Null if the range has no end.
+         * @return the number of records in the range or -1 if it is unknown.
+         */
+        long probe(String from, String until) throws IOException;
+    }
+
+    /**
+     * A range of datestamps formatted for the OAI target.
+     */
+    public static class Range {
+        private final String from;
+        private final String until;
+        private final long size;
+
+        /**
+         * @param from  the first datestamp of the range.
+         * @param until the last datestamp of the range, included, or null if the range has no end.
+         * @param size  the number of records in the range or -1 if it is unknown.
+         */
+        public Range(String from, String until, long size) {
+            this.from = from;
+            this.until = until;
+            this.size = size;
+        }
+
+        /**
+         * @return the first datestamp of the range.
+         */
+        public String getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the last datestamp of the range, included, or null if the range has no end.
+         */
+        public String getUntil() {
+            return until;
+        }
+
+        /**
+         * @return the number of records in the range when it was probed or -1 if it is unknown.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + from + ", " + (until == null ? "" : until) + "] (" + size + " records)";
+        }
+    }
+
+    private final ListSizeProbe probe;
+    private final long maxRecords;
+    private final DateTimeFormatter format;
+    private final ChronoUnit alignUnit;
+    private final Duration minRange;
+    private final Duration untilOffset;
+
+    /**
+     * @param probe      gives the number of records in a range.
+     * @param dateFormat the datestamp format of the OAI target.
+     * @param maxRecords the max number of records in a range.
+     */
+    public OaiRangeSplitter(ListSizeProbe probe, DateStampFormatEnum dateFormat, long maxRecords) {
+        this.probe = probe;
+        this.maxRecords = maxRecords;
+        if (dateFormat == DateStampFormatEnum.DATETIME) {
+            format = DATETIME_FORMAT;
+            alignUnit = ChronoUnit.HOURS;
+            minRange = Duration.ofHours(1);
+            untilOffset = Duration.ofSeconds(1);
+        } else {
+            format = DAY_FORMAT;
+            alignUnit = ChronoUnit.DAYS;
+            minRange = Duration.ofDays(1);
+            untilOffset = Duration.ofDays(1);
+        }
+    }
+
+    /**
+     * Split the window from {@code from} to now into ranges.
+     * @param from the start of the window.
+     * @param now  the time the window is split at. The last range continues after this.
+     * @return the ranges in order of datestamps. Ranges without records are included with size 0.
+     */
+    public List<Range> split(Instant from, Instant now) throws IOException {
+        List<Range> ranges = new ArrayList<>();
+        split(from, now, true, ranges);
+        log.debug("Split window from {} into {} ranges: {}", from, ranges.size(), ranges);
+        return ranges;
+    }
+
+    /**
+     * @param start   the start of the range.
+     * @param end     the start of the next range.
+     * @param openEnd true if the range has no end.
+     */
+    private void split(Instant start, Instant end, boolean openEnd, List<Range> ranges) throws IOException {
+        String from = format.format(start);
+        String until = openEnd ? null : format.format(end.minus(untilOffset));
+        long size = probe.probe(from, until);
+        Instant middle = start.plus(Duration.between(start, end).dividedBy(2)).truncatedTo(alignUnit);
+
+        if (size < 0 || size <= maxRecords || !middle.isAfter(start) ||
+                Duration.between(start, middle).compareTo(minRange) < 0 ||
+                Duration.between(middle, end).compareTo(minRange) < 0) {
+            ranges.add(new Range(from, until, size));
+            return;
+        }
+        split(start, middle, false, ranges);
+        split(middle, end, openEnd, ranges);
+    }
+}
@@ -14,6 +14,7 @@
  */
 package dk.kb.datahandler.oai;
 
+import dk.kb.datahandler.util.Metrics;
 import dk.kb.storage.model.v1.DsRecordDto;
 import dk.kb.storage.model.v1.RecordTypeDto;
 import dk.kb.storage.util.DsStorageClient;
@@ -32,29 +33,70 @@ import org.xml.sax.helpers.DefaultHandler;
 public class OaiResponseFilter {
     private static final Logger log = LoggerFactory.getLogger(OaiResponseFilter.class);
 
+    protected static final Metrics.Counter RECORDS_STORED = decisionCounter("stored");
+    protected static final Metrics.Counter RECORDS_DELETED = decisionCounter("deleted");
+    protected static final Metrics.Counter RECORDS_NO_ORIGIN = decisionCounter("no_origin");
+
     protected final DsStorageClient storage;
+    protected final StorageBatchPoster poster;
     protected final String datasource;
     protected int processed = 0;
 
     /**
+     * Create a filter that sends each record directly to ds-storage.
      * @param datasource source for records. Default implementation uses this for {@code origin}.
      * @param storage    destination for records.
      */
     public OaiResponseFilter(String datasource, DsStorageClient storage) {
+        this(datasource, storage, new StorageBatchPoster(storage));
+    }
+
+    /**
+     * @param datasource source for records. Default implementation uses this for {@code origin}.
+     * @param storage    destination for records.
+     * @param poster     used for sending records to {@code storage} in batches.
+     */
+    public OaiResponseFilter(String datasource, DsStorageClient storage, StorageBatchPoster poster) {
         this.storage = storage;
+        this.poster = poster;
         this.datasource = datasource;
     }
 
     /**
      * Add records from OAI-PMH harvest to ds-storage. The public implementation does not resolve parent and
      * sets the type to {@link RecordTypeDto#DELIVERABLEUNIT}.
+     * <p>
+     * All records from the response has been sent to ds-storage when the method returns.
      * @param response      OAI-PMH response containing records.
      */
     public void addToStorage(OaiResponse response) throws ServiceException {
         for (OaiRecord oaiRecord: response.getRecords()) {
-            addToStorage(oaiRecord);
-            processed++;
+            addFilteredToStorage(oaiRecord);
         }
+        flush();
+    }
+
+    /**
+     * Send records that are pending in the current batch to ds-storage. Must be called before the datestamp for
+     * the harvest is updated, when records are added with {@link #addFilteredToStorage(OaiRecord)}.
+     * @throws ServiceException if one or more records could not be sent. The message contains the ids of the
+     *                          failed records.
+     */
+    public void flush() throws ServiceException {
+        poster.flush();
+    }
+
+    /**
+     * Filter a single record from an OAI-PMH harvest and add it to ds-storage if it passes the filter. This is the
+     * per-record step of {@link #addToStorage(OaiResponse)} and is used directly when records are streamed one at a
+     * time, see {@link OaiHarvestClient#nextStreaming(java.util.function.Consumer)}.
+     * The record might be pending in a batch when the method returns, see {@link #flush()}.
+     * The public implementation does not filter and adds all records.
+     * @param oaiRecord     a record from an OAI-PMH response
+     */
+    public void addFilteredToStorage(OaiRecord oaiRecord) throws ServiceException {
+        addToStorage(oaiRecord);
+        processed++;
     }
 
     /**
@@ -81,16 +123,28 @@ public class OaiResponseFilter {
             log.warn("OAI Record with ID: '{}', has empty reference ID.", oaiRecord.getId());
         }
         if (oaiRecord.isDeleted()) {
-            storage.markRecordForDelete(storageId);
+            poster.delete(storageId);
+            RECORDS_DELETED.increment();
         } else if (origin.isEmpty()){
             log.warn("OAI Record with ID: '{}', has empty origin, it is not added to DS-Storage.", oaiRecord.getId());
+            RECORDS_NO_ORIGIN.increment();
         }
         else {
             String parentID = getParentID(oaiRecord, origin);
             addOrUpdateRecord(oaiRecord, storageId, parentID, origin,referenceId);
+            RECORDS_STORED.increment();
         }
     }
 
+    /**
+     * @param decision what the filter did with the records.
+     * @return the counter of records from OAI targets with the decision.
+     */
+    protected static Metrics.Counter decisionCounter(String decision) {
+        return Metrics.counter("oai_filter_records_total", "Records from OAI targets by the decision of the filter. " +
+                "Deleted records are counted for each origin they are deleted from", "decision", decision);
+    }
+
     /**
      * Resolve the {@code origin} for the given {@code oaiRecord} from the given {@code datasource}.
      * <p>
@@ -131,6 +185,13 @@ public class OaiResponseFilter {
         return processed;
     }
 
+    /**
+     * @return the poster used for sending records to ds-storage.
+     */
+    public StorageBatchPoster getPoster() {
+        return poster;
+    }
+
     /**
      * Add or update record in ds-storage.
      * @param oaiRecord record from OAI-PMH to ingest to ds-storage.
@@ -146,6 +207,6 @@ public class OaiResponseFilter {
         dsRecord.setData(oaiRecord.getMetadata());
         dsRecord.setRecordType(getRecordType(dsRecord, storageId));
         dsRecord.setReferenceId(referenceID);
-        storage.recordPost(dsRecord);
+        poster.post(dsRecord);
     }
 }
@@ -1,26 +1,22 @@
 package dk.kb.datahandler.oai;
 
 import dk.kb.datahandler.enrichment.DataEnricher;
+import dk.kb.datahandler.util.Metrics;
 import dk.kb.datahandler.util.PreservicaOaiRecordHandler;
 import dk.kb.storage.util.DsStorageClient;
-import dk.kb.util.webservice.exception.InternalServiceException;
 import dk.kb.util.webservice.exception.ServiceException;
 
 import org.eclipse.jetty.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
-import javax.xml.parsers.SAXParser;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 public class OaiResponseFilterDrArchive extends OaiResponseFilterPreservicaSeven{
     private static final Logger log = LoggerFactory.getLogger(OaiResponseFilterDrArchive.class);
     public static int nonDrRecords = 0;
+    private static final Metrics.Counter RECORDS_NOT_DR = decisionCounter("not_dr");
 
 
     /**
@@ -32,67 +28,76 @@ public class OaiResponseFilterDrArchive extends OaiResponseFilterPreservicaSeven
     }
 
     /**
-     * Add records from Preservica OAI-PMH harvest to ds-storage if the record has been sent on a DR channel.
+     * @param datasource source for records. Default implementation uses this for {@code origin}.
+     * @param storage    destination for records.
+     * @param poster     used for sending records to {@code storage} in batches.
+     */
+    public OaiResponseFilterDrArchive(String datasource, DsStorageClient storage, StorageBatchPoster poster) {
+        super(datasource, storage, poster);
+    }
+
+    /**
+     * @param datasource       source for records. Default implementation uses this for {@code origin}.
+     * @param storage          destination for records.
+     * @param poster           used for sending records to {@code storage} in batches.
+     * @param analysisExecutor if not null, the SAX analysis of the records in a response is done in parallel using
+     *                         this executor. The executor is not shut down by the filter.
+     */
+    public OaiResponseFilterDrArchive(String datasource, DsStorageClient storage, StorageBatchPoster poster,
+                                      ExecutorService analysisExecutor) {
+        super(datasource, storage, poster, analysisExecutor);
+    }
+
+    /**
+     * Deleted records have no metadata, so only records that are neither structural objects nor deleted are
+     * analysed.
+     */
+    @Override
+    protected boolean needsAnalysis(OaiRecord oaiRecord) {
+        return !isStructuralObject(oaiRecord) && !oaiRecord.isDeleted();
+    }
+
+    /**
+     * Add a record from Preservica OAI-PMH harvest to ds-storage if the record has been sent on a DR channel.
      * Records goes through a filtering where StructuralObjects from Preservica are filtered away and not added
      * to ds-storage. Furthermore, types are resolved based on IDs and lastly it is checked that the record has been
      * aired on a channel owned by DR.
-     * @param response      OAI-PMH response containing preservica records.
+     * @param oaiRecord     a preservica record from an OAI-PMH response.
+     * @param handler       the analysis of the record or null if it is a structural object or deleted.
      */
     @Override
-    public void addToStorage(OaiResponse response) throws ServiceException {
-        SAXParser saxParser = getSaxParser();
-
-        for (OaiRecord oaiRecord: response.getRecords()) {
-            String recordId = oaiRecord.getId();
-            // Preservica StructuralObjects are ignored as they are only used as folders in the GUI.
-            if (recordId.contains("oai:so")){
-                log.debug("Skipped Structural object with id: '{}'", recordId);
-                continue;
-            }
-
-            //OAI delete record: <record><header status="deleted"><identifier>oai:io:3c0d8491-1766-42cf-ba65-8d6567e2ea5a</identifier><datestamp>2025-10-08T13:13:06.065Z</datestamp></header></record>
-            //deleted has no metadata. We do not know if it is radio or tv. So delete both options.            
-            if(oaiRecord.isDeleted()) { 
-                log.info("Deleting record with id:"+oaiRecord.getId());
-                addToStorage(oaiRecord, "ds.tv", null); //Why are these not enums? 
-                addToStorage(oaiRecord, "ds.radio", null); //Why are these not enums?               
-                return;
-            }
-
-            PreservicaOaiRecordHandler handler = new PreservicaOaiRecordHandler();
-            try {
-                InputStream inputXml = new ByteArrayInputStream(oaiRecord.getMetadata().getBytes(StandardCharsets.UTF_8));
-                saxParser.parse(inputXml, handler);
-            } catch (SAXException | IOException e) {
-                throw new InternalServiceException(e);
-            }
-            
-            // Filter out material that are not send on DR channels
-            if (!handler.recordIsDr){
-                processed++;
-                nonDrRecords++;
-                // Periodically logging of how many records have been filtered out.
-                if (nonDrRecords % 1000 == 0) {
-                    log.info("The DR filter has filtered '{}' records away. '{}' records have been processed.",
-                            nonDrRecords, processed);
-                }
-                continue;
-            }
+    protected void addFilteredToStorage(OaiRecord oaiRecord, PreservicaOaiRecordHandler handler)
+            throws ServiceException {
+        String recordId = oaiRecord.getId();
+        // Preservica StructuralObjects are ignored as they are only used as folders in the GUI.
+        if (isStructuralObject(oaiRecord)){
+            log.debug("Skipped Structural object with id: '{}'", recordId);
+            RECORDS_STRUCTURAL.increment();
+            return;
+        }
 
-            // InformationObjects from preservica 7 need to have the PBCore metadata tag.
-            if (!informationObjectContainsPbcoreBoolean(handler, recordId)){
-                continue;
-            }
-            
-            String origin = getOrigin(oaiRecord, datasource, handler);
+        //OAI delete record: <record><header status="deleted"><identifier>oai:io:3c0d8491-1766-42cf-ba65-8d6567e2ea5a</identifier><datestamp>2025-10-08T13:13:06.065Z</datestamp></header></record>
+        //deleted has no metadata. We do not know if it is radio or tv. So delete both options.            
+        if(oaiRecord.isDeleted()) { 
+            log.info("Deleting record with id:"+oaiRecord.getId());
+            addToStorage(oaiRecord, "ds.tv", null); //Why are these not enums? 
+            addToStorage(oaiRecord, "ds.radio", null); //Why are these not enums?               
+            return;
+        }
 
-            try {
-                addToStorage(oaiRecord, origin,handler.fileId);
-                processed++;
-            } catch (ServiceException e){
-                log.warn("DsStorage threw an exception when adding OAI record from Preservica 7 to storage.");
-                throw e;
+        // Filter out material that are not send on DR channels
+        if (!handler.recordIsDr){
+            processed++;
+            nonDrRecords++;
+            RECORDS_NOT_DR.increment();
+            // Periodically logging of how many records have been filtered out.
+            if (nonDrRecords % 1000 == 0) {
+                log.info("The DR filter has filtered '{}' records away. '{}' records have been processed.",
+                        nonDrRecords, processed);
             }
+            return;
         }
+
+        super.addFilteredToStorage(oaiRecord, handler);
     }
 }
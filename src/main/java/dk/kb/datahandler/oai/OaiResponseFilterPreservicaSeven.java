@@ -4,9 +4,16 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import dk.kb.datahandler.util.Metrics;
 import dk.kb.datahandler.util.PreservicaOaiRecordHandler;
 import dk.kb.util.webservice.exception.InternalServiceException;
 import org.slf4j.Logger;
@@ -31,57 +38,159 @@ public class OaiResponseFilterPreservicaSeven extends OaiResponseFilter{
     private static final Logger log = LoggerFactory.getLogger(OaiResponseFilterPreservicaSeven.class);
     static final SAXParserFactory factory = SAXParserFactory.newInstance();
 
+    protected static final Metrics.Counter RECORDS_STRUCTURAL = decisionCounter("structural");
+    private static final Metrics.Counter RECORDS_NO_METADATA = decisionCounter("no_metadata");
+
     protected int emptyMetadataRecords = 0;
 
     protected int transCodingNotDoneRecords = 0;
 
+    /** Parsers are not thread safe, so each harvest and analysis thread gets its own. */
+    private static final ThreadLocal<SAXParser> threadParsers =
+            ThreadLocal.withInitial(OaiResponseFilterPreservicaSeven::getSaxParser);
+
+    /** If not null, the records in a response are analysed in parallel with this executor. */
+    private final ExecutorService analysisExecutor;
+
     /**
      * @param datasource source for records. Default implementation uses this for {@code origin}.
      * @param storage    destination for records.
      */
     public OaiResponseFilterPreservicaSeven(String datasource, DsStorageClient storage) {
-        super(datasource, storage);
+        this(datasource, storage, new StorageBatchPoster(storage), null);
     }
 
+    /**
+     * @param datasource source for records. Default implementation uses this for {@code origin}.
+     * @param storage    destination for records.
+     * @param poster     used for sending records to {@code storage} in batches.
+     */
+    public OaiResponseFilterPreservicaSeven(String datasource, DsStorageClient storage, StorageBatchPoster poster) {
+        this(datasource, storage, poster, null);
+    }
+
+    /**
+     * @param datasource       source for records. Default implementation uses this for {@code origin}.
+     * @param storage          destination for records.
+     * @param poster           used for sending records to {@code storage} in batches.
+     * @param analysisExecutor if not null, the SAX analysis of the records in a response is done in parallel using
+     *                         this executor. The executor is not shut down by the filter.
+     */
+    public OaiResponseFilterPreservicaSeven(String datasource, DsStorageClient storage, StorageBatchPoster poster,
+                                            ExecutorService analysisExecutor) {
+        super(datasource, storage, poster);
+        this.analysisExecutor = analysisExecutor;
+    }
 
     /**
-     * Add records from Preservica OAI-PMH harvest to ds-storage. Records goes through a filtering where StructuralObjects
-     * from Preservica are filtered away and not added to ds-storage. Furthermore, types are resolved based on IDs.
+     * Add records from Preservica OAI-PMH harvest to ds-storage. If the filter has an analysis executor, the
+     * metadata for all records in the response is parsed in parallel first. The records are then filtered and
+     * added to storage in the order of the response, so the last record is still the last one stored.
      * @param response      OAI-PMH response containing preservica records.
      */
     @Override
     public void addToStorage(OaiResponse response) throws ServiceException {
-        SAXParser saxParser = getSaxParser();
+        if (analysisExecutor == null) {
+            super.addToStorage(response);
+            return;
+        }
 
+        List<Future<PreservicaOaiRecordHandler>> analysed = new ArrayList<>(response.getRecords().size());
         for (OaiRecord oaiRecord: response.getRecords()) {
-            try {
-                PreservicaOaiRecordHandler handler = new PreservicaOaiRecordHandler();
-
-                InputStream inputXml = new ByteArrayInputStream(oaiRecord.getMetadata().getBytes(StandardCharsets.UTF_8));
-                saxParser.parse(inputXml, handler);
-
-                String recordId = oaiRecord.getId();
-                // Preservica StructuralObjects are ignored as they are only used as folders in the GUI.
-                if (recordId.contains("oai:so")){
-                    log.debug("Skipped Structural object with id: '{}'", recordId);
-                    continue;
-                }
-
-                // InformationObjects from preservcia 6/7 need to have the PBCore metadata tag.
-                if (!informationObjectContainsPbcoreBoolean(handler, recordId)){
-                    continue;
-                }
-                String origin = getOrigin(oaiRecord, datasource, handler);
-
-                addToStorage(oaiRecord, origin, handler.fileId);
-                processed++;
-            } catch (ServiceException e){
-                log.warn("DsStorage threw an exception when adding OAI record from Preservica 7 to storage.");
-                throw e;
-            } catch (IOException | SAXException e) {
-                throw new InternalServiceException("An error occurred when parsing XML with SAX:", e);
+            analysed.add(needsAnalysis(oaiRecord) ?
+                    analysisExecutor.submit(() -> analyse(oaiRecord, threadParsers.get())) :
+                    null);
+        }
+        try {
+            for (int i = 0; i < analysed.size(); i++) {
+                Future<PreservicaOaiRecordHandler> handler = analysed.get(i);
+                addFilteredToStorage(response.getRecords().get(i), handler == null ? null : handler.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ServiceException) {
+                throw (ServiceException) e.getCause();
             }
+            throw new InternalServiceException("An error occurred when analysing OAI records", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while analysing OAI records", e);
+        } finally {
+            analysed.stream().filter(Objects::nonNull).forEach(handler -> handler.cancel(true));
+        }
+        flush();
+    }
+
+    /**
+     * Add a record from Preservica OAI-PMH harvest to ds-storage. Records goes through a filtering where
+     * StructuralObjects from Preservica are filtered away and not added to ds-storage. Furthermore, types are
+     * resolved based on IDs.
+     * @param oaiRecord     a preservica record from an OAI-PMH response.
+     */
+    @Override
+    public void addFilteredToStorage(OaiRecord oaiRecord) throws ServiceException {
+        addFilteredToStorage(oaiRecord, needsAnalysis(oaiRecord) ? analyse(oaiRecord, threadParsers.get()) : null);
+    }
+
+    /**
+     * @param oaiRecord a preservica record from an OAI-PMH response.
+     * @return true if the metadata of the record must be analysed with {@link #analyse(OaiRecord, SAXParser)} before
+     *         it can be filtered.
+     */
+    protected boolean needsAnalysis(OaiRecord oaiRecord) {
+        return !isStructuralObject(oaiRecord);
+    }
+
+    /**
+     * Parse the metadata of the record with a {@link PreservicaOaiRecordHandler}. This only depends on the record,
+     * so it is safe to call from multiple threads as long as each thread uses its own parser.
+     * @param oaiRecord a preservica record from an OAI-PMH response.
+     * @param saxParser the parser to use.
+     * @return the handler with the information derived from the record.
+     */
+    static PreservicaOaiRecordHandler analyse(OaiRecord oaiRecord, SAXParser saxParser) {
+        try {
+            PreservicaOaiRecordHandler handler = new PreservicaOaiRecordHandler();
+            InputStream inputXml = new ByteArrayInputStream(oaiRecord.getMetadata().getBytes(StandardCharsets.UTF_8));
+            saxParser.parse(inputXml, handler);
+            return handler;
+        } catch (IOException | SAXException e) {
+            throw new InternalServiceException("An error occurred when parsing XML with SAX:", e);
+        }
+    }
+
+    /**
+     * Filter an analysed record and add it to ds-storage if it passes the filter.
+     * @param oaiRecord a preservica record from an OAI-PMH response.
+     * @param handler   the result of {@link #analyse(OaiRecord, SAXParser)} or null if
+     *                  {@link #needsAnalysis(OaiRecord)} returned false for the record.
+     */
+    protected void addFilteredToStorage(OaiRecord oaiRecord, PreservicaOaiRecordHandler handler)
+            throws ServiceException {
+        String recordId = oaiRecord.getId();
+        // Preservica StructuralObjects are ignored as they are only used as folders in the GUI.
+        if (isStructuralObject(oaiRecord)){
+            log.debug("Skipped Structural object with id: '{}'", recordId);
+            RECORDS_STRUCTURAL.increment();
+            return;
         }
+
+        // InformationObjects from preservcia 6/7 need to have the PBCore metadata tag.
+        if (!informationObjectContainsPbcoreBoolean(handler, recordId)){
+            return;
+        }
+        String origin = getOrigin(oaiRecord, datasource, handler);
+
+        try {
+            addToStorage(oaiRecord, origin, handler.fileId);
+            processed++;
+        } catch (ServiceException e){
+            log.warn("DsStorage threw an exception when adding OAI record from Preservica 7 to storage.");
+            throw e;
+        }
+    }
+
+    static boolean isStructuralObject(OaiRecord oaiRecord) {
+        return oaiRecord.getId().contains("oai:so");
     }
 
     /**
@@ -97,6 +206,7 @@ public class OaiResponseFilterPreservicaSeven extends OaiResponseFilter{
         if (recordId.contains("oai:io") && !recordHandler.recordHasMetadata){
             processed++;
             emptyMetadataRecords ++;
+            RECORDS_NO_METADATA.increment();
             log.warn("OAI-PMH record '{}' does not contain PBCore metadata and is therefore not added to storage. " +
                             "'{}' empty records have been found and '{}' records have been processed in total.",
                     recordId, emptyMetadataRecords, processed);
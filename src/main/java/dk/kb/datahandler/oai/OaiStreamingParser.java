@@ -0,0 +1,238 @@
+package dk.kb.datahandler.oai;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.util.XmlEscapeSanitisingReader;
+import dk.kb.util.webservice.exception.InternalServiceException;
+
+/**
+ * StAX based parser for OAI-PMH ListRecords responses. Records are delivered one at a time to a consumer as soon as
+ * they have been parsed, so only a single record is kept in memory instead of the full page.
+ * <p>
+ * The metadata for a record is written as it was received within the {@code <metadata>} tag and then adjusted
+ * with {@link OaiHarvestClient#nameFixPvica(String)}. The result corresponds to what
+ * {@link OaiHarvestClient#extractRecordsFromXml(org.w3c.dom.Document)} delivers. As with the DOM parser, namespace
+ * processing is disabled, so prefixed tags and {@code xmlns} attributes are kept as-is.
+ */
+public class OaiStreamingParser {
+    private static final Logger log = LoggerFactory.getLogger(OaiStreamingParser.class);
+
+    private static final XMLInputFactory factory = createFactory();
+
+    /**
+     * Parse an OAI-PMH ListRecords response. Invalid XML escapes are removed while reading.
+     * @param xml            UTF-8 encoded OAI-PMH response. The stream is not closed.
+     * @param uri            only used for logging.
+     * @param recordConsumer receives all records in the response in document order.
+     * @return a response with resumption token, total records and error state. The records are not added to the
+     *         response as they have been delivered to {@code recordConsumer}.
+     */
+    public static OaiResponse parse(InputStream xml, String uri, Consumer<OaiRecord> recordConsumer) {
+        return parse(new InputStreamReader(xml, StandardCharsets.UTF_8), uri, recordConsumer);
+    }
+
+    /**
+     * Parse an OAI-PMH ListRecords response. Invalid XML escapes are removed while reading.
+     * @param xml            the OAI-PMH response. The reader is not closed.
+     * @param uri            only used for logging.
+     * @param recordConsumer receives all records in the response in document order.
+     * @return a response with resumption token, total records and error state. The records are not added to the
+     *         response as they have been delivered to {@code recordConsumer}.
+     */
+    public static OaiResponse parse(Reader xml, String uri, Consumer<OaiRecord> recordConsumer) {
+        OaiResponse response = new OaiResponse();
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(new XmlEscapeSanitisingReader(xml));
+            int depth = 0;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                depth++;
+                String name = localName(reader.getLocalName());
+                if (depth == 2 && "error".equals(name)) {
+                    String errorMessage = reader.getElementText();
+                    depth--;
+                    if (errorMessage != null && errorMessage.trim().length() > 1) {
+                        log.info("Error message from OAI server for uri '{}': '{}'", uri, errorMessage);
+                        response.setError(true);
+                    }
+                } else if (depth == 3 && "record".equals(name)) {
+                    recordConsumer.accept(parseRecord(reader));
+                    depth--;
+                } else if (depth == 3 && "resumptionToken".equals(name)) {
+                    String completeListSize = reader.getAttributeValue(null, "completeListSize");
+                    response.setTotalRecords(completeListSize == null ? "?" : completeListSize);
+                    String token = reader.getElementText().trim();
+                    depth--;
+                    response.setResumptionToken(token.isEmpty() ? null : token);
+                }
+            }
+        } catch (XMLStreamException e) {
+            log.error("Invalid XML from OAI harvest from this URI: '{}'", uri, e);
+            throw new InternalServiceException("Invalid XML from OAI harvest from this URI: '" + uri + "'", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    log.debug("Exception closing XMLStreamReader for '{}'", uri, e);
+                }
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Parse a single record. The reader must be positioned at the {@code <record>} start tag and will be positioned
+     * at the matching end tag afterwards.
+     */
+    private static OaiRecord parseRecord(XMLStreamReader reader) throws XMLStreamException {
+        OaiRecord oaiRecord = new OaiRecord();
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                continue;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            depth++;
+            String name = localName(reader.getLocalName());
+            if ("header".equals(name)) {
+                if ("deleted".equals(reader.getAttributeValue(null, "status"))) {
+                    oaiRecord.setDeleted(true);
+                }
+            } else if ("identifier".equals(name) && oaiRecord.getId() == null) {
+                oaiRecord.setId(reader.getElementText());
+                depth--;
+            } else if ("datestamp".equals(name) && oaiRecord.getDateStamp() == null) {
+                oaiRecord.setDateStamp(reader.getElementText());
+                depth--;
+            } else if ("metadata".equals(name) && depth == 2) {
+                StringBuilder metadata = new StringBuilder();
+                copyContent(reader, metadata);
+                depth--;
+                if (!oaiRecord.isDeleted()) {
+                    oaiRecord.setMetadata(OaiHarvestClient.nameFixPvica(metadata.toString().trim()));
+                }
+            }
+        }
+        return oaiRecord;
+    }
+
+    /**
+     * Write the content of the current element, excluding the element itself, as XML. The reader must be
+     * positioned at a start tag and will be positioned at the matching end tag afterwards.
+     */
+    private static void copyContent(XMLStreamReader reader, StringBuilder out) throws XMLStreamException {
+        int depth = 1;
+        while (true) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    out.append('<').append(qName(reader.getPrefix(), reader.getLocalName()));
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        out.append(' ').append(qName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)));
+                        out.append("=\"");
+                        escape(reader.getAttributeValue(i), out, true);
+                        out.append('"');
+                    }
+                    out.append('>');
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    if (depth == 0) {
+                        return;
+                    }
+                    out.append("</").append(qName(reader.getPrefix(), reader.getLocalName())).append('>');
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    escape(reader.getText(), out, false);
+                    break;
+                case XMLStreamConstants.CDATA:
+                    out.append("<![CDATA[").append(reader.getText()).append("]]>");
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    out.append("<!--").append(reader.getText()).append("-->");
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    out.append("<?").append(reader.getPITarget());
+                    if (reader.getPIData() != null && !reader.getPIData().isEmpty()) {
+                        out.append(' ').append(reader.getPIData());
+                    }
+                    out.append("?>");
+                    break;
+                default:
+                    // Other events cannot occur inside an element
+            }
+        }
+    }
+
+    private static void escape(String text, StringBuilder out, boolean attribute) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': out.append("&amp;"); break;
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '"':
+                    out.append(attribute ? "&quot;" : "\"");
+                    break;
+                case '\r': out.append("&#13;"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    /**
+     * Without namespace processing StAX implementations differ in whether the prefix is part of the local name.
+     * @return the name as it was written in the XML.
+     */
+    private static String qName(String prefix, String localName) {
+        if (prefix == null || prefix.isEmpty() || localName.indexOf(':') != -1) {
+            return localName;
+        }
+        return prefix + ":" + localName;
+    }
+
+    /**
+     * Namespace processing is disabled, so the OAI-PMH tags can be delivered with a prefix.
+     */
+    private static String localName(String qName) {
+        int colon = qName.indexOf(':');
+        return colon == -1 ? qName : qName.substring(colon + 1);
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return inputFactory;
+    }
+}
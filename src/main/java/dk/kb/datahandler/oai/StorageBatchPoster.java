@@ -0,0 +1,299 @@
+package dk.kb.datahandler.oai;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.util.Metrics;
+import dk.kb.datahandler.util.NamedThreadFactory;
+import dk.kb.storage.model.v1.DsRecordDto;
+import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.ServiceException;
+
+/**
+ * Collects record updates and deletes for ds-storage and sends them in batches. A batch is flushed when it contains
+ * {@code maxRecords} records or when the size of the record data reaches {@code maxBytes}. The size is measured as
+ * the number of bytes in the UTF-8 encoded data, as sent to ds-storage.
+ * <p>
+ * ds-storage has no bulk endpoint, so the records in a batch are sent as individual requests using a pool of
+ * {@code threads} parallel posts. If a record fails, the rest of the batch is still sent and
+ * {@link #flush()} throws an exception naming the storage ids of all failed records.
+ * <p>
+ * Two operations for the same storage id are never sent in parallel: If a record is added while an operation for
+ * the same id is pending, the pending batch is flushed first.
+ * <p>
+ * The pool can be shared by several posters, e.g. for the ranges of a split harvest, with
+ * {@link #createExecutor(int)}, so the number of parallel posts does not grow with the number of posters.
+ * <p>
+ * Not thread safe: Records must be added from a single thread. The poster must be closed after use.
+ */
+public class StorageBatchPoster implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(StorageBatchPoster.class);
+
+    /** Max number of failed ids to list in the exception message. All failed ids are logged. */
+    private static final int MAX_FAILED_IDS_IN_MESSAGE = 20;
+
+    private static final Metrics.Histogram postTime = Metrics.histogram("storage_post_seconds",
+            "Time to send a single record update or delete to ds-storage");
+    private static final Metrics.Histogram flushTime = Metrics.histogram("storage_flush_seconds",
+            "Time to send a batch of records to ds-storage");
+
+    private final DsStorageClient storage;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+
+    private final List<Operation> pending = new ArrayList<>();
+    private final Set<String> pendingIds = new HashSet<>();
+    private long pendingBytes = 0;
+
+    private long flushedRecords = 0;
+    private long flushedBytes = 0;
+    private double lastFlushRecordsPerSecond = 0;
+
+    /**
+     * Create a poster that sends every record directly to ds-storage on the calling thread.
+     * @param storage destination for records.
+     */
+    public StorageBatchPoster(DsStorageClient storage) {
+        this(storage, 1, 0, 1);
+    }
+
+    /**
+     * @param storage    destination for records.
+     * @param maxRecords flush when the batch contains this number of records. Values below 1 are treated as 1.
+     * @param maxBytes   flush when the data in the batch is at least this size. 0 or less means no size limit.
+     * @param threads    the number of parallel posts to ds-storage. If 1 or less, records are sent on the calling
+     *                   thread.
+     */
+    public StorageBatchPoster(DsStorageClient storage, int maxRecords, long maxBytes, int threads) {
+        this(storage, maxRecords, maxBytes, createExecutor(threads), true);
+    }
+
+    /**
+     * @param storage    destination for records.
+     * @param maxRecords flush when the batch contains this number of records. Values below 1 are treated as 1.
+     * @param maxBytes   flush when the data in the batch is at least this size. 0 or less means no size limit.
+     * @param executor   the pool for parallel posts, shared with other posters. It is not shut down when the poster
+     *                   is closed. If null, records are sent on the calling thread.
+     */
+    public StorageBatchPoster(DsStorageClient storage, int maxRecords, long maxBytes, ExecutorService executor) {
+        this(storage, maxRecords, maxBytes, executor, false);
+    }
+
+    private StorageBatchPoster(DsStorageClient storage, int maxRecords, long maxBytes, ExecutorService executor,
+                               boolean ownsExecutor) {
+        this.storage = storage;
+        this.maxRecords = Math.max(1, maxRecords);
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @param threads the number of parallel posts to ds-storage.
+     * @return a pool for {@link #StorageBatchPoster(DsStorageClient, int, long, ExecutorService)} or null if threads
+     *         is 1 or less. The caller must shut down the pool.
+     */
+    public static ExecutorService createExecutor(int threads) {
+        return threads > 1 ? Executors.newFixedThreadPool(threads, new NamedThreadFactory("storage-poster-")) : null;
+    }
+
+    /**
+     * Add or update a record in ds-storage. The record is sent when the batch is flushed.
+     * @param dsRecord the record to send.
+     */
+    public void post(DsRecordDto dsRecord) throws ServiceException {
+        long size = dsRecord.getData() == null ? 0 : utf8Length(dsRecord.getData());
+        add(new Operation(dsRecord.getId(), size, () -> storage.recordPost(dsRecord)));
+    }
+
+    /**
+     * Mark a record for delete in ds-storage. The delete is sent when the batch is flushed.
+     * @param storageId the id of the record in ds-storage.
+     */
+    public void delete(String storageId) throws ServiceException {
+        add(new Operation(storageId, 0, () -> storage.markRecordForDelete(storageId)));
+    }
+
+    /**
+     * @return the number of bytes in the UTF-8 encoding of the text, without encoding it.
+     */
+    static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() &&
+                    Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    private void add(Operation operation) throws ServiceException {
+        if (pendingIds.contains(operation.storageId)) {
+            flush();
+        }
+        pending.add(operation);
+        pendingIds.add(operation.storageId);
+        pendingBytes += operation.size;
+        if (pending.size() >= maxRecords || (maxBytes > 0 && pendingBytes >= maxBytes)) {
+            flush();
+        }
+    }
+
+    /**
+     * Send all pending records to ds-storage and wait for them to complete.
+     * @throws InternalServiceException if one or more records could not be sent. The message contains the storage
+     *                                  ids of the failed records and the cause is the first exception.
+     */
+    public void flush() throws ServiceException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Operation> batch = new ArrayList<>(pending);
+        long batchBytes = pendingBytes;
+        pending.clear();
+        pendingIds.clear();
+        pendingBytes = 0;
+
+        long startNS = System.nanoTime();
+        Map<String, Exception> failures = executor == null ? sendSerial(batch) : sendParallel(batch);
+        long spendNS = Math.max(1, System.nanoTime() - startNS);
+        flushTime.observeNanos(spendNS);
+
+        flushedRecords += batch.size();
+        flushedBytes += batchBytes;
+        lastFlushRecordsPerSecond = batch.size() * 1_000_000_000.0 / spendNS;
+        log.debug("Flushed {} records with {} bytes of data to ds-storage in {} ms ({} records/s). {} failed",
+                batch.size(), batchBytes, spendNS / 1_000_000,
+                String.format(Locale.ROOT, "%.1f", lastFlushRecordsPerSecond), failures.size());
+
+        if (!failures.isEmpty()) {
+            throw createException(failures);
+        }
+    }
+
+    private Map<String, Exception> sendSerial(List<Operation> batch) {
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (Operation operation : batch) {
+            try {
+                operation.run();
+            } catch (Exception e) {
+                failures.put(operation.storageId, e);
+            }
+        }
+        return failures;
+    }
+
+    private Map<String, Exception> sendParallel(List<Operation> batch) {
+        List<Future<?>> futures = new ArrayList<>(batch.size());
+        for (Operation operation : batch) {
+            futures.add(executor.submit(operation::run));
+        }
+        Map<String, Exception> failures = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                failures.put(batch.get(i).storageId, cause instanceof Exception ? (Exception) cause : e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new InternalServiceException("Interrupted while sending records to ds-storage", e);
+            }
+        }
+        return failures;
+    }
+
+    private InternalServiceException createException(Map<String, Exception> failures) {
+        failures.forEach((storageId, e) ->
+                log.warn("Failed to send record with id '{}' to ds-storage: '{}'", storageId, e.getMessage()));
+        List<String> ids = new ArrayList<>(failures.keySet());
+        String idList = ids.size() <= MAX_FAILED_IDS_IN_MESSAGE ?
+                ids.toString() :
+                ids.subList(0, MAX_FAILED_IDS_IN_MESSAGE) + " and " + (ids.size() - MAX_FAILED_IDS_IN_MESSAGE) + " more";
+        return new InternalServiceException("Failed to send " + failures.size() + " records to ds-storage: " + idList,
+                failures.values().iterator().next());
+    }
+
+    /**
+     * @return the number of records that has been flushed, including records that failed.
+     */
+    public long getFlushedRecords() {
+        return flushedRecords;
+    }
+
+    /**
+     * @return the size of the record data that has been flushed, measured as UTF-8 bytes.
+     */
+    public long getFlushedBytes() {
+        return flushedBytes;
+    }
+
+    /**
+     * @return the number of records per second sent to ds-storage in the latest flush.
+     */
+    public double getLastFlushRecordsPerSecond() {
+        return lastFlushRecordsPerSecond;
+    }
+
+    /**
+     * Stop the threads for parallel posts, unless the pool is shared. Pending records are not flushed.
+     */
+    @Override
+    public void close() {
+        if (!pending.isEmpty()) {
+            log.warn("Closing with {} records that have not been sent to ds-storage", pending.size());
+        }
+        if (executor != null && ownsExecutor) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A pending update or delete of a record in ds-storage.
+     */
+    private static class Operation {
+        final String storageId;
+        final long size;
+        final Runnable action;
+
+        Operation(String storageId, long size, Runnable action) {
+            this.storageId = storageId;
+            this.size = size;
+            this.action = action;
+        }
+
+        void run() {
+            long startNS = postTime.start();
+            try {
+                action.run();
+            } finally {
+                postTime.end(startNS);
+            }
+        }
+    }
+}
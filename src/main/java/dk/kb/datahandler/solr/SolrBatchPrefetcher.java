@@ -0,0 +1,379 @@
+package dk.kb.datahandler.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.ServiceException;
+import dk.kb.util.webservice.stream.ContinuationInputStream;
+
+/**
+ * Delivers batches of solr documents from ds-present while the following batches are fetched in the background. This
+ * lets ds-present transform batch N+1 while solr indexes batch N.
+ * <p>
+ * A single producer thread requests the batches in order, each starting from the continuation token of the previous
+ * batch. Each batch is read fully into memory or a temporary file and the connection to ds-present is closed before
+ * the batch is put in a bounded queue, so connections are not kept open while waiting for solr. When the queue is full
+ * the producer waits, so at most {@code prefetchBatches} batches are held besides the batch being indexed. If
+ * {@code prefetchBatches} is 0, no thread is started and each call to {@link #next()} streams directly from ds-present.
+ * <p>
+ * Batches are delivered in the order of the continuation tokens, so the caller can update its mTime after each batch
+ * as when fetching directly. The prefetcher must be closed after use, so the producer thread is stopped if the caller
+ * fails.
+ * <p>
+ * If {@code mTimeTo} is given, the batch that passes it is the last batch, and the documents in it with an mTime after
+ * {@code mTimeTo} are removed. A range that starts after {@code mTimeTo} delivers those documents, so each document is
+ * delivered by only one of two neighbouring ranges.
+ */
+public class SolrBatchPrefetcher implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SolrBatchPrefetcher.class);
+
+    /** The field in the solr documents with the ds-storage mTime of the record. */
+    static final String MTIME_FIELD = "internal_storage_mTime";
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Requests a batch of solr documents from ds-present.
+     */
+    @FunctionalInterface
+    public interface BatchSource {
+        /**
+         * @param sinceTime only deliver records with mTime after this.
+         * @return a stream with solr documents, with record count, hasMore and the continuation token to use for the
+         *         next batch.
+         */
+        ContinuationInputStream<Long> getBatch(Long sinceTime) throws IOException;
+    }
+
+    private final BatchSource source;
+    private final Long mTimeTo;
+    private final boolean spoolToFile;
+    private final BlockingQueue<Item> batches;
+    private final Thread producer;
+    private volatile boolean closed = false;
+    private boolean finished = false;
+    private Long sinceTime;
+
+    /**
+     * @param source          requests batches from ds-present.
+     * @param sinceTime       the mTime to start from.
+     * @param mTimeTo         stop when the continuation token reaches this mTime and remove documents after it from the
+     *                        last batch. If null, stop when ds-present has no more records.
+     * @param prefetchBatches the maximum number of batches to fetch ahead of the caller. If 0, nothing is prefetched.
+     * @param spoolToFile     if true, prefetched batches are held in temporary files instead of memory.
+     * @param name            used for naming the producer thread.
+     */
+    public SolrBatchPrefetcher(BatchSource source, Long sinceTime, Long mTimeTo, int prefetchBatches,
+                               boolean spoolToFile, String name) {
+        this.source = source;
+        this.sinceTime = sinceTime;
+        this.mTimeTo = mTimeTo;
+        this.spoolToFile = spoolToFile;
+        if (prefetchBatches <= 0) {
+            this.batches = null;
+            this.producer = null;
+            return;
+        }
+        this.batches = new ArrayBlockingQueue<>(prefetchBatches);
+        this.producer = new Thread(this::produce, "solr-prefetch-" + name);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    /**
+     * Get the next batch of solr documents. The batch must be closed after use.
+     * @return the next batch or null if the last batch has been delivered.
+     * @throws IOException if the batch could not be fetched from ds-present.
+     */
+    public Batch next() throws IOException {
+        if (finished) {
+            return null;
+        }
+        if (producer == null) {
+            ContinuationInputStream<Long> stream = source.getBatch(sinceTime);
+            Batch batch = passesMTimeTo(stream) ?
+                    trimToMTimeTo(stream) :
+                    new Batch(stream, null, null, -1, stream.getRecordCount(), stream.getContinuationToken(),
+                            isLast(stream));
+            sinceTime = batch.getContinuationToken();
+            finished = batch.isLast();
+            return batch;
+        }
+
+        Item item;
+        try {
+            item = batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while waiting for the next batch from ds-present", e);
+        }
+
+        if (item.failure != null) {
+            finished = true;
+            if (item.failure instanceof IOException) {
+                throw (IOException) item.failure;
+            }
+            if (item.failure instanceof ServiceException) {
+                throw (ServiceException) item.failure;
+            }
+            throw new InternalServiceException("Exception fetching the next batch from ds-present", item.failure);
+        }
+        finished = item.batch.isLast();
+        return item.batch;
+    }
+
+    /**
+     * Stop the producer thread. Batches that has been prefetched but not delivered are discarded.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (producer != null) {
+            producer.interrupt();
+            discardQueued();
+        }
+    }
+
+    private void discardQueued() {
+        Item item;
+        while ((item = batches.poll()) != null) {
+            if (item.batch != null) {
+                item.batch.close();
+            }
+        }
+    }
+
+    /**
+     * Fetch batches until the last batch has been fetched, an exception occurs or the prefetcher is closed. Any
+     * {@link Throwable}, including {@link Error}s, is queued, so {@link #next()} never waits for a batch that will not
+     * come.
+     */
+    private void produce() {
+        try {
+            while (!closed) {
+                Batch batch;
+                try {
+                    batch = spool(source.getBatch(sinceTime));
+                } catch (Throwable t) {
+                    log.warn("An error occurred when fetching records from ds-present with mTime after '{}'",
+                            sinceTime);
+                    put(new Item(null, t));
+                    return;
+                }
+                put(new Item(batch, null));
+                if (batch.isLast()) {
+                    return;
+                }
+                sinceTime = batch.getContinuationToken();
+            }
+        } catch (InterruptedException e) {
+            log.debug("Prefetching of solr documents was interrupted");
+        } finally {
+            if (closed) {
+                // A batch can have been queued after close() emptied the queue
+                discardQueued();
+            }
+        }
+    }
+
+    /**
+     * Read the full stream into memory or a temporary file and close it.
+     */
+    private Batch spool(ContinuationInputStream<Long> stream) throws IOException {
+        if (passesMTimeTo(stream)) {
+            return trimToMTimeTo(stream);
+        }
+        try (stream) {
+            if (spoolToFile) {
+                Path file = Files.createTempFile("solr-batch-", ".json");
+                long size;
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    size = stream.transferTo(out);
+                } catch (IOException e) {
+                    Files.deleteIfExists(file);
+                    throw e;
+                }
+                return new Batch(null, null, file, size, stream.getRecordCount(), stream.getContinuationToken(),
+                        isLast(stream));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            stream.transferTo(out);
+            return new Batch(null, out.toByteArray(), null, out.size(), stream.getRecordCount(),
+                    stream.getContinuationToken(), isLast(stream));
+        }
+    }
+
+    /**
+     * Put the item in the queue, waiting for space. The closed state is checked regularly, as a request to ds-present
+     * can swallow an interrupt. If the prefetcher is closed, the batch is discarded.
+     */
+    private void put(Item item) throws InterruptedException {
+        try {
+            while (!closed) {
+                if (batches.offer(item, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            if (item.batch != null) {
+                item.batch.close();
+            }
+            throw e;
+        }
+        if (item.batch != null) {
+            item.batch.close();
+        }
+    }
+
+    /**
+     * @return true if the batch has documents after {@code mTimeTo}, which belong to the following range.
+     */
+    private boolean passesMTimeTo(ContinuationInputStream<Long> stream) {
+        return mTimeTo != null && stream.getContinuationToken() != null && stream.getContinuationToken() > mTimeTo;
+    }
+
+    /**
+     * Read the full stream into memory and close it, keeping only the documents with an mTime up to and including
+     * {@code mTimeTo}. Documents without an mTime are kept. The batch is the last batch, with {@code mTimeTo} as
+     * continuation token.
+     */
+    private Batch trimToMTimeTo(ContinuationInputStream<Long> stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long kept = 0;
+        long removed = 0;
+        try (stream;
+             JsonParser parser = mapper.getFactory().createParser(stream);
+             JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array of solr documents from ds-present");
+            }
+            generator.writeStartArray();
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                JsonNode document = mapper.readTree(parser);
+                JsonNode mTime = document.get(MTIME_FIELD);
+                if (mTime == null || mTime.asLong() <= mTimeTo) {
+                    mapper.writeTree(generator, document);
+                    kept++;
+                } else {
+                    removed++;
+                }
+            }
+            generator.writeEndArray();
+        }
+        log.debug("Removed {} documents with mTime after {} from the last batch", removed, mTimeTo);
+        return new Batch(null, out.toByteArray(), null, out.size(), kept, mTimeTo, true);
+    }
+
+    private boolean isLast(ContinuationInputStream<Long> stream) {
+        return !Boolean.TRUE.equals(stream.hasMore()) || stream.getContinuationToken() == null ||
+                (mTimeTo != null && stream.getContinuationToken() >= mTimeTo);
+    }
+
+    /**
+     * A batch of solr documents from ds-present. The documents are streamed directly from ds-present or held in
+     * memory or a temporary file, which is deleted when the batch is closed.
+     */
+    public static class Batch implements AutoCloseable {
+        private final InputStream directStream;
+        private final byte[] data;
+        private final Path file;
+        private final long size;
+        private final Long recordCount;
+        private final Long continuationToken;
+        private final boolean last;
+
+        Batch(InputStream directStream, byte[] data, Path file, long size, Long recordCount, Long continuationToken,
+              boolean last) {
+            this.directStream = directStream;
+            this.data = data;
+            this.file = file;
+            this.size = size;
+            this.recordCount = recordCount;
+            this.continuationToken = continuationToken;
+            this.last = last;
+        }
+
+        /**
+         * @return the solr documents. Can only be read once.
+         */
+        public InputStream getStream() throws IOException {
+            if (directStream != null) {
+                return directStream;
+            }
+            return file != null ? Files.newInputStream(file) : new ByteArrayInputStream(data);
+        }
+
+        /**
+         * @return the number of records in the batch or null if ds-present did not deliver the count.
+         */
+        public Long getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return the mTime of the last record in the batch, or {@code mTimeTo} if documents after it were removed.
+         */
+        public Long getContinuationToken() {
+            return continuationToken;
+        }
+
+        /**
+         * @return true if this is the last batch, either because ds-present has no more records or because the
+         *         continuation token has reached {@code mTimeTo}.
+         */
+        public boolean isLast() {
+            return last;
+        }
+
+        /**
+         * @return the size of the batch in bytes or -1 if the batch is streamed directly from ds-present.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (directStream != null) {
+                    directStream.close();
+                }
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                log.warn("Unable to clean up batch of solr documents", e);
+            }
+        }
+    }
+
+    /**
+     * A batch from ds-present or the failure that was thrown when fetching it.
+     */
+    private static class Item {
+        final Batch batch;
+        final Throwable failure;
+
+        Item(Batch batch, Throwable failure) {
+            this.batch = batch;
+            this.failure = failure;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package dk.kb.datahandler.solr;
+
+import java.util.Locale;
+
+import org.apache.http.client.utils.URIBuilder;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+/**
+ * Decides when documents sent to solr during an index run are committed. A hard commit opens a new searcher, so
+ * committing every batch slows down indexing and invalidates the caches on the query side.
+ * <ul>
+ *     <li>{@link Strategy#FINAL}: No commits while indexing, except for an optional {@code commitWithin} on each
+ *     update, and a single hard commit when all documents have been sent.</li>
+ *     <li>{@link Strategy#INTERVAL}: A hard commit every {@code everyDocuments} documents or every
+ *     {@code everySeconds} seconds, whichever comes first, and a hard commit when all documents have been sent.</li>
+ *     <li>{@link Strategy#SOFT}: Each update is sent with {@code softCommit=true}, so documents are searchable right
+ *     away. No hard commits are made. Durability relies on the {@code autoCommit} settings in solr.</li>
+ * </ul>
+ * A policy keeps track of the documents and time since the last commit, so a new policy must be created for each index
+ * run. It can be shared between threads indexing the same run.
+ */
+public class SolrCommitPolicy {
+
+    public enum Strategy { FINAL, INTERVAL, SOFT }
+
+    private final Strategy strategy;
+    private final long commitWithinMs;
+    private final long everyDocuments;
+    private final long everySeconds;
+
+    private long documentsSinceCommit = 0;
+    private long lastCommitNS;
+
+    /**
+     * @param strategy       when to commit.
+     * @param commitWithinMs for {@link Strategy#FINAL}: ask solr to commit within this number of milliseconds after
+     *                       each update. 0 or less means no commitWithin.
+     * @param everyDocuments for {@link Strategy#INTERVAL}: commit after this number of documents. 0 or less means no
+     *                       limit on documents.
+     * @param everySeconds   for {@link Strategy#INTERVAL}: commit when this number of seconds has passed since the last
+     *                       commit. 0 or less means no limit on time.
+     */
+    public SolrCommitPolicy(Strategy strategy, long commitWithinMs, long everyDocuments, long everySeconds) {
+        this.strategy = strategy;
+        this.commitWithinMs = commitWithinMs;
+        this.everyDocuments = everyDocuments;
+        this.everySeconds = everySeconds;
+        this.lastCommitNS = System.nanoTime();
+    }
+
+    /**
+     * @return a new policy with the settings from {@code solr.commit} in the configuration.
+     */
+    public static SolrCommitPolicy fromConfig() {
+        return new SolrCommitPolicy(ServiceConfig.getSolrCommitStrategy(), ServiceConfig.getSolrCommitWithinMs(),
+                ServiceConfig.getSolrCommitEveryDocuments(), ServiceConfig.getSolrCommitEverySeconds());
+    }
+
+    /**
+     * @param strategy the name of a {@link Strategy}, case insensitive.
+     * @return the strategy.
+     * @throws InvalidArgumentServiceException if the strategy is unknown.
+     */
+    public static Strategy parseStrategy(String strategy) {
+        try {
+            return Strategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new InvalidArgumentServiceException(
+                    "Unknown solr commit strategy '" + strategy + "'. Valid strategies are final, interval and soft");
+        }
+    }
+
+    /**
+     * Add the commit parameters for this policy to a solr update URL.
+     * @param updateUrl builder for the URL to the solr update handler.
+     */
+    public void addUpdateParameters(URIBuilder updateUrl) {
+        if (strategy == Strategy.FINAL && commitWithinMs > 0) {
+            updateUrl.setParameter("commitWithin", Long.toString(commitWithinMs));
+        } else if (strategy == Strategy.SOFT) {
+            updateUrl.setParameter("softCommit", "true");
+        }
+    }
+
+    /**
+     * Register documents that have been sent to solr and check if they should be committed now. If true is returned,
+     * the caller must commit and the counters are reset.
+     * @param documents the number of documents sent to solr since the last call.
+     * @return true if a hard commit should be made now.
+     */
+    public synchronized boolean shouldCommit(long documents) {
+        if (strategy != Strategy.INTERVAL) {
+            return false;
+        }
+        documentsSinceCommit += documents;
+        long now = System.nanoTime();
+        boolean commit = (everyDocuments > 0 && documentsSinceCommit >= everyDocuments) ||
+                (everySeconds > 0 && now - lastCommitNS >= everySeconds * 1_000_000_000L);
+        if (commit) {
+            documentsSinceCommit = 0;
+            lastCommitNS = now;
+        }
+        return commit;
+    }
+
+    /**
+     * @return true if a hard commit should be made when all documents have been sent.
+     */
+    public boolean commitAtEnd() {
+        return strategy != Strategy.SOFT;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    @Override
+    public String toString() {
+        return "SolrCommitPolicy{" +
+                "strategy=" + strategy +
+                ", commitWithinMs=" + commitWithinMs +
+                ", everyDocuments=" + everyDocuments +
+                ", everySeconds=" + everySeconds +
+                '}';
+    }
+}
@@ -0,0 +1,156 @@
+package dk.kb.datahandler.solr;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.util.NamedThreadFactory;
+import dk.kb.util.webservice.exception.InternalServiceException;
+
+/**
+ * Scans all documents matching a solr query page by page using {@code cursorMark}. Unlike paging with a range query on
+ * the last seen value, documents that share the sort value are never skipped, and solr does not have to sort the full
+ * result for every page.
+ * <p>
+ * The sort of the query is kept and the unique key is added as the last sort clause, as required by solr for
+ * {@code cursorMark}. Documents added or changed during the scan can be missed or delivered twice, as described in the
+ * solr documentation.
+ * <p>
+ * If prefetch is enabled, the next page is requested in the background as soon as a page has been delivered, so the
+ * caller can process the page while solr delivers the next. The scanner must be closed after use.
+ */
+public class SolrCursorScanner implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(SolrCursorScanner.class);
+
+    private final SolrClient client;
+    private final SolrQuery query;
+    private final ExecutorService prefetcher;
+    private Future<QueryResponse> nextResponse = null;
+    private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+    private boolean finished = false;
+    private long documentsDelivered = 0;
+
+    /**
+     * @param client    solr client for the collection. Not closed by the scanner.
+     * @param query     the query to scan. Must not have a start offset. The query is copied.
+     * @param uniqueKey the unique key field of the collection, normally {@code id}.
+     * @param rows      the number of documents in each page.
+     * @param prefetch  if true, the next page is fetched in the background while the caller processes the current.
+     * @param name      used for naming the prefetch thread.
+     */
+    public SolrCursorScanner(SolrClient client, SolrQuery query, String uniqueKey, int rows, boolean prefetch,
+                             String name) {
+        this.client = client;
+        this.query = query.getCopy();
+        this.query.setRows(rows);
+        this.query.setStart(null);
+        this.query.set(CommonParams.SORT, addTiebreak(query.get(CommonParams.SORT), uniqueKey));
+        this.prefetcher = prefetch ?
+                Executors.newSingleThreadExecutor(new NamedThreadFactory("solr-cursor-" + name + "-")) : null;
+    }
+
+    /**
+     * Get the next page of documents.
+     * @return the next page or null if all documents have been delivered.
+     * @throws SolrServerException if solr fails the request.
+     * @throws IOException         if solr could not be reached.
+     */
+    public SolrDocumentList nextPage() throws SolrServerException, IOException {
+        if (finished) {
+            return null;
+        }
+        QueryResponse response = nextResponse != null ? await(nextResponse) : fetch(cursorMark);
+        nextResponse = null;
+
+        SolrDocumentList page = response.getResults();
+        String nextCursorMark = response.getNextCursorMark();
+        if (page == null || page.isEmpty()) {
+            finished = true;
+            return null;
+        }
+        documentsDelivered += page.size();
+        // Solr returns the same cursorMark when there are no more documents
+        if (nextCursorMark == null || nextCursorMark.equals(cursorMark)) {
+            finished = true;
+        } else {
+            cursorMark = nextCursorMark;
+            if (prefetcher != null) {
+                final String prefetchCursorMark = cursorMark;
+                nextResponse = prefetcher.submit(() -> fetch(prefetchCursorMark));
+            }
+        }
+        log.debug("Delivering page with {} documents. {} documents delivered in total",
+                page.size(), documentsDelivered);
+        return page;
+    }
+
+    /**
+     * @return the number of documents delivered so far.
+     */
+    public long getDocumentsDelivered() {
+        return documentsDelivered;
+    }
+
+    /**
+     * Stop prefetching. The solr client is not closed.
+     */
+    @Override
+    public void close() {
+        finished = true;
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+    }
+
+    /**
+     * @param sort      the sort parameter of the query. Can be null.
+     * @param uniqueKey the unique key field of the collection.
+     * @return the sort with the unique key as the last clause, unless the unique key is already part of the sort.
+     */
+    static String addTiebreak(String sort, String uniqueKey) {
+        if (sort == null || sort.isBlank()) {
+            return uniqueKey + " asc";
+        }
+        for (String clause : sort.split(",")) {
+            if (clause.trim().split("\\s+")[0].equals(uniqueKey)) {
+                return sort;
+            }
+        }
+        return sort + "," + uniqueKey + " asc";
+    }
+
+    private QueryResponse fetch(String cursorMark) throws SolrServerException, IOException {
+        SolrQuery pageQuery = query.getCopy();
+        pageQuery.set(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+        return client.query(pageQuery);
+    }
+
+    private QueryResponse await(Future<QueryResponse> response) throws SolrServerException, IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while waiting for the next page from solr", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SolrServerException) {
+                throw (SolrServerException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new InternalServiceException("Exception fetching the next page from solr", e.getCause());
+        }
+    }
+}
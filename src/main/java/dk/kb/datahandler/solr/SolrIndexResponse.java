@@ -2,6 +2,9 @@ package dk.kb.datahandler.solr;
 
 import dk.kb.datahandler.model.v1.TypeDto;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * An object used to create a response for the API method:
  * {@link dk.kb.datahandler.api.v1.impl.DsDatahandlerApiServiceImpl#indexSolr(String, Long, TypeDto)}.
@@ -10,9 +13,13 @@ import dk.kb.datahandler.model.v1.TypeDto;
  * The object contains the following information:
  * <ul>
  *     <li>{@link SolrIndexResponse#combinedQTime}: The combined QTime value from all indexed {@link SolrResponseHeader}</li>
+ *     <li>{@link SolrIndexResponse#commits}: The number of hard commits sent to solr.</li>
+ *     <li>{@link SolrIndexResponse#combinedCommitTime}: The combined time in milliseconds spent on hard commits.</li>
  *     <li>{@link SolrIndexResponse#allDocumentsIndexed}: The combined number of documents indexed through the
  *     {@link dk.kb.datahandler.api.v1.impl.DsDatahandlerApiServiceImpl#indexSolr(String, Long, TypeDto)} call.</li>
  *     <li>{@link SolrIndexResponse#lastSolrResponseHeader}: The last solr response header added to the object. </li>
+ *     <li>{@link SolrIndexResponse#partitions}: The progress of each mTime range when the origin is indexed in
+ *     parallel ranges. Empty if the origin is indexed sequentially.</li>
  * </ul>
  *
  */
@@ -21,8 +28,11 @@ public class SolrIndexResponse {
     }
 
     private Long combinedQTime = 0L;
+    private Long commits = 0L;
+    private Long combinedCommitTime = 0L;
     private Long allDocumentsIndexed;
     private SolrResponseHeader lastSolrResponseHeader;
+    private final List<Partition> partitions = new ArrayList<>();
 
     public SolrResponseHeader getLastSolrResponseHeader() {
         return lastSolrResponseHeader;
@@ -40,6 +50,23 @@ public class SolrIndexResponse {
         this.combinedQTime = combinedQTime;
     }
 
+    public Long getCommits() {
+        return commits;
+    }
+
+    public Long getCombinedCommitTime() {
+        return combinedCommitTime;
+    }
+
+    /**
+     * Register a hard commit.
+     * @param commitTime the time in milliseconds the commit took.
+     */
+    public synchronized void addCommit(long commitTime) {
+        this.commits++;
+        this.combinedCommitTime += commitTime;
+    }
+
     public Long getAllDocumentsIndexed() {
         return allDocumentsIndexed;
     }
@@ -56,6 +83,21 @@ public class SolrIndexResponse {
         this.allDocumentsIndexed += documentsIndexed;
     }
 
+    public List<Partition> getPartitions() {
+        return partitions;
+    }
+
+    public void addPartition(Partition partition) {
+        partitions.add(partition);
+    }
+
+    /**
+     * @return the number of partitions that have been fully indexed.
+     */
+    public synchronized long getCompletedPartitions() {
+        return partitions.stream().filter(Partition::isCompleted).count();
+    }
+
     @Override
     public String toString() {
         return "SolrIndexResponse{" +
@@ -68,4 +110,72 @@ public class SolrIndexResponse {
                                         "}" +
                 '}';
     }
+
+    /**
+     * Progress of a single mTime range when an origin is indexed in parallel ranges. The range covers records with
+     * mTime from {@code mTimeFrom} to {@code mTimeTo}. If {@code mTimeTo} is null, the range has no upper limit.
+     */
+    public static class Partition {
+        private final int partition;
+        private final long mTimeFrom;
+        private final Long mTimeTo;
+        private Long currentMTime;
+        private long documentsIndexed = 0L;
+        private boolean completed = false;
+
+        public Partition(int partition, long mTimeFrom, Long mTimeTo) {
+            this.partition = partition;
+            this.mTimeFrom = mTimeFrom;
+            this.mTimeTo = mTimeTo;
+            this.currentMTime = mTimeFrom;
+        }
+
+        /**
+         * Update the progress after a batch has been indexed.
+         * @param documents    the number of documents in the batch.
+         * @param currentMTime the mTime to continue from.
+         * @param completed    true if this was the last batch in the range.
+         */
+        public void update(long documents, Long currentMTime, boolean completed) {
+            this.documentsIndexed += documents;
+            this.currentMTime = currentMTime;
+            this.completed = completed;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public long getmTimeFrom() {
+            return mTimeFrom;
+        }
+
+        public Long getmTimeTo() {
+            return mTimeTo;
+        }
+
+        public Long getCurrentMTime() {
+            return currentMTime;
+        }
+
+        public long getDocumentsIndexed() {
+            return documentsIndexed;
+        }
+
+        public boolean isCompleted() {
+            return completed;
+        }
+
+        @Override
+        public String toString() {
+            return "Partition{" +
+                    "partition=" + partition +
+                    ", mTimeFrom=" + mTimeFrom +
+                    ", mTimeTo=" + mTimeTo +
+                    ", currentMTime=" + currentMTime +
+                    ", documentsIndexed=" + documentsIndexed +
+                    ", completed=" + completed +
+                    '}';
+        }
+    }
 }
@@ -2,6 +2,7 @@ package dk.kb.datahandler.storage;
 
 
 import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.Metrics;
 import dk.kb.util.webservice.exception.InternalServiceException;
 import dk.kb.util.webservice.exception.ServiceException;
 import org.apache.commons.dbcp2.BasicDataSource;
@@ -16,6 +17,9 @@ import org.slf4j.LoggerFactory;
 public abstract class BasicStorage implements AutoCloseable {
     private static Logger log = LoggerFactory.getLogger(BasicStorage.class);
 
+    private static final Metrics.Histogram actionTime = Metrics.histogram("db_action_seconds",
+            "Time for storage actions in the jobs database, including getting a connection and committing");
+
     protected Connection connection;
     private static BasicDataSource dataSource;
 
@@ -32,6 +36,12 @@ public abstract class BasicStorage implements AutoCloseable {
         dataSource.setDefaultAutoCommit(false);
         dataSource.setMaxOpenPreparedStatements(connectionPoolSize);
 
+        BasicDataSource pool = dataSource;
+        Metrics.gauge("db_connections_active", "Connections borrowed from the jobs database pool",
+                pool::getNumActive);
+        Metrics.gauge("db_connections_idle", "Idle connections in the jobs database pool", pool::getNumIdle);
+        Metrics.gauge("db_connections_max", "Max connections in the jobs database pool", pool::getMaxTotal);
+
         log.info("DsStorage initialized with driverName='{}', driverURL='{}', connectionPoolSize='{}'", driverName, driverUrl,connectionPoolSize);
     }
 
@@ -72,6 +82,7 @@ public abstract class BasicStorage implements AutoCloseable {
             StorageAction<T, S> action
     ) {
         long start = System.currentTimeMillis();
+        long startNS = actionTime.start();
         try (S storage = storageFactory.call()) {
             T result;
             try {
@@ -89,6 +100,7 @@ public abstract class BasicStorage implements AutoCloseable {
                 throw new InternalServiceException(e);
             }
 
+            actionTime.end(startNS);
             log.debug("Storage method '{}' SQL time in millis: {}", actionID, (System.currentTimeMillis() - start));
             return result;
         } catch (ServiceException e) {
@@ -0,0 +1,105 @@
+package dk.kb.datahandler.storage;
+
+import java.util.UUID;
+
+/**
+ * The position of an OAI harvest of a target, stored after each page has been fully added to ds-storage.
+ * <p>
+ * The datestamp is the datestamp of the last stored record and is where the next delta harvest starts. While a harvest
+ * is running, the checkpoint also holds the {@code from} the harvest was started with and the resumption token for the
+ * next page, so a harvest that was stopped can continue from the exact page. When the harvest has completed, the
+ * resumption token is null.
+ */
+public class HarvestCheckpoint {
+    private final String target;
+    private final String datestamp;
+    private final String from;
+    private final String resumptionToken;
+    private final long numberOfRecords;
+    private final UUID jobId;
+
+    /**
+     * @param target          the name of the OAI target.
+     * @param datestamp       the datestamp of the last stored record.
+     * @param from            the from used when the harvest was started. Can be null if there is no resumption token.
+     * @param resumptionToken the resumption token for the next page or null if the harvest has completed.
+     * @param numberOfRecords the number of records stored since the harvest was started with from.
+     * @param jobId           the job that stored the checkpoint. Can be null.
+     */
+    public HarvestCheckpoint(String target, String datestamp, String from, String resumptionToken,
+                             long numberOfRecords, UUID jobId) {
+        this.target = target;
+        this.datestamp = datestamp;
+        this.from = from;
+        this.resumptionToken = resumptionToken;
+        this.numberOfRecords = numberOfRecords;
+        this.jobId = jobId;
+    }
+
+    /**
+     * @return the start of a new harvest of the target from the given datestamp.
+     */
+    public static HarvestCheckpoint start(String target, String from) {
+        return new HarvestCheckpoint(target, from, from, null, 0, null);
+    }
+
+    /**
+     * @param datestamp       the datestamp of the last stored record.
+     * @param resumptionToken the resumption token for the next page or null if the harvest has completed.
+     * @param records         the number of records stored since this checkpoint.
+     * @return the checkpoint after a page has been stored.
+     */
+    public HarvestCheckpoint next(String datestamp, String resumptionToken, long records) {
+        return new HarvestCheckpoint(target, datestamp, from, resumptionToken, numberOfRecords + records, jobId);
+    }
+
+    /**
+     * @return this checkpoint stored by the given job.
+     */
+    public HarvestCheckpoint forJob(UUID jobId) {
+        return new HarvestCheckpoint(target, datestamp, from, resumptionToken, numberOfRecords, jobId);
+    }
+
+    /**
+     * @return true if a stopped harvest can be continued with the resumption token.
+     */
+    public boolean isResumable() {
+        return resumptionToken != null && from != null;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getDatestamp() {
+        return datestamp;
+    }
+
+    public String getFrom() {
+        return from;
+    }
+
+    public String getResumptionToken() {
+        return resumptionToken;
+    }
+
+    public long getNumberOfRecords() {
+        return numberOfRecords;
+    }
+
+    public UUID getJobId() {
+        return jobId;
+    }
+
+    @Override
+    public String toString() {
+        return "HarvestCheckpoint{" +
+               "target='" + target + '\'' +
+               ", datestamp='" + datestamp + '\'' +
+               ", from='" + from + '\'' +
+               ", resumptionToken='" + resumptionToken + '\'' +
+               ", numberOfRecords=" + numberOfRecords +
+               ", jobId=" + jobId +
+               '}';
+    }
+}
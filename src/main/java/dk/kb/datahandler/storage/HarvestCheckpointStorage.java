@@ -0,0 +1,175 @@
+package dk.kb.datahandler.storage;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Checkpoints for OAI harvest, one row for each OAI target. A checkpoint is saved in the same way as jobs, so it is
+ * only visible when the transaction has been committed.
+ */
+public class HarvestCheckpointStorage extends BasicStorage {
+
+    private static final String GET_CHECKPOINT_QUERY = """
+        SELECT
+            *
+        FROM
+            oai_checkpoints
+        WHERE
+            target = ?
+    """;
+
+    private static final String GET_CHECKPOINTS_QUERY = """
+        SELECT
+            *
+        FROM
+            oai_checkpoints
+        WHERE
+            LEFT(target, ?) = ?
+        ORDER BY
+            target
+    """;
+
+    private static final String SAVE_CHECKPOINT_QUERY = """
+        MERGE INTO oai_checkpoints
+        USING (
+            VALUES (
+                CAST(? AS VARCHAR),
+                CAST(? AS VARCHAR),
+                CAST(? AS VARCHAR),
+                CAST(? AS VARCHAR),
+                CAST(? AS BIGINT),
+                CAST(? AS UUID),
+                CAST(? AS TIMESTAMP WITH TIME ZONE)
+            )
+        ) AS saved (target, datestamp, harvest_from, resumption_token, number_of_records, job_id, updated_time)
+        ON
+            oai_checkpoints.target = saved.target
+        WHEN MATCHED THEN UPDATE SET
+            datestamp = saved.datestamp,
+            harvest_from = saved.harvest_from,
+            resumption_token = saved.resumption_token,
+            number_of_records = saved.number_of_records,
+            job_id = saved.job_id,
+            updated_time = saved.updated_time
+        WHEN NOT MATCHED THEN INSERT (
+            target,
+            datestamp,
+            harvest_from,
+            resumption_token,
+            number_of_records,
+            job_id,
+            updated_time
+        )
+        VALUES (
+            saved.target,
+            saved.datestamp,
+            saved.harvest_from,
+            saved.resumption_token,
+            saved.number_of_records,
+            saved.job_id,
+            saved.updated_time
+        )
+    """;
+
+    private static final String DELETE_CHECKPOINTS_QUERY = """
+        DELETE FROM
+            oai_checkpoints
+        WHERE
+            LEFT(target, ?) = ?
+    """;
+
+    public HarvestCheckpointStorage() throws SQLException {
+        super();
+    }
+
+    /**
+     * Get the checkpoint for an OAI target
+     * @param target the name of the OAI target
+     * @return the checkpoint or null if the target has no checkpoint
+     * @throws SQLException
+     */
+    public HarvestCheckpoint getCheckpoint(String target) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(GET_CHECKPOINT_QUERY)) {
+            stmt.setString(1, target);
+
+            try (ResultSet result = stmt.executeQuery()) {
+                if (!result.next()) {
+                    return null;
+                }
+                return toCheckpoint(result);
+            }
+        }
+    }
+
+    /**
+     * Get the checkpoints for all targets starting with the given prefix
+     * @param targetPrefix the start of the target names
+     * @return the checkpoints ordered by target name
+     * @throws SQLException
+     */
+    public List<HarvestCheckpoint> getCheckpoints(String targetPrefix) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(GET_CHECKPOINTS_QUERY)) {
+            stmt.setInt(1, targetPrefix.length());
+            stmt.setString(2, targetPrefix);
+
+            List<HarvestCheckpoint> checkpoints = new ArrayList<>();
+            try (ResultSet result = stmt.executeQuery()) {
+                while (result.next()) {
+                    checkpoints.add(toCheckpoint(result));
+                }
+            }
+            return checkpoints;
+        }
+    }
+
+    /**
+     * Save the checkpoint for the OAI target, replacing the existing checkpoint. The checkpoint is inserted or
+     * updated with a single MERGE, so concurrent saves for a new target do not both insert it.
+     * @param checkpoint the checkpoint to save
+     * @throws SQLException
+     */
+    public void saveCheckpoint(HarvestCheckpoint checkpoint) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(SAVE_CHECKPOINT_QUERY)) {
+            stmt.setString(1, checkpoint.getTarget());
+            stmt.setString(2, checkpoint.getDatestamp());
+            stmt.setString(3, checkpoint.getFrom());
+            stmt.setString(4, checkpoint.getResumptionToken());
+            stmt.setLong(5, checkpoint.getNumberOfRecords());
+            stmt.setObject(6, checkpoint.getJobId());
+            stmt.setObject(7, OffsetDateTime.now(ZoneOffset.UTC));
+
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Delete the checkpoints for all targets starting with the given prefix
+     * @param targetPrefix the start of the target names
+     * @return the number of deleted checkpoints
+     * @throws SQLException
+     */
+    public int deleteCheckpoints(String targetPrefix) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(DELETE_CHECKPOINTS_QUERY)) {
+            stmt.setInt(1, targetPrefix.length());
+            stmt.setString(2, targetPrefix);
+
+            return stmt.executeUpdate();
+        }
+    }
+
+    private HarvestCheckpoint toCheckpoint(ResultSet result) throws SQLException {
+        return new HarvestCheckpoint(
+                result.getString("target"),
+                result.getString("datestamp"),
+                result.getString("harvest_from"),
+                result.getString("resumption_token"),
+                result.getLong("number_of_records"),
+                result.getObject("job_id", UUID.class));
+    }
+}
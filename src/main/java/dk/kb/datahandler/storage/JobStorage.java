@@ -4,6 +4,7 @@ import dk.kb.datahandler.model.v1.CategoryDto;
 import dk.kb.datahandler.model.v1.JobDto;
 import dk.kb.datahandler.model.v1.JobStatusDto;
 import dk.kb.datahandler.model.v1.TypeDto;
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
 
 import java.sql.*;
 import java.time.OffsetDateTime;
@@ -36,15 +37,31 @@ public class JobStorage extends BasicStorage {
             message = ?,
             end_time = ?,
             number_of_records = ?,
-            restart_value = ?
+            restart_value = ?,
+            records_per_second = ?,
+            current_position = ?
         WHERE
             id = ?
     """;
 
+    /**
+     * Only running jobs are updated, so a late progress update cannot overwrite the result of a finished job
+     */
+    private static final String UPDATE_JOB_PROGRESS_QUERY = """
+        UPDATE jobs SET
+            number_of_records = ?,
+            records_per_second = ?,
+            current_position = ?
+        WHERE
+            id = ?
+          AND
+            status = ?
+    """;
+
     /**
      * Kaltura upload and transcription don't have a source, so the OR clause handles the cases when source is null
      */
-    private static final String GET_JOBS_BY_CATEGORY_AND_SOURCE_AND_STATUS = """
+    private static final String GET_JOBS_BY_CATEGORY_AND_SOURCE_AND_STATUSES = """
         SELECT
             id
         FROM
@@ -56,6 +73,18 @@ public class JobStorage extends BasicStorage {
                 source IS NULL
                 OR source = ?
             )
+          AND
+            status IN (?, ?)
+    """;
+
+    /**
+     * Only queued jobs are started, so a job stopped while it was queued stays stopped
+     */
+    private static final String START_QUEUED_JOB_QUERY = """
+        UPDATE jobs SET
+            status = ?
+        WHERE
+            id = ?
           AND
             status = ?
     """;
@@ -69,18 +98,45 @@ public class JobStorage extends BasicStorage {
             id = ?
     """;
 
+    /**
+     * The conditions are added by {@link #getJobs(CategoryDto, JobStatusDto, UUID, int)}, so only the filters in use
+     * are part of the query and the indexes on category and status can be used. The order includes id, so it is unique
+     * and can be used for keyset pagination.
+     */
     private static final String GET_JOBS_QUERY = """
         SELECT
             *
         FROM
             jobs
         WHERE
-            category LIKE ?
-          AND
-            status LIKE ?
+            1 = 1
+    """;
+
+    private static final String GET_JOBS_ORDER = """
         ORDER BY
             category ASC,
-            start_time ASC
+            start_time ASC,
+            id ASC
+    """;
+
+    /**
+     * Deletes in batches, so a large number of old jobs does not lock the table for long
+     */
+    private static final String DELETE_FINISHED_JOBS_QUERY = """
+        DELETE FROM
+            jobs
+        WHERE
+            id IN (
+                SELECT
+                    id
+                FROM
+                    jobs
+                WHERE
+                    status NOT IN (?, ?)
+                  AND
+                    start_time < ?
+                LIMIT ?
+            )
     """;
 
     public JobStorage() throws SQLException {
@@ -88,7 +144,7 @@ public class JobStorage extends BasicStorage {
     }
 
     /**
-     * Creates an entry for a running job
+     * Creates an entry for a running or queued job
      * @param jobDto
      * @return id UUID for inserted row
      * @throws SQLException
@@ -112,17 +168,18 @@ public class JobStorage extends BasicStorage {
     }
 
     /**
-     * Check if there is a running job matching category and source
+     * Check if there is a running or queued job matching category and source
      * @param categoryDto what category the job is
      * @param source where is the data harvest/index/upload from
-     * @return boolean if there is a running job matching category and source
+     * @return boolean if there is a running or queued job matching category and source
      * @throws SQLException
      */
     public boolean hasRunningJob(CategoryDto categoryDto, String source) throws SQLException {
-        try(PreparedStatement stmt = connection.prepareStatement(GET_JOBS_BY_CATEGORY_AND_SOURCE_AND_STATUS)) {
+        try(PreparedStatement stmt = connection.prepareStatement(GET_JOBS_BY_CATEGORY_AND_SOURCE_AND_STATUSES)) {
             stmt.setString(1, categoryDto.name());
             stmt.setString(2, source);
             stmt.setString(3, JobStatusDto.RUNNING.name());
+            stmt.setString(4, JobStatusDto.QUEUED.name());
 
             try (ResultSet result = stmt.executeQuery()) {
                 if (!result.next()) {
@@ -142,11 +199,63 @@ public class JobStorage extends BasicStorage {
      * @throws SQLException
      */
     public List<JobDto> getJobs(CategoryDto categoryDto, JobStatusDto jobStatusDto) throws SQLException {
-        List<JobDto> jobs = new ArrayList<>();
+        return getJobs(categoryDto, jobStatusDto, null, 0);
+    }
 
-        try(PreparedStatement stmt = connection.prepareStatement(GET_JOBS_QUERY)) {
-            stmt.setString(1, categoryDto == null ? "%" : categoryDto.name());
-            stmt.setString(2, jobStatusDto == null ? "%" : jobStatusDto.name());
+    /**
+     * List a page of the jobs in the database. The jobs are ordered by category, start time and id. The next page
+     * starts after the last job in the page, so pages are stable while new jobs are added.
+     *
+     * @param categoryDto limit to a specific category
+     * @param jobStatusDto limit to a job status
+     * @param afterId only list jobs after the job with this id. If null, the list starts with the first job
+     * @param pageSize the max number of jobs to list. 0 or less means all jobs
+     * @return A list of jobs
+     * @throws InvalidArgumentServiceException if there is no job with the afterId
+     * @throws SQLException
+     */
+    public List<JobDto> getJobs(CategoryDto categoryDto, JobStatusDto jobStatusDto, UUID afterId, int pageSize)
+            throws SQLException {
+        JobDto after = null;
+        if (afterId != null) {
+            after = getJob(afterId);
+            if (after == null) {
+                throw new InvalidArgumentServiceException("No job with id '" + afterId + "' to list jobs after");
+            }
+        }
+
+        StringBuilder query = new StringBuilder(GET_JOBS_QUERY);
+        if (categoryDto != null) {
+            query.append("  AND category = ?\n");
+        }
+        if (jobStatusDto != null) {
+            query.append("  AND status = ?\n");
+        }
+        if (after != null) {
+            query.append("  AND (category, start_time, id) > (?, ?, ?)\n");
+        }
+        query.append(GET_JOBS_ORDER);
+        if (pageSize > 0) {
+            query.append("LIMIT ?\n");
+        }
+
+        List<JobDto> jobs = new ArrayList<>();
+        try(PreparedStatement stmt = connection.prepareStatement(query.toString())) {
+            int index = 1;
+            if (categoryDto != null) {
+                stmt.setString(index++, categoryDto.name());
+            }
+            if (jobStatusDto != null) {
+                stmt.setString(index++, jobStatusDto.name());
+            }
+            if (after != null) {
+                stmt.setString(index++, after.getCategory().name());
+                stmt.setObject(index++, after.getStartTime());
+                stmt.setObject(index++, after.getId());
+            }
+            if (pageSize > 0) {
+                stmt.setInt(index, pageSize);
+            }
 
             try (ResultSet result = stmt.executeQuery()) {
                 while (result.next()) {
@@ -157,6 +266,41 @@ public class JobStorage extends BasicStorage {
         return jobs;
     }
 
+    /**
+     * Delete jobs that are no longer running or queued and started before the given time. At most maxJobs are deleted, so the
+     * caller can commit between batches.
+     * @param startedBefore jobs started before this are deleted
+     * @param maxJobs the max number of jobs to delete
+     * @return the number of deleted jobs
+     * @throws SQLException
+     */
+    public int deleteFinishedJobs(OffsetDateTime startedBefore, int maxJobs) throws SQLException {
+        try(PreparedStatement stmt = connection.prepareStatement(DELETE_FINISHED_JOBS_QUERY)) {
+            stmt.setString(1, JobStatusDto.RUNNING.name());
+            stmt.setString(2, JobStatusDto.QUEUED.name());
+            stmt.setObject(3, startedBefore);
+            stmt.setInt(4, maxJobs);
+
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Mark a queued job as running
+     * @param id the id of the job
+     * @return how many rows was affected by the update. 0 if the job is no longer queued
+     * @throws SQLException
+     */
+    public int startQueuedJob(UUID id) throws SQLException {
+        try(PreparedStatement stmt = connection.prepareStatement(START_QUEUED_JOB_QUERY)) {
+            stmt.setString(1, JobStatusDto.RUNNING.name());
+            stmt.setObject(2, id);
+            stmt.setString(3, JobStatusDto.QUEUED.name());
+
+            return stmt.executeUpdate();
+        }
+    }
+
     /**
      * Update job matching id
      * @param modifiedJobDto
@@ -171,7 +315,46 @@ public class JobStorage extends BasicStorage {
             stmt.setObject(4, modifiedJobDto.getEndTime());
             stmt.setObject(5, modifiedJobDto.getNumberOfRecords());
             stmt.setObject(6, modifiedJobDto.getModifiedTimeFrom());
-            stmt.setObject(7, modifiedJobDto.getId());
+            stmt.setObject(7, modifiedJobDto.getRecordsPerSecond());
+            stmt.setString(8, modifiedJobDto.getCurrentPosition());
+            stmt.setObject(9, modifiedJobDto.getId());
+
+            return stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Get a single job
+     * @param id the id of the job
+     * @return the job or null if there is no job with the id
+     * @throws SQLException
+     */
+    public JobDto getJob(UUID id) throws SQLException {
+        try(PreparedStatement stmt = connection.prepareStatement(GET_JOB_QUERY)) {
+            stmt.setObject(1, id);
+
+            try (ResultSet result = stmt.executeQuery()) {
+                if (!result.next()) {
+                    return null;
+                }
+                return createJobDtoFromResult(result);
+            }
+        }
+    }
+
+    /**
+     * Update the progress of a running job: Number of records, records per second and current position
+     * @param jobDto the running job
+     * @return how many rows was affected by the update. 0 if the job is no longer running
+     * @throws SQLException
+     */
+    public int updateJobProgress(JobDto jobDto) throws SQLException {
+        try(PreparedStatement stmt = connection.prepareStatement(UPDATE_JOB_PROGRESS_QUERY)) {
+            stmt.setObject(1, jobDto.getNumberOfRecords());
+            stmt.setObject(2, jobDto.getRecordsPerSecond());
+            stmt.setString(3, jobDto.getCurrentPosition());
+            stmt.setObject(4, jobDto.getId());
+            stmt.setString(5, JobStatusDto.RUNNING.name());
 
             return stmt.executeUpdate();
         }
@@ -192,6 +375,8 @@ public class JobStorage extends BasicStorage {
         jobDto.setStartTime(result.getObject("start_time", OffsetDateTime.class));
         jobDto.setEndTime(result.getObject("end_time", OffsetDateTime.class));
         jobDto.setNumberOfRecords(result.getObject("number_of_records", Integer.class));
+        jobDto.setRecordsPerSecond(result.getObject("records_per_second", Double.class));
+        jobDto.setCurrentPosition(result.getString("current_position"));
         jobDto.setRestartValue(result.getObject("restart_value", OffsetDateTime.class));
 
         return jobDto;
@@ -1,20 +1,18 @@
 package dk.kb.datahandler.transcriptions;
 
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import dk.kb.storage.model.v1.TranscriptionDto;
 
@@ -47,24 +45,15 @@ public class TranscriptionIndexer {
     public static TranscriptionDto parseFile(String transcriptionFile, String segmentsFile, String infoFile) throws Exception{            
         
         TranscriptionDto transcription = new TranscriptionDto();
-        String  transcriptionFileString = Files.readString(Path.of(transcriptionFile), Charset.forName("UTF-8"));
-        String  segmentsFileString = Files.readString(Path.of(segmentsFile), Charset.forName("UTF-8"));
-        String  infoFileString = Files.readString(Path.of(infoFile), Charset.forName("UTF-8"));
-
-        Gson gson = new Gson();
-        JsonElement transcriptionJson = gson.fromJson (transcriptionFileString, JsonElement.class);
-        JsonObject transcriptionJsonObject = transcriptionJson.getAsJsonObject();
-        JsonElement segmentsJson = gson.fromJson (segmentsFileString, JsonElement.class);
-        JsonArray segmentsJsonArray = segmentsJson.getAsJsonArray(); 
-        JsonElement infoJson = gson.fromJson (infoFileString, JsonElement.class);
-        JsonObject infoJsonObject = infoJson.getAsJsonObject();
-        String fileId=transcriptionJsonObject.get("file_id").getAsString();                   
-        String segmentLines=extractTranscriptionLines(segmentsJsonArray);
+        Map<String, String> transcriptionFields = readStringFields(Path.of(transcriptionFile), "file_id", "transcription");
+        Map<String, String> infoFields = readStringFields(Path.of(infoFile), "source_basename");
+        String fileId=requireField(transcriptionFields, "file_id", transcriptionFile);                   
+        String segmentLines=extractTranscriptionLines(Path.of(segmentsFile));
                      
-        String transcriptionText=transcriptionJsonObject.get("transcription").getAsString();
+        String transcriptionText=requireField(transcriptionFields, "transcription", transcriptionFile);
         //This field is no longer present in any of the two transcriptions files, so just use parse time instead. It is not used by any business logic anyway.
         long mtime = System.currentTimeMillis()*1000; //mtime format in ds project is 1/1000000 precision. 
-        String fileName=infoJsonObject.get("source_basename").getAsString();
+        String fileName=requireField(infoFields, "source_basename", infoFile);
         //Consider extracting the duration as well in a future version, but this require database changes. It is in the info file
         
         transcription.setFileId(fileId);
@@ -75,24 +64,89 @@ public class TranscriptionIndexer {
         return transcription;    
     }
 
+    /**
+     * Read the given top level string fields from a json object file with a streaming {@link JsonReader}.
+     * All other fields, including nested objects and arrays, are skipped without being parsed into a tree.
+     * Numbers are returned as they are written in the file.
+     * 
+     * @param jsonFile file with a json object.
+     * @param fields the names of the fields to read.
+     * @return the values of the fields found in the file. Fields with null values are left out.
+     */
+    static Map<String, String> readStringFields(Path jsonFile, String... fields) throws IOException {
+        Set<String> wanted = Set.of(fields);
+        Map<String, String> values = new HashMap<>();
+        try (JsonReader reader = openReader(jsonFile)) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (wanted.contains(name) && reader.peek() != JsonToken.NULL) {
+                    values.put(name, reader.nextString());
+                }
+                else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        return values;
+    }
+
     /** 
      * Extract the start,end,text from each json object in the json array and 
      * concatenate them as <start> - <end> <text> <newline> for each object.
+     * <p>
+     * The segments file is read with a streaming {@link JsonReader} and the lines are written directly into a single
+     * builder, so large files from long broadcasts are never held as a json tree.
      * 
-     * @param segmentsJsonObject JsonArray object from the segments.fw.json file.
+     * @param segmentsFile the segments.fw.json file with a json array of segments.
      */
-    private static String extractTranscriptionLines( JsonArray segmentsJsonObject) { 
-        StringBuilder b = new StringBuilder();
-        for (int i =0 ;i <segmentsJsonObject.size() ; i++) {
-             JsonObject segment = segmentsJsonObject.get(i).getAsJsonObject();
-             String start = segment.get("start").getAsString();
-             String end = segment.get("end").getAsString();
-             String text = segment.get("text").getAsString();            
-             String transcriptionLine = start + " - "+end +" "+text;
-             b.append(transcriptionLine);
-             b.append("\n"); //new line between each           
-        }        
+    static String extractTranscriptionLines(Path segmentsFile) throws IOException { 
+        // The lines are a fraction of the segments json, which also has ids, probabilities etc. for each segment
+        StringBuilder b = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, Files.size(segmentsFile) / 3)));
+        try (JsonReader reader = openReader(segmentsFile)) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String start = null;
+                String end = null;
+                String text = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    switch (reader.nextName()) {
+                        case "start": start = reader.nextString(); break;
+                        case "end": end = reader.nextString(); break;
+                        case "text": text = reader.nextString(); break;
+                        default: reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (start == null || end == null || text == null) {
+                    throw new IOException("Segment without start, end or text in " + segmentsFile + " at " + reader.getPath());
+                }
+                b.append(start).append(" - ").append(end).append(' ').append(text);
+                b.append('\n'); //new line between each           
+            }
+            reader.endArray();
+        }
         return b.toString();        
     }
+
+    /**
+     * The whisper output can contain NaN and Infinity values, so the reader is lenient like {@code Gson.fromJson}.
+     */
+    @SuppressWarnings("deprecation")
+    private static JsonReader openReader(Path jsonFile) throws IOException {
+        JsonReader reader = new JsonReader(Files.newBufferedReader(jsonFile, StandardCharsets.UTF_8));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static String requireField(Map<String, String> fields, String field, String file) throws IOException {
+        String value = fields.get(field);
+        if (value == null) {
+            throw new IOException("Field '" + field + "' is missing in " + file);
+        }
+        return value;
+    }
           
 }
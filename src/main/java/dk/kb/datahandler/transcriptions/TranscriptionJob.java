@@ -1,17 +1,30 @@
 package dk.kb.datahandler.transcriptions;
 
 import java.io.File;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.HttpClientRegistry;
+import dk.kb.datahandler.util.JobProgress;
+import dk.kb.datahandler.util.NamedThreadFactory;
 import dk.kb.storage.model.v1.TranscriptionDto;
 import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.webservice.exception.InternalServiceException;
 import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
 
 public class TranscriptionJob {
@@ -41,12 +54,23 @@ public class TranscriptionJob {
      * 
      * @returns The number of successful transcriptions created. 
      */
-    public synchronized static int processTranscriptions(String dropFolderFilePath,String completedFolderFilePath) throws Exception{     
+    public static int processTranscriptions(String dropFolderFilePath,String completedFolderFilePath) throws Exception{     
+        return processTranscriptions(dropFolderFilePath, completedFolderFilePath, JobProgress.untracked());
+    }
+
+    /**
+     * Process all files in the transcription drop folder. See {@link #processTranscriptions(String, String)}.
+     * <p>
+     * The transcriptions are parsed and sent to ds-storage by a pool of {@link ServiceConfig#getTranscriptionsThreads()}
+     * workers sharing one storage client. Each worker moves the 3 files for its transcription to the completed folder
+     * when the transcription has been sent, so the files for a transcription are always moved together.
+     * @param progress updated after each transcription with the number of processed transcriptions and the latest file.
+     * @returns The number of successful transcriptions created.
+     */
+    public synchronized static int processTranscriptions(String dropFolderFilePath,String completedFolderFilePath, JobProgress progress) throws Exception{
         validateFoldersExist(dropFolderFilePath, completedFolderFilePath);
         log.debug("Starting transcriptionjob with dropFolder='{}' and completedFolder='{}'",dropFolderFilePath,completedFolderFilePath);                        
        
-        int parsedSucces=0;
-        int parsedFailed=0;
         File dropFolderDir = new File(dropFolderFilePath);       
         File completedFolderDir = new File(completedFolderFilePath);
         
@@ -54,46 +78,106 @@ public class TranscriptionJob {
         //for also load the file matching with suffix  '.segments.fw.json' 
        
         File[] files = dropFolderDir.listFiles((d, name) -> name.endsWith(".ner.json"));
-        
         log.info("Transcription job started, #files in dropFolder:"+files.length);
+        return processTranscriptions(files, dropFolderDir, completedFolderDir, progress);
+    }
+
+    /**
+     * Process the given transcriptions from the drop folder. Used for loading transcriptions as soon as they appear
+     * in the drop folder. See {@link #processTranscriptions(String, String, JobProgress)}.
+     * @param files the transcription files with suffix .ner.json. The segments and info files must be in the same folder.
+     * @param dropFolderDir the drop folder for transcriptions.
+     * @param completedFolderDir the completed folder for transcriptions.
+     * @param progress updated after each transcription with the number of processed transcriptions and the latest file.
+     * @returns The number of successful transcriptions created.
+     */
+    public synchronized static int processTranscriptions(File[] files, File dropFolderDir, File completedFolderDir, JobProgress progress) throws Exception{
+        int threads = Math.max(1, ServiceConfig.getTranscriptionsThreads());
+        log.debug("Processing {} transcriptions with {} threads", files.length, threads);
         
-        for (File transcriptionFile : files) {                                   
-             //Check segments file is also present.
-            String segmentsFileName=toSegmentsFilename(transcriptionFile.getName());
-            File segmentsFile=new File(dropFolderDir, segmentsFileName);
-            
-            String infoFileName=toInfoFilename(transcriptionFile.getName());
-            File infoFile=new File(dropFolderDir, infoFileName);
-                    
-            boolean segmentsFileExist=segmentsFile.exists();
-            boolean infoFileExist=infoFile.exists(); 
-            
-            //Set all 3 as failed.
-            if (!segmentsFileExist && !infoFileExist) {
-                log.error("Segments or info file is missing for transcription:"+transcriptionFile.getAbsolutePath());
-                moveFileToCompletedFolder(transcriptionFile, false,completedFolderDir);    
-                moveFileToCompletedFolder(segmentsFile, false,completedFolderDir);
-                moveFileToCompletedFolder(infoFile, false,completedFolderDir);
-                continue; //Skip processing            
-            }
-            
-            boolean success=process(transcriptionFile,segmentsFile,infoFile);
-            if (success) {
-                parsedSucces++;                
+        DsStorageClient storageClient = HttpClientRegistry.getDsStorageClient(ServiceConfig.getDsStorageUrl());
+        AtomicInteger parsedSucces = new AtomicInteger(0);
+        AtomicInteger parsedFailed = new AtomicInteger(0);
+        long startNS = System.nanoTime();
+        
+        if (threads == 1) {
+            for (File transcriptionFile : files) {
+                processTranscription(transcriptionFile, dropFolderDir, completedFolderDir, storageClient,
+                                     parsedSucces, parsedFailed, progress);
             }
-            else {
-                parsedFailed++;
+        }
+        else {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("transcription-"));
+            try {
+                List<Future<?>> futures = new ArrayList<>(files.length);
+                for (File transcriptionFile : files) {
+                    futures.add(executor.submit(() -> processTranscription(
+                            transcriptionFile, dropFolderDir, completedFolderDir, storageClient,
+                            parsedSucces, parsedFailed, progress)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                throw new InternalServiceException("Transcription job failed", e.getCause());
+            } finally {
+                executor.shutdownNow();
             }
-            //Move all 3 files. Logic handles if some of them is missing
-            moveFileToCompletedFolder(transcriptionFile, success,completedFolderDir);
-            moveFileToCompletedFolder(segmentsFile,  success,completedFolderDir);
-            moveFileToCompletedFolder(infoFile, success,completedFolderDir);           
-            
-            log.info("Completed indexing transcription:"+transcriptionFile.getName());
         }
-        log.info("Transcription job completed. success='{}' and failed ='{}'",parsedSucces,parsedFailed );
+        
+        double seconds = Math.max(1, System.nanoTime() - startNS) / 1_000_000_000.0;
+        log.info("Transcription job completed. success='{}' and failed ='{}' in {} seconds ({} transcriptions/second)",
+                 parsedSucces.get(), parsedFailed.get(), String.format(Locale.ROOT, "%.1f", seconds),
+                 String.format(Locale.ROOT, "%.1f", (parsedSucces.get() + parsedFailed.get()) / seconds));
                         
-        return parsedSucces;                
+        return parsedSucces.get();                
+    }
+    
+    /**
+     * Process a single transcription and move its 3 files to the completed folder. Thread safe.
+     * Transcriptions where both the segments and the info file are missing are moved as failed without being parsed.
+     */
+    private static void processTranscription(File transcriptionFile, File dropFolderDir, File completedFolderDir,
+                                             DsStorageClient storageClient, AtomicInteger parsedSucces,
+                                             AtomicInteger parsedFailed, JobProgress progress) {
+        if (!transcriptionFile.exists()) {
+            log.info("Transcription has already been processed:"+transcriptionFile.getAbsolutePath());
+            return;
+        }
+         //Check segments file is also present.
+        String segmentsFileName=toSegmentsFilename(transcriptionFile.getName());
+        File segmentsFile=new File(dropFolderDir, segmentsFileName);
+        
+        String infoFileName=toInfoFilename(transcriptionFile.getName());
+        File infoFile=new File(dropFolderDir, infoFileName);
+                
+        boolean segmentsFileExist=segmentsFile.exists();
+        boolean infoFileExist=infoFile.exists(); 
+        
+        //Set all 3 as failed.
+        if (!segmentsFileExist && !infoFileExist) {
+            log.error("Segments or info file is missing for transcription:"+transcriptionFile.getAbsolutePath());
+            moveFileToCompletedFolder(transcriptionFile, false,completedFolderDir);    
+            moveFileToCompletedFolder(segmentsFile, false,completedFolderDir);
+            moveFileToCompletedFolder(infoFile, false,completedFolderDir);
+            return; //Skip processing            
+        }
+        
+        boolean success=process(transcriptionFile,segmentsFile,infoFile,storageClient);
+        int processed;
+        if (success) {
+            processed = parsedSucces.incrementAndGet() + parsedFailed.get();
+        }
+        else {
+            processed = parsedFailed.incrementAndGet() + parsedSucces.get();
+        }
+        //Move all 3 files. Logic handles if some of them is missing
+        moveFileToCompletedFolder(transcriptionFile, success,completedFolderDir);
+        moveFileToCompletedFolder(segmentsFile,  success,completedFolderDir);
+        moveFileToCompletedFolder(infoFile, success,completedFolderDir);           
+        
+        log.info("Completed indexing transcription:"+transcriptionFile.getName());
+        progress.update(processed, transcriptionFile.getName());
     }
     
     /*
@@ -120,13 +204,21 @@ public class TranscriptionJob {
      * @param transcriptionFile File with suffix: .ner.json
      * @param segmentsFile File with suffix: segments.fw.json
      * @param infoFile File with suffix: info.fw.json
-     * @re
+     * @param storageClient Shared client for ds-storage.
+     * @return true if the transcription was sent to ds-storage.
      */
-    private static boolean process(File transcriptionFile ,File segmentsFile, File infoFile ) {         
+    private static boolean process(File transcriptionFile ,File segmentsFile, File infoFile, DsStorageClient storageClient) {         
         try {
            TranscriptionDto transcription = TranscriptionIndexer.parseFile(transcriptionFile.getAbsolutePath(),segmentsFile.getAbsolutePath(),infoFile.getAbsolutePath());           
-           DsStorageClient storageClient = new DsStorageClient(ServiceConfig.getDsStorageUrl());
-           storageClient.createOrUpdateTranscription(transcription);                     
+           HttpClientRegistry.UpstreamMetrics metrics = HttpClientRegistry.getMetrics(HttpClientRegistry.STORAGE);
+           long startNS = metrics.start();
+           boolean success = false;
+           try {
+               storageClient.createOrUpdateTranscription(transcription);
+               success = true;
+           } finally {
+               metrics.end(startNS, success);
+           }
         }
         catch(Exception e) {
            log.error("Error processing transcription file:"+transcriptionFile , e); 
@@ -139,9 +231,10 @@ public class TranscriptionJob {
     /*
     * Will move file from drop folder to completed folder.
     * Suffix 'completed' or 'failed' will be added to file as new extension depending on success
-    *
+    * The move is atomic, so the completed folder never contains a partially written file. If the file system does
+    * not support atomic moves, a normal move is done.
     */
-    private static void moveFileToCompletedFolder(File file, boolean success, File dropFolder) throws Exception {        
+    private static void moveFileToCompletedFolder(File file, boolean success, File dropFolder) {        
         String fullPath=file.getName();
         String newFileName;
         
@@ -154,7 +247,12 @@ public class TranscriptionJob {
         Path from= file.toPath();
         Path to =  Paths.get(dropFolder+"/"+newFileName);        
      try {
-         Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+         try {
+             Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         }
+         catch(AtomicMoveNotSupportedException e) {
+             Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+         }
       }
      catch(Exception e) {
          log.warn("Failed moving file to completed folder, file does probably not exist:"+file.getAbsolutePath());
@@ -170,4 +268,5 @@ public class TranscriptionJob {
         return filename.replace(".ner.json", ".info.fw.json");
     }
     
+    
 }
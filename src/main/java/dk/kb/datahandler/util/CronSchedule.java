@@ -0,0 +1,121 @@
+package dk.kb.datahandler.util;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.Locale;
+
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+/**
+ * Minimal cron expression with the 5 standard fields: {@code minute hour day-of-month month day-of-week}.
+ * <p>
+ * Each field supports {@code *}, single values, ranges {@code 1-5}, lists {@code 1,15,30} and steps
+ * {@code *}{@code /15} or {@code 0-30/10}. Day-of-week is 0-7 where both 0 and 7 is Sunday. As in standard cron, if
+ * both day-of-month and day-of-week are restricted, a time matches if either of them match.
+ * <p>
+ * Examples: {@code 0 3 * * *} is every day at 03:00, {@code *}{@code /30 * * * 1-5} is every half hour on weekdays.
+ */
+public class CronSchedule {
+    private final String expression;
+    private final BitSet minutes;
+    private final BitSet hours;
+    private final BitSet daysOfMonth;
+    private final BitSet months;
+    private final BitSet daysOfWeek;
+    private final boolean anyDayOfMonth;
+    private final boolean anyDayOfWeek;
+
+    /**
+     * @param expression cron expression with 5 fields separated by whitespace.
+     * @throws InvalidArgumentServiceException if the expression is invalid.
+     */
+    public CronSchedule(String expression) {
+        if (expression == null) {
+            throw new InvalidArgumentServiceException("Cron expression must not be null");
+        }
+        this.expression = expression.trim();
+        String[] fields = this.expression.split("\\s+");
+        if (fields.length != 5) {
+            throw new InvalidArgumentServiceException(
+                    "Cron expression '" + expression + "' must have 5 fields: minute hour day-of-month month day-of-week");
+        }
+        minutes = parseField(fields[0], 0, 59);
+        hours = parseField(fields[1], 0, 23);
+        daysOfMonth = parseField(fields[2], 1, 31);
+        months = parseField(fields[3], 1, 12);
+        daysOfWeek = parseField(fields[4], 0, 7);
+        if (daysOfWeek.get(7)) {
+            daysOfWeek.set(0);
+        }
+        anyDayOfMonth = fields[2].startsWith("*");
+        anyDayOfWeek = fields[4].startsWith("*");
+    }
+
+    /**
+     * @param time a point in time. Seconds and below are ignored.
+     * @return true if the schedule should trigger in the minute of {@code time}.
+     */
+    public boolean matches(LocalDateTime time) {
+        if (!minutes.get(time.getMinute()) || !hours.get(time.getHour()) || !months.get(time.getMonthValue())) {
+            return false;
+        }
+        boolean dayOfMonthMatch = daysOfMonth.get(time.getDayOfMonth());
+        boolean dayOfWeekMatch = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+        if (anyDayOfMonth || anyDayOfWeek) {
+            return dayOfMonthMatch && dayOfWeekMatch;
+        }
+        return dayOfMonthMatch || dayOfWeekMatch;
+    }
+
+    private BitSet parseField(String field, int min, int max) {
+        BitSet values = new BitSet(max + 1);
+        for (String part : field.split(",", -1)) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash != -1) {
+                step = parseNumber(part.substring(slash + 1), 1, max);
+                part = part.substring(0, slash);
+            }
+            int from;
+            int to;
+            if ("*".equals(part)) {
+                from = min;
+                to = max;
+            } else if (part.indexOf('-') > 0) {
+                int dash = part.indexOf('-');
+                from = parseNumber(part.substring(0, dash), min, max);
+                to = parseNumber(part.substring(dash + 1), min, max);
+            } else {
+                from = parseNumber(part, min, max);
+                to = slash == -1 ? from : max;
+            }
+            if (from > to) {
+                throw new InvalidArgumentServiceException(String.format(
+                        Locale.ROOT, "Invalid range '%s' in cron expression '%s'", part, expression));
+            }
+            for (int value = from; value <= to; value += step) {
+                values.set(value);
+            }
+        }
+        return values;
+    }
+
+    private int parseNumber(String number, int min, int max) {
+        try {
+            int value = Integer.parseInt(number);
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Handled below
+        }
+        throw new InvalidArgumentServiceException(String.format(
+                Locale.ROOT, "Invalid value '%s' in cron expression '%s'. Must be between %d and %d",
+                number, expression, min, max));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
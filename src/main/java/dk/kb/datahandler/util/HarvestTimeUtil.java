@@ -1,7 +1,6 @@
 package dk.kb.datahandler.util;
 
 import java.io.BufferedReader;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.Charset;
@@ -16,7 +15,6 @@ import java.time.format.DateTimeParseException;
 import java.util.Date;
 import java.util.Locale;
 
-import dk.kb.util.webservice.exception.InternalServiceException;
 import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
 
 import org.slf4j.Logger;
@@ -25,9 +23,17 @@ import org.slf4j.LoggerFactory;
 import dk.kb.datahandler.config.ServiceConfig;
 import dk.kb.datahandler.model.v1.OaiTargetDto;
 import dk.kb.datahandler.model.v1.OaiTargetDto.DateStampFormatEnum;
+import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.HarvestCheckpoint;
+import dk.kb.datahandler.storage.HarvestCheckpointStorage;
 
 /*
- * All access to this class is syncronized since we are using filesystem as persistence.
+ * The harvest position for each OAI target is stored as a {@link HarvestCheckpoint} in the jobs database. Each
+ * checkpoint is saved in its own transaction, so a target never has a partially written checkpoint, and different
+ * targets can be updated concurrently.
+ * 
+ * The timestamp files in the timestamp folder were used before the checkpoints. If a target has no checkpoint, the
+ * timestamp file for the target is read instead.
  * 
  *  HarvestTimeUtil methods are protected and called from unittest
  * 
@@ -39,28 +45,75 @@ public class HarvestTimeUtil {
     private static final Charset UTF8 = StandardCharsets.UTF_8;
     private static final String DAY_PATTERN = "yyyy-MM-dd";
 
-    public static synchronized String loadLastHarvestTime(OaiTargetDto oaiTarget) throws Exception {
-        String oaiTargetNameFile = getFileNameFromOaiTarget(oaiTarget);        
-        return loadLastHarvestTime(oaiTargetNameFile);        
+    public static String loadLastHarvestTime(OaiTargetDto oaiTarget) throws Exception {
+        return loadCheckpoint(oaiTarget).getDatestamp();
     }
 
-    public static synchronized void updateDatestampForOaiTarget(OaiTargetDto oaiTarget, String datestamp) {
-        //Hack to fix datestamp returned from Preservica. Format returned are not in OAI standard and is parsed wrong (downgrade to seconds) when given to preservica.
-        //Only preservica 6 does not, preservica 5 gives correct format.
-        if (datestamp.length() > 20) { // 2021-03-24T19:57:34.123Z -> 2021-03-24T19:57:34Z
-            datestamp=datestamp.substring(0,19) + "Z";
+    /**
+     * Load the checkpoint for the OAI target. If there is no checkpoint, the last harvest time is read from the
+     * timestamp file for the target.
+     * @return the checkpoint for the target. Never null.
+     */
+    public static HarvestCheckpoint loadCheckpoint(OaiTargetDto oaiTarget) throws Exception {
+        HarvestCheckpoint checkpoint = BasicStorage.performStorageAction(
+                "Get harvest checkpoint for " + oaiTarget.getName(), HarvestCheckpointStorage::new,
+                (HarvestCheckpointStorage storage) -> storage.getCheckpoint(oaiTarget.getName()));
+        if (checkpoint != null) {
+            log.info("OAI target: '{}' has checkpoint: {}", oaiTarget.getName(), checkpoint);
+            return checkpoint;
         }
-        else if(datestamp.length() == 10) {
-            datestamp = datestamp + "T00:00:00Z";
+        String lastHarvestTime = loadLastHarvestTime(getFileNameFromOaiTarget(oaiTarget));
+        return new HarvestCheckpoint(oaiTarget.getName(), lastHarvestTime, null, null, 0, null);
+    }
+
+    /**
+     * Find where a delta harvest of the OAI target should start. If the last harvest was stopped before it
+     * completed, it is continued from the page it stopped at. Else a new harvest is started from the datestamp of
+     * the last harvested record.
+     * @return the checkpoint to start the delta harvest from.
+     */
+    public static HarvestCheckpoint getDeltaStart(OaiTargetDto oaiTarget) throws Exception {
+        HarvestCheckpoint checkpoint = loadCheckpoint(oaiTarget);
+        if (checkpoint.isResumable()) {
+            log.info("Continuing stopped harvest of OAI target: '{}' from '{}' with resumptionToken '{}' after {} records",
+                    oaiTarget.getName(), checkpoint.getFrom(), checkpoint.getResumptionToken(),
+                    checkpoint.getNumberOfRecords());
+            return checkpoint;
         }
+        return HarvestCheckpoint.start(oaiTarget.getName(), generateFrom(oaiTarget, checkpoint.getDatestamp()));
+    }
 
+    /**
+     * Save the checkpoint for an OAI target after a page has been fully stored.
+     * @throws InvalidArgumentServiceException if the datestamp of the checkpoint is not valid.
+     */
+    public static void saveCheckpoint(HarvestCheckpoint checkpoint) {
+        String datestamp = normaliseDatestamp(checkpoint.getDatestamp());
         if (!validateOaiDateFormat(datestamp)) {
-            log.error("Datestamp not valid format: " + datestamp + " for Oai target: " + oaiTarget.getName());
+            log.error("Datestamp not valid format: " + datestamp + " for Oai target: " + checkpoint.getTarget());
             throw new InvalidArgumentServiceException("Datastamp not valid format:" + datestamp);
         }
 
-        String oaiTargetNameFile = getFileNameFromOaiTarget(oaiTarget);
-        updateDatestampForOaiTarget(oaiTargetNameFile, datestamp);        
+        HarvestCheckpoint normalised = new HarvestCheckpoint(checkpoint.getTarget(), datestamp, checkpoint.getFrom(),
+                checkpoint.getResumptionToken(), checkpoint.getNumberOfRecords(), checkpoint.getJobId());
+        BasicStorage.performStorageAction("Save harvest checkpoint for " + checkpoint.getTarget(),
+                HarvestCheckpointStorage::new, (HarvestCheckpointStorage storage) -> {
+                    storage.saveCheckpoint(normalised);
+                    return null;
+                });
+        log.debug("Saved checkpoint for oai target: {}", normalised);
+    }
+
+    private static String normaliseDatestamp(String datestamp) {
+        //Hack to fix datestamp returned from Preservica. Format returned are not in OAI standard and is parsed wrong (downgrade to seconds) when given to preservica.
+        //Only preservica 6 does not, preservica 5 gives correct format.
+        if (datestamp.length() > 20) { // 2021-03-24T19:57:34.123Z -> 2021-03-24T19:57:34Z
+            return datestamp.substring(0,19) + "Z";
+        }
+        else if(datestamp.length() == 10) {
+            return datestamp + "T00:00:00Z";
+        }
+        return datestamp;
     }
 
     /**
@@ -102,17 +155,6 @@ public class HarvestTimeUtil {
         }               
     }
 
-    protected static void updateDatestampForOaiTarget(String oaiTargetNameFile, String datestamp) {
-        try {
-            deleteFileAndWriteToFile(oaiTargetNameFile, datestamp);
-        } catch (IOException e) {
-            log.warn("Datahandler was unable to update datestamp '{}' for OAI target in file: '{}'.",
-                    datestamp, oaiTargetNameFile);
-            throw new InternalServiceException(e);
-        }
-        log.info("Updated last harvest datestamp for oai target: '{}' with datestamp: '{}'", oaiTargetNameFile, datestamp);
-    }
-
     protected static String getFileNameFromOaiTarget(OaiTargetDto oaiTarget) {        
         return ServiceConfig.getOaiTimestampFolder() + "/" + oaiTarget.getName() + ".txt";
     }
@@ -124,14 +166,6 @@ public class HarvestTimeUtil {
         return line;
     }
 
-    protected static void deleteFileAndWriteToFile(String fileName, String lastHarvestDate) throws IOException {        
-        Files.deleteIfExists(Paths.get(fileName));                
-        FileOutputStream outputStream = new FileOutputStream(fileName);
-        byte[] strToBytes = lastHarvestDate.getBytes(UTF8);
-        outputStream.write(strToBytes);
-        outputStream.close();                        
-    }
-
     /**
      * 
      * Validate UTC timestamp, format is strict and only seconds allowed
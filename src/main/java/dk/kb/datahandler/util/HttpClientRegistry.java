@@ -0,0 +1,272 @@
+package dk.kb.datahandler.util;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpJdkSolrClient;
+import org.apache.solr.common.util.NamedList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.storage.util.DsStorageClient;
+
+/**
+ * Shared HTTP clients for the upstream services. Creating a client for every request means a new connection, and for
+ * https a new TLS handshake, for every call as well as new selector threads. The clients here are created once per
+ * upstream and reused, so connections are kept alive and pooled by the client.
+ * <p>
+ * The clients use HTTP/2 where the server supports it, unless {@link ServiceConfig#isHttpClientsHttp2()} is false,
+ * and the timeouts from {@link ServiceConfig#getHttpClientsConnectTimeoutSeconds()} and
+ * {@link ServiceConfig#getHttpClientsRequestTimeoutSeconds()}.
+ * <p>
+ * Requests are counted per upstream with {@link UpstreamMetrics}: The number of requests, failures, requests in flight
+ * and the total time spent. Solr clients are measured automatically. Other requests must be sent with
+ * {@link #send(String, HttpRequest, HttpResponse.BodyHandler)} or measured with {@link UpstreamMetrics#start()} and
+ * {@link UpstreamMetrics#end(long, boolean)}.
+ */
+public class HttpClientRegistry {
+    private static final Logger log = LoggerFactory.getLogger(HttpClientRegistry.class);
+
+    public static final String OAI = "oai";
+    public static final String SOLR = "solr";
+    public static final String STORAGE = "storage";
+    public static final String FRAGMENTS = "fragments";
+
+    private static final Map<String, HttpClient> httpClients = new ConcurrentHashMap<>();
+    private static final Map<String, SolrClient> solrClients = new ConcurrentHashMap<>();
+    private static final Map<String, DsStorageClient> storageClients = new ConcurrentHashMap<>();
+    private static final Map<String, UpstreamMetrics> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * @param upstream the name of the upstream service, e.g. {@link #OAI}.
+     * @return the shared client for the upstream.
+     */
+    public static HttpClient getHttpClient(String upstream) {
+        return httpClients.computeIfAbsent(upstream, name -> {
+            log.info("Creating shared HTTP client for upstream '{}'", name);
+            getMetrics(name).clientsCreated.increment();
+            return HttpClient.newBuilder()
+                    .version(ServiceConfig.isHttpClientsHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(ServiceConfig.getHttpClientsConnectTimeoutSeconds()))
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .build();
+        });
+    }
+
+    /**
+     * @param uri the URI to request.
+     * @return a request builder with the configured request timeout.
+     */
+    public static HttpRequest.Builder newRequest(URI uri) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder().uri(uri);
+        if (ServiceConfig.getHttpClientsRequestTimeoutSeconds() > 0) {
+            builder.timeout(Duration.ofSeconds(ServiceConfig.getHttpClientsRequestTimeoutSeconds()));
+        }
+        return builder;
+    }
+
+    /**
+     * Send a request with the shared client for the upstream and count it in the metrics for the upstream. Responses
+     * with status 400 or above are counted as failures.
+     * @param upstream    the name of the upstream service.
+     * @param request     the request to send.
+     * @param bodyHandler handler for the response body.
+     * @return the response from the upstream.
+     */
+    public static <T> HttpResponse<T> send(String upstream, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        UpstreamMetrics upstreamMetrics = getMetrics(upstream);
+        long startNS = upstreamMetrics.start();
+        boolean success = false;
+        try {
+            HttpResponse<T> response = getHttpClient(upstream).send(request, bodyHandler);
+            success = response.statusCode() < 400;
+            return response;
+        } finally {
+            upstreamMetrics.end(startNS, success);
+        }
+    }
+
+    /**
+     * Get the shared solr client for a solr collection. The client must not be closed by the caller, but closing it
+     * is harmless, so it can be used in try-with-resources as a client created for the call.
+     * @param solrUrl URL to the solr collection.
+     * @return the shared client for the collection.
+     */
+    public static SolrClient getSolrClient(String solrUrl) {
+        return solrClients.computeIfAbsent(solrUrl, url -> {
+            log.info("Creating shared solr client for '{}'", url);
+            getMetrics(SOLR).clientsCreated.increment();
+            HttpJdkSolrClient.Builder builder = new HttpJdkSolrClient.Builder(url)
+                    .useHttp1_1(!ServiceConfig.isHttpClientsHttp2())
+                    .withConnectionTimeout(ServiceConfig.getHttpClientsConnectTimeoutSeconds(), TimeUnit.SECONDS);
+            if (ServiceConfig.getHttpClientsRequestTimeoutSeconds() > 0) {
+                builder.withRequestTimeout(ServiceConfig.getHttpClientsRequestTimeoutSeconds(), TimeUnit.SECONDS);
+            }
+            return new SharedSolrClient(builder.build(), getMetrics(SOLR));
+        });
+    }
+
+    /**
+     * @param dsStorageUrl URL to ds-storage.
+     * @return the shared ds-storage client for the URL.
+     */
+    public static DsStorageClient getDsStorageClient(String dsStorageUrl) {
+        return storageClients.computeIfAbsent(dsStorageUrl, url -> {
+            log.info("Creating shared ds-storage client for '{}'", url);
+            getMetrics(STORAGE).clientsCreated.increment();
+            return new DsStorageClient(url);
+        });
+    }
+
+    /**
+     * @param upstream the name of the upstream service.
+     * @return the metrics for the upstream. Created if no requests have been made to it yet.
+     */
+    public static UpstreamMetrics getMetrics(String upstream) {
+        return metrics.computeIfAbsent(upstream, name -> new UpstreamMetrics());
+    }
+
+    /**
+     * @return the metrics for all upstream services, sorted by name.
+     */
+    public static Map<String, UpstreamMetrics> getAllMetrics() {
+        return new TreeMap<>(metrics);
+    }
+
+    /**
+     * Close the shared clients. Called when the service is shut down. New clients are created if needed afterwards.
+     */
+    public static synchronized void close() {
+        log.info("Closing shared HTTP clients. Metrics: {}", getAllMetrics());
+        solrClients.values().forEach(client -> {
+            try {
+                ((SharedSolrClient) client).inner.close();
+            } catch (IOException e) {
+                log.warn("Unable to close solr client", e);
+            }
+        });
+        solrClients.clear();
+        storageClients.clear();
+        httpClients.clear();
+    }
+
+    /**
+     * Request counts for an upstream service.
+     */
+    public static class UpstreamMetrics {
+        private final LongAdder clientsCreated = new LongAdder();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder totalNS = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        /**
+         * Register the start of a request.
+         * @return the start time to give to {@link #end(long, boolean)}.
+         */
+        public long start() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Register the end of a request.
+         * @param startNS the value returned by {@link #start()}.
+         * @param success false if the request failed.
+         */
+        public void end(long startNS, boolean success) {
+            inFlight.decrementAndGet();
+            requests.increment();
+            totalNS.add(System.nanoTime() - startNS);
+            if (!success) {
+                failures.increment();
+            }
+        }
+
+        /**
+         * @return the number of clients that has been created for the upstream. More than 1 for solr and ds-storage
+         *         means more than one URL is used.
+         */
+        public long getClientsCreated() {
+            return clientsCreated.sum();
+        }
+
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return the total time spent on completed requests in milliseconds.
+         */
+        public long getTotalMillis() {
+            return totalNS.sum() / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            return "UpstreamMetrics{" +
+                    "clientsCreated=" + getClientsCreated() +
+                    ", requests=" + getRequests() +
+                    ", failures=" + getFailures() +
+                    ", inFlight=" + getInFlight() +
+                    ", totalMillis=" + getTotalMillis() +
+                    '}';
+        }
+    }
+
+    /**
+     * Delegates all requests to a shared solr client and measures them. Closing does nothing, so existing code that
+     * closes its solr client after use does not close the shared client.
+     */
+    private static class SharedSolrClient extends SolrClient {
+        private final SolrClient inner;
+        private final UpstreamMetrics upstreamMetrics;
+
+        SharedSolrClient(SolrClient inner, UpstreamMetrics upstreamMetrics) {
+            this.inner = inner;
+            this.upstreamMetrics = upstreamMetrics;
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest<?> request, String collection)
+                throws SolrServerException, IOException {
+            long startNS = upstreamMetrics.start();
+            boolean success = false;
+            try {
+                NamedList<Object> response = inner.request(request, collection);
+                success = true;
+                return response;
+            } finally {
+                upstreamMetrics.end(startNS, success);
+            }
+        }
+
+        @Override
+        public void close() {
+            // The client is shared and closed by HttpClientRegistry.close()
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package dk.kb.datahandler.util;
+
+import dk.kb.datahandler.model.v1.JobDto;
+import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.JobStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Progress of a running job: The number of records processed, the average number of records per second and the
+ * current position, which is the resumption token for OAI harvest, the mTime for solr index and kaltura upload and
+ * the latest file for transcriptions.
+ * <p>
+ * The progress is set on the {@link JobDto} for every update and stored in the jobs table at most every
+ * {@link #STORE_INTERVAL_MS} milliseconds, so it can be followed with /monitor/jobs/{id} without slowing down the job.
+ * A failure storing the progress is logged and does not stop the job.
+ * <p>
+ * A job that runs parts concurrently, like the ranges of a split OAI harvest, gives each part its own progress with
+ * {@link #part()}. The records of the parts are added up in the progress of the job.
+ */
+public class JobProgress {
+    private static final Logger log = LoggerFactory.getLogger(JobProgress.class);
+
+    /** Minimum time between storing progress in the jobs table. */
+    public static final long STORE_INTERVAL_MS = 5000;
+
+    private final JobDto jobDto;
+    private final long startNS;
+    private long lastStoredNS;
+    private final JobProgress parent;
+    private long partRecords = 0;
+    private long partsRecords = 0;
+
+    /**
+     * @param jobDto the running job. If null, progress is not tracked.
+     */
+    public JobProgress(JobDto jobDto) {
+        this(jobDto, null);
+    }
+
+    private JobProgress(JobDto jobDto, JobProgress parent) {
+        this.jobDto = jobDto;
+        this.parent = parent;
+        this.startNS = System.nanoTime();
+        this.lastStoredNS = startNS;
+    }
+
+    /**
+     * @return progress for a part of the job. The records given to the part are added to the records of the job.
+     */
+    public JobProgress part() {
+        return new JobProgress(null, this);
+    }
+
+    /**
+     * @return progress for work that is not a job. Updates are ignored.
+     */
+    public static JobProgress untracked() {
+        return new JobProgress(null);
+    }
+
+    /**
+     * Update the progress of the job.
+     * @param records  the total number of records processed by the job so far.
+     * @param position the current position of the job. Can be null.
+     */
+    public synchronized void update(long records, String position) {
+        if (parent != null) {
+            parent.addPart(records - partRecords, position);
+            partRecords = records;
+            return;
+        }
+        if (jobDto == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        jobDto.setNumberOfRecords((int) Math.min(records, Integer.MAX_VALUE));
+        jobDto.setRecordsPerSecond(records * 1_000_000_000.0 / Math.max(1, now - startNS));
+        jobDto.setCurrentPosition(position);
+
+        if (now - lastStoredNS < STORE_INTERVAL_MS * 1_000_000) {
+            return;
+        }
+        lastStoredNS = now;
+        try {
+            BasicStorage.performStorageAction("Update progress for job " + jobDto.getId(), JobStorage::new,
+                    (JobStorage storage) -> storage.updateJobProgress(jobDto));
+        } catch (Exception e) {
+            log.warn("Unable to store progress for job '{}'. The job continues", jobDto.getId(), e);
+        }
+    }
+
+    private synchronized void addPart(long records, String position) {
+        partsRecords += records;
+        update(partsRecords, position);
+    }
+}
@@ -0,0 +1,305 @@
+package dk.kb.datahandler.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counters, latency histograms and gauges for the hot paths of harvest, index and upload, exposed in the Prometheus
+ * text format by {@link #toPrometheus()} at {@code /monitor/metrics}.
+ * <p>
+ * Metrics are created once, typically in a static field, and updated with {@link LongAdder}s, so updating a metric
+ * from many threads is cheap and never blocks. Metrics with a label are looked up in a map on each call, so they
+ * should only be used once per page or batch, not once per record.
+ * <p>
+ * The request counts for the upstream services from {@link HttpClientRegistry#getAllMetrics()} are included in the
+ * output.
+ */
+public class Metrics {
+
+    public static final String PREFIX = "ds_datahandler_";
+
+    /** Upper bounds of the histogram buckets in seconds. */
+    static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+    /**
+     * @param name the name of the counter without {@link #PREFIX}. Should end with {@code _total}.
+     * @param help the description of the counter.
+     * @return the counter. The same counter is returned for the same name.
+     */
+    public static Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    /**
+     * @param name       the name of the counter without {@link #PREFIX}. Should end with {@code _total}.
+     * @param help       the description of the counter.
+     * @param labelName  the name of the label.
+     * @param labelValue the value of the label for the returned counter.
+     * @return the counter for the label value.
+     */
+    public static Counter counter(String name, String help, String labelName, String labelValue) {
+        return (Counter) getFamily(name, help, "counter").get(labelName, labelValue, Counter::new);
+    }
+
+    /**
+     * @param name the name of the histogram without {@link #PREFIX}. Should end with {@code _seconds}.
+     * @param help the description of the histogram.
+     * @return the histogram. The same histogram is returned for the same name.
+     */
+    public static Histogram histogram(String name, String help) {
+        return histogram(name, help, null, null);
+    }
+
+    /**
+     * @param name       the name of the histogram without {@link #PREFIX}. Should end with {@code _seconds}.
+     * @param help       the description of the histogram.
+     * @param labelName  the name of the label.
+     * @param labelValue the value of the label for the returned histogram.
+     * @return the histogram for the label value.
+     */
+    public static Histogram histogram(String name, String help, String labelName, String labelValue) {
+        return (Histogram) getFamily(name, help, "histogram").get(labelName, labelValue, Histogram::new);
+    }
+
+    /**
+     * Register a gauge that is read when the metrics are written. Registering a gauge with an existing name replaces
+     * the value of the existing gauge.
+     * @param name  the name of the gauge without {@link #PREFIX}.
+     * @param help  the description of the gauge.
+     * @param value gives the current value of the gauge.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        getFamily(name, help, "gauge").children.put("", new Gauge(value));
+    }
+
+    /**
+     * Look up an existing histogram without creating it, e.g. for reporting the time spent in a stage.
+     * @param name       the name of the histogram without {@link #PREFIX}.
+     * @param labelName  the name of the label or null for a histogram without labels.
+     * @param labelValue the value of the label.
+     * @return the histogram or null if it has not been created.
+     */
+    public static Histogram findHistogram(String name, String labelName, String labelValue) {
+        Family family = families.get(name);
+        if (family == null) {
+            return null;
+        }
+        Object child = family.children.get(labelName == null ? "" : label(labelName, labelValue));
+        return child instanceof Histogram ? (Histogram) child : null;
+    }
+
+    private static Family getFamily(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(
+                    "Metric '" + name + "' is a " + family.type + " and can not be used as a " + type);
+        }
+        return family;
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format, sorted by name.
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        families.forEach((name, family) -> family.write(PREFIX + name, sb));
+        writeUpstreamMetrics(sb);
+        return sb.toString();
+    }
+
+    private static void writeUpstreamMetrics(StringBuilder sb) {
+        Map<String, HttpClientRegistry.UpstreamMetrics> upstreams = HttpClientRegistry.getAllMetrics();
+        if (upstreams.isEmpty()) {
+            return;
+        }
+        writeUpstream(sb, upstreams, "upstream_requests_total", "counter",
+                "Requests to upstream services", metrics -> metrics.getRequests());
+        writeUpstream(sb, upstreams, "upstream_failures_total", "counter",
+                "Failed requests to upstream services", metrics -> metrics.getFailures());
+        writeUpstream(sb, upstreams, "upstream_in_flight", "gauge",
+                "Requests to upstream services that have not completed", metrics -> metrics.getInFlight());
+        writeUpstream(sb, upstreams, "upstream_seconds_total", "counter",
+                "Time spent on completed requests to upstream services",
+                metrics -> metrics.getTotalMillis() / 1000.0);
+    }
+
+    private static void writeUpstream(StringBuilder sb, Map<String, HttpClientRegistry.UpstreamMetrics> upstreams,
+                                      String name, String type, String help,
+                                      ToDoubleFunction<HttpClientRegistry.UpstreamMetrics> value) {
+        writeHeader(sb, PREFIX + name, help, type);
+        upstreams.forEach((upstream, metrics) ->
+                writeSample(sb, PREFIX + name, label("upstream", upstream), value.applyAsDouble(metrics)));
+    }
+
+    private static void writeHeader(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n"))
+                .append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(formatValue(value)).append('\n');
+    }
+
+    private static String formatValue(double value) {
+        if (value == Double.POSITIVE_INFINITY) {
+            return "+Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String label(String name, String value) {
+        return name + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /**
+     * All metrics with the same name. Each label value has its own child.
+     */
+    private static class Family {
+        final String help;
+        final String type;
+        /** Key is the formatted label or the empty string for a metric without labels. */
+        final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        Object get(String labelName, String labelValue, Supplier<Object> creator) {
+            String labels = labelName == null ? "" : label(labelName, labelValue);
+            return children.computeIfAbsent(labels, key -> creator.get());
+        }
+
+        void write(String name, StringBuilder sb) {
+            writeHeader(sb, name, help, type);
+            new ConcurrentSkipListMap<>(children).forEach((labels, child) -> {
+                if (child instanceof Histogram) {
+                    ((Histogram) child).write(name, labels, sb);
+                } else if (child instanceof Counter) {
+                    writeSample(sb, name, labels, ((Counter) child).get());
+                } else {
+                    writeSample(sb, name, labels, ((Gauge) child).value.getAsDouble());
+                }
+            });
+        }
+    }
+
+    /**
+     * A value that only increases.
+     */
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long delta) {
+            count.add(delta);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Durations counted in buckets by {@link Metrics#BUCKETS}, with the number and the sum of all durations.
+     */
+    public static class Histogram {
+        private static final long[] BUCKETS_NS = new long[BUCKETS.length];
+        static {
+            for (int i = 0; i < BUCKETS.length; i++) {
+                BUCKETS_NS[i] = (long) (BUCKETS[i] * 1_000_000_000L);
+            }
+        }
+
+        /** Not cumulative. The last bucket is for durations above the largest bound. */
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNS = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * @return the start time to give to {@link #end(long)}.
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Observe the duration since the start.
+         * @param startNS the value returned by {@link #start()}.
+         */
+        public void end(long startNS) {
+            observeNanos(System.nanoTime() - startNS);
+        }
+
+        /**
+         * @param durationNS a duration in nanoseconds.
+         */
+        public void observeNanos(long durationNS) {
+            int bucket = 0;
+            while (bucket < BUCKETS_NS.length && durationNS > BUCKETS_NS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sumNS.add(durationNS);
+        }
+
+        /**
+         * @return the number of observed durations.
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * @return the sum of all observed durations in seconds.
+         */
+        public double getSumSeconds() {
+            return sumNS.sum() / 1_000_000_000.0;
+        }
+
+        void write(String name, String labels, StringBuilder sb) {
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                double bound = i < BUCKETS.length ? BUCKETS[i] : Double.POSITIVE_INFINITY;
+                writeSample(sb, name + "_bucket", prefix + label("le", formatValue(bound)), cumulative);
+            }
+            writeSample(sb, name + "_sum", labels, getSumSeconds());
+            writeSample(sb, name + "_count", labels, getCount());
+        }
+    }
+
+    private static class Gauge {
+        final DoubleSupplier value;
+
+        Gauge(DoubleSupplier value) {
+            this.value = value;
+        }
+    }
+}
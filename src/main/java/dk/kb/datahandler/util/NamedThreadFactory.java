@@ -0,0 +1,27 @@
+package dk.kb.datahandler.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named from a prefix and a counter, e.g. {@code storage-poster-1}, so the threads of a pool
+ * can be found in thread dumps and never keep the JVM from stopping.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger threadCount = new AtomicInteger(0);
+
+    /**
+     * @param prefix the start of the thread names. The number of the thread is appended.
+     */
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,40 @@
+package dk.kb.datahandler.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests to a remote service by enforcing a minimum interval between the start of requests.
+ * Callers of {@link #acquire()} wait until the next request is allowed. Thread safe.
+ */
+public class RequestRateLimiter {
+    private final long intervalNS;
+    private long nextAllowedNS;
+
+    /**
+     * @param maxRequestsPerMinute the maximum number of requests per minute. 0 or less means no limit.
+     */
+    public RequestRateLimiter(int maxRequestsPerMinute) {
+        this.intervalNS = maxRequestsPerMinute <= 0 ? 0 : TimeUnit.MINUTES.toNanos(1) / maxRequestsPerMinute;
+        this.nextAllowedNS = System.nanoTime();
+    }
+
+    /**
+     * Wait until a request is allowed.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        if (intervalNS == 0) {
+            return;
+        }
+        long waitNS;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long allowedNS = Math.max(now, nextAllowedNS);
+            nextAllowedNS = allowedNS + intervalNS;
+            waitNS = allowedNS - now;
+        }
+        if (waitNS > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNS);
+        }
+    }
+}
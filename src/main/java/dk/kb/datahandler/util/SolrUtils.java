@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import dk.kb.datahandler.config.ServiceConfig;
 import dk.kb.datahandler.model.v1.TypeDto;
+import dk.kb.datahandler.solr.SolrBatchPrefetcher;
+import dk.kb.datahandler.solr.SolrCommitPolicy;
 import dk.kb.datahandler.solr.SolrIndexResponse;
 import dk.kb.datahandler.solr.SolrResponseHeader;
 import dk.kb.present.model.v1.FormatDto;
@@ -15,7 +17,6 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.HttpJdkSolrClient;
 import org.apache.solr.client.solrj.response.QueryResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,11 +26,27 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 
 public class SolrUtils {
     private static final Logger log = LoggerFactory.getLogger(SolrUtils.class);
 
+    private static final Metrics.Histogram updateTime = Metrics.histogram("solr_update_seconds",
+            "Time to post a batch of documents from ds-present to solr, including streaming them from ds-present");
+    private static final Metrics.Histogram commitTime = Metrics.histogram("solr_commit_seconds",
+            "Time for hard commits to solr");
+    private static final Metrics.Counter presentBytes = Metrics.counter("present_stream_bytes_total",
+            "Bytes of solr documents streamed from ds-present to solr");
+
     /**
      * Get the latest MTime for records in the backing storage represented in the existing solr index
      * for the requested origin.
@@ -41,7 +58,7 @@ public class SolrUtils {
         String solrQueryUrl = ServiceConfig.getSolrQueryUrl();
         String storageMTime;
         QueryResponse response;
-        try (SolrClient solrClient = new HttpJdkSolrClient.Builder(solrQueryUrl).build()) {
+        try (SolrClient solrClient = HttpClientRegistry.getSolrClient(solrQueryUrl)) {
 
             storageMTime = "internal_storage_mTime";
 
@@ -77,80 +94,288 @@ public class SolrUtils {
      * @return          A status on how many records have been indexed.
      */
     public static SolrIndexResponse indexOrigin(String origin, Long sinceTime) {
+        return indexOrigin(origin, sinceTime, JobProgress.untracked());
+    }
+
+    /**
+     * Index documents from a given origin into the configured solr index.
+     * @param origin    where the records come from. Has to be registered with DS-Storage
+     * @param sinceTime A long representation of time since epoch.
+     * @param progress  updated after each batch with the number of indexed records and the mTime to continue from.
+     * @return          A status on how many records have been indexed.
+     */
+    public static SolrIndexResponse indexOrigin(String origin, Long sinceTime, JobProgress progress) {
         //DS-present client
         DsPresentClient presentClient = new DsPresentClient(ServiceConfig.getDsPresentUrl());
+        SolrCommitPolicy commitPolicy = SolrCommitPolicy.fromConfig();
         // Solr update client
-        URL solrUpdateUrl;
-                
-        try {
-            solrUpdateUrl = new URIBuilder(ServiceConfig.getSolrUpdateUrl())
-                    .setParameter("commit", "true")
-                    .build().toURL();
-        } catch (MalformedURLException | URISyntaxException e) {
-            log.warn("Update URL for solr could not be constructed. Tried to build URL from '{}'.", ServiceConfig.getSolrUpdateUrl());
-            throw new InternalServiceException(e);
+        URL solrUpdateUrl = createUpdateUrl(commitPolicy);
+
+        SolrIndexResponse finalResponse = new SolrIndexResponse();
+        log.info("Starting indexing of records with sinceTime: '{}' from origin: '{}' with {}",
+                sinceTime, origin, commitPolicy);
+
+        AtomicLong documents = new AtomicLong();
+        Long lastMTime = indexRange(presentClient, solrUpdateUrl, commitPolicy, origin, sinceTime, null,
+                finalResponse, documents, null, mTime -> progress.update(documents.get(), String.valueOf(mTime)));
+        if (commitPolicy.commitAtEnd()) {
+            commit(finalResponse);
         }
 
-        boolean hasMore=true;
-        long batchSize= ServiceConfig.getSolrBatchSize();
+        log.info("Solr index completed for origin: '{}', mTime: {}, #docs: {}",
+                origin, lastMTime, documents.get());
+        
+        buildSuggestIndexIfIndexed(finalResponse);
+        return finalResponse;
+    }
+
+    /**
+     * Index all documents from a given origin into the configured solr index, using {@code partitions} parallel
+     * streams from ds-present. The mTime span of the origin is split into equally sized ranges, from the mTime of the
+     * first record to the latest mTime in solr or the current time if solr has no newer records. The last range has
+     * no upper limit, so records that are newer than the estimate are also indexed.
+     * <p>
+     * Commits are made as defined by {@link SolrCommitPolicy#fromConfig()}, shared between all ranges.
+     * The ranges are only balanced if the mTimes are evenly distributed. A range holds the records with mTime after its
+     * start and up to and including the start of the following range. As ds-present has no upper limit for mTime, the
+     * last batch of a range is trimmed to the range by {@link SolrBatchPrefetcher}, so each record is indexed once.
+     * @param origin     where the records come from. Has to be registered with DS-Storage
+     * @param partitions the number of mTime ranges to index in parallel.
+     * @param progress   updated after each batch with the total number of indexed records.
+     * @return           A status on how many records have been indexed, with the progress of each range.
+     */
+    public static SolrIndexResponse indexOriginPartitioned(String origin, int partitions, JobProgress progress) {
+        DsPresentClient presentClient = new DsPresentClient(ServiceConfig.getDsPresentUrl());
+        List<Long> rangeStarts = getPartitionStarts(presentClient, origin, partitions);
+        if (rangeStarts.size() < 2) {
+            log.info("The mTimes for origin '{}' could not be split into {} ranges. Indexing sequentially",
+                    origin, partitions);
+            return indexOrigin(origin, 0L, progress);
+        }
+        SolrCommitPolicy commitPolicy = SolrCommitPolicy.fromConfig();
+        URL solrUpdateUrl = createUpdateUrl(commitPolicy);
 
-        Long documents = 0L;
-        String solrResponse;
         SolrIndexResponse finalResponse = new SolrIndexResponse();
-        log.info("Starting indexing of records with sinceTime: '{}' from origin: '{}'", sinceTime, origin);
+        finalResponse.setAllDocumentsIndexed(0L);
+        for (int i = 0; i < rangeStarts.size(); i++) {
+            Long mTimeTo = i + 1 < rangeStarts.size() ? rangeStarts.get(i + 1) : null;
+            finalResponse.addPartition(new SolrIndexResponse.Partition(i, rangeStarts.get(i), mTimeTo));
+        }
+        log.info("Starting indexing of records from origin: '{}' in {} parallel mTime ranges starting at {}",
+                origin, rangeStarts.size(), rangeStarts);
+
+        AtomicLong documents = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(rangeStarts.size(), new NamedThreadFactory("solr-index-" + origin + "-"));
+        try {
+            List<Future<Long>> futures = new ArrayList<>();
+            for (SolrIndexResponse.Partition partition : finalResponse.getPartitions()) {
+                futures.add(executor.submit(() -> indexRange(
+                        presentClient, solrUpdateUrl, commitPolicy, origin, partition.getmTimeFrom(), partition.getmTimeTo(),
+                        finalResponse, documents, partition,
+                        mTime -> progress.update(documents.get(), finalResponse.getCompletedPartitions() + "/" +
+                                finalResponse.getPartitions().size() + " partitions completed"))));
+            }
+            for (Future<Long> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            log.warn("Indexing of origin '{}' failed. Stopping indexing of all ranges without final commit", origin);
+            throw e.getCause() instanceof InternalServiceException ?
+                    (InternalServiceException) e.getCause() :
+                    new InternalServiceException("Exception indexing origin '" + origin + "'", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServiceException("Interrupted while indexing origin '" + origin + "'", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if (commitPolicy.commitAtEnd()) {
+            commit(finalResponse);
+        }
+        log.info("Solr index completed for origin: '{}' in {} parallel mTime ranges, #docs: {}",
+                origin, rangeStarts.size(), documents.get());
+
+        buildSuggestIndexIfIndexed(finalResponse);
+        return finalResponse;
+    }
 
+    /**
+     * Index the records from ds-present with mTime after {@code sinceTime}, batch by batch, until there are no more
+     * records or the continuation token reaches {@code mTimeTo}. Records after {@code mTimeTo} are not indexed. Hard commits during the run are made as requested by
+     * {@code commitPolicy}.
+     * <p>
+     * The next batches are fetched from ds-present while the current batch is indexed, as configured by
+     * {@link ServiceConfig#getSolrPrefetchBatches()}.
+     * @param documents  total number of documents indexed. Shared between parallel ranges.
+     * @param partition  progress for this range. Null if the full origin is indexed in a single range.
+     * @param afterBatch called after each batch with the mTime to continue from.
+     * @return the mTime of the last record indexed.
+     */
+    private static Long indexRange(DsPresentClient presentClient, URL solrUpdateUrl, SolrCommitPolicy commitPolicy,
+                                   String origin, Long sinceTime, Long mTimeTo, SolrIndexResponse finalResponse, AtomicLong documents,
+                                   SolrIndexResponse.Partition partition, LongConsumer afterBatch) {
+        long batchSize= ServiceConfig.getSolrBatchSize();
+        String solrResponse;
         AtomicLong bytesCounter = new AtomicLong();
-        
-        while (hasMore) {
-            try (ContinuationInputStream<Long> solrDocsStream =
-                         presentClient.getRecordsJSON(origin, sinceTime,batchSize, FormatDto.SOLRJSON)) {
-                log.info("Indexing {} records from DS-storage origin '{}' to solr. '{}' records have been indexed through this request.",
-                        solrDocsStream.getRecordCount(), origin, documents);
-
-                //POST request to Solr using the inputstream
-                try {
-                    HttpURLConnection solrServerConnection = (HttpURLConnection) solrUpdateUrl.openConnection();
-                    solrResponse = HttpPostUtil.callPostWithBytesCounter(solrServerConnection, solrDocsStream , "application/json", bytesCounter);
-
-                    if (bytesCounter.get() < 1000L * ServiceConfig.getSolrBatchSize()) {
-                        // Solr records contain approx. 1800 bytes, and they are probably only growing in size.
-                        // The tiniest I've seen is an average of 1500 bytes measured over 500 record.
-                        log.warn("The posted stream contained less than a thousand bytes pr record. " +
-                                    "Records could be missing data.");
+
+        try (SolrBatchPrefetcher prefetcher = new SolrBatchPrefetcher(
+                mTime -> presentClient.getRecordsJSON(origin, mTime, batchSize, FormatDto.SOLRJSON),
+                sinceTime, mTimeTo, ServiceConfig.getSolrPrefetchBatches(), ServiceConfig.isSolrSpoolToFile(),
+                origin + "-" + sinceTime)) {
+            boolean hasMore=true;
+            while (hasMore) {
+                try (SolrBatchPrefetcher.Batch batch = prefetcher.next()) {
+                    log.info("Indexing {} records from DS-storage origin '{}' to solr. '{}' records have been indexed through this request.",
+                            batch.getRecordCount(), origin, documents.get());
+
+                    //POST request to Solr using the inputstream
+                    try {
+                        long startNS = updateTime.start();
+                        HttpURLConnection solrServerConnection = (HttpURLConnection) solrUpdateUrl.openConnection();
+                        solrResponse = HttpPostUtil.callPostWithBytesCounter(solrServerConnection, batch.getStream(), "application/json", bytesCounter);
+                        updateTime.end(startNS);
+                        presentBytes.add(bytesCounter.get());
+
+                        if (bytesCounter.get() < 1000L * ServiceConfig.getSolrBatchSize()) {
+                            // Solr records contain approx. 1800 bytes, and they are probably only growing in size.
+                            // The tiniest I've seen is an average of 1500 bytes measured over 500 record.
+                            log.warn("The posted stream contained less than a thousand bytes pr record. " +
+                                        "Records could be missing data.");
+                        }
+
+                        if (!solrResponse.contains("\"status\":0")) {
+                            log.error("Unexpected reply from solr: '" + solrResponse + "'"); //Example: {  "responseHeader":{    "rf":1,    "status":0,    "QTime":1348}}
+                            throw new IOException ("Unexpected status from solr: '" + solrResponse + "'");
+                        }
+                    } catch (IOException e) {
+                        log.warn("An error occurred when posting the records to Solr at: '{}'", solrUpdateUrl);
+                        throw new InternalServiceException(e);
                     }
 
-                    if (!solrResponse.contains("\"status\":0")) {
-                        log.error("Unexpected reply from solr: '" + solrResponse + "'"); //Example: {  "responseHeader":{    "rf":1,    "status":0,    "QTime":1348}}
-                        throw new IOException ("Unexpected status from solr: '" + solrResponse + "'");
+                    long batchRecords = batch.getRecordCount() == null ? 0 : batch.getRecordCount();
+                    if (batch.getRecordCount() != null) {
+                        log.info("indexed #records="+batch.getRecordCount());
                     }
-                } catch (IOException e) {
-                    log.warn("An error occurred when posting the records to Solr at: '{}'", solrUpdateUrl);
-                    throw new InternalServiceException(e);
-                }
 
-                if (solrDocsStream.getRecordCount() != null) {
-                    documents += solrDocsStream.getRecordCount();
-                    log.info("indexed #records="+solrDocsStream.getRecordCount());
+                    // The batches are delivered in order, so all records up to the token has been indexed
+                    if (batch.getContinuationToken() != null) {
+                        sinceTime=batch.getContinuationToken(); //Next batch start from here.
+                    }
+
+                    hasMore = !batch.isLast();
+
+                    synchronized (finalResponse) {
+                        updateFinalResponse(solrResponse, finalResponse, documents.addAndGet(batchRecords));
+                        if (partition != null) {
+                            partition.update(batchRecords, sinceTime, !hasMore);
+                        }
+                    }
+                    if (commitPolicy.shouldCommit(batchRecords)) {
+                        commit(finalResponse);
+                    }
+                    afterBatch.accept(sinceTime);
                 }
+            }
+        } catch (IOException e) {
+            log.warn("An error occurred when streaming records from DsPresent. DsPresentClient.getRecordsJSON() " +
+                    "was called with the following params: origin='{}', mTime after '{}', maxRecords='{}', format='{}'",
+                    origin, sinceTime, batchSize, FormatDto.SOLRJSON);
+            throw new InternalServiceException(e);
+        }
+        return sinceTime;
+    }
 
-                updateFinalResponse(solrResponse, finalResponse, documents);
-
-                hasMore=solrDocsStream.hasMore();        
-                if (hasMore) {                    
-                    sinceTime=solrDocsStream.getContinuationToken(); //Next batch start from here.
-                } 
-                
-            } catch (IOException e) {
-                log.warn("An error occurred when streaming records from DsPresent. DsPresentClient.getRecordsJSON() " +
-                        "was called with the following params: origin='{}', mTime='{}', maxRecords='{}', format='{}'",
-                        origin, sinceTime, batchSize, FormatDto.SOLRJSON);
-                throw new InternalServiceException(e);
+    /**
+     * Find the start of the mTime ranges for a partitioned index. The first range starts at 0, the rest are evenly
+     * spaced between the mTime of the first record for the origin and the latest mTime in solr.
+     * @return the start of each range. Less than 2 if the origin could not be split.
+     */
+    private static List<Long> getPartitionStarts(DsPresentClient presentClient, String origin, int partitions) {
+        long firstMTime;
+        try (ContinuationInputStream<Long> probe = presentClient.getRecordsJSON(origin, 0L, 1L, FormatDto.SOLRJSON)) {
+            if (probe.getContinuationToken() == null || probe.getRecordCount() == null || probe.getRecordCount() == 0) {
+                return List.of(0L);
             }
+            firstMTime = probe.getContinuationToken();
+        } catch (IOException e) {
+            log.warn("Unable to get the first record for origin '{}' from DsPresent", origin);
+            throw new InternalServiceException(e);
         }
-        log.info("Solr index completed for origin: '{}', mTime: {}, #docs: {}",
-                origin, sinceTime, documents);
-        
-        //Build suggest only if there was any new documents.
+
+        long lastMTime;
+        try {
+            lastMTime = getLatestMTimeForOrigin(origin);
+        } catch (SolrServerException | IOException | InternalServiceException e) {
+            log.warn("Unable to get the latest mTime for origin '{}' from solr. Using the current time", origin, e);
+            lastMTime = 0;
+        }
+        if (lastMTime <= firstMTime) {
+            lastMTime = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+        }
+
+        List<Long> starts = splitMTimeRange(firstMTime, lastMTime, partitions);
+        starts.set(0, 0L); // The first record has mTime firstMTime, so the first range must start before it
+        return starts;
+    }
+
+    /**
+     * Split the mTimes from {@code from} to {@code to} into {@code partitions} equally sized ranges.
+     * @return the start of each range, starting with {@code from}. If the span is too small to be split, only
+     *         {@code from} is returned.
+     */
+    static List<Long> splitMTimeRange(long from, long to, int partitions) {
+        List<Long> starts = new ArrayList<>();
+        starts.add(from);
+        long step = partitions > 1 && to > from ? (to - from) / partitions : 0;
+        if (step == 0) {
+            return starts;
+        }
+        for (int i = 1; i < partitions; i++) {
+            starts.add(from + step * i);
+        }
+        return starts;
+    }
+
+    /**
+     * @param commitPolicy adds the commit parameters for each update.
+     * @return the URL for posting updates to solr.
+     */
+    private static URL createUpdateUrl(SolrCommitPolicy commitPolicy) {
+        try {
+            URIBuilder builder = new URIBuilder(ServiceConfig.getSolrUpdateUrl());
+            commitPolicy.addUpdateParameters(builder);
+            return builder.build().toURL();
+        } catch (MalformedURLException | URISyntaxException e) {
+            log.warn("Update URL for solr could not be constructed. Tried to build URL from '{}'.", ServiceConfig.getSolrUpdateUrl());
+            throw new InternalServiceException(e);
+        }
+    }
+
+    /**
+     * Send a hard commit to the solr write collection.
+     * @param finalResponse the time spent on the commit is added to this.
+     */
+    private static void commit(SolrIndexResponse finalResponse) {
+        String solrUrl = ServiceConfig.getSolrWriteCollectionUrl();
+        try (SolrClient solrClient = HttpClientRegistry.getSolrClient(solrUrl)) {
+            log.info("Committing to solr collection '{}'", solrUrl);
+            long startNS = System.nanoTime();
+            solrClient.commit();
+            commitTime.end(startNS);
+            long commitMS = (System.nanoTime() - startNS) / 1_000_000;
+            finalResponse.addCommit(commitMS);
+            log.info("Committed to solr collection '{}' in {} ms", solrUrl, commitMS);
+        } catch (IOException | SolrServerException e) {
+            log.warn("An error occurred when committing to solr at '{}'", solrUrl);
+            throw new InternalServiceException(e);
+        }
+    }
+
+    /**
+     * Build suggest only if there was any new documents.
+     */
+    private static void buildSuggestIndexIfIndexed(SolrIndexResponse finalResponse) {
         if (finalResponse.getAllDocumentsIndexed() >0) {        
            try {
             log.info("Start building solr suggest index because at least 1 documents was indexed. #=:"+finalResponse.getAllDocumentsIndexed());     
@@ -162,7 +387,6 @@ public class SolrUtils {
              throw new InternalServiceException(e);
            }
         }                
-        return finalResponse;
     }
 
 
@@ -220,7 +444,7 @@ public class SolrUtils {
      */
     public static QueryResponse buildSuggestIndex() throws SolrServerException, IOException {
         String solrUrl = ServiceConfig.getSolrWriteCollectionUrl();
-        try (SolrClient solrClient = new HttpJdkSolrClient.Builder(solrUrl).build()) {
+        try (SolrClient solrClient = HttpClientRegistry.getSolrClient(solrUrl)) {
 
             // Perform a query at suggest handler
             SolrQuery query = new SolrQuery();
@@ -232,5 +456,4 @@ public class SolrUtils {
             return solrClient.query(query);
         }
     }
-
 }
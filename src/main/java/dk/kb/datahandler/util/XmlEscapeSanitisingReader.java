@@ -0,0 +1,147 @@
+package dk.kb.datahandler.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming counterpart to {@link dk.kb.util.xml.XMLEscapeSanitiser}. Numeric character references that points to
+ * characters which are not allowed in XML 1.0 (e.g. {@code &#0;}, {@code &#x1B;} or {@code &#xFFFF;}) are removed
+ * while the XML is read, so the full document never has to be held in memory as a String.
+ * <p>
+ * Valid character references, entity references and all other content is delivered unchanged.
+ */
+public class XmlEscapeSanitisingReader extends Reader {
+    /** Longest escape that is inspected: {@code &#x0010FFFF;}. Longer candidates are passed on unchanged. */
+    static final int MAX_ESCAPE_LENGTH = 12;
+
+    private final Reader in;
+    private final char[] raw;
+    private int rawLength = 0;  // Number of chars in raw. A partial escape from last read can be at the start
+    private final char[] sanitised;
+    private int sanitisedPos = 0;
+    private int sanitisedLength = 0;
+    private boolean eof = false;
+
+    /**
+     * @param in the XML to sanitise.
+     */
+    public XmlEscapeSanitisingReader(Reader in) {
+        this(in, 8192);
+    }
+
+    XmlEscapeSanitisingReader(Reader in, int bufferSize) {
+        this.in = in;
+        this.raw = new char[Math.max(bufferSize, MAX_ESCAPE_LENGTH) + MAX_ESCAPE_LENGTH];
+        this.sanitised = new char[raw.length];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (sanitisedPos == sanitisedLength) {
+            if (eof && rawLength == 0) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, sanitisedLength - sanitisedPos);
+        System.arraycopy(sanitised, sanitisedPos, cbuf, off, count);
+        sanitisedPos += count;
+        return count;
+    }
+
+    /**
+     * Read more raw content and sanitise it. An escape that is split between two reads is kept in {@code raw} until
+     * the rest of it has been read.
+     */
+    private void fill() throws IOException {
+        if (!eof) {
+            int read = in.read(raw, rawLength, raw.length - rawLength);
+            if (read == -1) {
+                eof = true;
+            } else {
+                rawLength += read;
+            }
+        }
+
+        sanitisedPos = 0;
+        sanitisedLength = 0;
+        int pos = 0;
+        while (pos < rawLength) {
+            char c = raw[pos];
+            if (c != '&') {
+                sanitised[sanitisedLength++] = c;
+                pos++;
+                continue;
+            }
+            int semicolon = -1;
+            for (int i = pos + 1; i < rawLength && i < pos + MAX_ESCAPE_LENGTH; i++) {
+                if (raw[i] == ';') {
+                    semicolon = i;
+                    break;
+                }
+            }
+            if (semicolon == -1 && !eof && rawLength - pos < MAX_ESCAPE_LENGTH) {
+                break; // Possibly a split escape. Wait for more content
+            }
+            if (semicolon != -1 && isInvalidCharacterReference(raw, pos, semicolon)) {
+                pos = semicolon + 1; // Skip the full escape
+                continue;
+            }
+            sanitised[sanitisedLength++] = c;
+            pos++;
+        }
+        // Move the unprocessed tail to the start of the buffer
+        System.arraycopy(raw, pos, raw, 0, rawLength - pos);
+        rawLength -= pos;
+    }
+
+    /**
+     * @param chars     buffer with XML.
+     * @param ampersand the position of {@code &}.
+     * @param semicolon the position of the terminating {@code ;}.
+     * @return true if the chars from {@code ampersand} to {@code semicolon} is a numeric character reference to a
+     *         character that is not allowed in XML 1.0.
+     */
+    static boolean isInvalidCharacterReference(char[] chars, int ampersand, int semicolon) {
+        if (semicolon - ampersand < 3 || chars[ampersand + 1] != '#') {
+            return false;
+        }
+        int start = ampersand + 2;
+        int radix = 10;
+        if (chars[start] == 'x' || chars[start] == 'X') {
+            radix = 16;
+            start++;
+        }
+        if (start == semicolon) {
+            return false;
+        }
+        long codePoint = 0;
+        for (int i = start; i < semicolon; i++) {
+            int digit = Character.digit(chars[i], radix);
+            if (digit == -1) {
+                return false; // Not a numeric reference. Leave it for the XML parser to complain about
+            }
+            codePoint = codePoint * radix + digit;
+        }
+        return !isValidXmlCodePoint(codePoint);
+    }
+
+    /**
+     * @return true if the codePoint is allowed in XML 1.0: {@code #x9 | #xA | #xD | [#x20-#xD7FF] | [#xE000-#xFFFD] |
+     *         [#x10000-#x10FFFF]}.
+     */
+    static boolean isValidXmlCodePoint(long codePoint) {
+        return codePoint == 0x9 || codePoint == 0xA || codePoint == 0xD ||
+               (codePoint >= 0x20 && codePoint <= 0xD7FF) ||
+               (codePoint >= 0xE000 && codePoint <= 0xFFFD) ||
+               (codePoint >= 0x10000 && codePoint <= 0x10FFFF);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -10,6 +10,8 @@ import java.net.MalformedURLException;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -17,10 +19,16 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.facade.JobExecutor;
+import dk.kb.datahandler.facade.JobRetention;
+import dk.kb.datahandler.facade.OaiHarvestScheduler;
+import dk.kb.datahandler.facade.TranscriptionWatcher;
+import dk.kb.datahandler.model.v1.JobDto;
 import dk.kb.datahandler.model.v1.JobStatusDto;
 import dk.kb.datahandler.storage.BasicStorage;
 import dk.kb.datahandler.storage.JobStorage;
 import dk.kb.datahandler.util.H2DbUtil;
+import dk.kb.datahandler.util.HttpClientRegistry;
 import dk.kb.util.BuildInfoManager;
 import dk.kb.util.Files;
 import dk.kb.util.Resolver;
@@ -74,6 +82,9 @@ public class ContextListener implements ServletContextListener {
             //TODO this should not refer to something in template. Should we perhaps use reflection here?
             ServiceConfig.initialize(configFile);
             initializeStorage();
+            OaiHarvestScheduler.start();
+            TranscriptionWatcher.start();
+            JobRetention.start();
         } catch (NamingException e) {
             throw new RuntimeException("Failed to lookup settings", e);
         } catch (IOException e) {
@@ -205,18 +216,26 @@ public class ContextListener implements ServletContextListener {
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         log.debug("Service destroyed");
+        OaiHarvestScheduler.stop();
+        TranscriptionWatcher.stop();
+        JobRetention.stop();
+        JobExecutor.stop();
+        HttpClientRegistry.close();
         handleRunningJobs(JobStatusDto.STOPPED, "Stopped by shutdown.");
     }
 
     /**
      * Checks if there is running jobs when starting the application, and mark running jobs as failed, because of ungracefully shutdown,
      * and checks if there is running jobs when gracefully shut down the application, and mark jobs as stopped.
+     * Queued jobs are handled the same way, as they are never started.
      * @param jobStatus what status the job should change to
      * @param message why the job was marked stopped/failed
      */
     private void handleRunningJobs(JobStatusDto jobStatus, String message) {
         BasicStorage.performStorageAction("Stop all running jobs", JobStorage::new, (JobStorage storage) -> {
-           storage.getJobs(null, JobStatusDto.RUNNING).forEach(jobDto -> {
+           List<JobDto> jobs = new ArrayList<>(storage.getJobs(null, JobStatusDto.RUNNING));
+           jobs.addAll(storage.getJobs(null, JobStatusDto.QUEUED));
+           jobs.forEach(jobDto -> {
                jobDto.setJobStatus(jobStatus);
                jobDto.setEndTime(OffsetDateTime.now(ZoneOffset.UTC));
                jobDto.setMessage(message);
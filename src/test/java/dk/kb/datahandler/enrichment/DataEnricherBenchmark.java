@@ -0,0 +1,71 @@
+package dk.kb.datahandler.enrichment;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import dk.kb.datahandler.oai.OaiRecord;
+import dk.kb.util.Resolver;
+
+/**
+ * Measures {@link DataEnricher#apply(OaiRecord, List)}: Parsing the XIP metadata of an information object, adding
+ * the metadata fragments and serializing the result. The fragments are given, so the fragments service is not used.
+ * <p>
+ * The record is {@code xml/unenriched-metadata-test1.xml} and the fragments are {@code xml/fragments.json} with a
+ * single fragment or {@code xml/fragments-multi.json} with several.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test -Dbenchmark=DataEnricher} or with {@code main}, e.g. from the IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataEnricherBenchmark {
+
+    @Param({"xml/fragments.json", "xml/fragments-multi.json"})
+    public String fragmentsFixture;
+
+    private String metadata;
+    private List<Fragment> fragments;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        metadata = Resolver.resolveUTF8String("xml/unenriched-metadata-test1.xml");
+        fragments = new ObjectMapper().readValue(
+                Resolver.resolveUTF8String(fragmentsFixture), new TypeReference<List<Fragment>>(){});
+    }
+
+    @Benchmark
+    public OaiRecord apply() {
+        // apply changes the metadata of the record, so a new record is enriched each time
+        OaiRecord record = new OaiRecord();
+        record.setId("oai:io:test1");
+        record.setMetadata(metadata);
+        return DataEnricher.apply(record, fragments);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DataEnricherBenchmark.class.getSimpleName()).build()).run();
+    }
+}
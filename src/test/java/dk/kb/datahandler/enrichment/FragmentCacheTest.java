@@ -0,0 +1,41 @@
+package dk.kb.datahandler.enrichment;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class FragmentCacheTest {
+
+    @Test
+    public void testExpire() {
+        AtomicLong now = new AtomicLong(0);
+        FragmentCache cache = new FragmentCache(10, 100, now::get);
+        cache.put("io1", List.of(new Fragment("<a/>")));
+
+        now.set(100);
+        assertEquals("<a/>", cache.get("io1").get(0).getMetadataFragment());
+        now.set(101);
+        assertNull(cache.get("io1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRemoved() {
+        FragmentCache cache = new FragmentCache(2, 600);
+        cache.put("io1", List.of());
+        cache.put("io2", List.of());
+        cache.get("io1");
+        cache.put("io3", List.of());
+
+        assertNotNull(cache.get("io1"));
+        assertNull(cache.get("io2"));
+        assertNotNull(cache.get("io3"));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+}
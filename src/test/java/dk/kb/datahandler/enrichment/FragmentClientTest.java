@@ -8,8 +8,8 @@ import org.mockito.Mockito;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
 import java.net.URISyntaxException;
+import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.List;
@@ -21,27 +21,28 @@ import static org.mockito.Mockito.*;
 public class FragmentClientTest {
 
     private FragmentsClient fragmentsClient;
-    private HttpURLConnection mockConnection;
+    private HttpResponse<InputStream> mockResponse;
 
     @BeforeEach
+    @SuppressWarnings("unchecked")
     public void setUp() throws IOException, URISyntaxException {
-        // Initialize FragmentsClient and mock HttpURLConnection
+        // Initialize FragmentsClient and mock HttpResponse
         fragmentsClient = Mockito.spy(new FragmentsClient("http://test-url.com",5));
-        mockConnection = mock(HttpURLConnection.class);
+        mockResponse = mock(HttpResponse.class);
 
-        // Mock the getConnection method to always return the mockConnection object
-        doReturn(mockConnection).when(fragmentsClient).getConnection(anyString());
+        // Mock the getResponse method to always return the mockResponse object
+        doReturn(mockResponse).when(fragmentsClient).getResponse(anyString());
     }
 
 
 
     @Test
     public void testFetchFragments() throws IOException, URISyntaxException {
-        when(mockConnection.getResponseCode()).thenReturn(200);
+        when(mockResponse.statusCode()).thenReturn(200);
 
         String jsonResponse = Files.readString(Resolver.getPathFromClasspath("xml/fragments-multi.json"));
         InputStream jsonStream = new java.io.ByteArrayInputStream(jsonResponse.getBytes(StandardCharsets.UTF_8));
-        when(mockConnection.getInputStream()).thenReturn(jsonStream);
+        when(mockResponse.body()).thenReturn(jsonStream);
 
         List<Fragment> fragments = fragmentsClient.fetchMetadataFragments("test-id");
         assertEquals(2, fragments.size());
@@ -49,22 +50,23 @@ public class FragmentClientTest {
 
     @Test
     public void testRetriesOnFailure() throws IOException, URISyntaxException {
-        when(mockConnection.getResponseCode())
+        when(mockResponse.statusCode())
                 .thenReturn(500)
                 .thenReturn(500)
                 .thenReturn(200);
 
-        when(mockConnection.getInputStream()).thenReturn(new java.io.ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+        when(mockResponse.body()).thenReturn(new java.io.ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
 
         fragmentsClient.fetchMetadataFragments("test");
-        verify(mockConnection, times(3)).getResponseCode();
+        verify(mockResponse, times(3)).statusCode();
     }
 
     @Test
     public void testFailure() throws IOException {
-        when(mockConnection.getResponseCode()).thenReturn(500);
+        when(mockResponse.statusCode()).thenReturn(500);
+        when(mockResponse.body()).thenReturn(new java.io.ByteArrayInputStream(new byte[0]));
         assertThrows(IOException.class, () -> fragmentsClient.fetchMetadataFragments("test"));
-        verify(mockConnection, times(5)).getResponseCode();
+        verify(mockResponse, times(5)).statusCode();
     }
 
 }
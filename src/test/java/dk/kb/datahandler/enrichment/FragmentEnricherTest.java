@@ -0,0 +1,108 @@
+package dk.kb.datahandler.enrichment;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dk.kb.datahandler.oai.OaiRecord;
+import dk.kb.datahandler.oai.OaiResponse;
+import dk.kb.util.Resolver;
+import dk.kb.util.webservice.exception.InternalServiceException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class FragmentEnricherTest {
+
+    private FragmentsClient client;
+    private String metadata;
+    private ExecutorService executor;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        client = mock(FragmentsClient.class);
+        List<Fragment> fragments = new ObjectMapper().readValue(
+                Files.readString(Resolver.getPathFromClasspath("xml/fragments-multi.json")),
+                new TypeReference<List<Fragment>>(){});
+        when(client.fetchMetadataFragments(anyString())).thenReturn(fragments);
+        metadata = Files.readString(Resolver.getPathFromClasspath("xml/unenriched-metadata-test1.xml"));
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testEnrichPage() throws Exception {
+        OaiResponse page = new OaiResponse();
+        for (int i = 0; i < 10; i++) {
+            page.getRecords().add(record("oai:io:test" + i, metadata, false));
+        }
+        page.getRecords().add(record("oai:so:test", metadata, false));
+        page.getRecords().add(record("oai:io:deleted", null, true));
+
+        new FragmentEnricher(client, new FragmentCache(100, 600), executor).process(page);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(countMetadata(metadata) + 2, countMetadata(page.getRecords().get(i).getMetadata()));
+            verify(client).fetchMetadataFragments("test" + i);
+        }
+        assertEquals(metadata, page.getRecords().get(10).getMetadata(), "Structural objects should not be enriched");
+        verify(client, never()).fetchMetadataFragments("deleted");
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        FragmentEnricher enricher = new FragmentEnricher(client, new FragmentCache(100, 600), executor);
+        OaiRecord first = record("oai:io:test1", metadata, false);
+        OaiRecord second = record("oai:io:test1", metadata, false);
+        enricher.process(first);
+        enricher.process(second);
+
+        verify(client, times(1)).fetchMetadataFragments("test1");
+        assertEquals(first.getMetadata(), second.getMetadata());
+    }
+
+    @Test
+    public void testFailedRecords() throws Exception {
+        when(client.fetchMetadataFragments("test2")).thenThrow(new IOException("Connection reset"));
+        OaiResponse page = new OaiResponse();
+        for (int i = 0; i < 4; i++) {
+            page.getRecords().add(record("oai:io:test" + i, metadata, false));
+        }
+
+        InternalServiceException e = assertThrows(InternalServiceException.class,
+                () -> new FragmentEnricher(client, null, executor).process(page));
+        assertTrue(e.getMessage().contains("oai:io:test2"), "The failed record should be named: " + e.getMessage());
+        assertEquals(countMetadata(metadata) + 2, countMetadata(page.getRecords().get(3).getMetadata()),
+                "The rest of the page should be enriched");
+    }
+
+    private static OaiRecord record(String id, String metadata, boolean deleted) {
+        OaiRecord oaiRecord = new OaiRecord();
+        oaiRecord.setId(id);
+        oaiRecord.setMetadata(metadata);
+        oaiRecord.setDeleted(deleted);
+        return oaiRecord;
+    }
+
+    private static int countMetadata(String xml) {
+        return xml.split("<Metadata[ >]", -1).length - 1;
+    }
+}
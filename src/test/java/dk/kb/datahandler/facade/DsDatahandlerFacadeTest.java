@@ -3,10 +3,14 @@ package dk.kb.datahandler.facade;
 import dk.kb.datahandler.config.ServiceConfig;
 import dk.kb.datahandler.model.v1.*;
 import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.HarvestCheckpoint;
+import dk.kb.datahandler.storage.HarvestCheckpointStorage;
 import dk.kb.datahandler.storage.JobStorage;
 import dk.kb.datahandler.storage.JobStorageForUnitTests;
 import dk.kb.datahandler.util.H2DbUtil;
+import dk.kb.datahandler.util.HarvestTimeUtil;
 import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+import dk.kb.util.webservice.exception.NotFoundServiceException;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -17,6 +21,7 @@ import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.List;
+import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -85,6 +90,71 @@ public class DsDatahandlerFacadeTest {
         assertNull(returnedJobDto.getRestartValue());
     }
 
+    @Test
+    void getJob_whenJobExists_thenReturnJob() {
+        JobDto jobDto = new JobDto();
+        jobDto.setType(TypeDto.FULL);
+        jobDto.category(CategoryDto.SOLR_INDEX);
+        jobDto.setSource("ds.tv");
+        jobDto.setCreatedBy("Unit test");
+        jobDto.setJobStatus(JobStatusDto.RUNNING);
+        jobDto.setStartTime(OffsetDateTime.now(ZoneOffset.UTC));
+
+        UUID jobId = BasicStorage.performStorageAction("Create job for getJob test", JobStorage::new,
+                (JobStorage storage) -> storage.createJob(jobDto));
+
+        JobDto returnedJobDto = DsDatahandlerFacade.getJob(jobId);
+        assertEquals(jobId, returnedJobDto.getId());
+        assertEquals(JobStatusDto.RUNNING, returnedJobDto.getJobStatus());
+    }
+
+    @Test
+    void getJob_whenUnknownId_thenThrowNotFoundServiceException() {
+        Assertions.assertThrows(NotFoundServiceException.class, () -> DsDatahandlerFacade.getJob(UUID.randomUUID()));
+    }
+
+    /**
+     * A range that is harvested again because its resumptionToken was rejected must only update the checkpoint of the
+     * range and not the checkpoint of the target.
+     */
+    @Test
+    void restartOfRangeOnlyUpdatesRangeCheckpoint() throws Exception {
+        OaiTargetDto oaiTarget = ServiceConfig.getOaiTargets().get("ds.radiotv");
+        String rangeName = oaiTarget.getName() + "|2024-01-01T00:00:00Z|2024-02-01T00:00:00Z";
+        UUID jobId = UUID.randomUUID();
+
+        HarvestTimeUtil.saveCheckpoint(new HarvestCheckpoint(
+                oaiTarget.getName(), "2024-01-01T00:00:00Z", null, null, 0, jobId));
+        HarvestCheckpoint rangeStart = HarvestCheckpoint.start(rangeName, "2024-01-01T00:00:00Z").forJob(jobId)
+                .next("2024-01-10T00:00:00Z", "rejected-token", 100);
+        HarvestTimeUtil.saveCheckpoint(rangeStart);
+
+        try {
+            HarvestCheckpoint restart = DsDatahandlerFacade.getRestartCheckpoint(oaiTarget, rangeStart);
+            assertEquals(rangeName, restart.getTarget());
+            assertFalse(restart.isResumable());
+            assertEquals(jobId, restart.getJobId());
+
+            // The checkpoint saved after the first page of the restarted harvest
+            HarvestTimeUtil.saveCheckpoint(restart.next("2024-01-15T00:00:00Z", "new-token", 50));
+
+            try (HarvestCheckpointStorage checkpoints = new HarvestCheckpointStorage()) {
+                HarvestCheckpoint range = checkpoints.getCheckpoint(rangeName);
+                assertEquals("2024-01-15T00:00:00Z", range.getDatestamp());
+                assertEquals("new-token", range.getResumptionToken());
+
+                HarvestCheckpoint target = checkpoints.getCheckpoint(oaiTarget.getName());
+                assertEquals("2024-01-01T00:00:00Z", target.getDatestamp());
+                assertNull(target.getResumptionToken());
+            }
+        } finally {
+            try (HarvestCheckpointStorage checkpoints = new HarvestCheckpointStorage()) {
+                checkpoints.deleteCheckpoints(oaiTarget.getName());
+                checkpoints.commit();
+            }
+        }
+    }
+
     /**
      * Can only have one job with the same name running at the same time even if one is a delta job and the other is a full job
      */
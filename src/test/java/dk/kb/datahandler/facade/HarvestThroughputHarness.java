@@ -0,0 +1,269 @@
+package dk.kb.datahandler.facade;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.util.H2DbUtil;
+import dk.kb.datahandler.util.Metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Measures a full OAI harvest to ds-storage followed by a full solr index of the harvested origin, with
+ * {@link DsDatahandlerFacade#oaiIngestFull(String, String)} and {@link DsDatahandlerFacade#indexSolrFull(String, String)},
+ * against the local {@link StandInServices}. The jobs database is H2.
+ * <p>
+ * Reports records per second for the harvest, the index and the full cycle, the high-water mark of the heap and the
+ * number and mean time of the requests in each stage, from the histograms in {@link Metrics}. Run the harness before
+ * and after a change to concurrency or batching and compare the reports.
+ * <p>
+ * The size of the run and the latency of the services are given as system properties:
+ * <ul>
+ *   <li>{@code harness.records} (default 2000), {@code harness.pageSize} (500), {@code harness.recordBytes} (2000) and
+ *       {@code harness.recordsPerDay} (1000) for the OAI target.</li>
+ *   <li>{@code harness.latency.oai}, {@code harness.latency.storage}, {@code harness.latency.present} and
+ *       {@code harness.latency.solr}: milliseconds added to each response. Default 0.</li>
+ *   <li>{@code harness.config}: a YAML file with settings that override the configuration, e.g.
+ *       {@code storage.batch.threads}, {@code oaiSettings.split.records} or {@code solr.fullIndexPartitions}.</li>
+ *   <li>{@code harness.log}: the log level during the run. Default ERROR, as some filters log a warning for each
+ *       record.</li>
+ * </ul>
+ * The harness is not part of the unit tests. Run with {@code main}, e.g. from the IDE, or with
+ * {@code mvn test -Dtest=HarvestThroughputHarness -Dharness.records=100000}.
+ */
+public class HarvestThroughputHarness {
+    private static final String TEST_CLASSES_PATH = new File(Thread.currentThread().getContextClassLoader().getResource("logback-test.xml").getPath()).getParentFile().getAbsolutePath();
+    private static final String DB_URL = "jdbc:h2:" + TEST_CLASSES_PATH + "/h2/harness;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+    private static final String DRIVER = "org.h2.Driver";
+    private static final String TARGET = "standin";
+
+    @Test
+    void harvestAndIndex() throws Exception {
+        int records = Integer.getInteger("harness.records", 2000);
+        Report report = run(records);
+        System.out.println(report);
+
+        assertEquals(records, report.harvested);
+        assertEquals(records, report.stored);
+        assertEquals(records, report.indexed);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(run(Integer.getInteger("harness.records", 2000)));
+    }
+
+    /**
+     * Harvest and index {@code records} records from the stand-in services.
+     */
+    static Report run(int records) throws Exception {
+        Logger root = (Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        Level logLevel = root.getLevel();
+        root.setLevel(Level.toLevel(System.getProperty("harness.log"), Level.ERROR));
+
+        try (StandInServices services = new StandInServices(records, Integer.getInteger("harness.pageSize", 500),
+                Integer.getInteger("harness.recordBytes", 2000), Integer.getInteger("harness.recordsPerDay", 1000))) {
+            for (StandInServices.Service service : StandInServices.Service.values()) {
+                services.setLatencyMs(service, Integer.getInteger(
+                        "harness.latency." + service.name().toLowerCase(Locale.ROOT), 0));
+            }
+            initialize(services);
+
+            List<Stage> stages = List.of(
+                    new Stage("OAI fetch", "oai_fetch_seconds", "target", TARGET),
+                    new Stage("OAI parse", "oai_parse_seconds", "target", TARGET),
+                    new Stage("OAI streamed page", "oai_streaming_page_seconds", "target", TARGET),
+                    new Stage("Storage post", "storage_post_seconds", null, null),
+                    new Stage("Storage batch", "storage_flush_seconds", null, null),
+                    new Stage("Solr update", "solr_update_seconds", null, null),
+                    new Stage("Solr commit", "solr_commit_seconds", null, null),
+                    new Stage("Jobs database", "db_action_seconds", null, null));
+            Report report = new Report(records, stages);
+
+            try (HeapSampler heap = new HeapSampler()) {
+                long startNS = System.nanoTime();
+                report.harvested = DsDatahandlerFacade.oaiIngestFull(TARGET, "harness");
+                long harvestedNS = System.nanoTime();
+                String indexResponse = DsDatahandlerFacade.indexSolrFull(TARGET, "harness");
+                long indexedNS = System.nanoTime();
+
+                report.indexed = new ObjectMapper().readTree(indexResponse).path("allDocumentsIndexed").asLong();
+                report.harvestSeconds = (harvestedNS - startNS) / 1e9;
+                report.indexSeconds = (indexedNS - harvestedNS) / 1e9;
+                report.heapStartBytes = heap.startBytes;
+                report.heapMaxBytes = heap.maxBytes.get();
+            }
+            report.stored = services.getStoredRecords();
+            report.services = services;
+            stages.forEach(Stage::end);
+            return report;
+        } finally {
+            root.setLevel(logLevel);
+        }
+    }
+
+    /**
+     * Configure the service to use the stand-in services and an H2 jobs database.
+     */
+    private static void initialize(StandInServices services) throws Exception {
+        Path standInConfig = Files.createTempFile("ds-datahandler-harness-", ".yaml");
+        standInConfig.toFile().deleteOnExit();
+        Files.writeString(standInConfig, String.join("\n",
+                "storage:",
+                "  url: " + services.getStorageUrl(),
+                "present:",
+                "  url: " + services.getPresentUrl(),
+                "solr:",
+                "  update:",
+                "    url: " + services.getSolrUrl(),
+                "    requestHandler: /update",
+                "  queryUrl: " + services.getSolrUrl(),
+                "httpClients:",
+                "  http2: false",
+                "oaiTargets:",
+                "  - name: " + TARGET,
+                "    datasource: " + TARGET,
+                "    url: " + services.getOaiUrl(),
+                "    metadataPrefix: mods",
+                "    description: Stand-in OAI target for throughput measurements",
+                "    filter: direct",
+                "    dateStampFormat: datetime",
+                ""), StandardCharsets.UTF_8);
+
+        List<String> configs = new ArrayList<>(List.of("conf/ds-datahandler-behaviour.yaml", standInConfig.toString()));
+        if (System.getProperty("harness.config") != null) {
+            configs.add(System.getProperty("harness.config"));
+        }
+        ServiceConfig.initialize(configs.toArray(new String[0]));
+
+        H2DbUtil.createEmptyH2DBFromDDL(DB_URL, DRIVER, "", "");
+        BasicStorage.initialize(DRIVER, DB_URL, "", "");
+    }
+
+    /**
+     * Keeps the highest heap usage seen while it is open.
+     */
+    private static class HeapSampler implements AutoCloseable {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final AtomicLong maxBytes = new AtomicLong();
+        private final long startBytes;
+        private final Thread thread;
+
+        HeapSampler() {
+            System.gc();
+            startBytes = memory.getHeapMemoryUsage().getUsed();
+            maxBytes.set(startBytes);
+            thread = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    maxBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "harness-heap-sampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+            maxBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }
+    }
+
+    /**
+     * The requests in a stage during the run, from the difference in a histogram from {@link Metrics}.
+     */
+    private static class Stage {
+        private final String description;
+        private final String name;
+        private final String labelName;
+        private final String labelValue;
+        private final long startCount;
+        private final double startSeconds;
+        private long count;
+        private double seconds;
+
+        Stage(String description, String name, String labelName, String labelValue) {
+            this.description = description;
+            this.name = name;
+            this.labelName = labelName;
+            this.labelValue = labelValue;
+            Metrics.Histogram histogram = Metrics.findHistogram(name, labelName, labelValue);
+            startCount = histogram == null ? 0 : histogram.getCount();
+            startSeconds = histogram == null ? 0 : histogram.getSumSeconds();
+        }
+
+        void end() {
+            Metrics.Histogram histogram = Metrics.findHistogram(name, labelName, labelValue);
+            count = histogram == null ? 0 : histogram.getCount() - startCount;
+            seconds = histogram == null ? 0 : histogram.getSumSeconds() - startSeconds;
+        }
+    }
+
+    static class Report {
+        private final int records;
+        private final List<Stage> stages;
+        private StandInServices services;
+        long harvested;
+        long stored;
+        long indexed;
+        double harvestSeconds;
+        double indexSeconds;
+        long heapStartBytes;
+        long heapMaxBytes;
+
+        Report(int records, List<Stage> stages) {
+            this.records = records;
+            this.stages = stages;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "Harvest:  %d records in %.1f s, %.0f records/s%n",
+                    harvested, harvestSeconds, harvested / harvestSeconds));
+            sb.append(String.format(Locale.ROOT, "Index:    %d records in %.1f s, %.0f records/s%n",
+                    indexed, indexSeconds, indexed / indexSeconds));
+            sb.append(String.format(Locale.ROOT, "Total:    %d records in %.1f s, %.0f records/s%n",
+                    records, harvestSeconds + indexSeconds, records / (harvestSeconds + indexSeconds)));
+            sb.append(String.format(Locale.ROOT, "Heap:     %d MB at start, %d MB high-water mark%n",
+                    heapStartBytes >> 20, heapMaxBytes >> 20));
+            for (Stage stage : stages) {
+                if (stage.count > 0) {
+                    sb.append(String.format(Locale.ROOT, "%-18s %7d requests, mean %8.2f ms, total %7.1f s%n",
+                            stage.description + ":", stage.count, stage.seconds * 1000 / stage.count, stage.seconds));
+                }
+            }
+            if (services != null) {
+                for (StandInServices.Service service : StandInServices.Service.values()) {
+                    sb.append(String.format(Locale.ROOT, "Stand-in %-9s %7d requests%n",
+                            service.name().toLowerCase(Locale.ROOT) + ":", services.getRequests(service)));
+                }
+                sb.append(String.format(Locale.ROOT, "Stand-in bytes:    %d MB to storage, %d MB to solr%n",
+                        services.getStoredBytes() >> 20, services.getSolrBytes() >> 20));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dk.kb.datahandler.facade;
+
+import java.io.File;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.model.v1.CategoryDto;
+import dk.kb.datahandler.model.v1.JobDto;
+import dk.kb.datahandler.model.v1.JobStatusDto;
+import dk.kb.datahandler.model.v1.TypeDto;
+import dk.kb.datahandler.storage.BasicStorage;
+import dk.kb.datahandler.storage.JobStorage;
+import dk.kb.datahandler.util.H2DbUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobExecutorTest {
+    private static final String TEST_CLASSES_PATH = new File(Thread.currentThread().getContextClassLoader().getResource("logback-test.xml").getPath()).getParentFile().getAbsolutePath();
+    private static final String DB_URL = "jdbc:h2:" + TEST_CLASSES_PATH + "/job_executor;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+    private static final String DRIVER = "org.h2.Driver";
+
+    @BeforeAll
+    public static void beforeClass() throws Exception {
+        ServiceConfig.initialize("conf/ds-datahandler-behaviour.yaml");
+
+        H2DbUtil.createEmptyH2DBFromDDL(DB_URL, DRIVER, "", "");
+        BasicStorage.initialize(DRIVER, DB_URL, "", "");
+    }
+
+    @AfterAll
+    public static void afterClass() {
+        JobExecutor.stop();
+    }
+
+    @Test
+    void errorMarksJobFailed() throws Exception {
+        JobDto jobDto = createQueuedJob();
+
+        JobExecutor.submit(jobDto, () -> {
+            throw new Error("boom");
+        });
+
+        JobDto failed = awaitFinished(jobDto.getId());
+        assertEquals(JobStatusDto.FAILED, failed.getJobStatus());
+        assertTrue(failed.getMessage().contains("boom"), "Message was: " + failed.getMessage());
+    }
+
+    @Test
+    void finishedJobIsNotChanged() throws Exception {
+        JobDto jobDto = createQueuedJob();
+
+        JobExecutor.submit(jobDto, () -> {
+            jobDto.setJobStatus(JobStatusDto.COMPLETED);
+            jobDto.setEndTime(OffsetDateTime.now(ZoneOffset.UTC));
+            updateJob(jobDto);
+            throw new IllegalStateException("After the job was completed");
+        });
+
+        assertEquals(JobStatusDto.COMPLETED, awaitFinished(jobDto.getId()).getJobStatus());
+    }
+
+    private static JobDto createQueuedJob() {
+        JobDto jobDto = new JobDto();
+        jobDto.setType(TypeDto.DELTA);
+        jobDto.setCategory(CategoryDto.SOLR_INDEX);
+        jobDto.setSource("job.executor.test." + UUID.randomUUID());
+        jobDto.setCreatedBy("Unit test");
+        jobDto.setJobStatus(JobStatusDto.QUEUED);
+        jobDto.setStartTime(OffsetDateTime.now(ZoneOffset.UTC));
+        jobDto.setId(BasicStorage.performStorageAction("Create test job", JobStorage::new,
+                (JobStorage storage) -> storage.createJob(jobDto)));
+        return jobDto;
+    }
+
+    private static void updateJob(JobDto jobDto) {
+        BasicStorage.performStorageAction("Update test job", JobStorage::new,
+                (JobStorage storage) -> storage.updateJob(jobDto));
+    }
+
+    private static JobDto awaitFinished(UUID id) throws InterruptedException {
+        long endMS = System.currentTimeMillis() + 10_000;
+        while (true) {
+            JobDto jobDto = BasicStorage.performStorageAction("Get test job", JobStorage::new,
+                    (JobStorage storage) -> storage.getJob(id));
+            if ((jobDto.getJobStatus() != JobStatusDto.QUEUED && jobDto.getJobStatus() != JobStatusDto.RUNNING) ||
+                    System.currentTimeMillis() > endMS) {
+                return jobDto;
+            }
+            Thread.sleep(20);
+        }
+    }
+}
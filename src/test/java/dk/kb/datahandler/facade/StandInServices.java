@@ -0,0 +1,409 @@
+package dk.kb.datahandler.facade;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-ins for the services used by a harvest and index cycle, served by a single embedded HTTP server:
+ * <ul>
+ *   <li>An OAI-PMH target at {@link #getOaiUrl()} with {@code records} synthetic records, delivered in pages of
+ *       {@code pageSize} records with resumption tokens. {@code from} and {@code until} are supported, so the
+ *       harvest can be split into ranges of datestamps. ListIdentifiers gives the completeListSize.</li>
+ *   <li>ds-storage at {@link #getStorageUrl()}, which accepts record posts and remembers the ids.</li>
+ *   <li>ds-present at {@link #getPresentUrl()}, which delivers a solr document for each stored record, ordered by
+ *       mTime, with the paging headers used by {@link dk.kb.util.webservice.stream.ContinuationInputStream}.</li>
+ *   <li>Solr at {@link #getSolrUrl()}, which accepts JSON updates, commits, suggest builds and queries.</li>
+ * </ul>
+ * Each service can be given a latency, which is added to every response, and counts its requests.
+ */
+public class StandInServices implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(StandInServices.class);
+
+    private static final DateTimeFormatter DATESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'").withZone(ZoneOffset.UTC);
+    private static final Instant FIRST_DATESTAMP = Instant.parse("2024-01-01T00:00:00Z");
+    /** Microseconds between the mTimes of the stored records. */
+    private static final long MTIME_STEP = 1000;
+    private static final String SOLR_UPDATE_RESPONSE = "{\"responseHeader\":{\"rf\":1,\"status\":0,\"QTime\":0}}";
+
+    public enum Service { OAI, STORAGE, PRESENT, SOLR }
+
+    private final int records;
+    private final int pageSize;
+    private final int recordBytes;
+    private final long secondsBetweenRecords;
+    private final String filler;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<Service, Integer> latencyMs = new EnumMap<>(Service.class);
+    private final Map<Service, LongAdder> requests = new EnumMap<>(Service.class);
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * Ids of the stored records in the order they were stored. The mTime of a record is given by its position, so
+     * the mTimes of all records end when the services are started, which gives partitioned indexes even ranges.
+     */
+    private final List<String> storedIds = new ArrayList<>();
+    private final Set<String> storedIdSet = new HashSet<>();
+    private final long firstMTime;
+    private final LongAdder storedBytes = new LongAdder();
+    private final LongAdder solrBytes = new LongAdder();
+
+    /**
+     * Create and start the services on a free port.
+     * @param records        the number of records in the OAI target.
+     * @param pageSize       the number of records in a ListRecords page.
+     * @param recordBytes    the approximate size of the metadata of a record and of a solr document.
+     * @param recordsPerDay  the number of records with datestamps on the same day.
+     */
+    public StandInServices(int records, int pageSize, int recordBytes, int recordsPerDay) throws IOException {
+        this.records = records;
+        this.pageSize = pageSize;
+        this.recordBytes = recordBytes;
+        this.secondsBetweenRecords = Math.max(1, 86400 / Math.max(1, recordsPerDay));
+        this.filler = "x".repeat(Math.max(0, recordBytes - 200));
+        this.firstMTime = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now()) - records * MTIME_STEP;
+        for (Service service : Service.values()) {
+            latencyMs.put(service, 0);
+            requests.put(service, new LongAdder());
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stand-in-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 100);
+        server.setExecutor(executor);
+        server.createContext("/oai", handler(Service.OAI, this::handleOai));
+        server.createContext("/ds-storage/v1", handler(Service.STORAGE, this::handleStorage));
+        server.createContext("/ds-present/v1", handler(Service.PRESENT, this::handlePresent));
+        server.createContext("/solr", handler(Service.SOLR, this::handleSolr));
+        server.start();
+        log.info("Started stand-in services at {} with {} OAI records in pages of {}", getBaseUrl(), records, pageSize);
+    }
+
+    /**
+     * @param service   the service to delay.
+     * @param latencyMs the number of milliseconds added to every response from the service.
+     */
+    public void setLatencyMs(Service service, int latencyMs) {
+        this.latencyMs.put(service, latencyMs);
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String getOaiUrl() {
+        return getBaseUrl() + "/oai/";
+    }
+
+    public String getStorageUrl() {
+        return getBaseUrl() + "/ds-storage/v1";
+    }
+
+    public String getPresentUrl() {
+        return getBaseUrl() + "/ds-present/v1";
+    }
+
+    /**
+     * @return the URL of the solr collection. Updates are posted to {@code /update} below it.
+     */
+    public String getSolrUrl() {
+        return getBaseUrl() + "/solr/ds";
+    }
+
+    /**
+     * @return the number of requests the service has received.
+     */
+    public long getRequests(Service service) {
+        return requests.get(service).sum();
+    }
+
+    /**
+     * @return the number of distinct records posted to ds-storage.
+     */
+    public synchronized int getStoredRecords() {
+        return storedIds.size();
+    }
+
+    /**
+     * @return the number of bytes posted to ds-storage.
+     */
+    public long getStoredBytes() {
+        return storedBytes.sum();
+    }
+
+    /**
+     * @return the number of bytes posted to solr.
+     */
+    public long getSolrBytes() {
+        return solrBytes.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange, Map<String, String> params) throws IOException;
+    }
+
+    private HttpHandler handler(Service service, Handler handler) {
+        return exchange -> {
+            try (exchange) {
+                requests.get(service).increment();
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                int latency = latencyMs.get(service);
+                if (latency > 0) {
+                    Thread.sleep(latency);
+                }
+                handler.handle(exchange, params);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Stand-in {} failed for '{}'", service, exchange.getRequestURI(), e);
+                throw e;
+            }
+        };
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int eq = param.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(param.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(param.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /* OAI-PMH */
+
+    private String datestamp(long record) {
+        return DATESTAMP_FORMAT.format(FIRST_DATESTAMP.plusSeconds(record * secondsBetweenRecords));
+    }
+
+    /**
+     * @return the first record that matches, as the records are ordered by datestamp, or {@code records} if none do.
+     */
+    private int firstRecord(LongPredicate matches) {
+        int low = 0;
+        int high = records;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (matches.test(middle)) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The resumption token is {@code <next>_<first>_<end>}, with the records from first to end, excluded, in the
+     * list. The datestamps are compared with the same precision as {@code from} and {@code until}.
+     */
+    private void handleOai(HttpExchange exchange, Map<String, String> params) throws IOException {
+        String verb = params.get("verb");
+        int next;
+        int first;
+        int end;
+        String token = params.get("resumptionToken");
+        if (token != null) {
+            String[] parts = token.split("_");
+            next = Integer.parseInt(parts[0]);
+            first = Integer.parseInt(parts[1]);
+            end = Integer.parseInt(parts[2]);
+        } else {
+            String from = params.get("from");
+            String until = params.get("until");
+            first = from == null ? 0 :
+                    firstRecord(record -> datestamp(record).substring(0, from.length()).compareTo(from) >= 0);
+            end = until == null ? records :
+                    firstRecord(record -> datestamp(record).substring(0, until.length()).compareTo(until) > 0);
+            next = first;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\">\n")
+                .append("<responseDate>").append(DATESTAMP_FORMAT.format(Instant.now())).append("</responseDate>\n");
+        if (next >= end) {
+            sb.append("<error code=\"noRecordsMatch\">No records in the range</error>\n");
+        } else {
+            boolean identifiersOnly = "ListIdentifiers".equals(verb);
+            int pageEnd = Math.min(end, next + pageSize);
+            sb.append(identifiersOnly ? "<ListIdentifiers>\n" : "<ListRecords>\n");
+            for (int record = next; record < pageEnd; record++) {
+                String header = "<header><identifier>oai:standin:" + record + "</identifier><datestamp>" +
+                        datestamp(record) + "</datestamp></header>";
+                if (identifiersOnly) {
+                    sb.append(header).append('\n');
+                } else {
+                    sb.append("<record>").append(header).append("<metadata>")
+                            .append("<mods xmlns=\"http://www.loc.gov/mods/v3\"><titleInfo><title>Record ")
+                            .append(record).append("</title></titleInfo><note>").append(filler)
+                            .append("</note></mods></metadata></record>\n");
+                }
+            }
+            sb.append("<resumptionToken completeListSize=\"").append(end - first).append("\">");
+            if (pageEnd < end) {
+                sb.append(pageEnd).append('_').append(first).append('_').append(end);
+            }
+            sb.append("</resumptionToken>\n");
+            sb.append(identifiersOnly ? "</ListIdentifiers>\n" : "</ListRecords>\n");
+        }
+        sb.append("</OAI-PMH>\n");
+        send(exchange, 200, "text/xml; charset=UTF-8", sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /* ds-storage */
+
+    private void handleStorage(HttpExchange exchange, Map<String, String> params) throws IOException {
+        byte[] body = readBody(exchange);
+        storedBytes.add(body.length);
+        if ("POST".equals(exchange.getRequestMethod()) && exchange.getRequestURI().getPath().endsWith("/record")) {
+            String id = mapper.readTree(body).path("id").asText();
+            synchronized (this) {
+                if (storedIdSet.add(id)) {
+                    storedIds.add(id);
+                }
+            }
+        }
+        exchange.sendResponseHeaders(204, -1);
+    }
+
+    /* ds-present */
+
+    /**
+     * Deliver up to {@code maxRecords} solr documents for the stored records with mTime after {@code mTime}.
+     */
+    private void handlePresent(HttpExchange exchange, Map<String, String> params) throws IOException {
+        long mTime = Long.parseLong(params.getOrDefault("mTime", "0"));
+        long maxRecords = Long.parseLong(params.getOrDefault("maxRecords", "1000"));
+        String origin = params.getOrDefault("origin", "");
+
+        List<String> ids;
+        int first;
+        int total;
+        synchronized (this) {
+            total = storedIds.size();
+            first = (int) Math.min(total, Math.max(0, Math.floorDiv(mTime - firstMTime, MTIME_STEP) + 1));
+            int end = (int) Math.min(total, first + Math.max(0, maxRecords));
+            ids = new ArrayList<>(storedIds.subList(first, end));
+        }
+
+        StringBuilder sb = new StringBuilder(ids.size() * (recordBytes + 100));
+        sb.append('[');
+        for (int i = 0; i < ids.size(); i++) {
+            sb.append(i == 0 ? "\n" : ",\n")
+                    .append("{\"id\":\"").append(ids.get(i)).append("\",\"origin\":\"").append(origin)
+                    .append("\",\"internal_storage_mTime\":").append(mTime(first + i))
+                    .append(",\"title\":\"Record ").append(first + i).append("\",\"notes\":\"").append(filler)
+                    .append("\"}");
+        }
+        sb.append("\n]\n");
+
+        if (!ids.isEmpty()) {
+            exchange.getResponseHeaders().add("Paging-Continuation-Token",
+                    Long.toString(mTime(first + ids.size() - 1)));
+        }
+        exchange.getResponseHeaders().add("Paging-Has-More", Boolean.toString(first + ids.size() < total));
+        exchange.getResponseHeaders().add("Paging-Record-Count", Integer.toString(ids.size()));
+        send(exchange, 200, "application/json", sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private long mTime(int storedRecord) {
+        return firstMTime + storedRecord * MTIME_STEP;
+    }
+
+    /* Solr */
+
+    /**
+     * Updates posted as JSON get a JSON response. Requests from SolrJ (commits, suggest builds and queries) get a
+     * javabin response, with an empty result for queries.
+     */
+    private void handleSolr(HttpExchange exchange, Map<String, String> params) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            solrBytes.add(in.transferTo(OutputStream.nullOutputStream()));
+        }
+        if (!"javabin".equals(params.get("wt"))) {
+            send(exchange, 200, "application/json", SOLR_UPDATE_RESPONSE.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        NamedList<Object> header = new SimpleOrderedMap<>();
+        header.add("status", 0);
+        header.add("QTime", 0);
+        NamedList<Object> response = new SimpleOrderedMap<>();
+        response.add("responseHeader", header);
+        if (exchange.getRequestURI().getPath().endsWith("/select")) {
+            SolrDocumentList results = new SolrDocumentList();
+            results.setNumFound(0);
+            response.add("response", results);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(response, out);
+        send(exchange, 200, "application/octet-stream", out.toByteArray());
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
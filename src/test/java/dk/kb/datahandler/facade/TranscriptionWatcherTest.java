@@ -0,0 +1,78 @@
+package dk.kb.datahandler.facade;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TranscriptionWatcherTest {
+
+    @Test
+    void readyWhenCompleteAndUnchanged() {
+        TranscriptionWatcher.PendingTranscriptions pending = new TranscriptionWatcher.PendingTranscriptions(1000, 60_000);
+        Set<String> files = new HashSet<>();
+
+        drop(pending, files, "a.ner.json", 0);
+        drop(pending, files, "a.segments.fw.json", 100);
+        assertTrue(pending.ready(2000, files::contains).isEmpty(), "The info file is missing");
+
+        drop(pending, files, "a.info.fw.json", 1500);
+        drop(pending, files, "b.ner.json", 1500);
+        assertTrue(pending.ready(2000, files::contains).isEmpty(), "The info file is still being written");
+        assertEquals(List.of("a"), pending.ready(2500, files::contains));
+
+        // Still being written to
+        pending.changed("a.segments.fw.json", 2600);
+        assertTrue(pending.ready(3000, files::contains).isEmpty());
+        assertEquals(List.of("a"), pending.ready(3600, files::contains));
+
+        pending.remove(List.of("a"));
+        assertEquals(1, pending.size());
+    }
+
+    @Test
+    void incompleteTimeout() {
+        TranscriptionWatcher.PendingTranscriptions pending = new TranscriptionWatcher.PendingTranscriptions(1000, 60_000);
+        Set<String> files = new HashSet<>();
+        drop(pending, files, "a.ner.json", 0);
+        drop(pending, files, "b.segments.fw.json", 0);
+
+        assertTrue(pending.ready(59_999, files::contains).isEmpty());
+        assertEquals(List.of("a"), pending.ready(60_000, files::contains),
+                "A transcription without segments and info file should be loaded after the timeout");
+        assertEquals(1, pending.size(), "Files without a ner file should be forgotten after the timeout");
+    }
+
+    @Test
+    void forgetLoadedElsewhere() {
+        TranscriptionWatcher.PendingTranscriptions pending = new TranscriptionWatcher.PendingTranscriptions(1000, 60_000);
+        pending.changed("a.ner.json", 0);
+        pending.changed("a.info.fw.json", 0);
+        pending.changed("a.ner.json.completed", 0);
+        pending.changed("notes.txt", 0);
+        assertEquals(1, pending.size());
+
+        assertTrue(pending.ready(2000, fileName -> false).isEmpty());
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    void toBaseName() {
+        assertEquals("a", TranscriptionWatcher.PendingTranscriptions.toBaseName("a.ner.json"));
+        assertEquals("a", TranscriptionWatcher.PendingTranscriptions.toBaseName("a.segments.fw.json"));
+        assertEquals("a", TranscriptionWatcher.PendingTranscriptions.toBaseName("a.info.fw.json"));
+        assertNull(TranscriptionWatcher.PendingTranscriptions.toBaseName("a.ner.json.failed"));
+        assertNull(TranscriptionWatcher.PendingTranscriptions.toBaseName(".ner.json"));
+    }
+
+    private static void drop(TranscriptionWatcher.PendingTranscriptions pending, Set<String> files, String fileName,
+                             long nowMS) {
+        files.add(fileName);
+        pending.changed(fileName, nowMS);
+    }
+}
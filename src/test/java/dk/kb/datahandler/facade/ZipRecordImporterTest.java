@@ -0,0 +1,129 @@
+package dk.kb.datahandler.facade;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import dk.kb.storage.model.v1.DsRecordDto;
+import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+public class ZipRecordImporterTest {
+
+    @Test
+    void findIdentifier() throws Exception {
+        assertEquals("urn:uuid:1234", ZipRecordImporter.findIdentifier(record("urn:uuid:1234")));
+        assertEquals("first", ZipRecordImporter.findIdentifier(
+                "<mets><mods:identifier>first</mods:identifier><mods:identifier>second</mods:identifier></mets>"));
+        assertEquals(null, ZipRecordImporter.findIdentifier("<mets><mods:title>No id</mods:title></mets>"));
+    }
+
+    @Test
+    void importContinuesPastFailures() throws Exception {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        doThrow(new InternalServiceException("boom")).when(storage)
+                .recordPost(argThat(r -> "test.origin:failing".equals(r.getId())));
+        byte[] zip = zip("good1.xml", record("urn:uuid:good1"),
+                         "noid.xml", "<mets><mods:title>No id</mods:title></mets>",
+                         "malformed.xml", "<mets><mods:identifier>broken</mets>",
+                         "failing.xml", record("urn:uuid:failing"),
+                         "good2.xml", record("urn:uuid:good2"));
+
+        List<String> failed = new ZipRecordImporter(storage, "test.origin", 3)
+                .importRecords(new ByteArrayInputStream(zip));
+
+        assertEquals(List.of("noid.xml", "malformed.xml", "failing.xml"), failed);
+        ArgumentCaptor<DsRecordDto> posted = ArgumentCaptor.forClass(DsRecordDto.class);
+        verify(storage, times(3)).recordPost(posted.capture());
+        List<String> ids = posted.getAllValues().stream().map(DsRecordDto::getId).sorted().toList();
+        assertEquals(List.of("test.origin:failing", "test.origin:good1", "test.origin:good2"), ids);
+    }
+
+    @Test
+    void importWaitsForSlowPosts() throws Exception {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        doAnswer(invocation -> {
+            Thread.sleep(50);
+            return null;
+        }).when(storage).recordPost(any());
+        String[] entries = new String[40];
+        for (int i = 0; i < entries.length; i += 2) {
+            entries[i] = "record" + i + ".xml";
+            entries[i + 1] = record("urn:uuid:record" + i);
+        }
+
+        List<String> failed = new ZipRecordImporter(storage, "test.origin", 4)
+                .importRecords(new ByteArrayInputStream(zip(entries)));
+
+        assertEquals(List.of(), failed, "No posts should be dropped or interrupted");
+        verify(storage, times(20)).recordPost(any());
+    }
+
+    @Test
+    void importSequential() throws Exception {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        byte[] zip = zip("good1.xml", record("urn:uuid:good1"));
+
+        List<String> failed = new ZipRecordImporter(storage, "test.origin", 1)
+                .importRecords(new ByteArrayInputStream(zip));
+
+        assertEquals(List.of(), failed);
+        ArgumentCaptor<DsRecordDto> posted = ArgumentCaptor.forClass(DsRecordDto.class);
+        verify(storage).recordPost(posted.capture());
+        assertEquals("test.origin:good1", posted.getValue().getId());
+        assertEquals("test.origin", posted.getValue().getOrigin());
+        assertEquals(record("urn:uuid:good1"), posted.getValue().getData());
+    }
+
+    @Test
+    void corruptZip() throws Exception {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        byte[] zip = zip("good1.xml", record("urn:uuid:good1"), "good2.xml", record("urn:uuid:good2"));
+        byte[] truncated = Arrays.copyOf(zip, zip.length / 2);
+
+        assertThrows(InvalidArgumentServiceException.class, () ->
+                new ZipRecordImporter(storage, "test.origin", 2).importRecords(new ByteArrayInputStream(truncated)));
+        verify(storage, never()).recordPost(argThat(r -> "test.origin:good2".equals(r.getId())));
+        verify(storage, atMost(1)).recordPost(any());
+    }
+
+    private static String record(String identifier) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+               "<mets xmlns:mods=\"http://www.loc.gov/mods/v3\"><mods:mods>" +
+               "<mods:identifier>" + identifier + "</mods:identifier>" +
+               "<mods:identifier>other</mods:identifier>" +
+               "<mods:title>Title &amp; more</mods:title></mods:mods></mets>";
+    }
+
+    /**
+     * @param entries pairs of file name and content.
+     */
+    private static byte[] zip(String... entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(out)) {
+            zos.putNextEntry(new ZipEntry("records/"));
+            zos.closeEntry();
+            for (int i = 0; i < entries.length; i += 2) {
+                zos.putNextEntry(new ZipEntry(entries[i]));
+                zos.write(entries[i + 1].getBytes(StandardCharsets.UTF_8));
+                zos.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+}
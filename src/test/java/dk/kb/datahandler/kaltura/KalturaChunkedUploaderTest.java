@@ -0,0 +1,173 @@
+package dk.kb.datahandler.kaltura;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.kaltura.client.enums.MediaType;
+import com.kaltura.client.types.APIException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KalturaChunkedUploaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void uploadInChunks() throws Exception {
+        byte[] content = createContent(10_000);
+        Path file = writeFile(content);
+        FakeUploadTokenApi api = new FakeUploadTokenApi(-1);
+
+        String entryId = new KalturaChunkedUploader(api, tempDir.resolve("state"), 3000, 0, 0)
+                .upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1);
+
+        assertEquals("0_token-1", entryId);
+        assertEquals(List.of(0L, 3000L, 6000L, 9000L), api.chunkOffsets);
+        assertEquals(List.of(false, false, false, true), api.finalChunks);
+        assertArrayEquals(content, api.received.toByteArray());
+        assertFalse(Files.exists(tempDir.resolve("state").resolve("file-1.properties")),
+                "The state should be removed after a completed upload");
+    }
+
+    @Test
+    void resumeAfterFailure() throws Exception {
+        byte[] content = createContent(10_000);
+        Path file = writeFile(content);
+        Path stateFolder = tempDir.resolve("state");
+
+        FakeUploadTokenApi failing = new FakeUploadTokenApi(6000);
+        KalturaChunkedUploader uploader = new KalturaChunkedUploader(failing, stateFolder, 3000, 1, 0);
+        assertThrows(KalturaChunkedUploader.ResumableUploadException.class, () ->
+                uploader.upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1));
+        assertTrue(Files.exists(stateFolder.resolve("file-1.properties")));
+
+        // A new uploader, as after a restart, continues with the same token where kaltura stopped
+        FakeUploadTokenApi resumed = new FakeUploadTokenApi(-1);
+        resumed.received.write(failing.received.toByteArray());
+        String entryId = new KalturaChunkedUploader(resumed, stateFolder, 3000, 1, 0)
+                .upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1);
+
+        assertEquals("0_token-1", entryId);
+        assertEquals(0, resumed.tokensCreated, "The upload should resume with the existing token");
+        assertEquals(List.of(6000L, 9000L), resumed.chunkOffsets);
+        assertArrayEquals(content, resumed.received.toByteArray());
+    }
+
+    @Test
+    void waitForConversionQueue() throws Exception {
+        byte[] content = createContent(5_000);
+        Path file = writeFile(content);
+        FakeUploadTokenApi api = new FakeUploadTokenApi(-1);
+        api.queueSizes.addAll(List.of(4, 3, 1));
+
+        new KalturaChunkedUploader(api, tempDir.resolve("state"), 3000, 0, 0, 3, 1)
+                .upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1);
+
+        assertTrue(api.queueSizes.isEmpty(), "The upload should wait until the queue is below the threshold");
+        assertEquals(1, api.tokensCreated);
+        assertArrayEquals(content, api.received.toByteArray());
+    }
+
+    @Test
+    void changedFileStartsOver() throws Exception {
+        Path file = writeFile(createContent(10_000));
+        Path stateFolder = tempDir.resolve("state");
+        FakeUploadTokenApi failing = new FakeUploadTokenApi(3000);
+        assertThrows(KalturaChunkedUploader.ResumableUploadException.class, () ->
+                new KalturaChunkedUploader(failing, stateFolder, 3000, 0, 0)
+                        .upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1));
+
+        byte[] changed = createContent(5_000);
+        Files.write(file, changed);
+        FakeUploadTokenApi api = new FakeUploadTokenApi(-1);
+        new KalturaChunkedUploader(api, stateFolder, 3000, 0, 0)
+                .upload(file, "file-1.mp4", "title", "file-1", "description", "tag", MediaType.VIDEO, 1);
+
+        assertEquals(1, api.tokensCreated);
+        assertEquals(List.of(0L, 3000L), api.chunkOffsets);
+        assertArrayEquals(changed, api.received.toByteArray());
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(87).nextBytes(content);
+        return content;
+    }
+
+    private Path writeFile(byte[] content) throws IOException {
+        Path file = tempDir.resolve("stream.mp4");
+        Files.write(file, content);
+        return file;
+    }
+
+    /**
+     * Collects the uploaded bytes. Chunks starting at or after failAt fail.
+     */
+    private static class FakeUploadTokenApi implements KalturaChunkedUploader.UploadTokenApi {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<Long> chunkOffsets = new ArrayList<>();
+        final List<Boolean> finalChunks = new ArrayList<>();
+        /** The conversion queue sizes returned one at a time. */
+        final List<Integer> queueSizes = new ArrayList<>();
+        final long failAt;
+        int tokensCreated = 0;
+
+        FakeUploadTokenApi(long failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public String createUploadToken(String fileName, long fileSize) {
+            assertTrue(queueSizes.isEmpty(), "The upload should not start before the conversion queue is checked");
+            return "token-" + ++tokensCreated;
+        }
+
+        @Override
+        public long getUploadedSize(String uploadTokenId) {
+            return received.size();
+        }
+
+        @Override
+        public void uploadChunk(String uploadTokenId, InputStream chunk, String fileName, long chunkSize,
+                                long resumeAt, boolean finalChunk) throws APIException {
+            if (failAt >= 0 && resumeAt >= failAt) {
+                throw new IllegalStateException("Connection reset");
+            }
+            assertEquals(received.size(), resumeAt, "Chunks should be uploaded in order");
+            try {
+                byte[] bytes = chunk.readAllBytes();
+                assertEquals(chunkSize, bytes.length);
+                received.write(bytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            chunkOffsets.add(resumeAt);
+            finalChunks.add(finalChunk);
+        }
+
+        @Override
+        public int getConversionQueueSize() {
+            return queueSizes.isEmpty() ? 0 : queueSizes.remove(0);
+        }
+
+        @Override
+        public String addMediaEntry(String uploadTokenId, String title, String referenceId, String description,
+                                    String tag, MediaType mediaType, int conversionProfileId) {
+            return "0_" + uploadTokenId;
+        }
+    }
+}
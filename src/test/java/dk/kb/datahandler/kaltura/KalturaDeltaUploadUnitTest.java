@@ -1,5 +1,6 @@
 package dk.kb.datahandler.kaltura;
 
+import dk.kb.datahandler.solr.SolrCursorScanner;
 import dk.kb.util.webservice.exception.InternalServiceException;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.common.SolrDocument;
@@ -14,6 +15,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -33,6 +36,7 @@ class KalturaDeltaUploadUnitTest {
 
     @BeforeEach
     void initSetup() {
+        KalturaDeltaUploadJob.kalturaIdCache = null;
         service = mockStatic(KalturaDeltaUploadJob.class, CALLS_REAL_METHODS);
         service.when(() -> KalturaDeltaUploadJob.initKalturaClient()).then(inv -> null);
         service.when(() -> KalturaDeltaUploadJob.uploadStream(any(), any(), any(), any(), any(), any(), any(), anyInt()))
@@ -51,10 +55,10 @@ class KalturaDeltaUploadUnitTest {
     @Test
     void testUploadStreamsToKaltura_whenSolrHasNoDocuments_thenNoRecordIsUploadedToKaltura() {
         // Arrange
-        SolrDocumentList emptySolrDocumentList = new SolrDocumentList(); // numFound = 0
+        SolrCursorScanner emptyScanner = buildScanner(); // no pages
 
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenReturn(emptySolrDocumentList);
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(emptyScanner);
 
         // Act
         int result = KalturaDeltaUploadJob.uploadStreamsToKaltura();
@@ -69,9 +73,8 @@ class KalturaDeltaUploadUnitTest {
     void testUploadStreamsToKaltura_whenRecordAlreadyHasKalturaId_thenSkipRecord() {
         // Arrange
         SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument());
-        SolrDocumentList emptySolrDocumentList = new SolrDocumentList();
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenReturn(solrDocumentList, emptySolrDocumentList);
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
         service.when(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), eq(RECORD_ID)))
                 .thenReturn(true);
 
@@ -88,10 +91,9 @@ class KalturaDeltaUploadUnitTest {
     void testUploadStreamsToKaltura_whenProcessUploadSucceeds_thenCountUploadedStreams() {
         // Arrange
         SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument());
-        SolrDocumentList emptySolrDocumentList = new SolrDocumentList();
 
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenReturn(solrDocumentList, emptySolrDocumentList);
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
         service.when(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), eq(RECORD_ID)))
                 .thenReturn(false);
         service.when(() -> KalturaDeltaUploadJob.getInternalIdKaltura(anyString())).thenReturn(null);
@@ -106,11 +108,13 @@ class KalturaDeltaUploadUnitTest {
     }
 
     @Test
-    void testUploadStreamsToKaltura_whenFetchSolrRecordsThrowsSolrServerException_thenThrowsInternalServiceException() {
+    void testUploadStreamsToKaltura_whenFetchSolrRecordsThrowsSolrServerException_thenThrowsInternalServiceException() throws Exception {
         // Arrange
         String expectedMessage = "Solr is down";
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenThrow(new SolrServerException(expectedMessage));
+        SolrCursorScanner scanner = mock(SolrCursorScanner.class);
+        when(scanner.nextPage()).thenThrow(new SolrServerException(expectedMessage));
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(scanner);
 
         // Act and Assert
         Exception exception = assertThrows(InternalServiceException.class, KalturaDeltaUploadJob::uploadStreamsToKaltura);
@@ -118,11 +122,13 @@ class KalturaDeltaUploadUnitTest {
     }
 
     @Test
-    void testUploadStreamsToKaltura_whenFetchSolrRecordsThrowsIOException_thenThrowsInternalServiceException() {
+    void testUploadStreamsToKaltura_whenFetchSolrRecordsThrowsIOException_thenThrowsInternalServiceException() throws Exception {
         // Arrange
         String expectedMessage = "Network failure";
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenThrow(new IOException(expectedMessage));
+        SolrCursorScanner scanner = mock(SolrCursorScanner.class);
+        when(scanner.nextPage()).thenThrow(new IOException(expectedMessage));
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(scanner);
 
         // Act and Assert
         Exception exception = assertThrows(InternalServiceException.class, KalturaDeltaUploadJob::uploadStreamsToKaltura);
@@ -134,9 +140,8 @@ class KalturaDeltaUploadUnitTest {
         // Arrange
         String expectedMessage = "Could not find a valid streamPath for that input";
         SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument());
-        SolrDocumentList emptySolrDocumentList = new SolrDocumentList();
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenReturn(solrDocumentList, emptySolrDocumentList);
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
 
         try (MockedStatic<KalturaUtil> kalturaUtilMock = mockStatic(KalturaUtil.class)) {
             kalturaUtilMock.when(() -> KalturaUtil.generateStreamPath(any(), any(), any()))
@@ -152,11 +157,11 @@ class KalturaDeltaUploadUnitTest {
     void testUploadStreamsToKaltura_whenMultipleDocuments_thenAccumulatesCount() {
 
         // Arrange
-        SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument("id-1"), buildSolrDocument("id-2"));
-        SolrDocumentList emptySolrDocumentList = new SolrDocumentList();
+        SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument("id-1", "file-1"),
+                buildSolrDocument("id-2", "file-2"));
 
-        service.when(() -> KalturaDeltaUploadJob.fetchSolrRecords(anyLong(), anyInt()))
-                .thenReturn(solrDocumentList, emptySolrDocumentList);
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
         service.when(() -> KalturaDeltaUploadJob.hasStreamFileError(anyString(), anyLong())).thenReturn(null);
         service.when(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), anyString())).thenReturn(false);
         service.when(() -> KalturaDeltaUploadJob.getInternalIdKaltura(anyString())).thenReturn(null);
@@ -170,6 +175,92 @@ class KalturaDeltaUploadUnitTest {
                 anyInt()), times(2));
     }
 
+    @Test
+    void testUploadStreamsToKaltura_whenRecordsShareStream_thenUploadStreamOnce() {
+        // Arrange
+        SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument("id-1"), buildSolrDocument("id-2"));
+
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
+        service.when(() -> KalturaDeltaUploadJob.getInternalIdsKaltura(anyList())).thenReturn(Map.of());
+        service.when(() -> KalturaDeltaUploadJob.hasStreamFileError(anyString(), anyLong())).thenReturn(null);
+        service.when(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), anyString())).thenReturn(false);
+
+        // Act
+        int result = KalturaDeltaUploadJob.uploadStreamsToKaltura();
+
+        // Assert
+        assertEquals(1, result);
+        service.verify(() -> KalturaDeltaUploadJob.getInternalIdsKaltura(List.of(FILE_ID)), times(1));
+        service.verify(() -> KalturaDeltaUploadJob.getInternalIdKaltura(anyString()), never());
+        service.verify(() -> KalturaDeltaUploadJob.uploadStream(any(), any(), any(), any(), any(), any(), any(),
+                anyInt()), times(1));
+        service.verify(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), anyString()), times(1));
+    }
+
+    @Test
+    void testUploadStreamsToKaltura_whenBulkLookupFindsStream_thenSetKalturaIdWithoutUpload() {
+        // Arrange
+        SolrDocumentList solrDocumentList = buildSolrDocumentList(buildSolrDocument());
+
+        service.when(() -> KalturaDeltaUploadJob.openSolrRecords(anyLong(), anyInt()))
+                .thenReturn(buildScanner(solrDocumentList));
+        service.when(() -> KalturaDeltaUploadJob.getInternalIdsKaltura(anyList()))
+                .thenReturn(Map.of(FILE_ID, "0_existing"));
+        service.when(() -> KalturaDeltaUploadJob.hasStreamFileError(anyString(), anyLong())).thenReturn(null);
+
+        // Act
+        int result = KalturaDeltaUploadJob.uploadStreamsToKaltura();
+
+        // Assert
+        assertEquals(0, result);
+        service.verify(() -> KalturaDeltaUploadJob.updateKalturaIdForRecord(any(), eq(FILE_ID), eq("0_existing")));
+        service.verify(() -> KalturaDeltaUploadJob.recordAlreadyHasKalturaId(any(), anyString()), never());
+        service.verify(() -> KalturaDeltaUploadJob.uploadStream(any(), any(), any(), any(), any(), any(), any(),
+                anyInt()), never());
+    }
+
+    @Test
+    void testGroupByFileId_whenRecordsShareStream_thenSameGroupInOrder() {
+        List<KalturaDeltaUploadJob.UploadRecord> records = List.of(
+                buildUploadRecord("file-1", 10L), buildUploadRecord("file-2", 20L),
+                buildUploadRecord("file-1", 30L), buildUploadRecord("file-3", 40L),
+                buildUploadRecord("file-2", 50L));
+
+        assertEquals(List.of(List.of(0, 2), List.of(1, 4), List.of(3)),
+                new ArrayList<>(KalturaDeltaUploadJob.groupByFileId(records)));
+    }
+
+    // ─── CompletedMTime ──────────────────────────────────────────────────────
+
+    @Test
+    void testCompletedMTime_whenRecordsCompleteOutOfOrder_thenOnlyAdvanceOverCompletedPrefix() {
+        KalturaDeltaUploadJob.CompletedMTime completedMTime = new KalturaDeltaUploadJob.CompletedMTime();
+        completedMTime.startBatch(buildUploadRecords(10L, 20L, 30L));
+
+        completedMTime.completed(2);
+        assertEquals(0L, completedMTime.get());
+        completedMTime.completed(0);
+        assertEquals(11L, completedMTime.get());
+        completedMTime.completed(1);
+        assertEquals(31L, completedMTime.get());
+    }
+
+    @Test
+    void testCompletedMTime_whenRecordFails_thenNeverAdvancePastIt() {
+        KalturaDeltaUploadJob.CompletedMTime completedMTime = new KalturaDeltaUploadJob.CompletedMTime();
+        completedMTime.startBatch(buildUploadRecords(10L, 20L, 30L));
+        completedMTime.completed(0);
+        // Record 1 failed
+        completedMTime.completed(2);
+        assertEquals(11L, completedMTime.get());
+
+        completedMTime.startBatch(buildUploadRecords(40L, 50L));
+        completedMTime.completed(0);
+        completedMTime.completed(1);
+        assertEquals(11L, completedMTime.get());
+    }
+
     // ─── Helpers ─────────────────────────────────────────────────────────────
 
     private SolrDocument buildSolrDocument() {
@@ -177,9 +268,13 @@ class KalturaDeltaUploadUnitTest {
     }
 
     private SolrDocument buildSolrDocument(String id) {
+        return buildSolrDocument(id, FILE_ID);
+    }
+
+    private SolrDocument buildSolrDocument(String id, String fileId) {
         SolrDocument solrDocument = new SolrDocument();
         solrDocument.setField("id", id);
-        solrDocument.setField("file_id", FILE_ID);
+        solrDocument.setField("file_id", fileId);
         solrDocument.setField("file_path", FILE_PATH);
         solrDocument.setField("file_extension", FILE_EXTENSION);
         solrDocument.setField("resource_description", RESOURCE_DESCRIPTION);
@@ -195,6 +290,31 @@ class KalturaDeltaUploadUnitTest {
         return solrDocument;
     }
 
+    private List<KalturaDeltaUploadJob.UploadRecord> buildUploadRecords(long... mTimes) {
+        List<KalturaDeltaUploadJob.UploadRecord> records = new ArrayList<>();
+        for (long mTime : mTimes) {
+            records.add(new KalturaDeltaUploadJob.UploadRecord(RESOURCE_DESCRIPTION, TITLE, DESCRIPTION, FILE_ID,
+                    RECORD_ID + mTime, FILE_PATH, FILE_EXTENSION, mTime));
+        }
+        return records;
+    }
+
+    private KalturaDeltaUploadJob.UploadRecord buildUploadRecord(String fileId, long mTime) {
+        return new KalturaDeltaUploadJob.UploadRecord(RESOURCE_DESCRIPTION, TITLE, DESCRIPTION, fileId,
+                RECORD_ID + mTime, FILE_PATH, FILE_EXTENSION, mTime);
+    }
+
+    private SolrCursorScanner buildScanner(SolrDocumentList... pages) {
+        SolrCursorScanner scanner = mock(SolrCursorScanner.class);
+        try {
+            SolrDocumentList[] remaining = Arrays.copyOf(pages, pages.length + 1); // null marks the end
+            when(scanner.nextPage()).thenReturn(remaining[0], Arrays.copyOfRange(remaining, 1, remaining.length));
+        } catch (SolrServerException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        return scanner;
+    }
+
     private SolrDocumentList buildSolrDocumentList(SolrDocument... documents) {
         SolrDocumentList solrDocumentList = new SolrDocumentList();
         solrDocumentList.addAll(Arrays.asList(documents));
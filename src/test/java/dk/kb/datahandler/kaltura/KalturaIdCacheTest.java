@@ -0,0 +1,59 @@
+package dk.kb.datahandler.kaltura;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KalturaIdCacheTest {
+
+    @Test
+    void resolveOnlyMissing() {
+        KalturaIdCache cache = new KalturaIdCache(600);
+        List<List<String>> lookups = new ArrayList<>();
+        KalturaIdCache.BulkLookup lookup = referenceIds -> {
+            lookups.add(referenceIds);
+            return Map.of("file-1", "0_one");
+        };
+
+        assertEquals(2, cache.resolve(List.of("file-1", "file-2", "file-1"), lookup));
+        assertEquals(1, cache.resolve(List.of("file-1", "file-2", "file-3"), lookup));
+        assertEquals(List.of(List.of("file-1", "file-2"), List.of("file-3")), lookups);
+
+        assertEquals("0_one", cache.get("file-1"));
+        assertNull(cache.get("file-2"));
+        assertTrue(cache.isResolved("file-2"), "A reference id not in kaltura should be resolved");
+        assertFalse(cache.isResolved("file-4"));
+    }
+
+    @Test
+    void expire() {
+        AtomicLong now = new AtomicLong(0);
+        KalturaIdCache cache = new KalturaIdCache(100, now::get);
+        cache.resolve(List.of("file-1"), referenceIds -> Map.of("file-1", "0_one"));
+        cache.put("file-2", "0_two");
+
+        now.set(100);
+        assertEquals("0_one", cache.get("file-1"));
+        now.set(101);
+        assertNull(cache.get("file-1"));
+        assertFalse(cache.isResolved("file-1"));
+        assertFalse(cache.isResolved("file-2"));
+    }
+
+    @Test
+    void failedLookupLeavesUnresolved() {
+        KalturaIdCache cache = new KalturaIdCache(600);
+        assertEquals(0, cache.resolve(List.of("file-1"), referenceIds -> {
+            throw new IllegalStateException("Kaltura is down");
+        }));
+        assertFalse(cache.isResolved("file-1"));
+    }
+}
@@ -0,0 +1,112 @@
+package dk.kb.datahandler.oai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dk.kb.util.webservice.exception.InternalServiceException;
+
+public class OaiPrefetchingHarvesterTest {
+
+    @Test
+    void pagesInOrder() throws IOException {
+        for (int prefetchPages = 0 ; prefetchPages <= 3 ; prefetchPages++) {
+            OaiHarvestClient client = mock(OaiHarvestClient.class);
+            when(client.next()).thenReturn(page("a", "b"), page("c"), page("d", "e"), new OaiResponse());
+
+            List<String> ids = new ArrayList<>();
+            try (OaiPrefetchingHarvester harvester = new OaiPrefetchingHarvester(client, "test", prefetchPages)) {
+                OaiResponse response = harvester.next();
+                while (!response.getRecords().isEmpty()) {
+                    response.getRecords().forEach(oaiRecord -> ids.add(oaiRecord.getId()));
+                    response = harvester.next();
+                }
+                assertTrue(harvester.next().getRecords().isEmpty(), "Empty pages should be returned after the last page");
+            }
+
+            assertEquals(List.of("a", "b", "c", "d", "e"), ids, "Prefetch pages " + prefetchPages);
+            verify(client, times(4)).next();
+        }
+    }
+
+    @Test
+    void errorStopsPrefetching() throws IOException {
+        OaiResponse error = new OaiResponse();
+        error.setError(true);
+        OaiHarvestClient client = mock(OaiHarvestClient.class);
+        when(client.next()).thenReturn(page("a"), error, page("b"));
+
+        try (OaiPrefetchingHarvester harvester = new OaiPrefetchingHarvester(client, "test", 2)) {
+            assertEquals("a", harvester.next().getRecords().get(0).getId());
+            assertTrue(harvester.next().isError());
+            assertTrue(harvester.next().getRecords().isEmpty());
+        }
+        verify(client, times(2)).next();
+    }
+
+    @Test
+    void exceptionIsDelivered() throws IOException {
+        OaiHarvestClient client = mock(OaiHarvestClient.class);
+        when(client.next()).thenReturn(page("a")).thenThrow(new IOException("Connection reset"));
+
+        try (OaiPrefetchingHarvester harvester = new OaiPrefetchingHarvester(client, "test", 2)) {
+            assertEquals("a", harvester.next().getRecords().get(0).getId());
+            IOException e = assertThrows(IOException.class, harvester::next);
+            assertEquals("Connection reset", e.getMessage());
+        }
+    }
+
+    @Test
+    void errorIsDelivered() throws IOException {
+        OaiHarvestClient client = mock(OaiHarvestClient.class);
+        when(client.next()).thenReturn(page("a")).thenThrow(new NoClassDefFoundError("Test"));
+
+        try (OaiPrefetchingHarvester harvester = new OaiPrefetchingHarvester(client, "test", 2)) {
+            assertEquals("a", harvester.next().getRecords().get(0).getId());
+            InternalServiceException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(InternalServiceException.class, harvester::next));
+            assertInstanceOf(NoClassDefFoundError.class, e.getCause());
+        }
+    }
+
+    @Test
+    void stepProcessesPages() throws IOException {
+        for (int prefetchPages = 0 ; prefetchPages <= 2 ; prefetchPages++) {
+            OaiHarvestClient client = mock(OaiHarvestClient.class);
+            when(client.next()).thenReturn(page("a", "b"), page("c"), new OaiResponse());
+            OaiHarvestStep step = oaiRecord -> oaiRecord.setMetadata("enriched " + oaiRecord.getId());
+
+            List<String> metadata = new ArrayList<>();
+            try (OaiPrefetchingHarvester harvester = new OaiPrefetchingHarvester(client, "test", prefetchPages, step)) {
+                OaiResponse response = harvester.next();
+                while (!response.getRecords().isEmpty()) {
+                    response.getRecords().forEach(oaiRecord -> metadata.add(oaiRecord.getMetadata()));
+                    response = harvester.next();
+                }
+            }
+
+            assertEquals(List.of("enriched a", "enriched b", "enriched c"), metadata, "Prefetch pages " + prefetchPages);
+        }
+    }
+
+    private static OaiResponse page(String... ids) {
+        OaiResponse response = new OaiResponse();
+        for (String id : ids) {
+            OaiRecord oaiRecord = new OaiRecord();
+            oaiRecord.setId(id);
+            response.getRecords().add(oaiRecord);
+        }
+        response.setResumptionToken("token");
+        return response;
+    }
+}
@@ -0,0 +1,96 @@
+package dk.kb.datahandler.oai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dk.kb.datahandler.model.v1.OaiTargetDto.DateStampFormatEnum;
+
+public class OaiRangeSplitterTest {
+
+    /**
+     * Counts the records with datestamps in the range, using the datestamp format of the target.
+     */
+    private static OaiRangeSplitter.ListSizeProbe probe(List<String> datestamps, List<String> probes) {
+        return (from, until) -> {
+            probes.add(from + ".." + until);
+            return datestamps.stream()
+                    .filter(datestamp -> datestamp.substring(0, from.length()).compareTo(from) >= 0)
+                    .filter(datestamp -> until == null || datestamp.substring(0, until.length()).compareTo(until) <= 0)
+                    .count();
+        };
+    }
+
+    @Test
+    public void testSplitDays() throws Exception {
+        List<String> datestamps = List.of("2024-01-01", "2024-01-02", "2024-01-02", "2024-01-03", "2024-01-07");
+        OaiRangeSplitter splitter = new OaiRangeSplitter(
+                probe(datestamps, new ArrayList<>()), DateStampFormatEnum.DAY, 2);
+
+        List<OaiRangeSplitter.Range> ranges = splitter.split(
+                Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-01-09T12:00:00Z"));
+
+        assertEquals(4, ranges.size(), "Ranges: " + ranges);
+        assertEquals("2024-01-01", ranges.get(0).getFrom());
+        assertEquals("2024-01-01", ranges.get(0).getUntil());
+        assertEquals(1, ranges.get(0).getSize());
+        assertEquals("2024-01-02", ranges.get(1).getFrom());
+        assertEquals("2024-01-02", ranges.get(1).getUntil());
+        assertEquals(2, ranges.get(1).getSize());
+        assertEquals("2024-01-03", ranges.get(2).getFrom());
+        assertEquals("2024-01-04", ranges.get(2).getUntil());
+        assertEquals(1, ranges.get(2).getSize());
+        // The last range has no end, so records added during the harvest are included
+        assertEquals("2024-01-05", ranges.get(3).getFrom());
+        assertNull(ranges.get(3).getUntil());
+        assertEquals(1, ranges.get(3).getSize());
+    }
+
+    @Test
+    public void testSplitHours() throws Exception {
+        List<String> datestamps = List.of(
+                "2024-01-01T01:10:00Z", "2024-01-01T01:20:00Z", "2024-01-01T01:30:00Z", "2024-01-01T05:00:00Z");
+        OaiRangeSplitter splitter = new OaiRangeSplitter(
+                probe(datestamps, new ArrayList<>()), DateStampFormatEnum.DATETIME, 1);
+
+        List<OaiRangeSplitter.Range> ranges = splitter.split(
+                Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-01-01T08:00:00Z"));
+
+        // No range is shorter than an hour, so the hour with 3 records is not split
+        assertEquals(4, ranges.size(), "Ranges: " + ranges);
+        assertEquals("2024-01-01T00:00:00Z", ranges.get(0).getFrom());
+        assertEquals("2024-01-01T00:59:59Z", ranges.get(0).getUntil());
+        assertEquals(0, ranges.get(0).getSize());
+        assertEquals("2024-01-01T01:00:00Z", ranges.get(1).getFrom());
+        assertEquals("2024-01-01T01:59:59Z", ranges.get(1).getUntil());
+        assertEquals(3, ranges.get(1).getSize());
+        assertEquals("2024-01-01T02:00:00Z", ranges.get(2).getFrom());
+        assertEquals("2024-01-01T03:59:59Z", ranges.get(2).getUntil());
+        assertEquals(0, ranges.get(2).getSize());
+        assertEquals("2024-01-01T04:00:00Z", ranges.get(3).getFrom());
+        assertNull(ranges.get(3).getUntil());
+        assertEquals(1, ranges.get(3).getSize());
+    }
+
+    @Test
+    public void testUnknownSize() throws Exception {
+        List<String> probes = new ArrayList<>();
+        OaiRangeSplitter splitter = new OaiRangeSplitter((from, until) -> {
+            probes.add(from + ".." + until);
+            return -1;
+        }, DateStampFormatEnum.DAY, 10);
+
+        List<OaiRangeSplitter.Range> ranges = splitter.split(
+                Instant.parse("2024-01-01T00:00:00Z"), Instant.parse("2024-02-01T00:00:00Z"));
+
+        assertEquals(1, ranges.size());
+        assertEquals("2024-01-01", ranges.get(0).getFrom());
+        assertNull(ranges.get(0).getUntil());
+        assertEquals(List.of("2024-01-01..null"), probes);
+    }
+}
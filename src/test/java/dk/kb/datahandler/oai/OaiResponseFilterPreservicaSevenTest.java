@@ -0,0 +1,69 @@
+package dk.kb.datahandler.oai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import dk.kb.storage.model.v1.DsRecordDto;
+import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.Resolver;
+
+public class OaiResponseFilterPreservicaSevenTest {
+
+    @Test
+    void parallelAnalysisKeepsOrder() throws IOException {
+        OaiResponse response = createResponse(200);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0 ; i < 200 ; i++) {
+            if (i % 10 != 9) { // Every 10th is a structural object
+                expected.add((i % 2 == 0 ? "ds.tv:" : "ds.radio:") + "oai:du:" + i);
+            }
+        }
+
+        assertEquals(expected, storedIds(response, null));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            assertEquals(expected, storedIds(response, executor));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<String> storedIds(OaiResponse response, ExecutorService executor) {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        OaiResponseFilterPreservicaSeven filter = new OaiResponseFilterPreservicaSeven(
+                "preservica", storage, new StorageBatchPoster(storage), executor);
+        filter.addToStorage(response);
+
+        ArgumentCaptor<DsRecordDto> posted = ArgumentCaptor.forClass(DsRecordDto.class);
+        verify(storage, atLeastOnce()).recordPost(posted.capture());
+        assertEquals(posted.getAllValues().size(), filter.getProcessed());
+        return posted.getAllValues().stream().map(DsRecordDto::getId).toList();
+    }
+
+    /**
+     * @return a response where even records are TV, odd records are radio and every 10th is a structural object.
+     */
+    static OaiResponse createResponse(int records) throws IOException {
+        String tv = Resolver.resolveUTF8String("xml/pvica_origin_tv.xml");
+        String radio = Resolver.resolveUTF8String("xml/pvica_origin_radio.xml");
+        OaiResponse response = new OaiResponse();
+        for (int i = 0 ; i < records ; i++) {
+            OaiRecord oaiRecord = new OaiRecord();
+            oaiRecord.setId((i % 10 == 9 ? "oai:so:" : "oai:du:") + i);
+            oaiRecord.setMetadata(i % 2 == 0 ? tv : radio);
+            oaiRecord.setDateStamp("2024-01-01T00:00:00Z");
+            response.getRecords().add(oaiRecord);
+        }
+        return response;
+    }
+}
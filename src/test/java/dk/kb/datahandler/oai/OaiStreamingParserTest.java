@@ -0,0 +1,97 @@
+package dk.kb.datahandler.oai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.jupiter.api.Test;
+import org.xml.sax.helpers.DefaultHandler;
+
+import dk.kb.util.Resolver;
+
+public class OaiStreamingParserTest {
+
+    @Test
+    void parseListRecordsPage() throws Exception {
+        List<OaiRecord> records = new ArrayList<>();
+        OaiResponse response;
+        try (InputStream xml = Resolver.resolveStream("xml/oai_listrecords_page.xml")) {
+            response = OaiStreamingParser.parse(xml, "test", records::add);
+        }
+
+        assertFalse(response.isError());
+        assertEquals("token-for-next-page", response.getResumptionToken());
+        assertEquals("1234", response.getTotalRecords());
+        assertTrue(response.getRecords().isEmpty(), "Records should be delivered to the consumer only");
+
+        assertEquals(3, records.size());
+        assertEquals("oai:io:00000000-0000-0000-0000-000000000001", records.get(0).getId());
+        assertEquals("2024-02-01T08:00:00.000Z", records.get(0).getDateStamp());
+        assertFalse(records.get(0).isDeleted());
+
+        assertEquals("oai:io:00000000-0000-0000-0000-000000000002", records.get(1).getId());
+        assertTrue(records.get(1).isDeleted());
+        assertNull(records.get(1).getMetadata());
+
+        assertEquals("2024-02-01T10:00:00.000Z", records.get(2).getDateStamp());
+    }
+
+    @Test
+    void metadataIsSanitisedAndWellFormed() throws Exception {
+        List<OaiRecord> records = new ArrayList<>();
+        try (InputStream xml = Resolver.resolveStream("xml/oai_listrecords_page.xml")) {
+            OaiStreamingParser.parse(xml, "test", records::add);
+        }
+
+        String metadata = records.get(0).getMetadata();
+        assertTrue(metadata.startsWith("<XIP xmlns=\"http://preservica.com/XIP/v7.0\">"), "Metadata was: " + metadata);
+        assertTrue(metadata.contains("invalid escape  &amp; a valid one A"), "Metadata was: " + metadata);
+        assertFalse(metadata.contains("<metadata>"));
+
+        String metadata3 = records.get(2).getMetadata();
+        assertTrue(metadata3.contains("xmlns:xs=\"http://www.w3.org/2001/XMLSchema\""), "Metadata was: " + metadata3);
+        assertTrue(metadata3.contains("<Title lang=\"da\">Third record</Title>"), "Metadata was: " + metadata3);
+
+        // The records must be parseable on their own, as the filters does that
+        for (OaiRecord oaiRecord : List.of(records.get(0), records.get(2))) {
+            SAXParserFactory.newInstance().newSAXParser().parse(
+                    new ByteArrayInputStream(oaiRecord.getMetadata().getBytes(StandardCharsets.UTF_8)),
+                    new DefaultHandler());
+        }
+    }
+
+    @Test
+    void lastPage() {
+        String xml = "<OAI-PMH><ListRecords>" +
+                "<record><header><identifier>id1</identifier><datestamp>2024</datestamp></header>" +
+                "<metadata><foo>bar</foo></metadata></record>" +
+                "<resumptionToken/></ListRecords></OAI-PMH>";
+        List<OaiRecord> records = new ArrayList<>();
+        OaiResponse response = OaiStreamingParser.parse(new StringReader(xml), "test", records::add);
+
+        assertNull(response.getResumptionToken());
+        assertEquals("?", response.getTotalRecords());
+        assertEquals(1, records.size());
+        assertEquals("<foo>bar</foo>", records.get(0).getMetadata());
+    }
+
+    @Test
+    void errorResponse() {
+        String xml = "<OAI-PMH><error code=\"noRecordsMatch\">No records match</error></OAI-PMH>";
+        List<OaiRecord> records = new ArrayList<>();
+        OaiResponse response = OaiStreamingParser.parse(new StringReader(xml), "test", records::add);
+
+        assertTrue(response.isError());
+        assertTrue(records.isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+package dk.kb.datahandler.oai;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import dk.kb.datahandler.model.v1.OaiTargetDto;
+import dk.kb.util.Resolver;
+
+/**
+ * Measures the parsing of a ListRecords page in {@link OaiHarvestClient}: Removing invalid XML encodings and parsing
+ * with {@link OaiHarvestClient#sanitizeXml(String, String)}, extracting the records from the DOM with
+ * {@link OaiHarvestClient#extractRecordsFromXml(Document)}, serializing a single metadata element and fixing the
+ * Preservica namespaces with {@link OaiHarvestClient#nameFixPvica(String)}. The streaming parser is measured on the
+ * same page for comparison.
+ * <p>
+ * The page is built from the XIP samples in {@code src/test/resources/xml}: Preservica 7 information objects with an
+ * invalid encoding in the title, alternating with Preservica 5 deliverable units that need the namespace fix.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test -Dbenchmark=OaiXml} or with {@code main}, e.g. from the IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OaiXmlBenchmark {
+
+    @Param({"100", "500"})
+    public int records;
+
+    private String page;
+    private Document document;
+    private Element metadataElement;
+    private String deliverableUnit;
+    private OaiHarvestClient client;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        page = createPage(records);
+        OaiTargetDto target = new OaiTargetDto();
+        target.setName("benchmark");
+        client = new OaiHarvestClient(target, null);
+        document = OaiHarvestClient.sanitizeXml(page, "benchmark");
+        metadataElement = (Element) document.getElementsByTagName("metadata").item(0);
+        deliverableUnit = client.serializeXmlElementToStringUTF8(
+                document, (Element) document.getElementsByTagName("metadata").item(1));
+    }
+
+    @Benchmark
+    public Document sanitizeXml() {
+        return OaiHarvestClient.sanitizeXml(page, "benchmark");
+    }
+
+    @Benchmark
+    public List<OaiRecord> extractRecordsFromXml() {
+        return client.extractRecordsFromXml(document);
+    }
+
+    @Benchmark
+    public List<OaiRecord> sanitizeAndExtract() {
+        return client.extractRecordsFromXml(OaiHarvestClient.sanitizeXml(page, "benchmark"));
+    }
+
+    @Benchmark
+    public OaiResponse parseStreaming(Blackhole blackhole) throws IOException {
+        return OaiStreamingParser.parse(new ByteArrayInputStream(page.getBytes(StandardCharsets.UTF_8)),
+                "benchmark", blackhole::consume);
+    }
+
+    @Benchmark
+    public String serializeXmlElementToStringUTF8() {
+        return client.serializeXmlElementToStringUTF8(document, metadataElement);
+    }
+
+    @Benchmark
+    public String nameFixPvica() {
+        return OaiHarvestClient.nameFixPvica(deliverableUnit);
+    }
+
+    /**
+     * @return a ListRecords page where even records are Preservica 7 information objects and odd records are
+     *         Preservica 5 deliverable units.
+     */
+    static String createPage(int records) throws IOException {
+        String informationObject = Resolver.resolveUTF8String("xml/unenriched-metadata-test1.xml")
+                .replaceFirst("<\\?xml[^>]*\\?>", "")
+                .replace("<XIP>", "<XIP xmlns=\"http://preservica.com/XIP/v7.0\">")
+                .replace("<Title>xxxx</Title>", "<Title>Title with an invalid encoding &#0; and &amp;</Title>");
+        String deliverableUnit = Resolver.resolveUTF8String("xml/pvica_failingRecord.xml")
+                .replaceAll("(?s).*<metadata>(.*)</metadata>.*", "$1");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<OAI-PMH xmlns=\"http://www.openarchives.org/OAI/2.0/\" ")
+                .append("xmlns:xip=\"http://www.tessella.com/XIP/v4\">\n")
+                .append("<responseDate>2024-03-01T10:00:00Z</responseDate>\n<ListRecords>\n");
+        for (int i = 0; i < records; i++) {
+            String id = String.format("%08d-0000-0000-0000-000000000000", i);
+            sb.append("<record><header><identifier>").append(i % 2 == 0 ? "oai:io:" : "oai:du:").append(id)
+                    .append("</identifier><datestamp>2024-02-01T08:00:00.000Z</datestamp></header><metadata>")
+                    .append(i % 2 == 0 ? informationObject : deliverableUnit)
+                    .append("</metadata></record>\n");
+        }
+        sb.append("<resumptionToken completeListSize=\"").append(records * 10).append("\">token</resumptionToken>\n")
+                .append("</ListRecords>\n</OAI-PMH>\n");
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(OaiXmlBenchmark.class.getSimpleName()).build()).run();
+    }
+}
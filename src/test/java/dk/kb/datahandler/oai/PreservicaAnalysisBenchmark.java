@@ -0,0 +1,77 @@
+package dk.kb.datahandler.oai;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import dk.kb.storage.util.DsStorageClient;
+
+/**
+ * Measures {@link OaiResponseFilterPreservicaSeven#addToStorage(OaiResponse)} for a page of 500 records built from
+ * the XIP samples in {@code src/test/resources/xml}, with the SAX analysis done on the calling thread
+ * ({@code analysisThreads=1}) or in parallel. Storage is a mock that does nothing.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test -Dbenchmark=PreservicaAnalysis} or with {@code main}, e.g. from the IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreservicaAnalysisBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int analysisThreads;
+
+    private OaiResponse page;
+    private DsStorageClient storage;
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        page = OaiResponseFilterPreservicaSevenTest.createResponse(500);
+        storage = mock(DsStorageClient.class, withSettings().stubOnly());
+        executor = analysisThreads > 1 ? Executors.newFixedThreadPool(analysisThreads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public int filterPage() {
+        OaiResponseFilterPreservicaSeven filter = new OaiResponseFilterPreservicaSeven(
+                "preservica", storage, new StorageBatchPoster(storage), executor);
+        filter.addToStorage(page);
+        return filter.getProcessed();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PreservicaAnalysisBenchmark.class.getSimpleName()).build()).run();
+    }
+}
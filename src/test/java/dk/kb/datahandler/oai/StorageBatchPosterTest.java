@@ -0,0 +1,126 @@
+package dk.kb.datahandler.oai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+import java.util.concurrent.ExecutorService;
+
+import org.junit.jupiter.api.Test;
+
+import dk.kb.storage.model.v1.DsRecordDto;
+import dk.kb.storage.util.DsStorageClient;
+import dk.kb.util.webservice.exception.InternalServiceException;
+
+public class StorageBatchPosterTest {
+
+    @Test
+    void flushOnRecordCount() {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        try (StorageBatchPoster poster = new StorageBatchPoster(storage, 3, 0, 1)) {
+            poster.post(record("a", "data"));
+            poster.post(record("b", "data"));
+            verify(storage, never()).recordPost(any());
+
+            poster.delete("c");
+            verify(storage, times(2)).recordPost(any());
+            verify(storage).markRecordForDelete("c");
+
+            poster.post(record("d", "data"));
+            poster.flush();
+            verify(storage, times(3)).recordPost(any());
+            assertEquals(4, poster.getFlushedRecords());
+        }
+    }
+
+    @Test
+    void flushOnSize() {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        try (StorageBatchPoster poster = new StorageBatchPoster(storage, 100, 10, 1)) {
+            poster.post(record("a", "12345"));
+            verify(storage, never()).recordPost(any());
+            poster.post(record("b", "12345"));
+            verify(storage, times(2)).recordPost(any());
+            assertEquals(10, poster.getFlushedBytes());
+        }
+    }
+
+    @Test
+    void sizeIsUtf8Bytes() {
+        assertEquals(5, StorageBatchPoster.utf8Length("12345"));
+        assertEquals(6, StorageBatchPoster.utf8Length("æøå"));
+        assertEquals(3, StorageBatchPoster.utf8Length("€"));
+        assertEquals(4, StorageBatchPoster.utf8Length("\uD83D\uDE00"));
+
+        DsStorageClient storage = mock(DsStorageClient.class);
+        try (StorageBatchPoster poster = new StorageBatchPoster(storage, 100, 10, 1)) {
+            // 5 characters, but 10 bytes
+            poster.post(record("a", "æøåæø"));
+            verify(storage).recordPost(any());
+            assertEquals(10, poster.getFlushedBytes());
+        }
+    }
+
+    @Test
+    void sameIdIsNotBatchedTwice() {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        try (StorageBatchPoster poster = new StorageBatchPoster(storage, 100, 0, 4)) {
+            poster.post(record("a", "data"));
+            poster.delete("a");
+            verify(storage).recordPost(any());
+            verify(storage, never()).markRecordForDelete(any());
+            poster.flush();
+            verify(storage).markRecordForDelete("a");
+        }
+    }
+
+    @Test
+    void failuresAreAttributedToIds() {
+        for (int threads = 1 ; threads <= 4 ; threads += 3) {
+            DsStorageClient storage = mock(DsStorageClient.class);
+            doThrow(new InternalServiceException("boom")).when(storage).recordPost(argThat(r -> "b".equals(r.getId())));
+            doThrow(new InternalServiceException("boom")).when(storage).markRecordForDelete("d");
+
+            try (StorageBatchPoster poster = new StorageBatchPoster(storage, 100, 0, threads)) {
+                poster.post(record("a", "data"));
+                poster.post(record("b", "data"));
+                poster.post(record("c", "data"));
+                poster.delete("d");
+                InternalServiceException e = assertThrows(InternalServiceException.class, poster::flush);
+                assertTrue(e.getMessage().contains("[b, d]"), "Message was: " + e.getMessage());
+                // The records that did not fail are still sent
+                verify(storage, times(3)).recordPost(any());
+                verify(storage).markRecordForDelete("d");
+            }
+        }
+    }
+
+    @Test
+    void sharedExecutorIsNotShutDown() {
+        DsStorageClient storage = mock(DsStorageClient.class);
+        ExecutorService executor = StorageBatchPoster.createExecutor(2);
+        try {
+            for (String id : new String[]{"a", "b"}) {
+                try (StorageBatchPoster poster = new StorageBatchPoster(storage, 100, 0, executor)) {
+                    poster.post(record(id, "data"));
+                    poster.flush();
+                }
+                assertFalse(executor.isShutdown(), "A shared pool should not be shut down when a poster is closed");
+            }
+            verify(storage, times(2)).recordPost(any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static DsRecordDto record(String id, String data) {
+        DsRecordDto dsRecord = new DsRecordDto();
+        dsRecord.setId(id);
+        dsRecord.setData(data);
+        return dsRecord;
+    }
+}
@@ -0,0 +1,147 @@
+package dk.kb.datahandler.solr;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import dk.kb.util.webservice.exception.InternalServiceException;
+import dk.kb.util.webservice.stream.ContinuationInputStream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+public class SolrBatchPrefetcherTest {
+
+    @Test
+    void prefetchInMemory() throws IOException {
+        assertBatchesInOrder(2, false);
+    }
+
+    @Test
+    void prefetchToFile() throws IOException {
+        assertBatchesInOrder(1, true);
+    }
+
+    @Test
+    void noPrefetch() throws IOException {
+        assertBatchesInOrder(0, false);
+    }
+
+    @Test
+    void stopAtMTimeTo() throws IOException {
+        List<Long> requested = new ArrayList<>();
+        SolrBatchPrefetcher.BatchSource source = sinceTime -> {
+            requested.add(sinceTime);
+            return batch("[]", sinceTime + 100, true);
+        };
+
+        try (SolrBatchPrefetcher prefetcher = new SolrBatchPrefetcher(source, 0L, 250L, 1, false, "test")) {
+            assertFalse(prefetcher.next().isLast());
+            assertFalse(prefetcher.next().isLast());
+            SolrBatchPrefetcher.Batch last = prefetcher.next();
+            assertTrue(last.isLast(), "The batch with continuation token 300 should be the last before 250");
+            assertEquals(250L, last.getContinuationToken(), "The last batch should be trimmed to mTimeTo");
+            assertNull(prefetcher.next());
+        }
+        assertEquals(List.of(0L, 100L, 200L), requested);
+    }
+
+    @Test
+    void trimLastBatchToMTimeTo() throws IOException {
+        assertTrimmed(1);
+        assertTrimmed(0);
+    }
+
+    private void assertTrimmed(int prefetchBatches) throws IOException {
+        SolrBatchPrefetcher.BatchSource source = sinceTime -> batch(
+                "[{\"id\":\"a\",\"internal_storage_mTime\":240},\n" +
+                " {\"id\":\"b\",\"internal_storage_mTime\":250},\n" +
+                " {\"id\":\"c\",\"internal_storage_mTime\":260}]", 260L, true);
+
+        try (SolrBatchPrefetcher prefetcher = new SolrBatchPrefetcher(source, 200L, 250L, prefetchBatches, false, "test");
+             SolrBatchPrefetcher.Batch batch = prefetcher.next();
+             InputStream in = batch.getStream()) {
+            assertTrue(batch.isLast());
+            assertEquals(2L, batch.getRecordCount());
+            assertEquals(250L, batch.getContinuationToken());
+            assertEquals("[{\"id\":\"a\",\"internal_storage_mTime\":240},{\"id\":\"b\",\"internal_storage_mTime\":250}]",
+                    new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            assertNull(prefetcher.next());
+        }
+    }
+
+    @Test
+    void exceptionIsDelivered() throws IOException {
+        SolrBatchPrefetcher.BatchSource source = sinceTime -> {
+            if (sinceTime > 0) {
+                throw new IOException("ds-present failed");
+            }
+            return batch("[]", 100L, true);
+        };
+
+        try (SolrBatchPrefetcher prefetcher = new SolrBatchPrefetcher(source, 0L, null, 1, false, "test")) {
+            assertEquals(100L, prefetcher.next().getContinuationToken());
+            assertThrows(IOException.class, prefetcher::next);
+        }
+    }
+
+    @Test
+    void errorIsDelivered() {
+        SolrBatchPrefetcher.BatchSource source = sinceTime -> {
+            throw new NoClassDefFoundError("Test");
+        };
+
+        try (SolrBatchPrefetcher prefetcher = new SolrBatchPrefetcher(source, 0L, null, 1, false, "test")) {
+            InternalServiceException e = assertTimeoutPreemptively(Duration.ofSeconds(10),
+                    () -> assertThrows(InternalServiceException.class, prefetcher::next));
+            assertInstanceOf(NoClassDefFoundError.class, e.getCause());
+        }
+    }
+
+    private void assertBatchesInOrder(int prefetchBatches, boolean spoolToFile) throws IOException {
+        SolrBatchPrefetcher.BatchSource source = sinceTime -> {
+            long next = sinceTime + 10;
+            return batch("[{\"id\":\"" + next + "\"}]", next, next < 50);
+        };
+
+        List<String> content = new ArrayList<>();
+        try (SolrBatchPrefetcher prefetcher =
+                     new SolrBatchPrefetcher(source, 0L, null, prefetchBatches, spoolToFile, "test")) {
+            SolrBatchPrefetcher.Batch batch;
+            while ((batch = prefetcher.next()) != null) {
+                try (InputStream in = batch.getStream()) {
+                    content.add(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+                }
+                batch.close();
+            }
+        }
+        assertEquals(List.of("[{\"id\":\"10\"}]", "[{\"id\":\"20\"}]", "[{\"id\":\"30\"}]",
+                             "[{\"id\":\"40\"}]", "[{\"id\":\"50\"}]"), content);
+    }
+
+    /**
+     * A stream from ds-present. Reads are delegated to the JSON, the continuation headers are stubbed.
+     */
+    @SuppressWarnings("unchecked")
+    private static ContinuationInputStream<Long> batch(String json, Long continuationToken, boolean hasMore) {
+        ContinuationInputStream<Long> stream = mock(ContinuationInputStream.class,
+                delegatesTo(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))));
+        doReturn(1L).when(stream).getRecordCount();
+        doReturn(continuationToken).when(stream).getContinuationToken();
+        doReturn(hasMore).when(stream).hasMore();
+        return stream;
+    }
+}
@@ -0,0 +1,56 @@
+package dk.kb.datahandler.solr;
+
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+import org.apache.http.client.utils.URIBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SolrCommitPolicyTest {
+
+    @Test
+    void parseStrategy() {
+        assertEquals(SolrCommitPolicy.Strategy.FINAL, SolrCommitPolicy.parseStrategy("final"));
+        assertEquals(SolrCommitPolicy.Strategy.INTERVAL, SolrCommitPolicy.parseStrategy(" Interval "));
+        assertEquals(SolrCommitPolicy.Strategy.SOFT, SolrCommitPolicy.parseStrategy("SOFT"));
+        assertThrows(InvalidArgumentServiceException.class, () -> SolrCommitPolicy.parseStrategy("always"));
+    }
+
+    @Test
+    void finalStrategy() throws Exception {
+        SolrCommitPolicy policy = new SolrCommitPolicy(SolrCommitPolicy.Strategy.FINAL, 5000, 10, 1);
+        URIBuilder url = new URIBuilder("http://localhost:10011/solr/ds-write/update");
+        policy.addUpdateParameters(url);
+
+        assertEquals("http://localhost:10011/solr/ds-write/update?commitWithin=5000", url.build().toString());
+        assertFalse(policy.shouldCommit(1000));
+        assertTrue(policy.commitAtEnd());
+    }
+
+    @Test
+    void intervalStrategy() throws Exception {
+        SolrCommitPolicy policy = new SolrCommitPolicy(SolrCommitPolicy.Strategy.INTERVAL, 5000, 1000, 0);
+        URIBuilder url = new URIBuilder("http://localhost:10011/solr/ds-write/update");
+        policy.addUpdateParameters(url);
+
+        assertEquals("http://localhost:10011/solr/ds-write/update", url.build().toString());
+        assertFalse(policy.shouldCommit(500));
+        assertTrue(policy.shouldCommit(500));
+        assertFalse(policy.shouldCommit(500), "Documents should be counted from the last commit");
+        assertTrue(policy.commitAtEnd());
+    }
+
+    @Test
+    void softStrategy() throws Exception {
+        SolrCommitPolicy policy = new SolrCommitPolicy(SolrCommitPolicy.Strategy.SOFT, 0, 1, 1);
+        URIBuilder url = new URIBuilder("http://localhost:10011/solr/ds-write/update");
+        policy.addUpdateParameters(url);
+
+        assertEquals("http://localhost:10011/solr/ds-write/update?softCommit=true", url.build().toString());
+        assertFalse(policy.shouldCommit(1000));
+        assertFalse(policy.commitAtEnd());
+    }
+}
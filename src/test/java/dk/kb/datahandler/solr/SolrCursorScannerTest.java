@@ -0,0 +1,115 @@
+package dk.kb.datahandler.solr;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.params.SolrParams;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SolrCursorScannerTest {
+
+    @Test
+    void scanWithPrefetch() throws Exception {
+        assertScan(true);
+    }
+
+    @Test
+    void scanWithoutPrefetch() throws Exception {
+        assertScan(false);
+    }
+
+    @Test
+    void emptyResult() throws Exception {
+        SolrClient client = mock(SolrClient.class);
+        QueryResponse empty = response(CursorMarkParams.CURSOR_MARK_START);
+        when(client.query(any(SolrParams.class))).thenReturn(empty);
+
+        try (SolrCursorScanner scanner = new SolrCursorScanner(client, new SolrQuery("*:*"), "id", 2, true, "test")) {
+            assertNull(scanner.nextPage());
+            assertNull(scanner.nextPage());
+        }
+        verify(client, times(1)).query(any(SolrParams.class));
+    }
+
+    @Test
+    void prefetchExceptionIsDelivered() throws Exception {
+        SolrClient client = mock(SolrClient.class);
+        QueryResponse first = response("mark1", "a", "b");
+        when(client.query(any(SolrParams.class))).thenReturn(first).thenThrow(new SolrServerException("Solr is down"));
+
+        try (SolrCursorScanner scanner = new SolrCursorScanner(client, new SolrQuery("*:*"), "id", 2, true, "test")) {
+            assertEquals(2, scanner.nextPage().size());
+            SolrServerException e = assertThrows(SolrServerException.class, scanner::nextPage);
+            assertEquals("Solr is down", e.getMessage());
+        }
+    }
+
+    @Test
+    void tiebreak() {
+        assertEquals("id asc", SolrCursorScanner.addTiebreak(null, "id"));
+        assertEquals("mTime asc,id asc", SolrCursorScanner.addTiebreak("mTime asc", "id"));
+        assertEquals("id desc", SolrCursorScanner.addTiebreak("id desc", "id"));
+        assertEquals("mTime asc, id desc", SolrCursorScanner.addTiebreak("mTime asc, id desc", "id"));
+        assertEquals("identifier asc,id asc", SolrCursorScanner.addTiebreak("identifier asc", "id"));
+    }
+
+    private void assertScan(boolean prefetch) throws SolrServerException, IOException {
+        SolrClient client = mock(SolrClient.class);
+        QueryResponse first = response("mark1", "a", "b");
+        QueryResponse second = response("mark2", "c");
+        QueryResponse last = response("mark2"); // Same cursorMark and no documents at the end
+        when(client.query(any(SolrParams.class))).thenReturn(first, second, last);
+
+        SolrQuery query = new SolrQuery("*:*");
+        query.setSort("mTime", SolrQuery.ORDER.asc);
+        try (SolrCursorScanner scanner = new SolrCursorScanner(client, query, "id", 2, prefetch, "test")) {
+            assertEquals(List.of("a", "b"), ids(scanner.nextPage()));
+            assertEquals(List.of("c"), ids(scanner.nextPage()));
+            assertNull(scanner.nextPage());
+            assertEquals(3, scanner.getDocumentsDelivered());
+        }
+
+        ArgumentCaptor<SolrParams> params = ArgumentCaptor.forClass(SolrParams.class);
+        verify(client, times(3)).query(params.capture());
+        assertEquals(CursorMarkParams.CURSOR_MARK_START, params.getAllValues().get(0).get(CursorMarkParams.CURSOR_MARK_PARAM));
+        assertEquals("mark1", params.getAllValues().get(1).get(CursorMarkParams.CURSOR_MARK_PARAM));
+        assertEquals("mark2", params.getAllValues().get(2).get(CursorMarkParams.CURSOR_MARK_PARAM));
+        assertEquals("mTime asc,id asc", params.getAllValues().get(0).get("sort"));
+        assertEquals("2", params.getAllValues().get(0).get("rows"));
+    }
+
+    private static QueryResponse response(String nextCursorMark, String... ids) {
+        SolrDocumentList docs = new SolrDocumentList();
+        for (String id : ids) {
+            SolrDocument doc = new SolrDocument();
+            doc.setField("id", id);
+            docs.add(doc);
+        }
+        docs.setNumFound(ids.length);
+        QueryResponse response = mock(QueryResponse.class);
+        when(response.getResults()).thenReturn(docs);
+        when(response.getNextCursorMark()).thenReturn(nextCursorMark);
+        return response;
+    }
+
+    private static List<String> ids(SolrDocumentList docs) {
+        return docs.stream().map(doc -> (String) doc.getFieldValue("id")).toList();
+    }
+}
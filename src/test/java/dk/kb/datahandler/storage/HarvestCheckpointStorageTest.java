@@ -0,0 +1,88 @@
+package dk.kb.datahandler.storage;
+
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.H2DbUtil;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HarvestCheckpointStorageTest {
+    protected static final String TEST_CLASSES_PATH = new File(Thread.currentThread().getContextClassLoader().getResource("logback-test.xml").getPath()).getParentFile().getAbsolutePath();
+    protected static final String DB_URL = "jdbc:h2:" + TEST_CLASSES_PATH + "/ds_datahandler;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+    private static final String DRIVER = "org.h2.Driver";
+    private static final String USERNAME = "";
+    private static final String PASSWORD = "";
+
+    @BeforeAll
+    public static void beforeClass() throws Exception {
+        ServiceConfig.initialize("conf/ds-datahandler-behaviour.yaml");
+
+        H2DbUtil.createEmptyH2DBFromDDL(DB_URL, DRIVER, USERNAME, PASSWORD);
+        BasicStorage.initialize(DRIVER, DB_URL, USERNAME, PASSWORD);
+    }
+
+    @Test
+    public void testSaveAndResume() throws Exception {
+        String target = "checkpoint.test." + UUID.randomUUID();
+        UUID jobId = UUID.randomUUID();
+        HarvestCheckpoint start = HarvestCheckpoint.start(target, "2024-01-01T00:00:00Z").forJob(jobId);
+        assertFalse(start.isResumable());
+
+        try (HarvestCheckpointStorage storage = new HarvestCheckpointStorage()) {
+            assertNull(storage.getCheckpoint(target));
+
+            storage.saveCheckpoint(start.next("2024-01-02T10:00:00Z", "token-1", 100));
+            storage.commit();
+            HarvestCheckpoint page1 = storage.getCheckpoint(target);
+            assertTrue(page1.isResumable());
+            assertEquals("2024-01-02T10:00:00Z", page1.getDatestamp());
+            assertEquals("2024-01-01T00:00:00Z", page1.getFrom());
+            assertEquals("token-1", page1.getResumptionToken());
+            assertEquals(100, page1.getNumberOfRecords());
+            assertEquals(jobId, page1.getJobId());
+
+            // A resumed harvest counts records from the stopped harvest
+            storage.saveCheckpoint(page1.next("2024-01-03T10:00:00Z", null, 50));
+            storage.commit();
+            HarvestCheckpoint completed = storage.getCheckpoint(target);
+            assertFalse(completed.isResumable());
+            assertEquals("2024-01-03T10:00:00Z", completed.getDatestamp());
+            assertEquals(150, completed.getNumberOfRecords());
+        }
+    }
+
+    @Test
+    public void testDeleteCheckpoints() throws Exception {
+        String target = "checkpoint.test." + UUID.randomUUID();
+        try (HarvestCheckpointStorage storage = new HarvestCheckpointStorage()) {
+            storage.saveCheckpoint(HarvestCheckpoint.start(target, "2024-01-01T00:00:00Z"));
+            storage.saveCheckpoint(HarvestCheckpoint.start(target + "|2024-01-01", "2024-01-01T00:00:00Z"));
+            storage.saveCheckpoint(HarvestCheckpoint.start(target + "|2024-02-01", "2024-02-01T00:00:00Z"));
+            storage.commit();
+
+            assertEquals(List.of(target + "|2024-01-01", target + "|2024-02-01"),
+                    storage.getCheckpoints(target + "|").stream().map(HarvestCheckpoint::getTarget).toList());
+
+            assertEquals(2, storage.deleteCheckpoints(target + "|"));
+            storage.commit();
+            assertNotNull(storage.getCheckpoint(target));
+            assertNull(storage.getCheckpoint(target + "|2024-01-01"));
+            assertEquals(List.of(), storage.getCheckpoints(target + "|"));
+        }
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        String target = "checkpoint.test." + UUID.randomUUID();
+        try (HarvestCheckpointStorage storage = new HarvestCheckpointStorage()) {
+            storage.saveCheckpoint(HarvestCheckpoint.start(target, "2024-01-01T00:00:00Z"));
+            storage.rollback();
+            assertNull(storage.getCheckpoint(target));
+        }
+    }
+}
@@ -138,6 +138,45 @@ public class JobStorageTest {
         assertTrue(Duration.between(jobDtoFromDb.getRestartValue(), updatedJobDtoFromDb.getRestartValue()).toSeconds() <= 0);
     }
 
+    @Test
+    public void testGetJob() throws SQLException {
+        JobDto jobDto = genetrateJobDto();
+        UUID jobId = storage.createJob(jobDto);
+
+        JobDto jobDtoFromDb = storage.getJob(jobId);
+
+        assertNotNull(jobDtoFromDb);
+        assertEquals(jobId, jobDtoFromDb.getId());
+        assertEquals(jobDto.getCategory(), jobDtoFromDb.getCategory());
+        assertNull(jobDtoFromDb.getRecordsPerSecond());
+        assertNull(jobDtoFromDb.getCurrentPosition());
+
+        assertNull(storage.getJob(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testUpdateJobProgress() throws SQLException {
+        JobDto jobDto = genetrateJobDto();
+        jobDto.setId(storage.createJob(jobDto));
+
+        jobDto.setNumberOfRecords(1000);
+        jobDto.setRecordsPerSecond(123.5);
+        jobDto.setCurrentPosition("resumptionToken-1000");
+        assertEquals(1, storage.updateJobProgress(jobDto));
+
+        JobDto jobDtoFromDb = storage.getJob(jobDto.getId());
+        assertEquals(1000, jobDtoFromDb.getNumberOfRecords());
+        assertEquals(123.5, jobDtoFromDb.getRecordsPerSecond());
+        assertEquals("resumptionToken-1000", jobDtoFromDb.getCurrentPosition());
+
+        // A job that is no longer running must not have its result overwritten by a late progress update
+        jobDto.setJobStatus(JobStatusDto.COMPLETED);
+        storage.updateJob(jobDto);
+        jobDto.setNumberOfRecords(2000);
+        assertEquals(0, storage.updateJobProgress(jobDto));
+        assertEquals(1000, storage.getJob(jobDto.getId()).getNumberOfRecords());
+    }
+
     @Test
     public void hasRunningJob_whenSourceHasValue_thenReturnTrue() throws SQLException {
         // Arrange
@@ -184,6 +223,28 @@ public class JobStorageTest {
         assertTrue(storage.hasRunningJob(CategoryDto.KALTURA_UPLOAD, null));
     }
 
+    @Test
+    public void testStartQueuedJob() throws SQLException {
+        JobDto jobDto = genetrateJobDto();
+        jobDto.setJobStatus(JobStatusDto.QUEUED);
+        jobDto.setStartTime(OffsetDateTime.now(ZoneOffset.UTC).minusDays(10));
+        jobDto.setId(storage.createJob(jobDto));
+
+        // A queued job blocks new jobs and is not deleted as finished
+        assertTrue(storage.hasRunningJob(CategoryDto.OAI_HARVEST, null));
+        assertEquals(0, storage.deleteFinishedJobs(OffsetDateTime.now(ZoneOffset.UTC), 10));
+
+        assertEquals(1, storage.startQueuedJob(jobDto.getId()));
+        assertEquals(JobStatusDto.RUNNING, storage.getJob(jobDto.getId()).getJobStatus());
+
+        // Only queued jobs are started
+        assertEquals(0, storage.startQueuedJob(jobDto.getId()));
+        jobDto.setJobStatus(JobStatusDto.STOPPED);
+        storage.updateJob(jobDto);
+        assertEquals(0, storage.startQueuedJob(jobDto.getId()));
+        assertEquals(JobStatusDto.STOPPED, storage.getJob(jobDto.getId()).getJobStatus());
+    }
+
     @Test
     public void testGetJobs() throws SQLException {
         JobDto jobDto = genetrateJobDto();
@@ -207,6 +268,59 @@ public class JobStorageTest {
         assertEquals(1, storage.getJobs(CategoryDto.OAI_HARVEST, JobStatusDto.COMPLETED).size());
     }
 
+    @Test
+    public void testGetJobsPaged() throws SQLException {
+        JobDto jobDto = genetrateJobDto();
+        OffsetDateTime start = OffsetDateTime.now(ZoneOffset.UTC).minusDays(1);
+        for (int i = 0; i < 5; i++) {
+            jobDto.setStartTime(start.plusMinutes(i));
+            storage.createJob(jobDto);
+        }
+        jobDto.setCategory(CategoryDto.SOLR_INDEX);
+        storage.createJob(jobDto);
+
+        List<JobDto> all = storage.getJobs(null, null);
+        List<JobDto> firstPage = storage.getJobs(null, null, null, 2);
+        List<JobDto> secondPage = storage.getJobs(null, null, firstPage.get(1).getId(), 2);
+        List<JobDto> lastPage = storage.getJobs(null, null, secondPage.get(1).getId(), 2);
+
+        assertEquals(6, all.size());
+        assertEquals(all.subList(0, 2).stream().map(JobDto::getId).toList(),
+                firstPage.stream().map(JobDto::getId).toList());
+        assertEquals(all.subList(2, 4).stream().map(JobDto::getId).toList(),
+                secondPage.stream().map(JobDto::getId).toList());
+        assertEquals(all.subList(4, 6).stream().map(JobDto::getId).toList(),
+                lastPage.stream().map(JobDto::getId).toList());
+        assertEquals(CategoryDto.SOLR_INDEX, lastPage.get(1).getCategory());
+        assertEquals(0, storage.getJobs(null, null, lastPage.get(1).getId(), 2).size());
+
+        List<JobDto> oaiPage = storage.getJobs(CategoryDto.OAI_HARVEST, null, firstPage.get(1).getId(), 10);
+        assertEquals(3, oaiPage.size());
+    }
+
+    @Test
+    public void testDeleteFinishedJobs() throws SQLException {
+        JobDto jobDto = genetrateJobDto();
+        OffsetDateTime now = OffsetDateTime.now(ZoneOffset.UTC);
+        jobDto.setStartTime(now.minusDays(10));
+        storage.createJob(jobDto); // Old, but still running
+        jobDto.setJobStatus(JobStatusDto.COMPLETED);
+        storage.createJob(jobDto);
+        storage.createJob(jobDto);
+        jobDto.setJobStatus(JobStatusDto.FAILED);
+        storage.createJob(jobDto);
+        jobDto.setStartTime(now);
+        storage.createJob(jobDto); // New
+
+        assertEquals(2, storage.deleteFinishedJobs(now.minusDays(5), 2));
+        assertEquals(1, storage.deleteFinishedJobs(now.minusDays(5), 2));
+        assertEquals(0, storage.deleteFinishedJobs(now.minusDays(5), 2));
+        storage.commit();
+
+        assertEquals(2, storage.getJobs(null, null).size());
+        assertEquals(1, storage.getJobs(null, JobStatusDto.RUNNING).size());
+    }
+
     @NotNull
     private static JobDto genetrateJobDto() {
         JobDto jobDto = new JobDto();
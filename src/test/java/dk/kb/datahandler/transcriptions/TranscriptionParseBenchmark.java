@@ -0,0 +1,126 @@
+package dk.kb.datahandler.transcriptions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import dk.kb.storage.model.v1.TranscriptionDto;
+import dk.kb.util.Resolver;
+
+/**
+ * Measures {@link TranscriptionIndexer#parseFile(String, String, String)} with the streaming parser against parsing
+ * the 3 files into Gson trees, as it was done before. The segments file is built from the segments in
+ * {@code src/test/resources/transcriptions}, repeated until it has {@code segments} segments. A multi-hour broadcast
+ * has thousands of segments.
+ * <p>
+ * Run with {@code main}, e.g. from the IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TranscriptionParseBenchmark {
+    private static final String FIXTURE = "transcriptions/ab6afdbc-baa7-4f91-80f8-00ef54b9ee7e";
+
+    @Param({"2", "1000", "10000"})
+    public int segments;
+
+    private Path folder;
+    private String nerFile;
+    private String segmentsFile;
+    private String infoFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        folder = Files.createTempDirectory("transcription-benchmark");
+        Path ner = fixture(".ner.json");
+        Path info = fixture(".info.fw.json");
+        JsonArray fixtureSegments = new Gson().fromJson(
+                Files.readString(fixture(".segments.fw.json"), StandardCharsets.UTF_8), JsonArray.class);
+        JsonArray allSegments = new JsonArray(segments);
+        for (int i = 0; i < segments; i++) {
+            allSegments.add(fixtureSegments.get(i % fixtureSegments.size()));
+        }
+
+        nerFile = Files.copy(ner, folder.resolve("benchmark.ner.json")).toString();
+        infoFile = Files.copy(info, folder.resolve("benchmark.info.fw.json")).toString();
+        segmentsFile = Files.writeString(folder.resolve("benchmark.segments.fw.json"),
+                new Gson().toJson(allSegments), StandardCharsets.UTF_8).toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public TranscriptionDto streaming() throws Exception {
+        return TranscriptionIndexer.parseFile(nerFile, segmentsFile, infoFile);
+    }
+
+    @Benchmark
+    public TranscriptionDto tree() throws Exception {
+        Gson gson = new Gson();
+        JsonObject transcriptionJson = gson.fromJson(
+                Files.readString(Path.of(nerFile), StandardCharsets.UTF_8), JsonElement.class).getAsJsonObject();
+        JsonArray segmentsJson = gson.fromJson(
+                Files.readString(Path.of(segmentsFile), StandardCharsets.UTF_8), JsonElement.class).getAsJsonArray();
+        JsonObject infoJson = gson.fromJson(
+                Files.readString(Path.of(infoFile), StandardCharsets.UTF_8), JsonElement.class).getAsJsonObject();
+
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < segmentsJson.size(); i++) {
+            JsonObject segment = segmentsJson.get(i).getAsJsonObject();
+            String line = segment.get("start").getAsString() + " - " + segment.get("end").getAsString() + " " +
+                          segment.get("text").getAsString();
+            lines.append(line);
+            lines.append("\n");
+        }
+
+        TranscriptionDto transcription = new TranscriptionDto();
+        transcription.setFileId(transcriptionJson.get("file_id").getAsString());
+        transcription.setTranscription(transcriptionJson.get("transcription").getAsString());
+        transcription.setFileName(infoJson.get("source_basename").getAsString());
+        transcription.setTranscriptionLines(lines.toString());
+        return transcription;
+    }
+
+    private static Path fixture(String suffix) throws Exception {
+        return Paths.get(Resolver.resolveURL(FIXTURE + suffix).toURI());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TranscriptionParseBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -1,15 +1,34 @@
 package dk.kb.datahandler.transcriptions;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
 
+import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.kb.datahandler.config.ServiceConfig;
+import dk.kb.datahandler.util.HttpClientRegistry;
 import dk.kb.storage.model.v1.TranscriptionDto;
+import dk.kb.storage.util.DsStorageClient;
 import dk.kb.util.Resolver;
 
 
@@ -39,4 +58,66 @@ public class TranscriptionsTest {
         assertTrue(transcriptionLines.startsWith("73.55 - 115.25 Her er transcription segment1\n")); //Notice double white space and new line
    }
     
+
+    @Test
+    void extractTranscriptionLinesTest(@TempDir Path tempDir) throws Exception {
+        Path segments = tempDir.resolve("test.segments.fw.json");
+        Files.writeString(segments, "[{\"id\": 1, \"start\": 0.0, \"end\": 1.5, \"text\": \"Første\", \"words\": [{\"word\": \"x\"}]},"
+                                    + " {\"start\": 1.5, \"end\": 3, \"avg_logprob\": NaN, \"text\": \"Anden\"}]");
+        assertEquals("0.0 - 1.5 Første\n1.5 - 3 Anden\n", TranscriptionIndexer.extractTranscriptionLines(segments));
+
+        Files.writeString(segments, "[{\"start\": 0.0, \"end\": 1.5}]");
+        assertThrows(IOException.class, () -> TranscriptionIndexer.extractTranscriptionLines(segments));
+    }
+
+    @Test
+    void processTranscriptionsInParallel(@TempDir Path tempDir) throws Exception {
+        Path drop = Files.createDirectory(tempDir.resolve("drop"));
+        Path completed = Files.createDirectory(tempDir.resolve("completed"));
+        String id = "ab6afdbc-baa7-4f91-80f8-00ef54b9ee7e";
+        String[] suffixes = {".ner.json", ".segments.fw.json", ".info.fw.json"};
+        for (int i = 0; i < 10; i++) {
+            for (String suffix : suffixes) {
+                Path source = Paths.get(Resolver.resolveURL("transcriptions/" + id + suffix).toURI());
+                Files.copy(source, drop.resolve("file-" + i + suffix));
+            }
+        }
+        // Segments and info files are missing
+        Files.writeString(drop.resolve("missing.ner.json"), "{}");
+        // Can not be parsed
+        for (String suffix : suffixes) {
+            Files.writeString(drop.resolve("broken" + suffix), "not json");
+        }
+
+        DsStorageClient storageClient = mock(DsStorageClient.class);
+        List<String> sent = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> {
+            sent.add(Thread.currentThread().getName());
+            return null;
+        }).when(storageClient).createOrUpdateTranscription(any());
+
+        try (MockedStatic<ServiceConfig> config = mockStatic(ServiceConfig.class);
+             MockedStatic<HttpClientRegistry> registry = mockStatic(HttpClientRegistry.class, CALLS_REAL_METHODS)) {
+            config.when(ServiceConfig::getTranscriptionsThreads).thenReturn(4);
+            config.when(ServiceConfig::getDsStorageUrl).thenReturn("http://localhost:9072/ds-storage/v1");
+            registry.when(() -> HttpClientRegistry.getDsStorageClient(anyString())).thenReturn(storageClient);
+
+            int success = TranscriptionJob.processTranscriptions(drop.toString(), completed.toString());
+            assertEquals(10, success);
+        }
+
+        assertEquals(10, sent.size());
+        assertTrue(sent.stream().allMatch(name -> name.startsWith("transcription-")),
+                   "Transcriptions should be sent by the worker threads");
+        try (var remaining = Files.list(drop)) {
+            assertEquals(0, remaining.count(), "All files should be moved from the drop folder");
+        }
+        for (String suffix : suffixes) {
+            assertTrue(Files.exists(completed.resolve("file-3" + suffix + ".completed")));
+            assertTrue(Files.exists(completed.resolve("broken" + suffix + ".failed")));
+        }
+        assertTrue(Files.exists(completed.resolve("missing.ner.json.failed")));
+        assertFalse(Files.exists(completed.resolve("missing.segments.fw.json.failed")));
+    }
+    
 }
@@ -0,0 +1,61 @@
+package dk.kb.datahandler.util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import dk.kb.util.webservice.exception.InvalidArgumentServiceException;
+
+public class CronScheduleTest {
+
+    // 2024-03-04 is a Monday
+    private static final LocalDateTime MONDAY_0300 = LocalDateTime.of(2024, 3, 4, 3, 0);
+
+    @Test
+    void dailyAtThree() {
+        CronSchedule schedule = new CronSchedule("0 3 * * *");
+        assertTrue(schedule.matches(MONDAY_0300));
+        assertTrue(schedule.matches(MONDAY_0300.plusSeconds(59)));
+        assertFalse(schedule.matches(MONDAY_0300.plusMinutes(1)));
+        assertFalse(schedule.matches(MONDAY_0300.plusHours(12)));
+    }
+
+    @Test
+    void stepsRangesAndLists() {
+        CronSchedule schedule = new CronSchedule("*/15 1-3,22 * * 1-5");
+        assertTrue(schedule.matches(MONDAY_0300.plusMinutes(45)));
+        assertFalse(schedule.matches(MONDAY_0300.plusMinutes(40)));
+        assertTrue(schedule.matches(MONDAY_0300.withHour(22)));
+        assertFalse(schedule.matches(MONDAY_0300.withHour(4)));
+        assertFalse(schedule.matches(MONDAY_0300.plusDays(5)), "Saturday should not match");
+    }
+
+    @Test
+    void sundayIsZeroAndSeven() {
+        LocalDateTime sunday = MONDAY_0300.minusDays(1);
+        assertTrue(new CronSchedule("0 3 * * 0").matches(sunday));
+        assertTrue(new CronSchedule("0 3 * * 7").matches(sunday));
+        assertFalse(new CronSchedule("0 3 * * 7").matches(MONDAY_0300));
+    }
+
+    @Test
+    void dayOfMonthOrDayOfWeek() {
+        // Standard cron: When both are restricted, either can match
+        CronSchedule schedule = new CronSchedule("0 3 1 * 1");
+        assertTrue(schedule.matches(MONDAY_0300));
+        assertTrue(schedule.matches(LocalDateTime.of(2024, 3, 1, 3, 0)));
+        assertFalse(schedule.matches(LocalDateTime.of(2024, 3, 2, 3, 0)));
+    }
+
+    @Test
+    void invalidExpressions() {
+        assertThrows(InvalidArgumentServiceException.class, () -> new CronSchedule("0 3 * *"));
+        assertThrows(InvalidArgumentServiceException.class, () -> new CronSchedule("60 3 * * *"));
+        assertThrows(InvalidArgumentServiceException.class, () -> new CronSchedule("0 5-3 * * *"));
+        assertThrows(InvalidArgumentServiceException.class, () -> new CronSchedule("0 x * * *"));
+    }
+}
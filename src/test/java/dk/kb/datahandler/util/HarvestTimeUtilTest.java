@@ -1,6 +1,7 @@
 package dk.kb.datahandler.util;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
@@ -41,12 +42,12 @@ public class HarvestTimeUtilTest {
         assertEquals(HarvestTimeUtil.DEFAULT_START_DATE,last);
         
         //Test create new file
-        HarvestTimeUtil.deleteFileAndWriteToFile(persistenceFile, "2020-01-02T12:34:59Z");
+        Files.writeString(Paths.get(persistenceFile), "2020-01-02T12:34:59Z", StandardCharsets.UTF_8);
         last = HarvestTimeUtil.loadLastHarvestTime( persistenceFile);                       
         assertEquals("2020-01-02T12:34:59Z",last);
         
-        //Write again when file already is created. This time it is deleted before recreated
-        HarvestTimeUtil.deleteFileAndWriteToFile(persistenceFile, "2020-01-03T00:00:00Z");
+        //Write again when file already is created
+        Files.writeString(Paths.get(persistenceFile), "2020-01-03T00:00:00Z", StandardCharsets.UTF_8);
         last = HarvestTimeUtil.loadLastHarvestTime( persistenceFile);
         assertEquals( "2020-01-03T00:00:00Z",last);
         }
@@ -0,0 +1,73 @@
+package dk.kb.datahandler.util;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.solr.client.solrj.SolrClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class HttpClientRegistryTest {
+
+    @AfterEach
+    void closeClients() {
+        HttpClientRegistry.close();
+    }
+
+    @Test
+    void sharedHttpClient() {
+        assertSame(HttpClientRegistry.getHttpClient("test-shared"), HttpClientRegistry.getHttpClient("test-shared"));
+        assertEquals(1, HttpClientRegistry.getMetrics("test-shared").getClientsCreated());
+    }
+
+    @Test
+    void sharedSolrClient() throws Exception {
+        SolrClient client = HttpClientRegistry.getSolrClient("http://localhost:10011/solr/ds");
+        client.close(); // Closing a shared client must not close it for the next caller
+        assertSame(client, HttpClientRegistry.getSolrClient("http://localhost:10011/solr/ds"));
+    }
+
+    @Test
+    void sendIsMeasured() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ok", exchange -> {
+            byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String baseUrl = "http://localhost:" + server.getAddress().getPort();
+            for (int i = 0; i < 3; i++) {
+                HttpResponse<String> response = HttpClientRegistry.send("test-send",
+                        HttpClientRegistry.newRequest(URI.create(baseUrl + "/ok")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                assertEquals("ok", response.body());
+            }
+            HttpRequest missing = HttpClientRegistry.newRequest(URI.create(baseUrl + "/missing")).build();
+            assertEquals(404, HttpClientRegistry.send("test-send", missing, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+            HttpClientRegistry.UpstreamMetrics metrics = HttpClientRegistry.getMetrics("test-send");
+            assertEquals(4, metrics.getRequests());
+            assertEquals(1, metrics.getFailures());
+            assertEquals(0, metrics.getInFlight());
+            assertEquals(1, metrics.getClientsCreated(), "All requests should use the same client");
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package dk.kb.datahandler.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsTest {
+
+    @Test
+    void counter() {
+        Metrics.Counter counter = Metrics.counter("test_counter_total", "Test counter", "decision", "stored");
+        assertSame(counter, Metrics.counter("test_counter_total", "Test counter", "decision", "stored"));
+        counter.increment();
+        counter.add(2);
+        Metrics.counter("test_counter_total", "Test counter", "decision", "deleted").increment();
+
+        String output = Metrics.toPrometheus();
+        assertTrue(output.contains("# HELP ds_datahandler_test_counter_total Test counter\n" +
+                                   "# TYPE ds_datahandler_test_counter_total counter\n" +
+                                   "ds_datahandler_test_counter_total{decision=\"deleted\"} 1\n" +
+                                   "ds_datahandler_test_counter_total{decision=\"stored\"} 3\n"), output);
+    }
+
+    @Test
+    void histogram() {
+        Metrics.Histogram histogram = Metrics.histogram("test_histogram_seconds", "Test histogram");
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.observeNanos(TimeUnit.MILLISECONDS.toNanos(200));
+        histogram.observeNanos(TimeUnit.SECONDS.toNanos(400));
+
+        assertEquals(3, histogram.getCount());
+        assertSame(histogram, Metrics.findHistogram("test_histogram_seconds", null, null));
+        assertNull(Metrics.findHistogram("test_histogram_seconds", "target", "unknown"));
+        String output = Metrics.toPrometheus();
+        assertTrue(output.contains("# TYPE ds_datahandler_test_histogram_seconds histogram\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_bucket{le=\"0.001\"} 0\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_bucket{le=\"0.005\"} 1\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_bucket{le=\"0.25\"} 2\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_bucket{le=\"300\"} 2\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_bucket{le=\"+Inf\"} 3\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_sum 400.203\n"), output);
+        assertTrue(output.contains("ds_datahandler_test_histogram_seconds_count 3\n"), output);
+    }
+
+    @Test
+    void gauge() {
+        AtomicInteger value = new AtomicInteger(2);
+        Metrics.gauge("test_gauge", "Test gauge", value::get);
+        value.set(5);
+
+        assertTrue(Metrics.toPrometheus().contains("ds_datahandler_test_gauge 5\n"));
+    }
+
+    @Test
+    void wrongType() {
+        Metrics.counter("test_type_total", "Test type");
+        assertThrows(IllegalArgumentException.class, () -> Metrics.histogram("test_type_total", "Test type"));
+    }
+}
@@ -0,0 +1,20 @@
+package dk.kb.datahandler.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NamedThreadFactoryTest {
+
+    @Test
+    void namedDaemonThreads() {
+        NamedThreadFactory factory = new NamedThreadFactory("test-pool-");
+        Thread first = factory.newThread(() -> {});
+        Thread second = factory.newThread(() -> {});
+
+        assertEquals("test-pool-1", first.getName());
+        assertEquals("test-pool-2", second.getName());
+        assertTrue(first.isDaemon());
+    }
+}
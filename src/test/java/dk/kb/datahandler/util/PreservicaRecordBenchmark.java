@@ -0,0 +1,79 @@
+package dk.kb.datahandler.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.xml.sax.SAXException;
+
+import dk.kb.storage.model.v1.DsRecordMinimalDto;
+import dk.kb.util.Resolver;
+
+/**
+ * Measures the analysis of a single Preservica record with {@link PreservicaOaiRecordHandler} and the extraction of
+ * the information object id with {@link PreservicaUtils#getPreservicaIoId(DsRecordMinimalDto)}.
+ * <p>
+ * The records are the XIP and PBCore samples in {@code src/test/resources/xml}. The parser is configured as in
+ * {@link dk.kb.datahandler.oai.OaiResponseFilterPreservicaSeven}.
+ * <p>
+ * Run with {@code mvn -Pbenchmark test -Dbenchmark=PreservicaRecord} or with {@code main}, e.g. from the IDE.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreservicaRecordBenchmark {
+    private static final SAXParserFactory factory = SAXParserFactory.newInstance();
+
+    @Param({"xml/unenriched-metadata-test1.xml", "xml/pvica_origin_tv.xml", "xml/pvica_origin_radio.xml"})
+    public String fixture;
+
+    private byte[] metadata;
+    private DsRecordMinimalDto record;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        metadata = Resolver.resolveUTF8String(fixture).getBytes(StandardCharsets.UTF_8);
+        record = new DsRecordMinimalDto();
+        record.setId("ds.tv:oai:io:0b2ad2e6-5b4e-4c5c-8a8b-8d4f8fbd2c4a");
+    }
+
+    @Benchmark
+    public PreservicaOaiRecordHandler recordHandler() throws ParserConfigurationException, SAXException, IOException {
+        SAXParser parser = factory.newSAXParser();
+        PreservicaOaiRecordHandler handler = new PreservicaOaiRecordHandler();
+        parser.parse(new ByteArrayInputStream(metadata), handler);
+        return handler;
+    }
+
+    @Benchmark
+    public String getPreservicaIoId() {
+        return PreservicaUtils.getPreservicaIoId(record);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PreservicaRecordBenchmark.class.getSimpleName()).build()).run();
+    }
+}
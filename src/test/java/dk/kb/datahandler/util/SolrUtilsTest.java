@@ -0,0 +1,27 @@
+package dk.kb.datahandler.util;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SolrUtilsTest {
+
+    @Test
+    void splitMTimeRange() {
+        assertEquals(List.of(1000L, 1250L, 1500L, 1750L), SolrUtils.splitMTimeRange(1000L, 2000L, 4));
+    }
+
+    @Test
+    void splitMTimeRange_singlePartition() {
+        assertEquals(List.of(1000L), SolrUtils.splitMTimeRange(1000L, 2000L, 1));
+    }
+
+    @Test
+    void splitMTimeRange_tooSmall() {
+        assertEquals(List.of(1000L), SolrUtils.splitMTimeRange(1000L, 1002L, 4));
+        assertEquals(List.of(1000L), SolrUtils.splitMTimeRange(1000L, 1000L, 4));
+        assertEquals(List.of(1000L), SolrUtils.splitMTimeRange(1000L, 500L, 4));
+    }
+}
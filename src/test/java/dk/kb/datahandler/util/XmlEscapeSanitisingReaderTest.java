@@ -0,0 +1,40 @@
+package dk.kb.datahandler.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+public class XmlEscapeSanitisingReaderTest {
+
+    @Test
+    void removeInvalidEscapes() throws IOException {
+        assertEquals("<a>foo bar</a>", sanitise("<a>foo&#0; bar&#x1B;</a>", 8192));
+        assertEquals("<a>&amp;&lt;&#65;&#x41;&#xE9;</a>", sanitise("<a>&amp;&lt;&#65;&#x41;&#xE9;</a>", 8192));
+        assertEquals("<a>&#;&#xZZ;&</a>", sanitise("<a>&#;&#xZZ;&</a>", 8192));
+    }
+
+    @Test
+    void escapesSplitBetweenReads() throws IOException {
+        String xml = "<a>" + "x&#0;y&#x1F;z&#xFFFF;&#233;&amp;".repeat(100) + "</a>";
+        String expected = "<a>" + "xyz&#233;&amp;".repeat(100) + "</a>";
+        for (int bufferSize = 1 ; bufferSize < 40 ; bufferSize++) {
+            assertEquals(expected, sanitise(xml, bufferSize), "Buffer size " + bufferSize);
+        }
+    }
+
+    private String sanitise(String xml, int bufferSize) throws IOException {
+        StringBuilder result = new StringBuilder();
+        try (Reader reader = new XmlEscapeSanitisingReader(new StringReader(xml), bufferSize)) {
+            char[] buffer = new char[7];
+            int read;
+            while ((read = reader.read(buffer, 0, buffer.length)) != -1) {
+                result.append(buffer, 0, read);
+            }
+        }
+        return result.toString();
+    }
+}